@@ -0,0 +1,197 @@
+package com.eei4369.markio;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.eei4369.markio.BookmarkContract.BookmarkEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Instrumented tests for BookmarkSyncStore on a database of its own: the triggers logging local
+ * writes, the applying flag that keeps pulled changes out of the log, and the checkpoints.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BookmarkSyncStoreTest {
+
+    private static final String DB = "test-sync.db";
+    private static final String OTHER_DEVICE = "other-device";
+
+    private Context context;
+    private BookmarkDbHelper helper;
+    private BookmarkRepository repository;
+    private BookmarkSyncStore store;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(DB);
+        helper = new BookmarkDbHelper(context, DB, true);
+        repository = new BookmarkRepository(context, helper);
+        store = new BookmarkSyncStore(helper, repository);
+    }
+
+    @After
+    public void tearDown() {
+        helper.close();
+        context.deleteDatabase(DB);
+    }
+
+    @Test
+    public void localSave_isLoggedWithItsSyncedColumns() {
+        long id = save(-1, "Trail map", "hiking");
+
+        List<SyncChange> changes = store.loadChanges(0, 10);
+        assertEquals(1, changes.size());
+        SyncChange change = changes.get(0);
+        assertEquals(syncId(id), change.syncId);
+        assertTrue(change.syncId, change.syncId.matches("[0-9a-f]{32}"));
+        assertEquals(1, change.version);
+        assertEquals(store.getDeviceId(), change.deviceId);
+        assertFalse(change.deleted);
+        assertEquals("Trail map", change.values.get(BookmarkEntry.COLUMN_NAME_TITLE));
+        assertEquals("hiking", change.values.get(BookmarkEntry.COLUMN_NAME_TAGS));
+        assertFalse(change.values.containsKey(BookmarkEntry.COLUMN_NAME_CONTENT_URI));
+
+        save(id, "Trail map, 2nd edition", "hiking");
+        changes = store.loadChanges(change.seq, 10);
+        assertEquals(1, changes.size());
+        assertEquals(2, changes.get(0).version);
+    }
+
+    @Test
+    public void writesToDeviceColumns_areNotLogged() {
+        long id = save(-1, "Photo", "");
+        long seq = store.loadChanges(0, 10).get(0).seq;
+
+        // As the list's MIME type lookup, PhotoCompressionJob and LinkMetadataJob write
+        ContentValues values = new ContentValues();
+        values.put(BookmarkEntry.COLUMN_NAME_MIME_TYPE, "image/jpeg");
+        values.put(BookmarkEntry.COLUMN_NAME_CONTENT_URI, "content://" + AttachmentStore.AUTHORITY + "/abc");
+        values.put(BookmarkEntry.COLUMN_NAME_ATTACHMENT_HASH, "abc");
+        values.put(BookmarkEntry.COLUMN_NAME_PAGE_TITLE, "Fetched title");
+        helper.getWritableDatabase().update(BookmarkEntry.TABLE_NAME, values,
+                BookmarkEntry._ID + " = ?", new String[]{String.valueOf(id)});
+
+        assertTrue(store.loadChanges(seq, 10).isEmpty());
+    }
+
+    @Test
+    public void pulledChanges_areAppliedButNotLogged() {
+        String syncId = BookmarkSyncStore.newSyncId();
+        int applied = store.apply(Collections.singletonList(change(syncId, 1, "Recipe", "food")), 42);
+
+        assertEquals(1, applied);
+        assertEquals(42, store.getPullCheckpoint());
+        assertTrue(store.loadChanges(0, 10).isEmpty());
+        long id = findBySyncId(syncId);
+        assertEquals("Recipe", title(id));
+        assertEquals(Collections.singletonMap("food", 1L), BookmarkTags.loadTagCounts(helper.getReadableDatabase()));
+
+        // The applying flag is cleared, so the next local edit is logged, after the pulled version
+        save(id, "Recipe, halved", "food");
+        List<SyncChange> changes = store.loadChanges(0, 10);
+        assertEquals(1, changes.size());
+        assertEquals(2, changes.get(0).version);
+        assertEquals(store.getDeviceId(), changes.get(0).deviceId);
+    }
+
+    @Test
+    public void olderPulledChange_doesNotOverwriteALocalEdit() {
+        long id = save(-1, "Original", "");
+        String syncId = syncId(id);
+        save(id, "Edited here", "");
+
+        int applied = store.apply(Collections.singletonList(change(syncId, 1, "Edited there", "")), 7);
+
+        assertEquals(0, applied);
+        assertEquals("Edited here", title(id));
+        assertEquals(7, store.getPullCheckpoint());
+    }
+
+    @Test
+    public void pulledDeletion_removesTheBookmark() {
+        long id = save(-1, "Gone soon", "");
+        String syncId = syncId(id);
+        long seq = store.loadChanges(0, 10).get(0).seq;
+
+        SyncChange deletion = new SyncChange(syncId, 2, OTHER_DEVICE, true,
+                Collections.<String, Object>emptyMap(), 1);
+        assertEquals(1, store.apply(Collections.singletonList(deletion), 1));
+
+        assertEquals(-1, findBySyncId(syncId));
+        assertTrue(store.loadChanges(seq, 10).isEmpty());
+    }
+
+    @Test
+    public void pushCheckpoint_isKept() {
+        assertEquals(0, store.getPushCheckpoint());
+        store.setPushCheckpoint(12);
+        assertEquals(12, store.getPushCheckpoint());
+    }
+
+    // Saves through the repository as the editor does and waits for the row's ID.
+    private long save(long bookmarkId, String title, String tags) {
+        ContentValues values = new ContentValues();
+        values.put(BookmarkEntry.COLUMN_NAME_TITLE, title);
+        values.put(BookmarkEntry.COLUMN_NAME_CONTENT_TYPE, "note");
+        values.put(BookmarkEntry.COLUMN_NAME_TIMESTAMP, 1_700_000_000_000L);
+        values.put(BookmarkEntry.COLUMN_NAME_TAGS, tags);
+        CompletableFuture<Long> saved = new CompletableFuture<>();
+        repository.saveBookmark(bookmarkId, values, saved::complete);
+        long id = saved.join();
+        assertTrue(id != -1);
+        return id;
+    }
+
+    private static SyncChange change(String syncId, long version, String title, String tags) {
+        Map<String, Object> values = new HashMap<>();
+        values.put(BookmarkEntry.COLUMN_NAME_TITLE, title);
+        values.put(BookmarkEntry.COLUMN_NAME_CONTENT_TYPE, "note");
+        values.put(BookmarkEntry.COLUMN_NAME_TIMESTAMP, 1_700_000_000_000L);
+        values.put(BookmarkEntry.COLUMN_NAME_TAGS, tags);
+        return new SyncChange(syncId, version, OTHER_DEVICE, false, values, 1);
+    }
+
+    private String syncId(long id) {
+        return queryString(BookmarkEntry.COLUMN_NAME_SYNC_ID, BookmarkEntry._ID, String.valueOf(id));
+    }
+
+    private String title(long id) {
+        return queryString(BookmarkEntry.COLUMN_NAME_TITLE, BookmarkEntry._ID, String.valueOf(id));
+    }
+
+    private long findBySyncId(String syncId) {
+        String id = queryString(BookmarkEntry._ID, BookmarkEntry.COLUMN_NAME_SYNC_ID, syncId);
+        return id != null ? Long.parseLong(id) : -1;
+    }
+
+    private String queryString(String column, String keyColumn, String key) {
+        SQLiteDatabase db = helper.getReadableDatabase();
+        Cursor cursor = db.query(BookmarkEntry.TABLE_NAME, new String[]{column},
+                keyColumn + " = ?", new String[]{key}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+}
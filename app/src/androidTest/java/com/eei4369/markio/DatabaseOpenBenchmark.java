@@ -0,0 +1,130 @@
+package com.eei4369.markio;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.eei4369.markio.BookmarkContract.BookmarkEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures what a screen pays to show its first bookmarks: opening the database and running the
+ * first page query. "Legacy" opens an untuned helper per screen and closes it again, as the
+ * activities used to. "Shared" keeps one tuned helper (WAL and pragmas) open across screens.
+ *
+ * Run with ./gradlew connectedAndroidTest and read the medians from logcat (tag DatabaseOpenBenchmark).
+ */
+@RunWith(AndroidJUnit4.class)
+public class DatabaseOpenBenchmark {
+
+    private static final String TAG = "DatabaseOpenBenchmark";
+    private static final String LEGACY_DB = "benchmark-legacy.db";
+    private static final String SHARED_DB = "benchmark-shared.db";
+    private static final int ROWS = 2000;
+    private static final int SCREENS = 50;
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(LEGACY_DB);
+        context.deleteDatabase(SHARED_DB);
+        seed(LEGACY_DB, false);
+        seed(SHARED_DB, true);
+    }
+
+    @After
+    public void tearDown() {
+        context.deleteDatabase(LEGACY_DB);
+        context.deleteDatabase(SHARED_DB);
+    }
+
+    @Test
+    public void openAndFirstQuery() {
+        long[] legacyOpen = new long[SCREENS];
+        long[] legacyQuery = new long[SCREENS];
+        for (int i = 0; i < SCREENS; i++) {
+            long start = System.nanoTime();
+            BookmarkDbHelper helper = new BookmarkDbHelper(context, LEGACY_DB, false);
+            SQLiteDatabase db = helper.getReadableDatabase();
+            long opened = System.nanoTime();
+            assertEquals(BookmarkPagingSource.DEFAULT_PAGE_SIZE, firstPage(db));
+            legacyOpen[i] = opened - start;
+            legacyQuery[i] = System.nanoTime() - opened;
+            helper.close();
+        }
+
+        long[] sharedOpen = new long[SCREENS];
+        long[] sharedQuery = new long[SCREENS];
+        BookmarkDbHelper shared = new BookmarkDbHelper(context, SHARED_DB, true);
+        try {
+            for (int i = 0; i < SCREENS; i++) {
+                long start = System.nanoTime();
+                SQLiteDatabase db = shared.getReadableDatabase(); // Opens only on the first screen
+                long opened = System.nanoTime();
+                assertEquals(BookmarkPagingSource.DEFAULT_PAGE_SIZE, firstPage(db));
+                sharedOpen[i] = opened - start;
+                sharedQuery[i] = System.nanoTime() - opened;
+            }
+        } finally {
+            shared.close();
+        }
+
+        report("legacy", legacyOpen, legacyQuery);
+        report("shared", sharedOpen, sharedQuery);
+    }
+
+    // Creates the schema and inserts ROWS bookmarks, closing the helper so every run starts cold.
+    private void seed(String name, boolean tuned) {
+        BookmarkDbHelper helper = new BookmarkDbHelper(context, name, tuned);
+        SQLiteDatabase db = helper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            for (int i = 0; i < ROWS; i++) {
+                values.put(BookmarkEntry.COLUMN_NAME_TITLE, "Bookmark " + i);
+                values.put(BookmarkEntry.COLUMN_NAME_NOTES, "Notes for bookmark " + i);
+                values.put(BookmarkEntry.COLUMN_NAME_CONTENT_TYPE, i % 2 == 0 ? "image" : "link");
+                values.put(BookmarkEntry.COLUMN_NAME_TIMESTAMP, 1_700_000_000_000L + i);
+                values.put(BookmarkEntry.COLUMN_NAME_TAGS, "tag" + (i % 20));
+                long id = db.insert(BookmarkEntry.TABLE_NAME, null, values);
+                BookmarkTags.replaceTags(db, id, "tag" + (i % 20));
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        helper.close();
+    }
+
+    // The query the bookmark list runs when a screen opens.
+    private static int firstPage(SQLiteDatabase db) {
+        BookmarkPagingSource source = new BookmarkPagingSource(
+                new BookmarkQuery(null, null, null), BookmarkPagingSource.DEFAULT_PAGE_SIZE);
+        return source.loadNextPage(db).size();
+    }
+
+    private static void report(String label, long[] openNanos, long[] queryNanos) {
+        Log.i(TAG, String.format("%s: first open %.2f ms, median open %.3f ms, median first query %.3f ms",
+                label, openNanos[0] / 1e6, median(openNanos) / 1e6, median(queryNanos) / 1e6));
+    }
+
+    private static double median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
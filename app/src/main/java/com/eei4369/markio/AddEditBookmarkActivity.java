@@ -3,6 +3,7 @@ package com.eei4369.markio;
 import androidx.activity.result.ActivityResultLauncher;
 import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.annotation.NonNull;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
@@ -10,26 +11,22 @@ import androidx.core.content.FileProvider;
 
 import android.Manifest;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
-import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
-import android.location.Address;
-import android.location.Geocoder;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Environment;
 import android.text.TextUtils;
+import android.text.format.Formatter;
 import android.view.View;
 import android.widget.ImageView;
+import android.widget.MultiAutoCompleteTextView;
+import android.widget.ProgressBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import com.bumptech.glide.Glide;
-import com.bumptech.glide.load.DataSource;
-import com.bumptech.glide.load.engine.GlideException;
-import com.bumptech.glide.request.RequestListener;
-import com.bumptech.glide.request.target.Target;
 import com.eei4369.markio.BookmarkContract.BookmarkEntry;
 import com.google.android.gms.location.FusedLocationProviderClient;
 import com.google.android.gms.location.LocationServices;
@@ -41,8 +38,8 @@ import java.io.File;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
 
 public class AddEditBookmarkActivity extends AppCompatActivity {
 
@@ -51,18 +48,25 @@ public class AddEditBookmarkActivity extends AppCompatActivity {
     private static final int PERMISSION_REQUEST_CODE_LOCATION = 102;
 
     // UI components
-    private TextInputEditText editTextTitle, editTextNotes, editTextLinkUrl, editTextTags;
+    private TextInputEditText editTextTitle, editTextNotes, editTextLinkUrl;
+    private MultiAutoCompleteTextView editTextTags;
     private ImageView imageViewContentPreview, imageViewLocationMapPreview;
     private TextView textViewLocation;
+    private ProgressBar progressAttachmentImport;
+    private TextView textViewSimilarImages;
 
-    // Database helper for managing bookmark data
-    private BookmarkDbHelper dbHelper;
+    // Repository that performs all bookmark reads and writes off the main thread
+    private BookmarkRepository repository;
     private long bookmarkId = -1; // -1 indicates a new bookmark, otherwise it's an existing ID
 
     // Data to be saved
     private Uri currentContentUri = null; // URI for attached image or file
+    // Copy of a file attached on this screen into AttachmentStore; null while the attachment is unchanged
+    private CompletableFuture<AttachmentStore.Attachment> pendingAttachment = null;
+    private File capturedPhotoFile = null; // Camera output, deleted once copied into the store
     private String currentGeographicLocation = ""; // Stores "latitude,longitude"
     private String currentAddress = "Location: Not selected"; // Readable street address
+    private String resolvedAddress = null; // Geocoded address to persist; null until a lookup succeeds
 
     // Google Maps API key obtained from manifest
     private String googleMapsApiKey = "";
@@ -81,7 +85,7 @@ public class AddEditBookmarkActivity extends AppCompatActivity {
         setContentView(R.layout.activity_add_edit_bookmark);
 
         // Initialize database and location clients
-        dbHelper = new BookmarkDbHelper(this);
+        repository = BookmarkRepository.getInstance(this);
         fusedLocationClient = LocationServices.getFusedLocationProviderClient(this);
 
         // Retrieve the Google Maps API key from the app's manifest file
@@ -99,11 +103,18 @@ public class AddEditBookmarkActivity extends AppCompatActivity {
         editTextTitle = findViewById(R.id.editTextTitle);
         editTextNotes = findViewById(R.id.editTextNotes);
         editTextTags = findViewById(R.id.editTextTags);
+        // Complete each comma-separated tag from the tags already in use
+        TagSuggestionAdapter tagSuggestions = new TagSuggestionAdapter(this);
+        editTextTags.setAdapter(tagSuggestions);
+        editTextTags.setTokenizer(new MultiAutoCompleteTextView.CommaTokenizer());
+        repository.loadTagIndex(tagSuggestions::setTagIndex);
         editTextLinkUrl = findViewById(R.id.editTextLinkUrl);
         imageViewContentPreview = findViewById(R.id.imageViewContentPreview);
         imageViewLocationMapPreview = findViewById(R.id.imageViewLocationMapPreview);
         textViewLocation = findViewById(R.id.textViewLocation);
         textViewLocation.setText(currentAddress);
+        progressAttachmentImport = findViewById(R.id.progressAttachmentImport);
+        textViewSimilarImages = findViewById(R.id.textViewSimilarImages);
 
         // Initialize and set up click listeners for all buttons
         MaterialButton buttonTakePhoto = findViewById(R.id.buttonTakePhoto);
@@ -153,9 +164,11 @@ public class AddEditBookmarkActivity extends AppCompatActivity {
             if (success) {
                 Toast.makeText(this, "Photo taken!", Toast.LENGTH_SHORT).show();
                 displayContentPreview(currentContentUri);
+                importAttachment(currentContentUri, capturedPhotoFile);
             } else {
                 Toast.makeText(this, "Photo cancelled or failed.", Toast.LENGTH_SHORT).show();
                 currentContentUri = null;
+                pendingAttachment = null;
                 imageViewContentPreview.setVisibility(View.GONE);
             }
         });
@@ -166,11 +179,13 @@ public class AddEditBookmarkActivity extends AppCompatActivity {
                 currentContentUri = uri;
                 Toast.makeText(this, "File selected!", Toast.LENGTH_SHORT).show();
                 displayContentPreview(currentContentUri);
-                // Persist read permissions so the app can access the file later
+                // Persist read permissions, so the original still works if copying it fails
                 getContentResolver().takePersistableUriPermission(uri, Intent.FLAG_GRANT_READ_URI_PERMISSION);
+                importAttachment(uri, null);
             } else {
                 Toast.makeText(this, "File selection cancelled or failed.", Toast.LENGTH_SHORT).show();
                 currentContentUri = null;
+                pendingAttachment = null;
                 imageViewContentPreview.setVisibility(View.GONE);
             }
         });
@@ -180,7 +195,7 @@ public class AddEditBookmarkActivity extends AppCompatActivity {
             if (result.getResultCode() == RESULT_OK && result.getData() != null) {
                 double latitude = result.getData().getDoubleExtra("latitude", 0.0);
                 double longitude = result.getData().getDoubleExtra("longitude", 0.0);
-                currentGeographicLocation = String.format(Locale.getDefault(), "%.6f,%.6f", latitude, longitude);
+                currentGeographicLocation = new GeoPoint(latitude, longitude).format();
                 geocodeLocationAndSetText(latitude, longitude);
                 displayStaticMap(currentGeographicLocation);
                 Toast.makeText(this, "Location selected from map!", Toast.LENGTH_SHORT).show();
@@ -196,57 +211,75 @@ public class AddEditBookmarkActivity extends AppCompatActivity {
      * @param id The ID of the bookmark to load.
      */
     private void loadBookmarkData(long id) {
-        SQLiteDatabase db = dbHelper.getReadableDatabase();
-        String[] projection = {
-                BookmarkEntry.COLUMN_NAME_TITLE, BookmarkEntry.COLUMN_NAME_NOTES,
-                BookmarkEntry.COLUMN_NAME_CONTENT_URI, BookmarkEntry.COLUMN_NAME_LINK_URL,
-                BookmarkEntry.COLUMN_NAME_GEOGRAPHIC_LOCATION, BookmarkEntry.COLUMN_NAME_TAGS
-        };
-        Cursor cursor = db.query(BookmarkEntry.TABLE_NAME, projection, BookmarkEntry._ID + " = ?",
-                new String[]{String.valueOf(id)}, null, null, null);
-
-        if (cursor != null && cursor.moveToFirst()) {
+        repository.loadBookmark(id, bookmark -> {
+            if (isDestroyed()) return;
+            if (bookmark == null) {
+                Toast.makeText(this, "Bookmark not found!", Toast.LENGTH_SHORT).show();
+                finish();
+                return;
+            }
             try {
                 // Populate text fields
-                editTextTitle.setText(cursor.getString(cursor.getColumnIndexOrThrow(BookmarkEntry.COLUMN_NAME_TITLE)));
-                editTextNotes.setText(cursor.getString(cursor.getColumnIndexOrThrow(BookmarkEntry.COLUMN_NAME_NOTES)));
-                editTextTags.setText(cursor.getString(cursor.getColumnIndexOrThrow(BookmarkEntry.COLUMN_NAME_TAGS)));
+                editTextTitle.setText(bookmark.getTitle());
+                editTextNotes.setText(bookmark.getNotes());
+                editTextTags.setText(bookmark.getTags());
 
-                String linkUrl = cursor.getString(cursor.getColumnIndexOrThrow(BookmarkEntry.COLUMN_NAME_LINK_URL));
+                String linkUrl = bookmark.getLinkUrl();
                 if (!TextUtils.isEmpty(linkUrl)) editTextLinkUrl.setText(linkUrl);
 
                 // Load content preview if a URI exists
-                String contentUriStr = cursor.getString(cursor.getColumnIndexOrThrow(BookmarkEntry.COLUMN_NAME_CONTENT_URI));
+                String contentUriStr = bookmark.getContentUri();
                 if (!TextUtils.isEmpty(contentUriStr)) {
                     currentContentUri = Uri.parse(contentUriStr);
                     displayContentPreview(currentContentUri);
+                    if ("image".equals(bookmark.getContentType())) {
+                        showSimilarImages(id);
+                    }
                 }
 
                 // Load location data and display the map preview
-                currentGeographicLocation = cursor.getString(cursor.getColumnIndexOrThrow(BookmarkEntry.COLUMN_NAME_GEOGRAPHIC_LOCATION));
-                if (!TextUtils.isEmpty(currentGeographicLocation) && !currentGeographicLocation.equals("0.000000,0.000000")) {
-                    String[] latLon = currentGeographicLocation.split(",");
-                    if (latLon.length == 2) {
-                        double latitude = Double.parseDouble(latLon[0]);
-                        double longitude = Double.parseDouble(latLon[1]);
-                        geocodeLocationAndSetText(latitude, longitude);
-                        displayStaticMap(currentGeographicLocation);
+                GeoPoint location = GeoPoint.parse(bookmark.getGeographicLocation());
+                if (location != null) {
+                    currentGeographicLocation = location.format();
+                    // Reuse the stored address; only geocode rows that have not been resolved yet
+                    String storedAddress = bookmark.getReadableAddress();
+                    if (!TextUtils.isEmpty(storedAddress)) {
+                        resolvedAddress = storedAddress;
+                        currentAddress = "Location: " + storedAddress;
+                        textViewLocation.setText(currentAddress);
+                    } else {
+                        geocodeLocationAndSetText(location.latitude, location.longitude);
                     }
+                    displayStaticMap(currentGeographicLocation);
                 } else {
+                    currentGeographicLocation = "";
                     currentAddress = "Location: Not selected";
                     textViewLocation.setText(currentAddress);
                     imageViewLocationMapPreview.setVisibility(View.GONE);
                 }
             } catch (Exception e) {
-                // Handle any errors during data retrieval and parsing
+                // Handle any errors during data parsing
                 Toast.makeText(this, "Error loading bookmark data.", Toast.LENGTH_LONG).show();
-            } finally {
-                cursor.close();
             }
-        } else {
-            Toast.makeText(this, "Bookmark not found!", Toast.LENGTH_SHORT).show();
-            finish();
-        }
+        });
+    }
+
+    /**
+     * Points out other bookmarks of what looks like the same picture, if there are any.
+     */
+    private void showSimilarImages(long id) {
+        repository.findSimilarImages(id, similarIds -> {
+            if (isDestroyed() || similarIds.isEmpty()) return;
+            textViewSimilarImages.setText(similarIds.size() == 1
+                    ? "Looks like 1 other bookmarked image. Tap to open it."
+                    : "Looks like " + similarIds.size() + " other bookmarked images. Tap to open the closest.");
+            textViewSimilarImages.setOnClickListener(v -> {
+                Intent intent = new Intent(AddEditBookmarkActivity.this, AddEditBookmarkActivity.class);
+                intent.putExtra("bookmark_id", similarIds.get(0)); // Pass bookmark ID for editing
+                startActivity(intent);
+            });
+            textViewSimilarImages.setVisibility(View.VISIBLE);
+        });
     }
 
     /**
@@ -273,11 +306,48 @@ public class AddEditBookmarkActivity extends AppCompatActivity {
         }
         if (photoFile != null) {
             // Get a URI for the temporary file using FileProvider
+            capturedPhotoFile = photoFile;
             currentContentUri = FileProvider.getUriForFile(this, "com.eei4369.markio.fileprovider", photoFile);
             cameraLauncher.launch(currentContentUri);
         }
     }
 
+    /**
+     * Starts copying an attached file into the app's attachment store, showing progress below the
+     * preview. Saving does not wait for it: the bookmark is written once the copy completes.
+     *
+     * @param capturedFile The camera's output file, compressed first and deleted after the copy;
+     *                     null for a picked file.
+     */
+    private void importAttachment(Uri source, File capturedFile) {
+        progressAttachmentImport.setIndeterminate(true);
+        progressAttachmentImport.setVisibility(View.VISIBLE);
+        AttachmentStore.ProgressListener progress = (done, total) -> {
+            if (total > 0 && !isDestroyed()) {
+                progressAttachmentImport.setIndeterminate(false);
+                progressAttachmentImport.setProgress((int) (done * progressAttachmentImport.getMax() / total));
+            }
+        };
+        AttachmentStore store = AttachmentStore.getInstance(this);
+        CompletableFuture<AttachmentStore.Attachment> attachment = capturedFile != null
+                ? store.importPhotoAsync(capturedFile, PhotoCompressor.fromPreferences(this), progress)
+                : store.importAsync(source, getContentResolver().getType(source), progress);
+        pendingAttachment = attachment;
+        attachment.whenCompleteAsync((stored, error) -> {
+            if (stored != null && capturedFile != null) {
+                capturedFile.delete();
+            }
+            if (isDestroyed() || pendingAttachment != attachment) return;
+            progressAttachmentImport.setVisibility(View.GONE);
+            if (error != null) {
+                Toast.makeText(this, "Could not copy the file; the bookmark will use the original.", Toast.LENGTH_LONG).show();
+            } else if (stored.savedBytes > 0) {
+                Toast.makeText(this, "Photo compressed, " + Formatter.formatShortFileSize(this, stored.savedBytes) + " saved.",
+                        Toast.LENGTH_SHORT).show();
+            }
+        }, ContextCompat.getMainExecutor(this));
+    }
+
     /**
      * Creates an empty image file in the app's private pictures directory.
      *
@@ -374,7 +444,7 @@ public class AddEditBookmarkActivity extends AppCompatActivity {
             if (location != null) {
                 double latitude = location.getLatitude();
                 double longitude = location.getLongitude();
-                currentGeographicLocation = String.format(Locale.getDefault(), "%.6f,%.6f", latitude, longitude);
+                currentGeographicLocation = new GeoPoint(latitude, longitude).format();
                 geocodeLocationAndSetText(latitude, longitude);
                 displayStaticMap(currentGeographicLocation);
             } else {
@@ -400,27 +470,33 @@ public class AddEditBookmarkActivity extends AppCompatActivity {
      * @param longitude The longitude coordinate.
      */
     private void geocodeLocationAndSetText(double latitude, double longitude) {
-        Geocoder geocoder = new Geocoder(this, Locale.getDefault());
-        String coordsString = String.format(Locale.getDefault(), "%.6f,%.6f", latitude, longitude);
+        String coordsString = new GeoPoint(latitude, longitude).format();
         currentGeographicLocation = coordsString;
+        resolvedAddress = null;
+        currentAddress = "Location: " + coordsString;
+        textViewLocation.setText(currentAddress);
 
-        try {
-            List<Address> addresses = geocoder.getFromLocation(latitude, longitude, 1);
-            if (addresses != null && !addresses.isEmpty()) {
-                Address returnedAddress = addresses.get(0);
-                StringBuilder addressBuilder = new StringBuilder();
-                for (int i = 0; i <= returnedAddress.getMaxAddressLineIndex(); i++) {
-                    addressBuilder.append(returnedAddress.getAddressLine(i)).append("\n");
+        // The lookup runs in the background; ignore the answer if the location changed meanwhile
+        GeocodingService.getInstance(this).lookup(latitude, longitude, new GeocodingService.Callback() {
+            @Override
+            public void onAddressResolved(String address) {
+                if (isDestroyed() || !coordsString.equals(currentGeographicLocation)) return;
+                resolvedAddress = address;
+                if (address.isEmpty()) {
+                    currentAddress = "Location: " + coordsString + " (No address found)";
+                } else {
+                    currentAddress = "Location: " + address;
                 }
-                String addressOnly = addressBuilder.toString().trim();
-                currentAddress = "Location: " + addressOnly;
-            } else {
-                currentAddress = "Location: " + coordsString + " (No address found)";
+                textViewLocation.setText(currentAddress);
             }
-        } catch (IOException e) {
-            currentAddress = "Location: " + coordsString + " (Network error)";
-        }
-        textViewLocation.setText(currentAddress);
+
+            @Override
+            public void onLookupFailed(IOException error) {
+                if (isDestroyed() || !coordsString.equals(currentGeographicLocation)) return;
+                currentAddress = "Location: " + coordsString + " (Network error)";
+                textViewLocation.setText(currentAddress);
+            }
+        });
     }
 
     /**
@@ -428,20 +504,16 @@ public class AddEditBookmarkActivity extends AppCompatActivity {
      */
     private void launchLocationPicker() {
         Intent intent = new Intent(this, LocationPickerActivity.class);
-        if (!TextUtils.isEmpty(currentGeographicLocation) && !currentGeographicLocation.equals("0.000000,0.000000")) {
-            try {
-                String[] latLon = currentGeographicLocation.split(",");
-                intent.putExtra("initial_latitude", Double.parseDouble(latLon[0]));
-                intent.putExtra("initial_longitude", Double.parseDouble(latLon[1]));
-            } catch (NumberFormatException ignored) {
-                // If parsing fails, the map will use a default location
-            }
-        }
+        GeoPoint location = GeoPoint.parse(currentGeographicLocation);
+        if (location != null) {
+            intent.putExtra("initial_latitude", location.latitude);
+            intent.putExtra("initial_longitude", location.longitude);
+        } // Otherwise the map uses a default location
         locationPickerLauncher.launch(intent);
     }
 
     /**
-     * Loads a static map image from the Google Maps Static API and displays it as a preview.
+     * Shows a static map image of the location as a preview, through MapPreviewCache.
      *
      * @param geoCoordinates The "latitude,longitude" string for the map marker.
      */
@@ -451,32 +523,32 @@ public class AddEditBookmarkActivity extends AppCompatActivity {
             return;
         }
 
-        String[] latLon = geoCoordinates.split(",");
-        if (latLon.length != 2) {
+        GeoPoint location = GeoPoint.parse(geoCoordinates);
+        if (location == null) {
             imageViewLocationMapPreview.setVisibility(View.GONE);
             return;
         }
 
-        String staticMapUrl = String.format(Locale.getDefault(),
-                "https://maps.googleapis.com/maps/api/staticmap?center=%s,%s&zoom=15&size=400x200&markers=color:red|label:L|%s,%s&key=%s",
-                latLon[0], latLon[1], latLon[0], latLon[1], googleMapsApiKey);
-
-        Glide.with(this).load(staticMapUrl)
-                .placeholder(android.R.drawable.ic_menu_mapmode)
-                .error(android.R.drawable.ic_delete)
-                .listener(new RequestListener<android.graphics.drawable.Drawable>() {
-                    @Override
-                    public boolean onLoadFailed(@androidx.annotation.Nullable GlideException e, Object model, Target<android.graphics.drawable.Drawable> target, boolean isFirstResource) {
-                        imageViewLocationMapPreview.setVisibility(View.GONE);
-                        Toast.makeText(AddEditBookmarkActivity.this, "Map preview not available.", Toast.LENGTH_LONG).show();
-                        return false;
-                    }
-                    @Override
-                    public boolean onResourceReady(android.graphics.drawable.Drawable resource, Object model, Target<android.graphics.drawable.Drawable> target, DataSource dataSource, boolean isFirstResource) {
-                        imageViewLocationMapPreview.setVisibility(View.VISIBLE);
-                        return false;
-                    }
-                }).into(imageViewLocationMapPreview);
+        // Served from the on-disk preview cache when possible, so it also shows offline
+        imageViewLocationMapPreview.setImageResource(android.R.drawable.ic_menu_mapmode);
+        MapPreviewCache.getInstance(this).get(location, new MapPreviewCache.Callback() {
+            @Override
+            public void onPreviewReady(File image) {
+                if (isDestroyed() || !geoCoordinates.equals(currentGeographicLocation)) return; // Location changed meanwhile
+                imageViewLocationMapPreview.setVisibility(View.VISIBLE);
+                Glide.with(AddEditBookmarkActivity.this).load(image)
+                        .placeholder(android.R.drawable.ic_menu_mapmode)
+                        .error(android.R.drawable.ic_delete)
+                        .into(imageViewLocationMapPreview);
+            }
+
+            @Override
+            public void onPreviewFailed(IOException error) {
+                if (isDestroyed() || !geoCoordinates.equals(currentGeographicLocation)) return;
+                imageViewLocationMapPreview.setVisibility(View.GONE);
+                Toast.makeText(AddEditBookmarkActivity.this, "Map preview not available.", Toast.LENGTH_LONG).show();
+            }
+        });
     }
 
     /**
@@ -496,8 +568,9 @@ public class AddEditBookmarkActivity extends AppCompatActivity {
 
         // Determine the content type based on the attached file or link
         String contentType = "note";
+        String mimeType = null;
         if (currentContentUri != null) {
-            String mimeType = getContentResolver().getType(currentContentUri);
+            mimeType = getContentResolver().getType(currentContentUri);
             if (mimeType != null) {
                 if (mimeType.startsWith("image/")) contentType = "image";
                 else if (mimeType.startsWith("video/")) contentType = "video";
@@ -513,27 +586,85 @@ public class AddEditBookmarkActivity extends AppCompatActivity {
             }
         }
 
-        SQLiteDatabase db = dbHelper.getWritableDatabase();
         ContentValues values = new ContentValues();
         values.put(BookmarkEntry.COLUMN_NAME_TITLE, title);
         values.put(BookmarkEntry.COLUMN_NAME_NOTES, notes);
         values.put(BookmarkEntry.COLUMN_NAME_CONTENT_TYPE, contentType);
         values.put(BookmarkEntry.COLUMN_NAME_CONTENT_URI, currentContentUri != null ? currentContentUri.toString() : null);
+        // Stored so the list never has to ask the content provider while binding rows
+        values.put(BookmarkEntry.COLUMN_NAME_MIME_TYPE, currentContentUri == null ? null : (mimeType != null ? mimeType : ""));
+        if (currentContentUri == null) {
+            values.putNull(BookmarkEntry.COLUMN_NAME_ATTACHMENT_HASH);
+        }
         values.put(BookmarkEntry.COLUMN_NAME_LINK_URL, linkUrl);
         values.put(BookmarkEntry.COLUMN_NAME_GEOGRAPHIC_LOCATION, currentGeographicLocation);
         values.put(BookmarkEntry.COLUMN_NAME_TIMESTAMP, System.currentTimeMillis());
         values.put(BookmarkEntry.COLUMN_NAME_TAGS, tags);
+        // Null when the lookup failed, so AddressBackfillJob retries it later
+        values.put(BookmarkEntry.COLUMN_NAME_READABLE_ADDRESS, TextUtils.isEmpty(currentGeographicLocation) ? null : resolvedAddress);
+
+        if ("link".equals(contentType)) {
+            // Same page under another bookmark? Checked through the url_hash index before writing
+            repository.findBookmarkWithLink(values.getAsString(BookmarkEntry.COLUMN_NAME_LINK_URL), bookmarkId, existingId -> {
+                if (isDestroyed()) return;
+                if (existingId == -1) {
+                    writeBookmark(values);
+                } else {
+                    confirmDuplicateLink(existingId, values);
+                }
+            });
+        } else {
+            writeBookmark(values);
+        }
+    }
 
-        if (bookmarkId == -1) {
-            // Insert a new bookmark
-            long resultId = db.insert(BookmarkEntry.TABLE_NAME, null, values);
-            if (resultId != -1) Toast.makeText(this, "Bookmark added!", Toast.LENGTH_SHORT).show();
-            else Toast.makeText(this, "Error adding bookmark.", Toast.LENGTH_SHORT).show();
+    /**
+     * Offers to open the bookmark that already links to this page, or to save a second one anyway.
+     */
+    private void confirmDuplicateLink(long existingId, ContentValues values) {
+        new AlertDialog.Builder(this)
+                .setTitle("Already bookmarked")
+                .setMessage("Another bookmark already links to this page.")
+                .setPositiveButton("Save anyway", (dialog, which) -> writeBookmark(values))
+                .setNeutralButton("Open existing", (dialog, which) -> {
+                    Intent intent = new Intent(AddEditBookmarkActivity.this, AddEditBookmarkActivity.class);
+                    intent.putExtra("bookmark_id", existingId); // Pass bookmark ID for editing
+                    startActivity(intent);
+                    finish();
+                })
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
+
+    // Hands the values to the repository and closes the screen; the outcome is shown as a toast.
+    // A newly attached file is saved as its stored copy, so the write waits for the copy to finish.
+    private void writeBookmark(ContentValues values) {
+        // Written on the repository's I/O thread, together with the normalized tag links
+        boolean isNew = bookmarkId == -1;
+        long id = bookmarkId;
+        Context appContext = getApplicationContext(); // The activity finishes before the save completes
+        Runnable save = () -> repository.saveBookmark(id, values, savedId -> {
+            boolean saved = savedId != -1;
+            if (isNew) {
+                if (saved) Toast.makeText(appContext, "Bookmark added!", Toast.LENGTH_SHORT).show();
+                else Toast.makeText(appContext, "Error adding bookmark.", Toast.LENGTH_SHORT).show();
+            } else {
+                if (saved) Toast.makeText(appContext, "Bookmark updated!", Toast.LENGTH_SHORT).show();
+                else Toast.makeText(appContext, "Error updating bookmark.", Toast.LENGTH_SHORT).show();
+            }
+        });
+        if (pendingAttachment == null) {
+            save.run();
         } else {
-            // Update an existing bookmark
-            int rowsAffected = db.update(BookmarkEntry.TABLE_NAME, values, BookmarkEntry._ID + " = ?", new String[]{String.valueOf(bookmarkId)});
-            if (rowsAffected > 0) Toast.makeText(this, "Bookmark updated!", Toast.LENGTH_SHORT).show();
-            else Toast.makeText(this, "Error updating bookmark.", Toast.LENGTH_SHORT).show();
+            pendingAttachment.whenCompleteAsync((attachment, error) -> {
+                if (attachment != null) {
+                    values.put(BookmarkEntry.COLUMN_NAME_CONTENT_URI, attachment.uri.toString());
+                    values.put(BookmarkEntry.COLUMN_NAME_ATTACHMENT_HASH, attachment.sha256);
+                } else {
+                    values.putNull(BookmarkEntry.COLUMN_NAME_ATTACHMENT_HASH); // Keeps the picked URI
+                }
+                save.run();
+            }, ContextCompat.getMainExecutor(appContext));
         }
         finish();
     }
@@ -547,25 +678,13 @@ public class AddEditBookmarkActivity extends AppCompatActivity {
             return;
         }
 
-        SQLiteDatabase db = dbHelper.getWritableDatabase();
-        int rowsDeleted = db.delete(BookmarkEntry.TABLE_NAME, BookmarkEntry._ID + " = ?", new String[]{String.valueOf(bookmarkId)});
-
-        if (rowsDeleted > 0) {
-            Toast.makeText(this, "Bookmark deleted!", Toast.LENGTH_SHORT).show();
-            finish();
-        } else {
-            Toast.makeText(this, "Error deleting bookmark.", Toast.LENGTH_SHORT).show();
-        }
-    }
-
-    /**
-     * Closes the database helper to prevent memory leaks when the activity is destroyed.
-     */
-    @Override
-    protected void onDestroy() {
-        super.onDestroy();
-        if (dbHelper != null) {
-            dbHelper.close();
-        }
+        repository.deleteBookmark(bookmarkId, deleted -> {
+            if (deleted) {
+                Toast.makeText(this, "Bookmark deleted!", Toast.LENGTH_SHORT).show();
+                finish();
+            } else {
+                Toast.makeText(this, "Error deleting bookmark.", Toast.LENGTH_SHORT).show();
+            }
+        });
     }
 }
\ No newline at end of file
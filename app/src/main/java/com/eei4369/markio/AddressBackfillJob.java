@@ -0,0 +1,137 @@
+package com.eei4369.markio;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.location.Geocoder;
+
+import com.eei4369.markio.BookmarkContract.BookmarkEntry;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Fills in the readable_address column for bookmarks saved before addresses were persisted.
+ * Rows are geocoded in small batches on a background thread. The last processed ID is kept
+ * in SharedPreferences, so a run interrupted by a network error resumes where it stopped.
+ */
+public final class AddressBackfillJob {
+
+    private static final String PREFS_NAME = "address_backfill";
+    private static final String KEY_LAST_ID = "last_id";
+    private static final int BATCH_SIZE = 50;
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private static final AtomicBoolean running = new AtomicBoolean(false);
+
+    private AddressBackfillJob() {}
+
+    /**
+     * Starts a backfill pass in the background unless one is already running.
+     *
+     * @param context Any context; only the application context is retained.
+     */
+    public static void start(Context context) {
+        if (!Geocoder.isPresent() || !running.compareAndSet(false, true)) {
+            return;
+        }
+        Context appContext = context.getApplicationContext();
+        executor.execute(() -> {
+            try {
+                run(appContext);
+            } finally {
+                running.set(false);
+            }
+        });
+    }
+
+    // Processes batches until no unresolved rows remain or the geocoder becomes unreachable.
+    private static void run(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        long lastId = prefs.getLong(KEY_LAST_ID, 0);
+        GeocodingService geocodingService = GeocodingService.getInstance(context);
+        SQLiteDatabase db = BookmarkDbHelper.getInstance(context).getWritableDatabase();
+        BookmarkInvalidationTracker invalidationTracker = BookmarkInvalidationTracker.getInstance(context);
+        while (true) {
+            List<Long> ids = new ArrayList<>();
+            List<GeoPoint> locations = new ArrayList<>();
+            loadBatch(db, lastId, ids, locations);
+            if (ids.isEmpty()) {
+                // Pass complete; the next pass rechecks from the start for rows saved while offline
+                prefs.edit().putLong(KEY_LAST_ID, 0).apply();
+                return;
+            }
+
+            // Geocode the whole batch before opening a transaction, so no lock is held over the network
+            List<String> addresses = new ArrayList<>();
+            boolean interrupted = false;
+            for (GeoPoint location : locations) {
+                try {
+                    addresses.add(lookupAddress(geocodingService, location));
+                } catch (IOException e) {
+                    interrupted = true; // Network unavailable; save progress and try again later
+                    break;
+                }
+            }
+
+            db.beginTransaction();
+            try {
+                ContentValues values = new ContentValues();
+                for (int i = 0; i < addresses.size(); i++) {
+                    values.put(BookmarkEntry.COLUMN_NAME_READABLE_ADDRESS, addresses.get(i));
+                    db.update(BookmarkEntry.TABLE_NAME, values, BookmarkEntry._ID + " = ?",
+                            new String[]{String.valueOf(ids.get(i))});
+                    lastId = ids.get(i);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            prefs.edit().putLong(KEY_LAST_ID, lastId).apply();
+            // Lets visible lists show the new addresses in place
+            invalidationTracker.publish(new BookmarkChange(BookmarkChange.Type.UPDATE,
+                    new HashSet<>(ids.subList(0, addresses.size()))));
+
+            if (interrupted) {
+                return;
+            }
+        }
+    }
+
+    // Reads the next batch of located bookmarks that have no stored address yet.
+    private static void loadBatch(SQLiteDatabase db, long afterId, List<Long> ids, List<GeoPoint> locations) {
+        String selection = BookmarkEntry.COLUMN_NAME_READABLE_ADDRESS + " IS NULL AND " +
+                BookmarkEntry.COLUMN_NAME_LATITUDE + " IS NOT NULL AND " +
+                BookmarkEntry._ID + " > ?";
+        Cursor cursor = db.query(BookmarkEntry.TABLE_NAME,
+                new String[]{BookmarkEntry._ID, BookmarkEntry.COLUMN_NAME_LATITUDE, BookmarkEntry.COLUMN_NAME_LONGITUDE},
+                selection, new String[]{String.valueOf(afterId)},
+                null, null, BookmarkEntry._ID + " ASC", String.valueOf(BATCH_SIZE));
+        try {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+                locations.add(new GeoPoint(cursor.getDouble(1), cursor.getDouble(2)));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Resolves a location through the shared geocoding service.
+     *
+     * @return The address, or an empty string when the location has no known address
+     *         (stored as-is so the row is not retried).
+     * @throws IOException if the geocoding service cannot be reached.
+     */
+    private static String lookupAddress(GeocodingService geocodingService, GeoPoint location) throws IOException {
+        return geocodingService.lookupBlocking(location.latitude, location.longitude);
+    }
+}
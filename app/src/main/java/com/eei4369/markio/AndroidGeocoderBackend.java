@@ -0,0 +1,34 @@
+package com.eei4369.markio;
+
+import android.content.Context;
+import android.location.Address;
+import android.location.Geocoder;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+
+// GeocoderBackend backed by the platform Geocoder.
+public class AndroidGeocoderBackend implements GeocoderBackend {
+
+    private final Geocoder geocoder;
+
+    public AndroidGeocoderBackend(Context context) {
+        this.geocoder = new Geocoder(context.getApplicationContext(), Locale.getDefault());
+    }
+
+    @Override
+    public String reverseGeocode(double latitude, double longitude) throws IOException {
+        List<Address> results = geocoder.getFromLocation(latitude, longitude, 1);
+        if (results == null || results.isEmpty()) {
+            return "";
+        }
+        Address address = results.get(0);
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i <= address.getMaxAddressLineIndex(); i++) {
+            if (builder.length() > 0) builder.append(", ");
+            builder.append(address.getAddressLine(i));
+        }
+        return builder.toString().trim();
+    }
+}
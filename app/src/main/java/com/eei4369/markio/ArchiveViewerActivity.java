@@ -0,0 +1,51 @@
+package com.eei4369.markio;
+
+import android.os.Bundle;
+import android.webkit.WebSettings;
+import android.webkit.WebView;
+import android.widget.Toast;
+
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.content.ContextCompat;
+
+/**
+ * Shows a bookmark's offline snapshot from PageArchive. The view loads nothing but the snapshot:
+ * scripts, file access and network loads are all off.
+ */
+public class ArchiveViewerActivity extends AppCompatActivity {
+
+    public static final String EXTRA_BOOKMARK_ID = "bookmark_id";
+    public static final String EXTRA_LINK_URL = "link_url"; // Base URL, so the snapshot's links resolve as on the page
+
+    private WebView webView;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        webView = new WebView(this);
+        WebSettings settings = webView.getSettings();
+        settings.setJavaScriptEnabled(false);
+        settings.setBlockNetworkLoads(true);
+        settings.setAllowFileAccess(false);
+        settings.setAllowContentAccess(false);
+        setContentView(webView);
+
+        long bookmarkId = getIntent().getLongExtra(EXTRA_BOOKMARK_ID, -1);
+        String linkUrl = getIntent().getStringExtra(EXTRA_LINK_URL);
+        PageArchive.getInstance(this).openAsync(bookmarkId).whenCompleteAsync((html, error) -> {
+            if (isDestroyed()) return;
+            if (error != null) {
+                Toast.makeText(this, "Could not open the saved page.", Toast.LENGTH_LONG).show();
+                finish();
+                return;
+            }
+            webView.loadDataWithBaseURL(linkUrl, html, "text/html", "utf-8", null);
+        }, ContextCompat.getMainExecutor(this));
+    }
+
+    @Override
+    protected void onDestroy() {
+        webView.destroy();
+        super.onDestroy();
+    }
+}
@@ -0,0 +1,199 @@
+package com.eei4369.markio;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.webkit.MimeTypeMap;
+
+import androidx.core.content.ContextCompat;
+import androidx.core.content.FileProvider;
+
+import com.eei4369.markio.BookmarkContract.AttachmentEntry;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * App-private copies of attached files, so a bookmark keeps working after the original is moved,
+ * deleted or its provider revokes access.
+ *
+ * Files are stored once per distinct content (see ContentAddressedFiles) and shared through the
+ * app's FileProvider. The attachments table counts the bookmarks using each file; its triggers
+ * update the counts with every bookmark write, and collectGarbage() deletes the files that are
+ * no longer used. A file imported for a bookmark that was never saved is collected too, after a
+ * grace period that covers the save still being on its way.
+ */
+public class AttachmentStore {
+
+    public static final String AUTHORITY = "com.eei4369.markio.fileprovider";
+    private static final String DIRECTORY = "attachments"; // Shared as "attachments" in file_paths.xml
+    private static final long UNUSED_GRACE_MS = 60 * 60 * 1000L;
+
+    private static AttachmentStore instance;
+
+    // Receives progress on the main thread: bytes hashed and copied so far, of totalBytes (-1 if unknown).
+    public interface ProgressListener {
+        void onProgress(long doneBytes, long totalBytes);
+    }
+
+    // An imported file.
+    public static final class Attachment {
+        public final String sha256;
+        public final Uri uri; // content:// URI through the app's FileProvider
+        public final long size;
+        public final boolean deduplicated; // True if the same content was stored already
+        public final long savedBytes; // Bytes a photo lost to compression before it was stored, else 0
+
+        Attachment(String sha256, Uri uri, long size, boolean deduplicated, long savedBytes) {
+            this.sha256 = sha256;
+            this.uri = uri;
+            this.size = size;
+            this.deduplicated = deduplicated;
+            this.savedBytes = savedBytes;
+        }
+    }
+
+    private final Context appContext;
+    private final File directory;
+    private final ContentAddressedFiles files;
+    private final BookmarkDbHelper dbHelper;
+    private final ExecutorService ioExecutor = Executors.newFixedThreadPool(2);
+    private final Executor mainExecutor;
+
+    private AttachmentStore(Context context) {
+        this.appContext = context.getApplicationContext();
+        this.directory = new File(appContext.getFilesDir(), DIRECTORY);
+        this.files = new ContentAddressedFiles(directory);
+        this.dbHelper = BookmarkDbHelper.getInstance(appContext);
+        this.mainExecutor = ContextCompat.getMainExecutor(appContext);
+    }
+
+    public static synchronized AttachmentStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new AttachmentStore(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Copies a picked or captured file into the store in the background.
+     *
+     * @param mimeType The file's type, used for the stored name's extension; may be null.
+     * @param listener Receives progress on the main thread, or null.
+     * @return Completes with the attachment, or exceptionally with the IOException.
+     */
+    public CompletableFuture<Attachment> importAsync(Uri source, String mimeType, ProgressListener listener) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return importBlocking(source, mimeType, listener);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, ioExecutor);
+    }
+
+    /**
+     * Compresses a camera photo (see PhotoCompressor) and stores the smaller copy, in the background.
+     * The photo itself is left in place; the caller deletes it once the attachment is in use.
+     *
+     * @param listener Receives progress of the copy on the main thread, or null.
+     * @return Completes with the attachment, or exceptionally with the IOException.
+     */
+    public CompletableFuture<Attachment> importPhotoAsync(File photo, PhotoCompressor compressor, ProgressListener listener) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return importPhotoBlocking(photo, compressor, listener);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, ioExecutor);
+    }
+
+    /**
+     * Compresses and stores a photo on the calling thread, which must not be the main thread.
+     */
+    public Attachment importPhotoBlocking(File photo, PhotoCompressor compressor, ProgressListener listener) throws IOException {
+        PhotoCompressor.Result compressed = compressor.compress(photo);
+        try {
+            Attachment stored = importBlocking(Uri.fromFile(compressed.file), "image/jpeg", listener);
+            return new Attachment(stored.sha256, stored.uri, stored.size, stored.deduplicated, compressed.savedBytes());
+        } finally {
+            if (!compressed.file.equals(photo)) {
+                compressed.file.delete(); // The store holds its own copy
+            }
+        }
+    }
+
+    /**
+     * Copies a file into the store on the calling thread, which must not be the main thread.
+     */
+    public Attachment importBlocking(Uri source, String mimeType, ProgressListener listener) throws IOException {
+        String extension = mimeType != null ? MimeTypeMap.getSingleton().getExtensionFromMimeType(mimeType) : null;
+        ContentAddressedFiles.ProgressListener progress = listener == null ? null
+                : (done, total) -> mainExecutor.execute(() -> listener.onProgress(done, total));
+
+        ContentAddressedFiles.Stored stored;
+        ParcelFileDescriptor descriptor = appContext.getContentResolver().openFileDescriptor(source, "r");
+        if (descriptor == null) {
+            throw new FileNotFoundException("Cannot open " + source);
+        }
+        // A provider serving a regular file hands over its descriptor, so the copy can map it
+        try (ParcelFileDescriptor closing = descriptor;
+             FileInputStream in = new FileInputStream(closing.getFileDescriptor())) {
+            stored = files.store(in.getChannel(), extension, progress);
+        }
+        register(stored);
+        Uri uri = FileProvider.getUriForFile(appContext, AUTHORITY, stored.file);
+        return new Attachment(stored.sha256, uri, stored.size, stored.deduplicated, 0);
+    }
+
+    // Records the file with its references unchanged, and restarts its grace period.
+    private void register(ContentAddressedFiles.Stored stored) {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        String relative = directory.toURI().relativize(stored.file.toURI()).getPath();
+        ContentValues values = new ContentValues();
+        values.put(AttachmentEntry.COLUMN_NAME_IMPORTED_AT, System.currentTimeMillis());
+        if (db.update(AttachmentEntry.TABLE_NAME, values, AttachmentEntry.COLUMN_NAME_SHA256 + " = ?",
+                new String[]{stored.sha256}) == 0) {
+            values.put(AttachmentEntry.COLUMN_NAME_SHA256, stored.sha256);
+            values.put(AttachmentEntry.COLUMN_NAME_FILE_NAME, relative);
+            values.put(AttachmentEntry.COLUMN_NAME_SIZE, stored.size);
+            db.insertWithOnConflict(AttachmentEntry.TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+        }
+    }
+
+    /**
+     * Deletes, in the background, the stored files no bookmark uses any more.
+     */
+    public void collectGarbage() {
+        ioExecutor.execute(() -> {
+            SQLiteDatabase db = dbHelper.getWritableDatabase();
+            String unused = AttachmentEntry.COLUMN_NAME_REF_COUNT + " <= 0 AND " + AttachmentEntry.COLUMN_NAME_IMPORTED_AT + " < ?";
+            String[] args = {String.valueOf(System.currentTimeMillis() - UNUSED_GRACE_MS)};
+            Cursor cursor = db.query(AttachmentEntry.TABLE_NAME,
+                    new String[]{AttachmentEntry.COLUMN_NAME_SHA256, AttachmentEntry.COLUMN_NAME_FILE_NAME},
+                    unused, args, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    // Delete the row first, rechecking it is unused: a save may have claimed it meanwhile
+                    if (db.delete(AttachmentEntry.TABLE_NAME, AttachmentEntry.COLUMN_NAME_SHA256 + " = ? AND " + unused,
+                            new String[]{cursor.getString(0), args[0]}) > 0) {
+                        new File(directory, cursor.getString(1)).delete();
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        });
+    }
+}
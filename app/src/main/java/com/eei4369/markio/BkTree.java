@@ -0,0 +1,116 @@
+package com.eei4369.markio;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Burkhard-Keller tree of 64-bit image hashes, for finding every hash within a Hamming distance
+ * of a query without comparing it against all of them.
+ *
+ * Each child hangs off its parent at their exact distance d. By the triangle inequality a match
+ * within r of the query can only sit under children whose d lies within r of the query's own
+ * distance to the parent, so most subtrees are skipped. Identical hashes share a node.
+ * Not thread-safe; build it once and then only query it, or guard it externally.
+ */
+public class BkTree {
+
+    // A match: the item's ID and its distance from the query.
+    public static final class Match {
+        public final long id;
+        public final int distance;
+
+        Match(long id, int distance) {
+            this.id = id;
+            this.distance = distance;
+        }
+    }
+
+    private static final class Node {
+        final long hash;
+        final List<Long> ids = new ArrayList<>(1);
+        // Children and their distances from this node; grown as needed, most nodes have few
+        byte[] childDistances = new byte[0];
+        Node[] children = new Node[0];
+
+        Node(long hash) {
+            this.hash = hash;
+        }
+
+        Node child(int distance) {
+            for (int i = 0; i < childDistances.length; i++) {
+                if (childDistances[i] == distance) return children[i];
+            }
+            return null;
+        }
+
+        void addChild(int distance, Node child) {
+            int count = children.length;
+            childDistances = Arrays.copyOf(childDistances, count + 1);
+            children = Arrays.copyOf(children, count + 1);
+            childDistances[count] = (byte) distance;
+            children[count] = child;
+        }
+    }
+
+    private Node root;
+    private int size;
+
+    public void add(long hash, long id) {
+        size++;
+        if (root == null) {
+            root = new Node(hash);
+            root.ids.add(id);
+            return;
+        }
+        Node node = root;
+        while (true) {
+            int distance = ImageHash.distance(hash, node.hash);
+            if (distance == 0) {
+                node.ids.add(id);
+                return;
+            }
+            Node child = node.child(distance);
+            if (child == null) {
+                child = new Node(hash);
+                child.ids.add(id);
+                node.addChild(distance, child);
+                return;
+            }
+            node = child;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns every item within maxDistance of hash, closest first.
+     */
+    public List<Match> search(long hash, int maxDistance) {
+        List<Match> matches = new ArrayList<>();
+        if (root == null) {
+            return matches;
+        }
+        List<Node> pending = new ArrayList<>();
+        pending.add(root);
+        while (!pending.isEmpty()) {
+            Node node = pending.remove(pending.size() - 1);
+            int distance = ImageHash.distance(hash, node.hash);
+            if (distance <= maxDistance) {
+                for (Long id : node.ids) {
+                    matches.add(new Match(id, distance));
+                }
+            }
+            for (int i = 0; i < node.children.length; i++) {
+                if (Math.abs(node.childDistances[i] - distance) <= maxDistance) {
+                    pending.add(node.children[i]);
+                }
+            }
+        }
+        Collections.sort(matches, (a, b) -> Integer.compare(a.distance, b.distance));
+        return matches;
+    }
+}
@@ -12,6 +12,20 @@ public class Bookmark {
     private String readableAddress; // Human-readable location like "Street, City"
     private long timestamp; // When created/last updated
     private String tags; // Comma-separated tags
+    private String searchSnippet; // Highlighted excerpt of the best matching column, set only for search results
+    private double searchRank; // Full-text relevance score, set only for search results
+    private double distanceMeters = -1; // Distance from the nearby search center, -1 outside nearby lists
+    private String mimeType; // MIME type of the attached content, "" if unknown, null if not resolved yet
+    private String pageTitle; // Title of the linked page, null until LinkMetadataJob fetched it
+    private String linkImageUrl; // Preview image of the linked page, else its icon; null if neither is known
+
+    // Display fields, precomputed off the UI thread by BookmarkDisplay so binding a row does no formatting
+    private String formattedTimestamp;
+    private String formattedTags;
+    private String formattedLocation; // Address and distance for the location line; null hides the line
+    private String formattedLink; // Link line of link bookmarks; null for other kinds
+    private int thumbnailKind;
+    private long contentVersion; // Modification time of the attachment, 0 if unknown; part of the thumbnail cache key
 
     // Constructor for new bookmarks
     public Bookmark(String title, String notes, String contentType, String contentUri, String linkUrl, String geographicLocation, String readableAddress, long timestamp, String tags) {
@@ -51,6 +65,18 @@ public class Bookmark {
     public String getReadableAddress() { return readableAddress; }
     public long getTimestamp() { return timestamp; }
     public String getTags() { return tags; }
+    public String getSearchSnippet() { return searchSnippet; }
+    public double getSearchRank() { return searchRank; }
+    public double getDistanceMeters() { return distanceMeters; }
+    public String getMimeType() { return mimeType; }
+    public String getPageTitle() { return pageTitle; }
+    public String getLinkImageUrl() { return linkImageUrl; }
+    public String getFormattedTimestamp() { return formattedTimestamp; }
+    public String getFormattedTags() { return formattedTags; }
+    public String getFormattedLocation() { return formattedLocation; }
+    public String getFormattedLink() { return formattedLink; }
+    public int getThumbnailKind() { return thumbnailKind; }
+    public long getContentVersion() { return contentVersion; }
 
     // --- Setters ---
     public void setId(long id) { this.id = id; }
@@ -63,4 +89,16 @@ public class Bookmark {
     public void setReadableAddress(String readableAddress) { this.readableAddress = readableAddress; }
     public void setTimestamp(long timestamp) { this.timestamp = timestamp; }
     public void setTags(String tags) { this.tags = tags; }
+    public void setSearchSnippet(String searchSnippet) { this.searchSnippet = searchSnippet; }
+    public void setSearchRank(double searchRank) { this.searchRank = searchRank; }
+    public void setDistanceMeters(double distanceMeters) { this.distanceMeters = distanceMeters; }
+    public void setMimeType(String mimeType) { this.mimeType = mimeType; }
+    public void setPageTitle(String pageTitle) { this.pageTitle = pageTitle; }
+    public void setLinkImageUrl(String linkImageUrl) { this.linkImageUrl = linkImageUrl; }
+    public void setFormattedTimestamp(String formattedTimestamp) { this.formattedTimestamp = formattedTimestamp; }
+    public void setFormattedTags(String formattedTags) { this.formattedTags = formattedTags; }
+    public void setFormattedLocation(String formattedLocation) { this.formattedLocation = formattedLocation; }
+    public void setFormattedLink(String formattedLink) { this.formattedLink = formattedLink; }
+    public void setThumbnailKind(int thumbnailKind) { this.thumbnailKind = thumbnailKind; }
+    public void setContentVersion(long contentVersion) { this.contentVersion = contentVersion; }
 }
\ No newline at end of file
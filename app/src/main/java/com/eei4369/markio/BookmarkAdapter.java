@@ -1,7 +1,10 @@
 package com.eei4369.markio;
 
 import android.content.Context;
-import android.net.Uri;
+import android.graphics.Typeface;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.style.StyleSpan;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -9,20 +12,37 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.core.content.ContextCompat;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.bumptech.glide.Glide;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Locale;
+import java.util.Objects;
 
 public class BookmarkAdapter extends RecyclerView.Adapter<BookmarkAdapter.BookmarkViewHolder> {
 
+    // Partial-bind payloads: which parts of a row changed between two versions of a bookmark
+    private static final int PAYLOAD_TEXT = 1;       // Title, notes or search snippet
+    private static final int PAYLOAD_TIMESTAMP = 1 << 1;
+    private static final int PAYLOAD_CONTENT = 1 << 2; // Content type, URI or link (the thumbnail)
+    private static final int PAYLOAD_LOCATION = 1 << 3;
+    private static final int PAYLOAD_TAGS = 1 << 4;
+
     private Context context;
-    private List<Bookmark> bookmarkList;
     private OnBookmarkClickListener listener;
+    // Thumbnail background colors, resolved once instead of on every bind
+    private final int transparentColor;
+    private final int blackColor;
+    private final ThumbnailLoader thumbnailLoader;
+    // Diffs each new list against the displayed one on a background thread
+    private final AsyncListDiffer<Bookmark> differ = new AsyncListDiffer<>(this, DIFF_CALLBACK);
+    // The most recently submitted list; edits build on it even while an earlier diff is still running
+    private List<Bookmark> latestList = Collections.emptyList();
 
     // Interface to handle clicks on bookmark items
     public interface OnBookmarkClickListener {
@@ -33,8 +53,58 @@ public class BookmarkAdapter extends RecyclerView.Adapter<BookmarkAdapter.Bookma
     // Constructor to set up the adapter
     public BookmarkAdapter(Context context, List<Bookmark> bookmarkList, OnBookmarkClickListener listener) {
         this.context = context;
-        this.bookmarkList = bookmarkList;
         this.listener = listener;
+        this.transparentColor = ContextCompat.getColor(context, android.R.color.transparent);
+        this.blackColor = ContextCompat.getColor(context, android.R.color.black);
+        this.thumbnailLoader = ThumbnailLoader.getInstance(context);
+        setHasStableIds(true); // Bookmark IDs, so RecyclerView can match rows across updates
+        setBookmarkList(bookmarkList);
+    }
+
+    // Rows are the same item when they have the same ID; a payload names the parts that differ.
+    private static final DiffUtil.ItemCallback<Bookmark> DIFF_CALLBACK = new DiffUtil.ItemCallback<Bookmark>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull Bookmark oldItem, @NonNull Bookmark newItem) {
+            return oldItem.getId() == newItem.getId();
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull Bookmark oldItem, @NonNull Bookmark newItem) {
+            return changedParts(oldItem, newItem) == 0;
+        }
+
+        @Override
+        public Object getChangePayload(@NonNull Bookmark oldItem, @NonNull Bookmark newItem) {
+            return changedParts(oldItem, newItem);
+        }
+    };
+
+    private static int changedParts(Bookmark oldItem, Bookmark newItem) {
+        int parts = 0;
+        if (!Objects.equals(oldItem.getTitle(), newItem.getTitle())
+                || !Objects.equals(oldItem.getNotes(), newItem.getNotes())
+                || !Objects.equals(oldItem.getSearchSnippet(), newItem.getSearchSnippet())) {
+            parts |= PAYLOAD_TEXT;
+        }
+        if (oldItem.getTimestamp() != newItem.getTimestamp()) {
+            parts |= PAYLOAD_TIMESTAMP;
+        }
+        if (!Objects.equals(oldItem.getContentType(), newItem.getContentType())
+                || !Objects.equals(oldItem.getContentUri(), newItem.getContentUri())
+                || !Objects.equals(oldItem.getLinkUrl(), newItem.getLinkUrl())
+                || !Objects.equals(oldItem.getMimeType(), newItem.getMimeType())
+                || !Objects.equals(oldItem.getPageTitle(), newItem.getPageTitle())
+                || !Objects.equals(oldItem.getLinkImageUrl(), newItem.getLinkImageUrl())
+                || oldItem.getContentVersion() != newItem.getContentVersion()) {
+            parts |= PAYLOAD_CONTENT;
+        }
+        if (!Objects.equals(oldItem.getFormattedLocation(), newItem.getFormattedLocation())) {
+            parts |= PAYLOAD_LOCATION;
+        }
+        if (!Objects.equals(oldItem.getTags(), newItem.getTags())) {
+            parts |= PAYLOAD_TAGS;
+        }
+        return parts;
     }
 
     // Creates new view holders when needed (eg -- for new items appearing on screen)
@@ -43,118 +113,240 @@ public class BookmarkAdapter extends RecyclerView.Adapter<BookmarkAdapter.Bookma
     public BookmarkViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
         // Inflate the layout for a single bookmark item
         View view = LayoutInflater.from(context).inflate(R.layout.bookmark_item, parent, false);
-        return new BookmarkViewHolder(view);
+        BookmarkViewHolder holder = new BookmarkViewHolder(view);
+
+        // Click listeners look the bookmark up at click time, so partial binds never leave them stale
+        view.setOnClickListener(v -> {
+            Bookmark bookmark = bookmarkAt(holder);
+            if (bookmark != null && listener != null) {
+                listener.onBookmarkClick(
+                        bookmark.getId(),
+                        bookmark.getContentType(),
+                        bookmark.getContentUri(),
+                        bookmark.getLinkUrl()
+                );
+            }
+        });
+
+        // Set up long click listener for editing
+        view.setOnLongClickListener(v -> {
+            Bookmark bookmark = bookmarkAt(holder);
+            if (bookmark != null && listener != null) {
+                listener.onBookmarkLongClick(bookmark.getId());
+                return true; // Consume the long click event
+            }
+            return false;
+        });
+        return holder;
+    }
+
+    private Bookmark bookmarkAt(BookmarkViewHolder holder) {
+        int position = holder.getBindingAdapterPosition();
+        return position == RecyclerView.NO_POSITION ? null : differ.getCurrentList().get(position);
     }
 
     // Binds data from a Bookmark object to a view holder at a given position
     @Override
     public void onBindViewHolder(@NonNull BookmarkViewHolder holder, int position) {
-        Bookmark currentBookmark = bookmarkList.get(position);
+        bind(holder, differ.getCurrentList().get(position), ~0);
+    }
 
-        holder.titleTextView.setText(currentBookmark.getTitle());
-        holder.notesTextView.setText(currentBookmark.getNotes());
+    // Rebinds only the parts named by the diff payloads, e.g. a tag edit leaves the thumbnail alone
+    @Override
+    public void onBindViewHolder(@NonNull BookmarkViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (payloads.isEmpty()) {
+            onBindViewHolder(holder, position);
+            return;
+        }
+        int parts = 0;
+        for (Object payload : payloads) {
+            parts |= (Integer) payload;
+        }
+        bind(holder, differ.getCurrentList().get(position), parts);
+    }
 
-        // Format and display the timestamp
-        SimpleDateFormat sdf = new SimpleDateFormat("MMM dd, yyyy HH:mm", Locale.getDefault());
-        String formattedDate = sdf.format(new Date(currentBookmark.getTimestamp()));
-        holder.timestampTextView.setText("Saved: " + formattedDate);
+    private void bind(BookmarkViewHolder holder, Bookmark currentBookmark, int parts) {
+        if ((parts & PAYLOAD_TEXT) != 0) {
+            holder.titleTextView.setText(currentBookmark.getTitle());
+            // Search results show the matching excerpt with the hit terms in bold instead of the plain notes
+            String snippet = currentBookmark.getSearchSnippet();
+            if (snippet != null && !snippet.isEmpty()) {
+                holder.notesTextView.setText(highlightSnippet(snippet));
+            } else {
+                holder.notesTextView.setText(currentBookmark.getNotes());
+            }
+        }
 
-        // Handle content preview (image, video, link icon) and link text visibility
-        String contentType = currentBookmark.getContentType();
-        String contentUriStr = currentBookmark.getContentUri();
-        String linkUrl = currentBookmark.getLinkUrl();
+        if ((parts & PAYLOAD_TIMESTAMP) != 0) {
+            holder.timestampTextView.setText(currentBookmark.getFormattedTimestamp()); // Formatted when loaded
+        }
 
-        if ("link".equals(contentType) && linkUrl != null && !linkUrl.isEmpty()) {
-            holder.linkTextView.setText(linkUrl);
-            holder.linkTextView.setVisibility(View.VISIBLE);
-            holder.thumbnailImageView.setImageResource(R.drawable.ic_link); // Set link icon
-            holder.thumbnailImageView.setScaleType(ImageView.ScaleType.CENTER_INSIDE);
-            holder.thumbnailImageView.setBackgroundColor(context.getResources().getColor(android.R.color.transparent));
-        } else if (contentUriStr != null && !contentUriStr.isEmpty()) {
-            Uri contentUri = Uri.parse(contentUriStr);
-            String mimeType = context.getContentResolver().getType(contentUri);
-
-            holder.linkTextView.setVisibility(View.GONE); // Hide link text if it's a file
-
-            if (mimeType != null && mimeType.startsWith("image/")) {
-                Glide.with(context).load(contentUri)
-                        .placeholder(android.R.drawable.ic_menu_gallery)
-                        .error(android.R.drawable.ic_menu_report_image)
-                        .centerCrop()
-                        .into(holder.thumbnailImageView);
-                holder.thumbnailImageView.setScaleType(ImageView.ScaleType.CENTER_CROP);
-                holder.thumbnailImageView.setBackgroundColor(context.getResources().getColor(android.R.color.transparent));
-            } else if (mimeType != null && mimeType.startsWith("video/")) {
-                holder.thumbnailImageView.setImageResource(android.R.drawable.ic_media_play);
-                holder.thumbnailImageView.setScaleType(ImageView.ScaleType.CENTER_INSIDE);
-                holder.thumbnailImageView.setBackgroundColor(context.getResources().getColor(android.R.color.black));
-            } else if (mimeType != null && mimeType.startsWith("audio/")) {
-                holder.thumbnailImageView.setImageResource(android.R.drawable.ic_lock_silent_mode_off);
-                holder.thumbnailImageView.setScaleType(ImageView.ScaleType.CENTER_INSIDE);
-                holder.thumbnailImageView.setBackgroundColor(context.getResources().getColor(android.R.color.black));
-            } else { // Generic file (document)
-                holder.thumbnailImageView.setImageResource(R.drawable.ic_document); // Set document icon
-                holder.thumbnailImageView.setScaleType(ImageView.ScaleType.CENTER_INSIDE);
-                holder.thumbnailImageView.setBackgroundColor(context.getResources().getColor(android.R.color.black));
+        if ((parts & PAYLOAD_CONTENT) != 0) {
+            bindContent(holder, currentBookmark);
+        }
+
+        if ((parts & PAYLOAD_LOCATION) != 0) {
+            // Address and distance, formatted when loaded
+            String formattedLocation = currentBookmark.getFormattedLocation();
+            if (formattedLocation != null) {
+                holder.locationTextView.setText(formattedLocation);
+                holder.locationTextView.setVisibility(View.VISIBLE);
+            } else {
+                holder.locationTextView.setVisibility(View.GONE);
+            }
+        }
+
+        if ((parts & PAYLOAD_TAGS) != 0) {
+            // Display Tags
+            String formattedTags = currentBookmark.getFormattedTags();
+            if (formattedTags != null) {
+                holder.tagsTextView.setText(formattedTags);
+                holder.tagsTextView.setVisibility(View.VISIBLE);
+            } else {
+                holder.tagsTextView.setVisibility(View.GONE);
             }
-        } else { // No content URI or link (just notes/text bookmark)
-            holder.linkTextView.setVisibility(View.GONE);
-            holder.thumbnailImageView.setImageResource(android.R.drawable.ic_menu_agenda); // Default notes icon
-            holder.thumbnailImageView.setScaleType(ImageView.ScaleType.CENTER_INSIDE);
-            holder.thumbnailImageView.setBackgroundColor(context.getResources().getColor(android.R.color.transparent));
-        }
-
-        // Handle Geographic Location display
-        String readableAddress = currentBookmark.getReadableAddress();
-        if (readableAddress != null && !readableAddress.isEmpty() && !readableAddress.equals("Location: Not selected") && !readableAddress.contains("0.000000,0.000000")) {
-            holder.locationTextView.setText(readableAddress);
-            holder.locationTextView.setVisibility(View.VISIBLE);
-        } else {
-            holder.locationTextView.setVisibility(View.GONE);
         }
+    }
 
-        // Display Tags
-        String tags = currentBookmark.getTags();
-        if (tags != null && !tags.trim().isEmpty()) {
-            String formattedTags = "#" + tags.trim().replace(",", " #"); // Add # prefix to each tag
-            holder.tagsTextView.setText(formattedTags);
-            holder.tagsTextView.setVisibility(View.VISIBLE);
+    // Handle content preview (image, video, link icon) and link text visibility.
+    // The thumbnail kind comes from the stored MIME type, so no content provider is queried here.
+    private void bindContent(BookmarkViewHolder holder, Bookmark currentBookmark) {
+        int kind = currentBookmark.getThumbnailKind();
+        if (kind == BookmarkDisplay.THUMBNAIL_LINK) {
+            holder.linkTextView.setText(currentBookmark.getFormattedLink());
+            holder.linkTextView.setVisibility(View.VISIBLE);
         } else {
-            holder.tagsTextView.setVisibility(View.GONE);
+            holder.linkTextView.setVisibility(View.GONE); // Hide link text if it's a file or note
         }
 
-        // Set up click listener for the whole item view
-        holder.itemView.setOnClickListener(v -> {
-            if (listener != null) {
-                listener.onBookmarkClick(
-                        currentBookmark.getId(),
-                        currentBookmark.getContentType(),
-                        currentBookmark.getContentUri(),
-                        currentBookmark.getLinkUrl()
-                );
-            }
-        });
+        switch (kind) {
+            case BookmarkDisplay.THUMBNAIL_IMAGE:
+                thumbnailLoader.load(holder.thumbnailImageView, currentBookmark); // Sized, cached thumbnail
+                holder.thumbnailImageView.setScaleType(ImageView.ScaleType.CENTER_CROP);
+                holder.thumbnailImageView.setBackgroundColor(transparentColor);
+                return;
+            case BookmarkDisplay.THUMBNAIL_LINK:
+                if (currentBookmark.getLinkImageUrl() == null) {
+                    setIcon(holder, R.drawable.ic_link, transparentColor); // Set link icon
+                    break;
+                }
+                // The page's preview image or icon, fetched by LinkMetadataJob; the link icon until it loads
+                holder.thumbnailImageView.setScaleType(ImageView.ScaleType.CENTER_INSIDE);
+                holder.thumbnailImageView.setBackgroundColor(transparentColor);
+                Glide.with(context)
+                        .load(currentBookmark.getLinkImageUrl())
+                        .centerInside()
+                        .placeholder(R.drawable.ic_link)
+                        .error(R.drawable.ic_link)
+                        .into(holder.thumbnailImageView);
+                return;
+            case BookmarkDisplay.THUMBNAIL_VIDEO:
+                setIcon(holder, android.R.drawable.ic_media_play, blackColor);
+                break;
+            case BookmarkDisplay.THUMBNAIL_AUDIO:
+                setIcon(holder, android.R.drawable.ic_lock_silent_mode_off, blackColor);
+                break;
+            case BookmarkDisplay.THUMBNAIL_DOCUMENT:
+                setIcon(holder, R.drawable.ic_document, blackColor); // Set document icon
+                break;
+            default: // No content URI or link (just notes/text bookmark)
+                setIcon(holder, android.R.drawable.ic_menu_agenda, transparentColor); // Default notes icon
+                break;
+        }
+    }
 
-        // Set up long click listener for editing
-        holder.itemView.setOnLongClickListener(v -> {
-            if (listener != null) {
-                listener.onBookmarkLongClick(currentBookmark.getId());
-                return true; // Consume the long click event
+    private void setIcon(BookmarkViewHolder holder, int iconRes, int backgroundColor) {
+        Glide.with(context).clear(holder.thumbnailImageView); // Stop a pending image load from a recycled row
+        holder.thumbnailImageView.setImageResource(iconRes);
+        holder.thumbnailImageView.setScaleType(ImageView.ScaleType.CENTER_INSIDE);
+        holder.thumbnailImageView.setBackgroundColor(backgroundColor);
+    }
+
+    // Converts the snippet markers inserted by the search query into bold spans.
+    private static CharSequence highlightSnippet(String snippet) {
+        SpannableStringBuilder builder = new SpannableStringBuilder();
+        int index = 0;
+        while (index < snippet.length()) {
+            int start = snippet.indexOf(BookmarkFts.SNIPPET_START, index);
+            if (start < 0) {
+                builder.append(snippet, index, snippet.length());
+                break;
             }
-            return false;
-        });
+            int end = snippet.indexOf(BookmarkFts.SNIPPET_END, start);
+            if (end < 0) end = snippet.length();
+            builder.append(snippet, index, start);
+            int spanStart = builder.length();
+            builder.append(snippet, start + BookmarkFts.SNIPPET_START.length(), end);
+            builder.setSpan(new StyleSpan(Typeface.BOLD), spanStart, builder.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+            index = Math.min(snippet.length(), end + BookmarkFts.SNIPPET_END.length());
+        }
+        return builder;
     }
 
     // Returns the total number of items in the list
     @Override
     public int getItemCount() {
-        return bookmarkList.size();
+        return differ.getCurrentList().size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return differ.getCurrentList().get(position).getId();
     }
 
-    // Updates the list of bookmarks and notifies the RecyclerView to refresh
+    // Returns the latest list handed to the adapter (read-only)
+    public List<Bookmark> getBookmarks() {
+        return latestList;
+    }
+
+    // Replaces the list; only rows that were added, moved or changed are rebound
     public void setBookmarkList(List<Bookmark> newList) {
-        this.bookmarkList = newList;
-        notifyDataSetChanged(); // Tell RecyclerView to redraw all items
+        setBookmarkList(newList, null);
+    }
+
+    // Same, running onShown once the new list has been diffed and applied to the RecyclerView
+    public void setBookmarkList(List<Bookmark> newList, Runnable onShown) {
+        latestList = Collections.unmodifiableList(new ArrayList<>(newList));
+        differ.submitList(latestList, onShown);
+    }
+
+    // Appends a further page of bookmarks, binding only the new rows
+    public void addBookmarks(List<Bookmark> page) {
+        if (page.isEmpty()) return;
+        List<Bookmark> newList = new ArrayList<>(latestList);
+        newList.addAll(page);
+        setBookmarkList(newList);
+    }
+
+    // Returns the loaded bookmark with this ID, or null if it is not in the list
+    public Bookmark findBookmark(long id) {
+        int position = indexOf(id);
+        return position < 0 ? null : latestList.get(position);
+    }
+
+    // Replaces a loaded bookmark in place, rebinding only the parts of its row that changed
+    public void updateBookmark(Bookmark bookmark) {
+        int position = indexOf(bookmark.getId());
+        if (position < 0) return;
+        List<Bookmark> newList = new ArrayList<>(latestList);
+        newList.set(position, bookmark);
+        setBookmarkList(newList);
+    }
+
+    // Removes a loaded bookmark, animating only its row
+    public void removeBookmark(long id) {
+        int position = indexOf(id);
+        if (position < 0) return;
+        List<Bookmark> newList = new ArrayList<>(latestList);
+        newList.remove(position);
+        setBookmarkList(newList);
+    }
+
+    private int indexOf(long id) {
+        for (int i = 0; i < latestList.size(); i++) {
+            if (latestList.get(i).getId() == id) return i;
+        }
+        return -1;
     }
 
     // ViewHolder class: holds references to the UI elements of each item view
@@ -0,0 +1,26 @@
+package com.eei4369.markio;
+
+import java.util.Collections;
+import java.util.Set;
+
+// A committed write to the bookmarks table, published by BookmarkInvalidationTracker.
+public class BookmarkChange {
+
+    public enum Type { INSERT, UPDATE, DELETE }
+
+    private final Type type;
+    private final Set<Long> ids; // _IDs of the rows written
+
+    public BookmarkChange(Type type, Set<Long> ids) {
+        this.type = type;
+        this.ids = Collections.unmodifiableSet(ids);
+    }
+
+    public static BookmarkChange of(Type type, long id) {
+        return new BookmarkChange(type, Collections.singleton(id));
+    }
+
+    // --- Getters ---
+    public Type getType() { return type; }
+    public Set<Long> getIds() { return ids; }
+}
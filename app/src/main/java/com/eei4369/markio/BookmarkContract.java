@@ -18,5 +18,136 @@ public final class BookmarkContract {
         public static final String COLUMN_NAME_GEOGRAPHIC_LOCATION = "geographic_location";
         public static final String COLUMN_NAME_TIMESTAMP = "timestamp";
         public static final String COLUMN_NAME_TAGS = "tags";
+        public static final String COLUMN_NAME_READABLE_ADDRESS = "readable_address";
+        public static final String COLUMN_NAME_MIME_TYPE = "mime_type"; // Of the attached content; "" if unknown
+        // Parsed from geographic_location so the location index can answer range queries; null if unset
+        public static final String COLUMN_NAME_LATITUDE = "latitude";
+        public static final String COLUMN_NAME_LONGITUDE = "longitude";
+        // UrlCanonicalizer.hash of link_url, indexed to find the same page saved twice; null without a link
+        public static final String COLUMN_NAME_URL_HASH = "url_hash";
+        // SHA-256 of the attachment when content_uri points into AttachmentStore; null otherwise
+        public static final String COLUMN_NAME_ATTACHMENT_HASH = "attachment_hash";
+        // ImageHash.dHash of an image attachment, filled in by ImageHashJob; null until computed
+        public static final String COLUMN_NAME_IMAGE_HASH = "image_hash";
+        // Metadata of the linked page, filled in by LinkMetadataJob; null until fetched or if the page has none
+        public static final String COLUMN_NAME_PAGE_TITLE = "page_title";
+        public static final String COLUMN_NAME_PAGE_DESCRIPTION = "page_description";
+        public static final String COLUMN_NAME_FAVICON_URL = "favicon_url";
+        public static final String COLUMN_NAME_PREVIEW_IMAGE_URL = "preview_image_url";
+        // HTTP validators of the last fetch, sent back so an unchanged page is not downloaded again
+        public static final String COLUMN_NAME_METADATA_ETAG = "metadata_etag";
+        public static final String COLUMN_NAME_METADATA_LAST_MODIFIED = "metadata_last_modified";
+        // When the page was last checked (milliseconds); null until the first fetch or after the link changed
+        public static final String COLUMN_NAME_METADATA_FETCHED_AT = "metadata_fetched_at";
+        public static final String COLUMN_NAME_SYNC_ID = "sync_id"; // Random ID shared by the bookmark's copies on every synced device
     }
-}
\ No newline at end of file
+
+    /* Inner class that defines the full-text search index over bookmarks.
+     * Rows are keyed by docid, which always equals the bookmark's _ID. */
+    public static class BookmarkFtsEntry {
+        public static final String TABLE_NAME = "bookmarks_fts";
+        public static final String COLUMN_NAME_DOCID = "docid";
+        public static final String COLUMN_NAME_TITLE = "title";
+        public static final String COLUMN_NAME_NOTES = "notes";
+        public static final String COLUMN_NAME_TAGS = "tags";
+        public static final String COLUMN_NAME_LINK_URL = "link_url";
+        public static final String COLUMN_NAME_READABLE_ADDRESS = "readable_address";
+        public static final String COLUMN_NAME_ARCHIVED_TEXT = "archived_text"; // From page_archives
+    }
+
+    /* Inner class that defines the table of distinct, normalized tag names. */
+    public static class TagEntry implements BaseColumns {
+        public static final String TABLE_NAME = "tags";
+        public static final String COLUMN_NAME_NAME = "name";
+        public static final String COLUMN_NAME_USAGE_COUNT = "usage_count"; // Bookmarks carrying this tag
+    }
+
+    /* Inner class that defines the many-to-many link between bookmarks and tags. */
+    public static class BookmarkTagEntry {
+        public static final String TABLE_NAME = "bookmark_tags";
+        public static final String COLUMN_NAME_BOOKMARK_ID = "bookmark_id";
+        public static final String COLUMN_NAME_TAG_ID = "tag_id";
+    }
+
+    /* Inner class that defines the single-row dashboard statistics table.
+     * Every count is maintained by triggers, so reading them never scans bookmarks. */
+    public static class BookmarkStatsEntry implements BaseColumns {
+        public static final String TABLE_NAME = "bookmark_stats";
+        public static final long ROW_ID = 1;
+        public static final String COLUMN_NAME_TOTAL = "total_count";
+        public static final String COLUMN_NAME_NOTES = "note_count";
+        public static final String COLUMN_NAME_IMAGES = "image_count";
+        public static final String COLUMN_NAME_VIDEOS = "video_count";
+        public static final String COLUMN_NAME_AUDIO = "audio_count";
+        public static final String COLUMN_NAME_DOCUMENTS = "document_count";
+        public static final String COLUMN_NAME_LINKS = "link_count";
+    }
+
+    /* Inner class that defines the vocabulary of the fuzzy search: distinct words from titles,
+     * tags and link hosts, with the number of bookmarks using each. */
+    public static class FuzzyTermEntry implements BaseColumns {
+        public static final String TABLE_NAME = "fuzzy_terms";
+        public static final String COLUMN_NAME_TERM = "term";
+        public static final String COLUMN_NAME_DOC_COUNT = "doc_count";
+    }
+
+    /* Inner class that defines the trigram index over the fuzzy search vocabulary. */
+    public static class FuzzyTrigramEntry {
+        public static final String TABLE_NAME = "fuzzy_trigrams";
+        public static final String COLUMN_NAME_TRIGRAM = "trigram";
+        public static final String COLUMN_NAME_TERM_ID = "term_id";
+    }
+
+    /* Inner class that defines the link between bookmarks and the fuzzy search words they contain. */
+    public static class BookmarkFuzzyTermEntry {
+        public static final String TABLE_NAME = "bookmark_fuzzy_terms";
+        public static final String COLUMN_NAME_BOOKMARK_ID = "bookmark_id";
+        public static final String COLUMN_NAME_TERM_ID = "term_id";
+    }
+
+    /* Inner class that defines the files of the content-addressed attachment store.
+     * ref_count is kept by triggers on bookmarks; files no bookmark uses are deleted by AttachmentStore. */
+    public static class AttachmentEntry {
+        public static final String TABLE_NAME = "attachments";
+        public static final String COLUMN_NAME_SHA256 = "sha256";
+        public static final String COLUMN_NAME_FILE_NAME = "file_name"; // Relative to the store directory
+        public static final String COLUMN_NAME_SIZE = "size";
+        public static final String COLUMN_NAME_REF_COUNT = "ref_count";
+        public static final String COLUMN_NAME_IMPORTED_AT = "imported_at"; // Last import, in epoch millis
+    }
+
+    /* Inner class that defines the offline snapshots of linked pages, kept by PageArchive.
+     * A row whose file was evicted stays, without file or text, so the page is not archived again. */
+    public static class PageArchiveEntry {
+        public static final String TABLE_NAME = "page_archives";
+        public static final String COLUMN_NAME_BOOKMARK_ID = "bookmark_id";
+        public static final String COLUMN_NAME_FILE_NAME = "file_name"; // Gzipped snapshot, relative to the archive directory; null once evicted
+        public static final String COLUMN_NAME_TEXT = "text"; // Extracted text, indexed in bookmarks_fts; null once evicted
+        public static final String COLUMN_NAME_STORED_BYTES = "stored_bytes"; // Compressed size, 0 once evicted
+        public static final String COLUMN_NAME_ARCHIVED_AT = "archived_at"; // Epoch millis
+        public static final String COLUMN_NAME_OPENED_AT = "opened_at"; // Last offline view, epoch millis; orders eviction
+    }
+
+    /* Inner class that defines the sync change log: the latest state of each bookmark written on
+     * this device, by sync ID, including tombstones of deleted ones. See SyncStore. */
+    public static class SyncLogEntry {
+        public static final String TABLE_NAME = "sync_log";
+        public static final String COLUMN_NAME_SYNC_ID = "sync_id";
+        public static final String COLUMN_NAME_SEQ = "seq"; // Local change order; 0 for states pulled from the server
+        public static final String COLUMN_NAME_VERSION = "version"; // Raised by one with every write to the bookmark
+        public static final String COLUMN_NAME_DEVICE_ID = "device_id"; // Device that wrote this version
+        public static final String COLUMN_NAME_DELETED = "deleted"; // 1 for a tombstone
+    }
+
+    /* Inner class that defines the single-row sync state: this device's ID, the change log's
+     * sequence counter and the checkpoints of the last sync. */
+    public static class SyncStateEntry implements BaseColumns {
+        public static final String TABLE_NAME = "sync_state";
+        public static final long ROW_ID = 1;
+        public static final String COLUMN_NAME_DEVICE_ID = "device_id";
+        public static final String COLUMN_NAME_CHANGE_SEQ = "change_seq"; // Last sequence number given to a local change
+        public static final String COLUMN_NAME_APPLYING = "applying"; // 1 while pulled changes are written, which are not logged
+        public static final String COLUMN_NAME_PUSH_CHECKPOINT = "push_checkpoint"; // Last local sequence number pushed
+        public static final String COLUMN_NAME_PULL_CHECKPOINT = "pull_checkpoint"; // Last server sequence number applied
+    }
+}
@@ -1,14 +1,29 @@
 package com.eei4369.markio;
 
+import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.text.TextUtils;
+import com.eei4369.markio.BookmarkContract.AttachmentEntry;
 import com.eei4369.markio.BookmarkContract.BookmarkEntry;
+import com.eei4369.markio.BookmarkContract.BookmarkFtsEntry;
+import com.eei4369.markio.BookmarkContract.BookmarkFuzzyTermEntry;
+import com.eei4369.markio.BookmarkContract.BookmarkStatsEntry;
+import com.eei4369.markio.BookmarkContract.BookmarkTagEntry;
+import com.eei4369.markio.BookmarkContract.FuzzyTermEntry;
+import com.eei4369.markio.BookmarkContract.FuzzyTrigramEntry;
+import com.eei4369.markio.BookmarkContract.PageArchiveEntry;
+import com.eei4369.markio.BookmarkContract.SyncLogEntry;
+import com.eei4369.markio.BookmarkContract.SyncStateEntry;
+import com.eei4369.markio.BookmarkContract.TagEntry;
 
 // Helper class for managing database creation and version management.
 public class BookmarkDbHelper extends SQLiteOpenHelper {
 
-    public static final int DATABASE_VERSION = 2;
+    public static final int DATABASE_VERSION = 19;
     public static final String DATABASE_NAME = "Markio.db";
 
     // SQL statement to create the bookmarks table.
@@ -22,21 +37,693 @@ public class BookmarkDbHelper extends SQLiteOpenHelper {
                     BookmarkEntry.COLUMN_NAME_LINK_URL + " TEXT," +
                     BookmarkEntry.COLUMN_NAME_GEOGRAPHIC_LOCATION + " TEXT," +
                     BookmarkEntry.COLUMN_NAME_TIMESTAMP + " INTEGER," +
-                    BookmarkEntry.COLUMN_NAME_TAGS + " TEXT DEFAULT ''" +
+                    BookmarkEntry.COLUMN_NAME_TAGS + " TEXT DEFAULT ''," +
+                    BookmarkEntry.COLUMN_NAME_READABLE_ADDRESS + " TEXT," +
+                    BookmarkEntry.COLUMN_NAME_MIME_TYPE + " TEXT," +
+                    BookmarkEntry.COLUMN_NAME_LATITUDE + " REAL," +
+                    BookmarkEntry.COLUMN_NAME_LONGITUDE + " REAL," +
+                    BookmarkEntry.COLUMN_NAME_URL_HASH + " INTEGER," +
+                    BookmarkEntry.COLUMN_NAME_ATTACHMENT_HASH + " TEXT," +
+                    BookmarkEntry.COLUMN_NAME_IMAGE_HASH + " INTEGER," +
+                    BookmarkEntry.COLUMN_NAME_PAGE_TITLE + " TEXT," +
+                    BookmarkEntry.COLUMN_NAME_PAGE_DESCRIPTION + " TEXT," +
+                    BookmarkEntry.COLUMN_NAME_FAVICON_URL + " TEXT," +
+                    BookmarkEntry.COLUMN_NAME_PREVIEW_IMAGE_URL + " TEXT," +
+                    BookmarkEntry.COLUMN_NAME_METADATA_ETAG + " TEXT," +
+                    BookmarkEntry.COLUMN_NAME_METADATA_LAST_MODIFIED + " TEXT," +
+                    BookmarkEntry.COLUMN_NAME_METADATA_FETCHED_AT + " INTEGER," +
+                    BookmarkEntry.COLUMN_NAME_SYNC_ID + " TEXT" +
                     ")";
 
+    // SQL statement to create the full-text search index over bookmarks.
+    // unicode61 folds case and diacritics so "cafe" also matches "Café".
+    private static final String SQL_CREATE_FTS =
+            "CREATE VIRTUAL TABLE " + BookmarkFtsEntry.TABLE_NAME + " USING fts4(" +
+                    BookmarkFtsEntry.COLUMN_NAME_TITLE + ", " +
+                    BookmarkFtsEntry.COLUMN_NAME_NOTES + ", " +
+                    BookmarkFtsEntry.COLUMN_NAME_TAGS + ", " +
+                    BookmarkFtsEntry.COLUMN_NAME_LINK_URL + ", " +
+                    BookmarkFtsEntry.COLUMN_NAME_READABLE_ADDRESS + ", " +
+                    BookmarkFtsEntry.COLUMN_NAME_ARCHIVED_TEXT + ", " +
+                    "tokenize=unicode61" +
+                    ")";
+
+    // Column list and matching bookmark values used by the triggers and the backfill.
+    private static final String FTS_COLUMNS =
+            BookmarkFtsEntry.COLUMN_NAME_DOCID + ", " +
+                    BookmarkFtsEntry.COLUMN_NAME_TITLE + ", " +
+                    BookmarkFtsEntry.COLUMN_NAME_NOTES + ", " +
+                    BookmarkFtsEntry.COLUMN_NAME_TAGS + ", " +
+                    BookmarkFtsEntry.COLUMN_NAME_LINK_URL + ", " +
+                    BookmarkFtsEntry.COLUMN_NAME_READABLE_ADDRESS + ", " +
+                    BookmarkFtsEntry.COLUMN_NAME_ARCHIVED_TEXT;
+
+    private static String ftsValues(String row) {
+        return row + BookmarkEntry._ID + ", " +
+                row + BookmarkEntry.COLUMN_NAME_TITLE + ", " +
+                row + BookmarkEntry.COLUMN_NAME_NOTES + ", " +
+                row + BookmarkEntry.COLUMN_NAME_TAGS + ", " +
+                row + BookmarkEntry.COLUMN_NAME_LINK_URL + ", " +
+                row + BookmarkEntry.COLUMN_NAME_READABLE_ADDRESS + ", " +
+                "(SELECT " + PageArchiveEntry.COLUMN_NAME_TEXT + " FROM " + PageArchiveEntry.TABLE_NAME +
+                " WHERE " + PageArchiveEntry.COLUMN_NAME_BOOKMARK_ID + " = " + row + BookmarkEntry._ID + ")";
+    }
+
+    // Triggers that keep the search index in sync with the bookmarks table. Updates are indexed
+    // only when an indexed column is written, so background writes to other columns (MIME types,
+    // hashes, link metadata, sync bookkeeping) do not rewrite the bookmark's index entry.
+    private static final String SQL_CREATE_FTS_INSERT_TRIGGER =
+            "CREATE TRIGGER bookmarks_fts_ai AFTER INSERT ON " + BookmarkEntry.TABLE_NAME + " BEGIN " +
+                    "INSERT INTO " + BookmarkFtsEntry.TABLE_NAME + "(" + FTS_COLUMNS + ") VALUES (" + ftsValues("new.") + "); " +
+                    "END";
+
+    private static final String SQL_CREATE_FTS_UPDATE_TRIGGER =
+            "CREATE TRIGGER bookmarks_fts_au AFTER UPDATE OF " + BookmarkEntry.COLUMN_NAME_TITLE + ", " +
+                    BookmarkEntry.COLUMN_NAME_NOTES + ", " + BookmarkEntry.COLUMN_NAME_TAGS + ", " +
+                    BookmarkEntry.COLUMN_NAME_LINK_URL + ", " + BookmarkEntry.COLUMN_NAME_READABLE_ADDRESS +
+                    " ON " + BookmarkEntry.TABLE_NAME + " BEGIN " +
+                    "DELETE FROM " + BookmarkFtsEntry.TABLE_NAME + " WHERE " + BookmarkFtsEntry.COLUMN_NAME_DOCID + " = old." + BookmarkEntry._ID + "; " +
+                    "INSERT INTO " + BookmarkFtsEntry.TABLE_NAME + "(" + FTS_COLUMNS + ") VALUES (" + ftsValues("new.") + "); " +
+                    "END";
+
+    private static final String SQL_CREATE_FTS_DELETE_TRIGGER =
+            "CREATE TRIGGER bookmarks_fts_ad AFTER DELETE ON " + BookmarkEntry.TABLE_NAME + " BEGIN " +
+                    "DELETE FROM " + BookmarkFtsEntry.TABLE_NAME + " WHERE " + BookmarkFtsEntry.COLUMN_NAME_DOCID + " = old." + BookmarkEntry._ID + "; " +
+                    "END";
+
+    // Copies every existing bookmark into the search index.
+    private static final String SQL_BACKFILL_FTS =
+            "INSERT INTO " + BookmarkFtsEntry.TABLE_NAME + "(" + FTS_COLUMNS + ") " +
+                    "SELECT " + ftsValues(BookmarkEntry.TABLE_NAME + ".") + " FROM " + BookmarkEntry.TABLE_NAME;
+
+    // SQL statement to create the offline page archive's table.
+    private static final String SQL_CREATE_PAGE_ARCHIVES =
+            "CREATE TABLE IF NOT EXISTS " + PageArchiveEntry.TABLE_NAME + " (" +
+                    PageArchiveEntry.COLUMN_NAME_BOOKMARK_ID + " INTEGER PRIMARY KEY," +
+                    PageArchiveEntry.COLUMN_NAME_FILE_NAME + " TEXT," +
+                    PageArchiveEntry.COLUMN_NAME_TEXT + " TEXT," +
+                    PageArchiveEntry.COLUMN_NAME_STORED_BYTES + " INTEGER NOT NULL DEFAULT 0," +
+                    PageArchiveEntry.COLUMN_NAME_ARCHIVED_AT + " INTEGER NOT NULL," +
+                    PageArchiveEntry.COLUMN_NAME_OPENED_AT + " INTEGER" +
+                    ")";
+
+    // Triggers that reindex a bookmark when its archived text is stored, evicted or dropped.
+    private static final String SQL_REINDEX_ARCHIVED_BOOKMARK =
+            "DELETE FROM " + BookmarkFtsEntry.TABLE_NAME + " WHERE " + BookmarkFtsEntry.COLUMN_NAME_DOCID + " = %1$s." + PageArchiveEntry.COLUMN_NAME_BOOKMARK_ID + "; " +
+                    "INSERT INTO " + BookmarkFtsEntry.TABLE_NAME + "(" + FTS_COLUMNS + ") " +
+                    "SELECT " + ftsValues(BookmarkEntry.TABLE_NAME + ".") + " FROM " + BookmarkEntry.TABLE_NAME +
+                    " WHERE " + BookmarkEntry._ID + " = %1$s." + PageArchiveEntry.COLUMN_NAME_BOOKMARK_ID + "; ";
+
+    private static final String SQL_CREATE_PAGE_ARCHIVE_FTS_INSERT_TRIGGER =
+            "CREATE TRIGGER page_archives_fts_ai AFTER INSERT ON " + PageArchiveEntry.TABLE_NAME + " BEGIN " +
+                    String.format(SQL_REINDEX_ARCHIVED_BOOKMARK, "new") +
+                    "END";
+
+    private static final String SQL_CREATE_PAGE_ARCHIVE_FTS_UPDATE_TRIGGER =
+            "CREATE TRIGGER page_archives_fts_au AFTER UPDATE OF " + PageArchiveEntry.COLUMN_NAME_TEXT + " ON " + PageArchiveEntry.TABLE_NAME + " BEGIN " +
+                    String.format(SQL_REINDEX_ARCHIVED_BOOKMARK, "new") +
+                    "END";
+
+    private static final String SQL_CREATE_PAGE_ARCHIVE_FTS_DELETE_TRIGGER =
+            "CREATE TRIGGER page_archives_fts_ad AFTER DELETE ON " + PageArchiveEntry.TABLE_NAME + " BEGIN " +
+                    String.format(SQL_REINDEX_ARCHIVED_BOOKMARK, "old") +
+                    "END";
+
+    // A deleted bookmark, or one pointing at another page, loses its snapshot; BookmarkRepository
+    // deletes the file after the write, and PageArchive.sweep any it could not.
+    private static final String SQL_CREATE_PAGE_ARCHIVE_BOOKMARK_DELETE_TRIGGER =
+            "CREATE TRIGGER page_archives_bookmark_ad AFTER DELETE ON " + BookmarkEntry.TABLE_NAME + " BEGIN " +
+                    "DELETE FROM " + PageArchiveEntry.TABLE_NAME + " WHERE " + PageArchiveEntry.COLUMN_NAME_BOOKMARK_ID + " = old." + BookmarkEntry._ID + "; " +
+                    "END";
+
+    private static final String SQL_CREATE_PAGE_ARCHIVE_LINK_UPDATE_TRIGGER =
+            "CREATE TRIGGER page_archives_link_au AFTER UPDATE OF " + BookmarkEntry.COLUMN_NAME_LINK_URL + " ON " + BookmarkEntry.TABLE_NAME +
+                    " WHEN old." + BookmarkEntry.COLUMN_NAME_LINK_URL + " IS NOT new." + BookmarkEntry.COLUMN_NAME_LINK_URL + " BEGIN " +
+                    "DELETE FROM " + PageArchiveEntry.TABLE_NAME + " WHERE " + PageArchiveEntry.COLUMN_NAME_BOOKMARK_ID + " = new." + BookmarkEntry._ID + "; " +
+                    "END";
+
+    // SQL statements to create the normalized tag tables. The UNIQUE constraint indexes tag names,
+    // the primary key serves bookmark -> tags and the extra index serves tag -> bookmarks.
+    private static final String SQL_CREATE_TAGS =
+            "CREATE TABLE " + TagEntry.TABLE_NAME + " (" +
+                    TagEntry._ID + " INTEGER PRIMARY KEY," +
+                    TagEntry.COLUMN_NAME_NAME + " TEXT NOT NULL UNIQUE" +
+                    ")";
+
+    private static final String SQL_CREATE_BOOKMARK_TAGS =
+            "CREATE TABLE " + BookmarkTagEntry.TABLE_NAME + " (" +
+                    BookmarkTagEntry.COLUMN_NAME_BOOKMARK_ID + " INTEGER NOT NULL," +
+                    BookmarkTagEntry.COLUMN_NAME_TAG_ID + " INTEGER NOT NULL," +
+                    "PRIMARY KEY (" + BookmarkTagEntry.COLUMN_NAME_BOOKMARK_ID + ", " + BookmarkTagEntry.COLUMN_NAME_TAG_ID + ")" +
+                    ") WITHOUT ROWID";
+
+    private static final String SQL_CREATE_BOOKMARK_TAGS_INDEX =
+            "CREATE INDEX bookmark_tags_tag_idx ON " + BookmarkTagEntry.TABLE_NAME + " (" +
+                    BookmarkTagEntry.COLUMN_NAME_TAG_ID + ", " + BookmarkTagEntry.COLUMN_NAME_BOOKMARK_ID + ")";
+
+    // Deleting a bookmark drops its tag links...
+    private static final String SQL_CREATE_BOOKMARK_TAGS_DELETE_TRIGGER =
+            "CREATE TRIGGER bookmark_tags_bookmark_ad AFTER DELETE ON " + BookmarkEntry.TABLE_NAME + " BEGIN " +
+                    "DELETE FROM " + BookmarkTagEntry.TABLE_NAME + " WHERE " + BookmarkTagEntry.COLUMN_NAME_BOOKMARK_ID + " = old." + BookmarkEntry._ID + "; " +
+                    "END";
+
+    // ...and dropping the last link to a tag removes the tag itself.
+    private static final String SQL_CREATE_TAG_PRUNE_TRIGGER =
+            "CREATE TRIGGER tags_prune_ad AFTER DELETE ON " + BookmarkTagEntry.TABLE_NAME + " BEGIN " +
+                    "DELETE FROM " + TagEntry.TABLE_NAME + " WHERE " + TagEntry._ID + " = old." + BookmarkTagEntry.COLUMN_NAME_TAG_ID +
+                    " AND NOT EXISTS (SELECT 1 FROM " + BookmarkTagEntry.TABLE_NAME +
+                    " WHERE " + BookmarkTagEntry.COLUMN_NAME_TAG_ID + " = old." + BookmarkTagEntry.COLUMN_NAME_TAG_ID + "); " +
+                    "END";
+
+    // SQL statements to create the fuzzy search index: a vocabulary of words, the trigrams of each
+    // word (looked up by trigram), and which bookmarks use which words, laid out like the tag tables.
+    private static final String SQL_CREATE_FUZZY_TERMS =
+            "CREATE TABLE " + FuzzyTermEntry.TABLE_NAME + " (" +
+                    FuzzyTermEntry._ID + " INTEGER PRIMARY KEY," +
+                    FuzzyTermEntry.COLUMN_NAME_TERM + " TEXT NOT NULL UNIQUE," +
+                    FuzzyTermEntry.COLUMN_NAME_DOC_COUNT + " INTEGER NOT NULL DEFAULT 0" +
+                    ")";
+
+    // Short query words are matched against every word of a similar length; the index covers that read.
+    private static final String SQL_CREATE_FUZZY_TERMS_LENGTH_INDEX =
+            "CREATE INDEX fuzzy_terms_length_idx ON " + FuzzyTermEntry.TABLE_NAME + " (length(" +
+                    FuzzyTermEntry.COLUMN_NAME_TERM + "), " + FuzzyTermEntry.COLUMN_NAME_TERM + ", " +
+                    FuzzyTermEntry.COLUMN_NAME_DOC_COUNT + ")";
+
+    private static final String SQL_CREATE_FUZZY_TRIGRAMS =
+            "CREATE TABLE " + FuzzyTrigramEntry.TABLE_NAME + " (" +
+                    FuzzyTrigramEntry.COLUMN_NAME_TRIGRAM + " TEXT NOT NULL," +
+                    FuzzyTrigramEntry.COLUMN_NAME_TERM_ID + " INTEGER NOT NULL," +
+                    "PRIMARY KEY (" + FuzzyTrigramEntry.COLUMN_NAME_TRIGRAM + ", " + FuzzyTrigramEntry.COLUMN_NAME_TERM_ID + ")" +
+                    ") WITHOUT ROWID";
+
+    private static final String SQL_CREATE_FUZZY_TRIGRAMS_INDEX =
+            "CREATE INDEX fuzzy_trigrams_term_idx ON " + FuzzyTrigramEntry.TABLE_NAME + " (" +
+                    FuzzyTrigramEntry.COLUMN_NAME_TERM_ID + ")";
+
+    private static final String SQL_CREATE_BOOKMARK_FUZZY_TERMS =
+            "CREATE TABLE " + BookmarkFuzzyTermEntry.TABLE_NAME + " (" +
+                    BookmarkFuzzyTermEntry.COLUMN_NAME_BOOKMARK_ID + " INTEGER NOT NULL," +
+                    BookmarkFuzzyTermEntry.COLUMN_NAME_TERM_ID + " INTEGER NOT NULL," +
+                    "PRIMARY KEY (" + BookmarkFuzzyTermEntry.COLUMN_NAME_BOOKMARK_ID + ", " + BookmarkFuzzyTermEntry.COLUMN_NAME_TERM_ID + ")" +
+                    ") WITHOUT ROWID";
+
+    private static final String SQL_CREATE_BOOKMARK_FUZZY_TERMS_INDEX =
+            "CREATE INDEX bookmark_fuzzy_terms_term_idx ON " + BookmarkFuzzyTermEntry.TABLE_NAME + " (" +
+                    BookmarkFuzzyTermEntry.COLUMN_NAME_TERM_ID + ", " + BookmarkFuzzyTermEntry.COLUMN_NAME_BOOKMARK_ID + ")";
+
+    // Deleting a bookmark drops its word links...
+    private static final String SQL_CREATE_BOOKMARK_FUZZY_TERMS_DELETE_TRIGGER =
+            "CREATE TRIGGER bookmark_fuzzy_terms_bookmark_ad AFTER DELETE ON " + BookmarkEntry.TABLE_NAME + " BEGIN " +
+                    "DELETE FROM " + BookmarkFuzzyTermEntry.TABLE_NAME + " WHERE " + BookmarkFuzzyTermEntry.COLUMN_NAME_BOOKMARK_ID + " = old." + BookmarkEntry._ID + "; " +
+                    "END";
+
+    // ...each link keeps its word's document count current...
+    private static final String SQL_CREATE_FUZZY_COUNT_INSERT_TRIGGER =
+            "CREATE TRIGGER fuzzy_terms_count_ai AFTER INSERT ON " + BookmarkFuzzyTermEntry.TABLE_NAME + " BEGIN " +
+                    "UPDATE " + FuzzyTermEntry.TABLE_NAME + " SET " + FuzzyTermEntry.COLUMN_NAME_DOC_COUNT + " = " +
+                    FuzzyTermEntry.COLUMN_NAME_DOC_COUNT + " + 1 WHERE " + FuzzyTermEntry._ID + " = new." + BookmarkFuzzyTermEntry.COLUMN_NAME_TERM_ID + "; " +
+                    "END";
+
+    private static final String SQL_CREATE_FUZZY_COUNT_DELETE_TRIGGER =
+            "CREATE TRIGGER fuzzy_terms_count_ad AFTER DELETE ON " + BookmarkFuzzyTermEntry.TABLE_NAME + " BEGIN " +
+                    "UPDATE " + FuzzyTermEntry.TABLE_NAME + " SET " + FuzzyTermEntry.COLUMN_NAME_DOC_COUNT + " = " +
+                    FuzzyTermEntry.COLUMN_NAME_DOC_COUNT + " - 1 WHERE " + FuzzyTermEntry._ID + " = old." + BookmarkFuzzyTermEntry.COLUMN_NAME_TERM_ID + "; " +
+                    "DELETE FROM " + FuzzyTermEntry.TABLE_NAME + " WHERE " + FuzzyTermEntry._ID + " = old." + BookmarkFuzzyTermEntry.COLUMN_NAME_TERM_ID +
+                    " AND " + FuzzyTermEntry.COLUMN_NAME_DOC_COUNT + " <= 0; " +
+                    "END";
+
+    // ...and a word no bookmark uses any more takes its trigrams with it.
+    private static final String SQL_CREATE_FUZZY_TRIGRAM_PRUNE_TRIGGER =
+            "CREATE TRIGGER fuzzy_trigrams_prune_ad AFTER DELETE ON " + FuzzyTermEntry.TABLE_NAME + " BEGIN " +
+                    "DELETE FROM " + FuzzyTrigramEntry.TABLE_NAME + " WHERE " + FuzzyTrigramEntry.COLUMN_NAME_TERM_ID + " = old." + FuzzyTermEntry._ID + "; " +
+                    "END";
+
+    // SQL statement to create the attachment store's table of files.
+    private static final String SQL_CREATE_ATTACHMENTS =
+            "CREATE TABLE " + AttachmentEntry.TABLE_NAME + " (" +
+                    AttachmentEntry.COLUMN_NAME_SHA256 + " TEXT PRIMARY KEY," +
+                    AttachmentEntry.COLUMN_NAME_FILE_NAME + " TEXT NOT NULL," +
+                    AttachmentEntry.COLUMN_NAME_SIZE + " INTEGER NOT NULL," +
+                    AttachmentEntry.COLUMN_NAME_REF_COUNT + " INTEGER NOT NULL DEFAULT 0," +
+                    AttachmentEntry.COLUMN_NAME_IMPORTED_AT + " INTEGER NOT NULL" +
+                    ") WITHOUT ROWID";
+
+    // Triggers counting the bookmarks that use each stored file, in the same transaction as the
+    // bookmark write, so a count is never off after a crash.
+    private static final String SQL_CREATE_ATTACHMENT_REF_INSERT_TRIGGER =
+            "CREATE TRIGGER attachments_ref_ai AFTER INSERT ON " + BookmarkEntry.TABLE_NAME +
+                    " WHEN new." + BookmarkEntry.COLUMN_NAME_ATTACHMENT_HASH + " IS NOT NULL BEGIN " +
+                    "UPDATE " + AttachmentEntry.TABLE_NAME + " SET " + AttachmentEntry.COLUMN_NAME_REF_COUNT + " = " +
+                    AttachmentEntry.COLUMN_NAME_REF_COUNT + " + 1 WHERE " + AttachmentEntry.COLUMN_NAME_SHA256 + " = new." + BookmarkEntry.COLUMN_NAME_ATTACHMENT_HASH + "; " +
+                    "END";
+
+    private static final String SQL_CREATE_ATTACHMENT_REF_UPDATE_TRIGGER =
+            "CREATE TRIGGER attachments_ref_au AFTER UPDATE OF " + BookmarkEntry.COLUMN_NAME_ATTACHMENT_HASH + " ON " + BookmarkEntry.TABLE_NAME +
+                    " WHEN old." + BookmarkEntry.COLUMN_NAME_ATTACHMENT_HASH + " IS NOT new." + BookmarkEntry.COLUMN_NAME_ATTACHMENT_HASH + " BEGIN " +
+                    "UPDATE " + AttachmentEntry.TABLE_NAME + " SET " + AttachmentEntry.COLUMN_NAME_REF_COUNT + " = " +
+                    AttachmentEntry.COLUMN_NAME_REF_COUNT + " - 1 WHERE " + AttachmentEntry.COLUMN_NAME_SHA256 + " = old." + BookmarkEntry.COLUMN_NAME_ATTACHMENT_HASH + "; " +
+                    "UPDATE " + AttachmentEntry.TABLE_NAME + " SET " + AttachmentEntry.COLUMN_NAME_REF_COUNT + " = " +
+                    AttachmentEntry.COLUMN_NAME_REF_COUNT + " + 1 WHERE " + AttachmentEntry.COLUMN_NAME_SHA256 + " = new." + BookmarkEntry.COLUMN_NAME_ATTACHMENT_HASH + "; " +
+                    "END";
+
+    private static final String SQL_CREATE_ATTACHMENT_REF_DELETE_TRIGGER =
+            "CREATE TRIGGER attachments_ref_ad AFTER DELETE ON " + BookmarkEntry.TABLE_NAME +
+                    " WHEN old." + BookmarkEntry.COLUMN_NAME_ATTACHMENT_HASH + " IS NOT NULL BEGIN " +
+                    "UPDATE " + AttachmentEntry.TABLE_NAME + " SET " + AttachmentEntry.COLUMN_NAME_REF_COUNT + " = " +
+                    AttachmentEntry.COLUMN_NAME_REF_COUNT + " - 1 WHERE " + AttachmentEntry.COLUMN_NAME_SHA256 + " = old." + BookmarkEntry.COLUMN_NAME_ATTACHMENT_HASH + "; " +
+                    "END";
+
+    // SQL statements to create the sync change log and state (see SyncStore).
+    private static final String SQL_CREATE_SYNC_LOG =
+            "CREATE TABLE " + SyncLogEntry.TABLE_NAME + " (" +
+                    SyncLogEntry.COLUMN_NAME_SYNC_ID + " TEXT PRIMARY KEY," +
+                    SyncLogEntry.COLUMN_NAME_SEQ + " INTEGER NOT NULL," +
+                    SyncLogEntry.COLUMN_NAME_VERSION + " INTEGER NOT NULL," +
+                    SyncLogEntry.COLUMN_NAME_DEVICE_ID + " TEXT NOT NULL," +
+                    SyncLogEntry.COLUMN_NAME_DELETED + " INTEGER NOT NULL DEFAULT 0" +
+                    ") WITHOUT ROWID";
+
+    private static final String SQL_CREATE_SYNC_LOG_SEQ_INDEX =
+            "CREATE INDEX sync_log_seq_idx ON " + SyncLogEntry.TABLE_NAME + " (" + SyncLogEntry.COLUMN_NAME_SEQ + ")";
+
+    private static final String SQL_CREATE_SYNC_STATE =
+            "CREATE TABLE " + SyncStateEntry.TABLE_NAME + " (" +
+                    SyncStateEntry._ID + " INTEGER PRIMARY KEY," +
+                    SyncStateEntry.COLUMN_NAME_DEVICE_ID + " TEXT NOT NULL," +
+                    SyncStateEntry.COLUMN_NAME_CHANGE_SEQ + " INTEGER NOT NULL DEFAULT 0," +
+                    SyncStateEntry.COLUMN_NAME_APPLYING + " INTEGER NOT NULL DEFAULT 0," +
+                    SyncStateEntry.COLUMN_NAME_PUSH_CHECKPOINT + " INTEGER NOT NULL DEFAULT 0," +
+                    SyncStateEntry.COLUMN_NAME_PULL_CHECKPOINT + " INTEGER NOT NULL DEFAULT 0" +
+                    ")";
+
+    private static final String SQL_CREATE_SYNC_ID_INDEX =
+            "CREATE UNIQUE INDEX bookmarks_sync_id_idx ON " + BookmarkEntry.TABLE_NAME + " (" +
+                    BookmarkEntry.COLUMN_NAME_SYNC_ID + ")";
+
+    private static final String NEW_SYNC_ID = "lower(hex(randomblob(16)))";
+    private static final String SYNC_STATE_ROW = " WHERE " + SyncStateEntry._ID + " = " + SyncStateEntry.ROW_ID + "; ";
+    // Writes made while pulled changes are applied are not local changes
+    private static final String WHEN_LOCAL_WRITE = "(SELECT " + SyncStateEntry.COLUMN_NAME_APPLYING + " FROM " +
+            SyncStateEntry.TABLE_NAME + " WHERE " + SyncStateEntry._ID + " = " + SyncStateEntry.ROW_ID + ") = 0";
+
+    // Statements logging a local change to the bookmark with the given sync ID: the next
+    // sequence number, the bookmark's next version and this device.
+    private static String logSyncChange(String syncId, int deleted) {
+        return "UPDATE " + SyncStateEntry.TABLE_NAME + " SET " + SyncStateEntry.COLUMN_NAME_CHANGE_SEQ + " = " +
+                SyncStateEntry.COLUMN_NAME_CHANGE_SEQ + " + 1" + SYNC_STATE_ROW +
+                "INSERT OR REPLACE INTO " + SyncLogEntry.TABLE_NAME + " (" + SyncLogEntry.COLUMN_NAME_SYNC_ID + ", " +
+                SyncLogEntry.COLUMN_NAME_SEQ + ", " + SyncLogEntry.COLUMN_NAME_VERSION + ", " +
+                SyncLogEntry.COLUMN_NAME_DEVICE_ID + ", " + SyncLogEntry.COLUMN_NAME_DELETED + ") " +
+                "SELECT " + syncId + ", " + SyncStateEntry.COLUMN_NAME_CHANGE_SEQ + ", " +
+                "COALESCE((SELECT " + SyncLogEntry.COLUMN_NAME_VERSION + " FROM " + SyncLogEntry.TABLE_NAME +
+                " WHERE " + SyncLogEntry.COLUMN_NAME_SYNC_ID + " = " + syncId + "), 0) + 1, " +
+                SyncStateEntry.COLUMN_NAME_DEVICE_ID + ", " + deleted + " FROM " + SyncStateEntry.TABLE_NAME + SYNC_STATE_ROW;
+    }
+
+    // Triggers logging local writes for sync. New bookmarks get their sync ID from
+    // BookmarkRepository: triggers run newest first, so one setting it here would reindex the
+    // row before the search index trigger inserts it.
+    private static final String SQL_CREATE_SYNC_LOG_INSERT_TRIGGER =
+            "CREATE TRIGGER sync_log_ai AFTER INSERT ON " + BookmarkEntry.TABLE_NAME + " WHEN " + WHEN_LOCAL_WRITE +
+                    " AND new." + BookmarkEntry.COLUMN_NAME_SYNC_ID + " IS NOT NULL BEGIN " +
+                    logSyncChange("new." + BookmarkEntry.COLUMN_NAME_SYNC_ID, 0) +
+                    "END";
+
+    private static final String SQL_CREATE_SYNC_LOG_UPDATE_TRIGGER =
+            "CREATE TRIGGER sync_log_au AFTER UPDATE OF " + TextUtils.join(", ", BookmarkSyncStore.SYNCED_COLUMNS) +
+                    " ON " + BookmarkEntry.TABLE_NAME + " WHEN " + WHEN_LOCAL_WRITE +
+                    " AND new." + BookmarkEntry.COLUMN_NAME_SYNC_ID + " IS NOT NULL BEGIN " +
+                    logSyncChange("new." + BookmarkEntry.COLUMN_NAME_SYNC_ID, 0) +
+                    "END";
+
+    private static final String SQL_CREATE_SYNC_LOG_DELETE_TRIGGER =
+            "CREATE TRIGGER sync_log_ad AFTER DELETE ON " + BookmarkEntry.TABLE_NAME + " WHEN " + WHEN_LOCAL_WRITE +
+                    " AND old." + BookmarkEntry.COLUMN_NAME_SYNC_ID + " IS NOT NULL BEGIN " +
+                    logSyncChange("old." + BookmarkEntry.COLUMN_NAME_SYNC_ID, 1) +
+                    "END";
+
+    // Content types counted by the statistics table, paired with their column.
+    private static final String[][] STATS_TYPE_COLUMNS = {
+            {"note", BookmarkStatsEntry.COLUMN_NAME_NOTES},
+            {"image", BookmarkStatsEntry.COLUMN_NAME_IMAGES},
+            {"video", BookmarkStatsEntry.COLUMN_NAME_VIDEOS},
+            {"audio", BookmarkStatsEntry.COLUMN_NAME_AUDIO},
+            {"document", BookmarkStatsEntry.COLUMN_NAME_DOCUMENTS},
+            {"link", BookmarkStatsEntry.COLUMN_NAME_LINKS}
+    };
+
+    private static String createStatsTableSql() {
+        StringBuilder sql = new StringBuilder("CREATE TABLE " + BookmarkStatsEntry.TABLE_NAME + " (" +
+                BookmarkStatsEntry._ID + " INTEGER PRIMARY KEY," +
+                BookmarkStatsEntry.COLUMN_NAME_TOTAL + " INTEGER NOT NULL DEFAULT 0");
+        for (String[] type : STATS_TYPE_COLUMNS) {
+            sql.append(",").append(type[1]).append(" INTEGER NOT NULL DEFAULT 0");
+        }
+        return sql.append(")").toString();
+    }
+
+    // SET clause adding (sign "+") or removing (sign "-") one bookmark row's contribution.
+    // "x IS 'image'" evaluates to 1 or 0, never NULL, so each type column moves by at most one.
+    private static String statsDelta(String row, String sign, boolean includeTotal) {
+        StringBuilder set = new StringBuilder();
+        if (includeTotal) {
+            set.append(BookmarkStatsEntry.COLUMN_NAME_TOTAL).append(" = ")
+                    .append(BookmarkStatsEntry.COLUMN_NAME_TOTAL).append(" ").append(sign).append(" 1");
+        }
+        for (String[] type : STATS_TYPE_COLUMNS) {
+            if (set.length() > 0) set.append(", ");
+            set.append(type[1]).append(" = ").append(type[1]).append(" ").append(sign)
+                    .append(" (").append(row).append(BookmarkEntry.COLUMN_NAME_CONTENT_TYPE)
+                    .append(" IS '").append(type[0]).append("')");
+        }
+        return set.toString();
+    }
+
+    private static final String STATS_ROW = " WHERE " + BookmarkStatsEntry._ID + " = " + BookmarkStatsEntry.ROW_ID + "; ";
+
+    // Triggers keeping the dashboard counters current on every bookmark write.
+    private static final String SQL_CREATE_STATS_INSERT_TRIGGER =
+            "CREATE TRIGGER bookmark_stats_ai AFTER INSERT ON " + BookmarkEntry.TABLE_NAME + " BEGIN " +
+                    "UPDATE " + BookmarkStatsEntry.TABLE_NAME + " SET " + statsDelta("new.", "+", true) + STATS_ROW +
+                    "END";
+
+    private static final String SQL_CREATE_STATS_UPDATE_TRIGGER =
+            "CREATE TRIGGER bookmark_stats_au AFTER UPDATE OF " + BookmarkEntry.COLUMN_NAME_CONTENT_TYPE +
+                    " ON " + BookmarkEntry.TABLE_NAME + " BEGIN " +
+                    "UPDATE " + BookmarkStatsEntry.TABLE_NAME + " SET " + statsDelta("old.", "-", false) + STATS_ROW +
+                    "UPDATE " + BookmarkStatsEntry.TABLE_NAME + " SET " + statsDelta("new.", "+", false) + STATS_ROW +
+                    "END";
+
+    private static final String SQL_CREATE_STATS_DELETE_TRIGGER =
+            "CREATE TRIGGER bookmark_stats_ad AFTER DELETE ON " + BookmarkEntry.TABLE_NAME + " BEGIN " +
+                    "UPDATE " + BookmarkStatsEntry.TABLE_NAME + " SET " + statsDelta("old.", "-", true) + STATS_ROW +
+                    "END";
+
+    // Triggers keeping each tag's usage count current as links are added and removed.
+    private static final String SQL_CREATE_TAG_USAGE_INSERT_TRIGGER =
+            "CREATE TRIGGER tags_usage_ai AFTER INSERT ON " + BookmarkTagEntry.TABLE_NAME + " BEGIN " +
+                    "UPDATE " + TagEntry.TABLE_NAME + " SET " + TagEntry.COLUMN_NAME_USAGE_COUNT + " = " +
+                    TagEntry.COLUMN_NAME_USAGE_COUNT + " + 1 WHERE " + TagEntry._ID + " = new." + BookmarkTagEntry.COLUMN_NAME_TAG_ID + "; " +
+                    "END";
+
+    private static final String SQL_CREATE_TAG_USAGE_DELETE_TRIGGER =
+            "CREATE TRIGGER tags_usage_ad AFTER DELETE ON " + BookmarkTagEntry.TABLE_NAME + " BEGIN " +
+                    "UPDATE " + TagEntry.TABLE_NAME + " SET " + TagEntry.COLUMN_NAME_USAGE_COUNT + " = " +
+                    TagEntry.COLUMN_NAME_USAGE_COUNT + " - 1 WHERE " + TagEntry._ID + " = old." + BookmarkTagEntry.COLUMN_NAME_TAG_ID + "; " +
+                    "END";
+
+    // Index backing the list's keyset pagination on (timestamp DESC, _id DESC);
+    // the rowid is implicitly the last index column, so it covers the tie-breaker too.
+    private static final String SQL_CREATE_TIMESTAMP_INDEX =
+            "CREATE INDEX bookmarks_timestamp_idx ON " + BookmarkEntry.TABLE_NAME + " (" +
+                    BookmarkEntry.COLUMN_NAME_TIMESTAMP + ")";
+
+    // Spatial index for the nearby search. A bounding-box query seeks the latitude band and checks
+    // longitude from the index entries, without touching rows outside the box. (A B-tree rather than
+    // an R-tree, since the R-tree module is not guaranteed in the platform SQLite.)
+    private static final String SQL_CREATE_LOCATION_INDEX =
+            "CREATE INDEX bookmarks_location_idx ON " + BookmarkEntry.TABLE_NAME + " (" +
+                    BookmarkEntry.COLUMN_NAME_LATITUDE + ", " + BookmarkEntry.COLUMN_NAME_LONGITUDE + ")";
+
+    // Index for the duplicate link check: one seek on the canonical URL's hash.
+    private static final String SQL_CREATE_URL_HASH_INDEX =
+            "CREATE INDEX bookmarks_url_hash_idx ON " + BookmarkEntry.TABLE_NAME + " (" +
+                    BookmarkEntry.COLUMN_NAME_URL_HASH + ")";
+
+    // Index of image hashes, read whole (without touching rows) to build the similar-image BK-tree,
+    // and by ImageHashJob to find images not hashed yet.
+    private static final String SQL_CREATE_IMAGE_HASH_INDEX =
+            "CREATE INDEX bookmarks_image_hash_idx ON " + BookmarkEntry.TABLE_NAME + " (" +
+                    BookmarkEntry.COLUMN_NAME_IMAGE_HASH + ")";
+
+    // A replaced attachment needs hashing again.
+    private static final String SQL_CREATE_IMAGE_HASH_RESET_TRIGGER =
+            "CREATE TRIGGER bookmarks_image_hash_au AFTER UPDATE OF " + BookmarkEntry.COLUMN_NAME_CONTENT_URI + " ON " + BookmarkEntry.TABLE_NAME +
+                    " WHEN old." + BookmarkEntry.COLUMN_NAME_CONTENT_URI + " IS NOT new." + BookmarkEntry.COLUMN_NAME_CONTENT_URI + " BEGIN " +
+                    "UPDATE " + BookmarkEntry.TABLE_NAME + " SET " + BookmarkEntry.COLUMN_NAME_IMAGE_HASH + " = NULL" +
+                    " WHERE " + BookmarkEntry._ID + " = new." + BookmarkEntry._ID + "; " +
+                    "END";
+
+    // Forgets the page metadata when the link changes, so LinkMetadataJob fetches the new page.
+    private static final String SQL_CREATE_LINK_METADATA_RESET_TRIGGER =
+            "CREATE TRIGGER bookmarks_link_metadata_au AFTER UPDATE OF " + BookmarkEntry.COLUMN_NAME_LINK_URL + " ON " + BookmarkEntry.TABLE_NAME +
+                    " WHEN old." + BookmarkEntry.COLUMN_NAME_LINK_URL + " IS NOT new." + BookmarkEntry.COLUMN_NAME_LINK_URL + " BEGIN " +
+                    "UPDATE " + BookmarkEntry.TABLE_NAME + " SET " +
+                    BookmarkEntry.COLUMN_NAME_PAGE_TITLE + " = NULL, " +
+                    BookmarkEntry.COLUMN_NAME_PAGE_DESCRIPTION + " = NULL, " +
+                    BookmarkEntry.COLUMN_NAME_FAVICON_URL + " = NULL, " +
+                    BookmarkEntry.COLUMN_NAME_PREVIEW_IMAGE_URL + " = NULL, " +
+                    BookmarkEntry.COLUMN_NAME_METADATA_ETAG + " = NULL, " +
+                    BookmarkEntry.COLUMN_NAME_METADATA_LAST_MODIFIED + " = NULL, " +
+                    BookmarkEntry.COLUMN_NAME_METADATA_FETCHED_AT + " = NULL" +
+                    " WHERE " + BookmarkEntry._ID + " = new." + BookmarkEntry._ID + "; " +
+                    "END";
+
     // SQL statement to delete the bookmarks table.
     private static final String SQL_DELETE_ENTRIES =
             "DROP TABLE IF EXISTS " + BookmarkEntry.TABLE_NAME;
 
-    public BookmarkDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    // Connection tuning applied by onConfigure. WAL lets the pool's read connections run while a write
+    // is in progress; NORMAL sync is durable in WAL mode except against power loss mid-checkpoint.
+    // cache_size and mmap_size are per-connection pragmas, and onConfigure only sees the primary
+    // connection, so they speed up writes and the index upkeep their triggers do. The read connections
+    // keep SQLite's defaults: the framework opens them itself and has no hook to configure them.
+    private static final String SYNCHRONOUS = "NORMAL";
+    private static final long MMAP_SIZE_BYTES = 32L * 1024 * 1024;
+    private static final int CACHE_SIZE_KIB = 4 * 1024; // Negative cache_size values are in KiB
+
+    private static BookmarkDbHelper instance;
+
+    private final boolean tuned;
+
+    /**
+     * Returns the process-wide helper. It is opened once and never closed, so screens share one
+     * connection pool instead of reopening (and re-running onConfigure/onOpen for) the database.
+     */
+    public static synchronized BookmarkDbHelper getInstance(Context context) {
+        if (instance == null) {
+            instance = new BookmarkDbHelper(context.getApplicationContext(), DATABASE_NAME, true);
+        }
+        return instance;
+    }
+
+    /**
+     * Opens a separate helper. Only the benchmark uses this directly, to compare an untuned
+     * per-screen open against the shared instance on a scratch database.
+     *
+     * @param tuned Whether to enable write-ahead logging and the pragmas in onConfigure.
+     */
+    BookmarkDbHelper(Context context, String databaseName, boolean tuned) {
+        super(context, databaseName, null, DATABASE_VERSION);
+        this.tuned = tuned;
+        setWriteAheadLoggingEnabled(tuned);
+    }
+
+    // Called on the primary (write) connection before onCreate/onUpgrade/onOpen, and not on the pool's
+    // read connections.
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        if (!tuned) {
+            return;
+        }
+        db.execSQL("PRAGMA synchronous = " + SYNCHRONOUS);
+        db.execSQL("PRAGMA cache_size = -" + CACHE_SIZE_KIB);
+        // mmap_size reports the size it settled on, so it has to run as a query
+        DatabaseUtils.longForQuery(db, "PRAGMA mmap_size = " + MMAP_SIZE_BYTES, null);
     }
 
     // Called when the database is created for the first time.
     @Override
     public void onCreate(SQLiteDatabase db) {
         db.execSQL(SQL_CREATE_ENTRIES);
+        db.execSQL(SQL_CREATE_TIMESTAMP_INDEX);
+        db.execSQL(SQL_CREATE_LOCATION_INDEX);
+        db.execSQL(SQL_CREATE_URL_HASH_INDEX);
+        db.execSQL(SQL_CREATE_IMAGE_HASH_INDEX);
+        db.execSQL(SQL_CREATE_IMAGE_HASH_RESET_TRIGGER);
+        db.execSQL(SQL_CREATE_LINK_METADATA_RESET_TRIGGER);
+        db.execSQL(SQL_CREATE_FTS);
+        createPageArchiveTables(db);
+        rebuildFtsIndex(db);
+        createTagTables(db);
+        createStatistics(db);
+        createFuzzyIndex(db);
+        db.execSQL(SQL_CREATE_FUZZY_TERMS_LENGTH_INDEX);
+        createAttachmentTables(db);
+        createSyncTables(db);
+    }
+
+    // Creates the normalized tag tables, their index and maintenance triggers.
+    private void createTagTables(SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_TAGS);
+        db.execSQL(SQL_CREATE_BOOKMARK_TAGS);
+        db.execSQL(SQL_CREATE_BOOKMARK_TAGS_INDEX);
+        db.execSQL(SQL_CREATE_BOOKMARK_TAGS_DELETE_TRIGGER);
+        db.execSQL(SQL_CREATE_TAG_PRUNE_TRIGGER);
+    }
+
+    // Creates the page archive's table and the triggers that keep its text in the search index.
+    private void createPageArchiveTables(SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_PAGE_ARCHIVES);
+        db.execSQL(SQL_CREATE_PAGE_ARCHIVE_FTS_INSERT_TRIGGER);
+        db.execSQL(SQL_CREATE_PAGE_ARCHIVE_FTS_UPDATE_TRIGGER);
+        db.execSQL(SQL_CREATE_PAGE_ARCHIVE_FTS_DELETE_TRIGGER);
+        db.execSQL(SQL_CREATE_PAGE_ARCHIVE_BOOKMARK_DELETE_TRIGGER);
+        db.execSQL(SQL_CREATE_PAGE_ARCHIVE_LINK_UPDATE_TRIGGER);
+    }
+
+    // Creates the sync change log with this device's ID, logs every bookmark as a local change,
+    // so the first sync sends them all, and adds the triggers logging later writes.
+    private void createSyncTables(SQLiteDatabase db) {
+        db.execSQL("UPDATE " + BookmarkEntry.TABLE_NAME + " SET " + BookmarkEntry.COLUMN_NAME_SYNC_ID + " = " + NEW_SYNC_ID +
+                " WHERE " + BookmarkEntry.COLUMN_NAME_SYNC_ID + " IS NULL");
+        db.execSQL(SQL_CREATE_SYNC_ID_INDEX);
+        db.execSQL(SQL_CREATE_SYNC_LOG);
+        db.execSQL(SQL_CREATE_SYNC_LOG_SEQ_INDEX);
+        db.execSQL(SQL_CREATE_SYNC_STATE);
+        db.execSQL("INSERT INTO " + SyncStateEntry.TABLE_NAME + " (" + SyncStateEntry._ID + ", " +
+                SyncStateEntry.COLUMN_NAME_DEVICE_ID + ", " + SyncStateEntry.COLUMN_NAME_CHANGE_SEQ + ") " +
+                "SELECT " + SyncStateEntry.ROW_ID + ", " + NEW_SYNC_ID + ", COALESCE(MAX(" + BookmarkEntry._ID + "), 0) FROM " + BookmarkEntry.TABLE_NAME);
+        db.execSQL("INSERT INTO " + SyncLogEntry.TABLE_NAME + " (" + SyncLogEntry.COLUMN_NAME_SYNC_ID + ", " +
+                SyncLogEntry.COLUMN_NAME_SEQ + ", " + SyncLogEntry.COLUMN_NAME_VERSION + ", " + SyncLogEntry.COLUMN_NAME_DEVICE_ID + ") " +
+                "SELECT " + BookmarkEntry.COLUMN_NAME_SYNC_ID + ", " + BookmarkEntry._ID + ", 1, (SELECT " + SyncStateEntry.COLUMN_NAME_DEVICE_ID +
+                " FROM " + SyncStateEntry.TABLE_NAME + ") FROM " + BookmarkEntry.TABLE_NAME);
+        db.execSQL(SQL_CREATE_SYNC_LOG_INSERT_TRIGGER);
+        db.execSQL(SQL_CREATE_SYNC_LOG_UPDATE_TRIGGER);
+        db.execSQL(SQL_CREATE_SYNC_LOG_DELETE_TRIGGER);
+    }
+
+    // Creates the attachment store's table and the triggers that count references to its files.
+    private void createAttachmentTables(SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_ATTACHMENTS);
+        db.execSQL(SQL_CREATE_ATTACHMENT_REF_INSERT_TRIGGER);
+        db.execSQL(SQL_CREATE_ATTACHMENT_REF_UPDATE_TRIGGER);
+        db.execSQL(SQL_CREATE_ATTACHMENT_REF_DELETE_TRIGGER);
+    }
+
+    // Creates the fuzzy search tables, their indexes and maintenance triggers, then indexes every bookmark.
+    private void createFuzzyIndex(SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_FUZZY_TERMS);
+        db.execSQL(SQL_CREATE_FUZZY_TRIGRAMS);
+        db.execSQL(SQL_CREATE_FUZZY_TRIGRAMS_INDEX);
+        db.execSQL(SQL_CREATE_BOOKMARK_FUZZY_TERMS);
+        db.execSQL(SQL_CREATE_BOOKMARK_FUZZY_TERMS_INDEX);
+        db.execSQL(SQL_CREATE_BOOKMARK_FUZZY_TERMS_DELETE_TRIGGER);
+        db.execSQL(SQL_CREATE_FUZZY_COUNT_INSERT_TRIGGER);
+        db.execSQL(SQL_CREATE_FUZZY_COUNT_DELETE_TRIGGER);
+        db.execSQL(SQL_CREATE_FUZZY_TRIGRAM_PRUNE_TRIGGER);
+
+        Cursor cursor = db.query(BookmarkEntry.TABLE_NAME,
+                new String[]{BookmarkEntry._ID, BookmarkEntry.COLUMN_NAME_TITLE, BookmarkEntry.COLUMN_NAME_TAGS, BookmarkEntry.COLUMN_NAME_LINK_URL},
+                null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                BookmarkFuzzy.replaceTerms(db, cursor.getLong(0), cursor.getString(1), cursor.getString(2), cursor.getString(3));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Creates the statistics table and tag usage counts, seeds them from the current rows
+    // (the only full count ever taken), then installs the triggers that keep them current.
+    private void createStatistics(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + TagEntry.TABLE_NAME +
+                " ADD COLUMN " + TagEntry.COLUMN_NAME_USAGE_COUNT + " INTEGER NOT NULL DEFAULT 0");
+        db.execSQL("UPDATE " + TagEntry.TABLE_NAME + " SET " + TagEntry.COLUMN_NAME_USAGE_COUNT +
+                " = (SELECT COUNT(*) FROM " + BookmarkTagEntry.TABLE_NAME +
+                " WHERE " + BookmarkTagEntry.COLUMN_NAME_TAG_ID + " = " + TagEntry.TABLE_NAME + "." + TagEntry._ID + ")");
+        db.execSQL(SQL_CREATE_TAG_USAGE_INSERT_TRIGGER);
+        db.execSQL(SQL_CREATE_TAG_USAGE_DELETE_TRIGGER);
+
+        db.execSQL(createStatsTableSql());
+        StringBuilder seed = new StringBuilder("INSERT INTO " + BookmarkStatsEntry.TABLE_NAME + " (" +
+                BookmarkStatsEntry._ID + ", " + BookmarkStatsEntry.COLUMN_NAME_TOTAL);
+        StringBuilder counts = new StringBuilder(" SELECT " + BookmarkStatsEntry.ROW_ID + ", COUNT(*)");
+        for (String[] type : STATS_TYPE_COLUMNS) {
+            seed.append(", ").append(type[1]);
+            counts.append(", TOTAL(").append(BookmarkEntry.COLUMN_NAME_CONTENT_TYPE).append(" IS '").append(type[0]).append("')");
+        }
+        db.execSQL(seed.append(")").append(counts).append(" FROM ").append(BookmarkEntry.TABLE_NAME).toString());
+        db.execSQL(SQL_CREATE_STATS_INSERT_TRIGGER);
+        db.execSQL(SQL_CREATE_STATS_UPDATE_TRIGGER);
+        db.execSQL(SQL_CREATE_STATS_DELETE_TRIGGER);
+    }
+
+    // Splits every bookmark's comma-separated tags into the normalized tag tables.
+    private void migrateTagStrings(SQLiteDatabase db) {
+        Cursor cursor = db.query(BookmarkEntry.TABLE_NAME,
+                new String[]{BookmarkEntry._ID, BookmarkEntry.COLUMN_NAME_TAGS},
+                null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                BookmarkTags.replaceTags(db, cursor.getLong(0), cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Fills latitude/longitude from every geographic_location string and rewrites the string in the
+    // locale-independent form, since older rows may use a decimal comma.
+    private void migrateCoordinates(SQLiteDatabase db) {
+        Cursor cursor = db.query(BookmarkEntry.TABLE_NAME,
+                new String[]{BookmarkEntry._ID, BookmarkEntry.COLUMN_NAME_GEOGRAPHIC_LOCATION},
+                BookmarkEntry.COLUMN_NAME_GEOGRAPHIC_LOCATION + " IS NOT NULL AND " +
+                        BookmarkEntry.COLUMN_NAME_GEOGRAPHIC_LOCATION + " != ''",
+                null, null, null, null);
+        try {
+            ContentValues values = new ContentValues();
+            while (cursor.moveToNext()) {
+                GeoPoint point = GeoPoint.parse(cursor.getString(1));
+                if (point == null) {
+                    continue;
+                }
+                values.put(BookmarkEntry.COLUMN_NAME_GEOGRAPHIC_LOCATION, point.format());
+                values.put(BookmarkEntry.COLUMN_NAME_LATITUDE, point.latitude);
+                values.put(BookmarkEntry.COLUMN_NAME_LONGITUDE, point.longitude);
+                db.update(BookmarkEntry.TABLE_NAME, values, BookmarkEntry._ID + " = ?",
+                        new String[]{String.valueOf(cursor.getLong(0))});
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Fills url_hash for every bookmark with a link. Run before the index exists, so the updates
+    // do not maintain it row by row.
+    private void migrateUrlHashes(SQLiteDatabase db) {
+        Cursor cursor = db.query(BookmarkEntry.TABLE_NAME,
+                new String[]{BookmarkEntry._ID, BookmarkEntry.COLUMN_NAME_LINK_URL},
+                BookmarkEntry.COLUMN_NAME_LINK_URL + " IS NOT NULL AND " +
+                        BookmarkEntry.COLUMN_NAME_LINK_URL + " != ''",
+                null, null, null, null);
+        try {
+            ContentValues values = new ContentValues();
+            while (cursor.moveToNext()) {
+                values.put(BookmarkEntry.COLUMN_NAME_URL_HASH, UrlCanonicalizer.hash(cursor.getString(1)));
+                db.update(BookmarkEntry.TABLE_NAME, values, BookmarkEntry._ID + " = ?",
+                        new String[]{String.valueOf(cursor.getLong(0))});
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // (Re)creates the search index triggers and reindexes every bookmark.
+    // Run whenever the set of indexed bookmark columns changes.
+    private void rebuildFtsIndex(SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_PAGE_ARCHIVES); // The index reads archived text; upgrades from before version 15 lack it
+        db.execSQL("DROP TRIGGER IF EXISTS bookmarks_fts_ai");
+        db.execSQL("DROP TRIGGER IF EXISTS bookmarks_fts_au");
+        db.execSQL("DROP TRIGGER IF EXISTS bookmarks_fts_ad");
+        db.execSQL(SQL_CREATE_FTS_INSERT_TRIGGER);
+        db.execSQL(SQL_CREATE_FTS_UPDATE_TRIGGER);
+        db.execSQL(SQL_CREATE_FTS_DELETE_TRIGGER);
+        db.execSQL("DELETE FROM " + BookmarkFtsEntry.TABLE_NAME);
+        db.execSQL(SQL_BACKFILL_FTS);
     }
 
     // Called when the database needs to be upgraded.
@@ -52,6 +739,138 @@ public class BookmarkDbHelper extends SQLiteOpenHelper {
                     " ADD COLUMN " + BookmarkEntry.COLUMN_NAME_TAGS + " TEXT DEFAULT ''");
         }
 
+        if (oldVersion < 3) {
+
+            // Create the full-text search index; it is populated by the version 4 step below
+            db.execSQL(SQL_CREATE_FTS);
+        }
+
+        if (oldVersion < 4) {
+
+            // Persist the reverse-geocoded address; legacy rows are filled in by AddressBackfillJob
+            db.execSQL("ALTER TABLE " + BookmarkEntry.TABLE_NAME +
+                    " ADD COLUMN " + BookmarkEntry.COLUMN_NAME_READABLE_ADDRESS + " TEXT");
+            // Index the address column too, backfilling every existing bookmark
+            rebuildFtsIndex(db);
+        }
+
+        if (oldVersion < 5) {
+
+            // Move comma-separated tags into indexed tags/bookmark_tags tables
+            createTagTables(db);
+            migrateTagStrings(db);
+        }
+
+        if (oldVersion < 6) {
+
+            // Trigger-maintained counters so the dashboard never counts rows on the fly
+            createStatistics(db);
+        }
+
+        if (oldVersion < 7) {
+
+            // Index the list's sort key so each page is a range seek, not a sort of the whole table
+            db.execSQL(SQL_CREATE_TIMESTAMP_INDEX);
+        }
+
+        if (oldVersion < 8) {
+
+            // Cache the attachment's MIME type; existing rows are resolved lazily by BookmarkRepository
+            db.execSQL("ALTER TABLE " + BookmarkEntry.TABLE_NAME +
+                    " ADD COLUMN " + BookmarkEntry.COLUMN_NAME_MIME_TYPE + " TEXT");
+        }
+
+        if (oldVersion < 9) {
+
+            // Numeric coordinates with a spatial index, parsed from the "lat,lon" strings
+            db.execSQL("ALTER TABLE " + BookmarkEntry.TABLE_NAME +
+                    " ADD COLUMN " + BookmarkEntry.COLUMN_NAME_LATITUDE + " REAL");
+            db.execSQL("ALTER TABLE " + BookmarkEntry.TABLE_NAME +
+                    " ADD COLUMN " + BookmarkEntry.COLUMN_NAME_LONGITUDE + " REAL");
+            migrateCoordinates(db);
+            db.execSQL(SQL_CREATE_LOCATION_INDEX);
+        }
+
+        if (oldVersion < 10) {
+
+            // Trigram index for typo-tolerant search over titles, tags and link hosts
+            createFuzzyIndex(db);
+        }
+
+        if (oldVersion < 11) {
+
+            // Hash of the canonical link, so saving can find the same page saved before
+            db.execSQL("ALTER TABLE " + BookmarkEntry.TABLE_NAME +
+                    " ADD COLUMN " + BookmarkEntry.COLUMN_NAME_URL_HASH + " INTEGER");
+            migrateUrlHashes(db);
+            db.execSQL(SQL_CREATE_URL_HASH_INDEX);
+        }
+
+        if (oldVersion < 12) {
+
+            // Content-addressed attachment store; existing bookmarks keep their picker URIs
+            db.execSQL("ALTER TABLE " + BookmarkEntry.TABLE_NAME +
+                    " ADD COLUMN " + BookmarkEntry.COLUMN_NAME_ATTACHMENT_HASH + " TEXT");
+            createAttachmentTables(db);
+        }
+
+        if (oldVersion < 13) {
+
+            // Perceptual hashes of image attachments, computed in the background by ImageHashJob
+            db.execSQL("ALTER TABLE " + BookmarkEntry.TABLE_NAME +
+                    " ADD COLUMN " + BookmarkEntry.COLUMN_NAME_IMAGE_HASH + " INTEGER");
+            db.execSQL(SQL_CREATE_IMAGE_HASH_INDEX);
+            db.execSQL(SQL_CREATE_IMAGE_HASH_RESET_TRIGGER);
+        }
+        if (oldVersion < 14) {
+
+            // Page metadata of link bookmarks, fetched in the background by LinkMetadataJob
+            String[] columns = {
+                    BookmarkEntry.COLUMN_NAME_PAGE_TITLE, BookmarkEntry.COLUMN_NAME_PAGE_DESCRIPTION,
+                    BookmarkEntry.COLUMN_NAME_FAVICON_URL, BookmarkEntry.COLUMN_NAME_PREVIEW_IMAGE_URL,
+                    BookmarkEntry.COLUMN_NAME_METADATA_ETAG, BookmarkEntry.COLUMN_NAME_METADATA_LAST_MODIFIED
+            };
+            for (String column : columns) {
+                db.execSQL("ALTER TABLE " + BookmarkEntry.TABLE_NAME + " ADD COLUMN " + column + " TEXT");
+            }
+            db.execSQL("ALTER TABLE " + BookmarkEntry.TABLE_NAME +
+                    " ADD COLUMN " + BookmarkEntry.COLUMN_NAME_METADATA_FETCHED_AT + " INTEGER");
+            db.execSQL(SQL_CREATE_LINK_METADATA_RESET_TRIGGER);
+        }
+        if (oldVersion < 15) {
+
+            // Offline page snapshots, whose text becomes a sixth column of the search index.
+            // FTS4 tables cannot gain columns, so the index is recreated and refilled.
+            db.execSQL("DROP TABLE IF EXISTS " + BookmarkFtsEntry.TABLE_NAME);
+            db.execSQL(SQL_CREATE_FTS);
+            createPageArchiveTables(db);
+            rebuildFtsIndex(db);
+        }
+        if (oldVersion < 16) {
+
+            // Sync change log; every existing bookmark gets a sync ID and is logged for the first sync
+            db.execSQL("ALTER TABLE " + BookmarkEntry.TABLE_NAME +
+                    " ADD COLUMN " + BookmarkEntry.COLUMN_NAME_SYNC_ID + " TEXT");
+            createSyncTables(db);
+        }
+        if (oldVersion < 17) {
+
+            // Fuzzy search reads short words by length, as they may share no trigram with a typo
+            db.execSQL(SQL_CREATE_FUZZY_TERMS_LENGTH_INDEX);
+        }
+        if (oldVersion < 18) {
+
+            // Attachment and MIME type columns are no longer synced, so writes to them are not logged
+            db.execSQL("DROP TRIGGER IF EXISTS sync_log_au");
+            db.execSQL(SQL_CREATE_SYNC_LOG_UPDATE_TRIGGER);
+        }
+        if (oldVersion < 19) {
+
+            // The search index is rewritten only by writes to the columns it indexes
+            db.execSQL("DROP TRIGGER IF EXISTS bookmarks_fts_au");
+            db.execSQL(SQL_CREATE_FTS_UPDATE_TRIGGER);
+        }
+
     }
 
     // Called when the database needs to be downgraded.
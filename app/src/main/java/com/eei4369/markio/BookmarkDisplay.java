@@ -0,0 +1,98 @@
+package com.eei4369.markio;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+// Precomputes the text and thumbnail choice of list rows, so BookmarkAdapter binds without formatting or IPC.
+public final class BookmarkDisplay {
+
+    // Which thumbnail a row shows
+    public static final int THUMBNAIL_NOTE = 0;
+    public static final int THUMBNAIL_LINK = 1;
+    public static final int THUMBNAIL_IMAGE = 2;
+    public static final int THUMBNAIL_VIDEO = 3;
+    public static final int THUMBNAIL_AUDIO = 4;
+    public static final int THUMBNAIL_DOCUMENT = 5;
+
+    private BookmarkDisplay() {}
+
+    /**
+     * Fills in the display fields of freshly loaded rows. Call on a background thread, after
+     * each row's MIME type has been resolved.
+     */
+    public static void prepare(List<Bookmark> bookmarks) {
+        // One formatter per batch: SimpleDateFormat is costly to build and not thread-safe to share
+        SimpleDateFormat dateFormat = new SimpleDateFormat("MMM dd, yyyy HH:mm", Locale.getDefault());
+        for (Bookmark bookmark : bookmarks) {
+            bookmark.setFormattedTimestamp("Saved: " + dateFormat.format(new Date(bookmark.getTimestamp())));
+            bookmark.setFormattedTags(formatTags(bookmark.getTags()));
+            bookmark.setThumbnailKind(thumbnailKind(bookmark));
+            bookmark.setFormattedLink(bookmark.getThumbnailKind() == THUMBNAIL_LINK
+                    ? formatLink(bookmark.getLinkUrl(), bookmark.getPageTitle()) : null);
+            bookmark.setFormattedLocation(formatLocation(bookmark.getReadableAddress(), bookmark.getDistanceMeters()));
+        }
+    }
+
+    // "Street, City \u00b7 350 m" in nearby lists, the address alone elsewhere, the distance alone
+    // when there is no address to show; null when there is neither.
+    static String formatLocation(String readableAddress, double distanceMeters) {
+        boolean hasAddress = readableAddress != null && !readableAddress.trim().isEmpty()
+                && !readableAddress.equals("Location: Not selected") && !readableAddress.contains("0.000000,0.000000");
+        if (distanceMeters < 0) {
+            return hasAddress ? readableAddress : null;
+        }
+        String distance = formatDistance(distanceMeters);
+        return hasAddress ? readableAddress + " \u00b7 " + distance : distance;
+    }
+
+    // "350 m" below a kilometer, then "1.2 km".
+    static String formatDistance(double meters) {
+        if (meters < 1000) {
+            return Math.round(meters) + " m";
+        }
+        return String.format(Locale.getDefault(), "%.1f km", meters / 1000);
+    }
+
+    // "Page title \u00b7 example.com" once the page's title is known, else the URL itself.
+    static String formatLink(String url, String pageTitle) {
+        if (pageTitle == null || pageTitle.isEmpty()) {
+            return url;
+        }
+        String host = null;
+        try {
+            host = new URI(url).getHost();
+        } catch (URISyntaxException e) {
+            // Shown with the URL instead
+        }
+        return pageTitle + " \u00b7 " + (host != null ? host : url);
+    }
+
+    // "a,b" becomes "#a #b"; null when there is nothing to show.
+    private static String formatTags(String tags) {
+        if (tags == null || tags.trim().isEmpty()) {
+            return null;
+        }
+        return "#" + tags.trim().replace(",", " #"); // Add # prefix to each tag
+    }
+
+    private static int thumbnailKind(Bookmark bookmark) {
+        String linkUrl = bookmark.getLinkUrl();
+        if ("link".equals(bookmark.getContentType()) && linkUrl != null && !linkUrl.isEmpty()) {
+            return THUMBNAIL_LINK;
+        }
+        String contentUri = bookmark.getContentUri();
+        if (contentUri == null || contentUri.isEmpty()) {
+            return THUMBNAIL_NOTE; // Just notes/text bookmark
+        }
+        String mimeType = bookmark.getMimeType();
+        if (mimeType == null) return THUMBNAIL_DOCUMENT;
+        if (mimeType.startsWith("image/")) return THUMBNAIL_IMAGE;
+        if (mimeType.startsWith("video/")) return THUMBNAIL_VIDEO;
+        if (mimeType.startsWith("audio/")) return THUMBNAIL_AUDIO;
+        return THUMBNAIL_DOCUMENT; // Generic file (document)
+    }
+}
@@ -0,0 +1,88 @@
+package com.eei4369.markio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+// Builds full-text MATCH expressions and ranks search hits from the bookmarks_fts index.
+public final class BookmarkFts {
+
+    // Markers placed around matched terms by snippet(); the adapter turns them into bold spans.
+    public static final String SNIPPET_START = "\u0002";
+    public static final String SNIPPET_END = "\u0003";
+    public static final String SNIPPET_ELLIPSIS = "\u2026";
+
+    // Argument for matchinfo(): p = phrase count, c = column count, x = per phrase/column hit stats.
+    public static final String MATCHINFO_FORMAT = "pcx";
+
+    // Relevance weight of each indexed column, in bookmarks_fts column order
+    // (title, notes, tags, link_url, readable_address, archived_text). Archived pages are long,
+    // so a word in one says less about the bookmark than the same word in its own notes.
+    private static final double[] COLUMN_WEIGHTS = {10.0, 1.0, 5.0, 2.0, 1.0, 0.5};
+
+    private BookmarkFts() {}
+
+    /**
+     * Turns free text typed by the user into an FTS MATCH expression.
+     * Every word becomes a prefix term, so "andr dev" matches "Android development".
+     *
+     * @param userQuery The raw search text.
+     * @return The MATCH expression, or null if the text contains nothing searchable.
+     */
+    public static String buildMatchQuery(String userQuery) {
+        if (userQuery == null) return null;
+        List<String> terms = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        String lower = userQuery.toLowerCase(Locale.ROOT);
+        for (int i = 0; i < lower.length(); i++) {
+            char c = lower.charAt(i);
+            // Anything that is not a letter or digit would be FTS syntax or a token separator
+            if (Character.isLetterOrDigit(c)) {
+                current.append(c);
+            } else if (current.length() > 0) {
+                terms.add(current.toString());
+                current.setLength(0);
+            }
+        }
+        if (current.length() > 0) terms.add(current.toString());
+        if (terms.isEmpty()) return null;
+
+        StringBuilder match = new StringBuilder();
+        for (String term : terms) {
+            if (match.length() > 0) match.append(' ');
+            match.append(term).append('*'); // Implicit AND between prefix terms
+        }
+        return match.toString();
+    }
+
+    /**
+     * Computes a relevance score from a matchinfo(bookmarks_fts, 'pcx') blob.
+     * Each hit is weighted by its column and by how rare the term is across all rows.
+     *
+     * @param matchInfo The blob returned by matchinfo().
+     * @return The score; higher is more relevant.
+     */
+    public static double rank(byte[] matchInfo) {
+        if (matchInfo == null || matchInfo.length < 8) return 0;
+        // matchinfo() is an array of 32-bit unsigned integers in native (little-endian) byte order
+        ByteBuffer buffer = ByteBuffer.wrap(matchInfo).order(ByteOrder.LITTLE_ENDIAN);
+        int phraseCount = buffer.getInt(0);
+        int columnCount = buffer.getInt(4);
+        double score = 0;
+        for (int phrase = 0; phrase < phraseCount; phrase++) {
+            for (int column = 0; column < columnCount; column++) {
+                int offset = 4 * (2 + 3 * (column + phrase * columnCount));
+                if (offset + 8 > matchInfo.length) return score;
+                int hitsThisRow = buffer.getInt(offset);
+                int hitsAllRows = buffer.getInt(offset + 4);
+                if (hitsThisRow > 0 && hitsAllRows > 0) {
+                    double weight = column < COLUMN_WEIGHTS.length ? COLUMN_WEIGHTS[column] : 1.0;
+                    score += weight * hitsThisRow / hitsAllRows;
+                }
+            }
+        }
+        return score;
+    }
+}
@@ -0,0 +1,343 @@
+package com.eei4369.markio;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.text.TextUtils;
+
+import com.eei4369.markio.BookmarkContract.BookmarkFuzzyTermEntry;
+import com.eei4369.markio.BookmarkContract.FuzzyTermEntry;
+import com.eei4369.markio.BookmarkContract.FuzzyTrigramEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Typo-tolerant search over the words of titles, tags and link hosts.
+ *
+ * The index is over the vocabulary rather than over bookmarks: each distinct word is stored once
+ * with its trigrams, and linked to the bookmarks using it. A query word is looked up by its
+ * trigrams (or, if it is short, by length), the candidate words are checked by edit distance, and
+ * only the words that pass are followed to bookmarks. The vocabulary grows far slower than the bookmark count, so lookups stay
+ * fast as the collection grows. Links are updated per bookmark on save, and removed by triggers.
+ */
+public final class BookmarkFuzzy {
+
+    private static final int MIN_TERM_LENGTH = 2;
+    private static final int MAX_TERM_LENGTH = 40;
+    // Query words up to this long can share no trigram with a word one typo away ("cot", "cat")
+    private static final int MAX_SHORT_WORD_LENGTH = 4;
+    // Bookmarks followed from the rarest query word; other words only filter these
+    private static final int MAX_CANDIDATES = 5000;
+
+    private BookmarkFuzzy() {}
+
+    /**
+     * Splits the indexed fields of a bookmark into distinct lower-case words.
+     */
+    public static Set<String> terms(String title, String tags, String linkUrl) {
+        Set<String> terms = new LinkedHashSet<>();
+        addWords(terms, title);
+        addWords(terms, tags);
+        if (!TextUtils.isEmpty(linkUrl)) {
+            String host = Uri.parse(linkUrl.contains("://") ? linkUrl : "http://" + linkUrl).getHost();
+            if (host != null) {
+                addWords(terms, host.startsWith("www.") ? host.substring(4) : host);
+            }
+        }
+        return terms;
+    }
+
+    // Adds each run of letters and digits, as BookmarkFts tokenizes search text.
+    static void addWords(Set<String> terms, String text) {
+        if (text == null) return;
+        String lower = text.toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= lower.length(); i++) {
+            boolean wordChar = i < lower.length() && Character.isLetterOrDigit(lower.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                if (i - start >= MIN_TERM_LENGTH && i - start <= MAX_TERM_LENGTH) {
+                    terms.add(lower.substring(start, i));
+                }
+                start = -1;
+            }
+        }
+    }
+
+    // Trigrams of the word padded with a space on each side, so its start and end count too.
+    static Set<String> trigrams(String term) {
+        String padded = " " + term + " ";
+        Set<String> grams = new LinkedHashSet<>();
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            grams.add(padded.substring(i, i + 3));
+        }
+        return grams;
+    }
+
+    // Typos allowed in a query word: one in short words, two from five letters on.
+    static int maxEdits(String word) {
+        return word.length() <= MAX_SHORT_WORD_LENGTH ? 1 : 2;
+    }
+
+    /**
+     * Trigrams a vocabulary word must share with the query word to be a candidate, or 0 if the
+     * query word is short enough to be compared with every word of a similar length instead.
+     * One typo changes at most 4 of a word's trigrams (an adjacent swap; other edits change 3), so
+     * a match shares at least the rest. Longer words always need one in common, which only misses
+     * two typos that between them change every trigram of a word of up to eight letters.
+     */
+    static int minSharedTrigrams(String word) {
+        if (word.length() <= MAX_SHORT_WORD_LENGTH) {
+            return 0;
+        }
+        return Math.max(1, trigrams(word).size() - 4 * maxEdits(word));
+    }
+
+    /**
+     * Edit distance counting insertions, deletions, substitutions and swaps of adjacent letters
+     * ("andriod" is one edit from "android"). Stops early and returns max + 1 once it is exceeded.
+     */
+    static int editDistance(String a, String b, int max) {
+        if (Math.abs(a.length() - b.length()) > max) return max + 1;
+        int[] prevPrev = new int[b.length() + 1];
+        int[] prev = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) prev[j] = j;
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMin = current[0];
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                int value = Math.min(Math.min(prev[j] + 1, current[j - 1] + 1), prev[j - 1] + cost);
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+                    value = Math.min(value, prevPrev[j - 2] + 1);
+                }
+                current[j] = value;
+                rowMin = Math.min(rowMin, value);
+            }
+            if (rowMin > max) return max + 1;
+            int[] recycled = prevPrev;
+            prevPrev = prev;
+            prev = current;
+            current = recycled;
+        }
+        return Math.min(prev[b.length()], max + 1);
+    }
+
+    /**
+     * Replaces the words linked to one bookmark, touching only those that changed.
+     * Call inside the transaction that writes the bookmark.
+     */
+    public static void replaceTerms(SQLiteDatabase db, long bookmarkId, String title, String tags, String linkUrl) {
+        Set<String> wanted = terms(title, tags, linkUrl);
+        Map<String, Long> current = new HashMap<>();
+        Cursor cursor = db.rawQuery("SELECT t." + FuzzyTermEntry.COLUMN_NAME_TERM + ", t." + FuzzyTermEntry._ID +
+                " FROM " + BookmarkFuzzyTermEntry.TABLE_NAME + " bt JOIN " + FuzzyTermEntry.TABLE_NAME + " t" +
+                " ON t." + FuzzyTermEntry._ID + " = bt." + BookmarkFuzzyTermEntry.COLUMN_NAME_TERM_ID +
+                " WHERE bt." + BookmarkFuzzyTermEntry.COLUMN_NAME_BOOKMARK_ID + " = ?",
+                new String[]{String.valueOf(bookmarkId)});
+        try {
+            while (cursor.moveToNext()) {
+                current.put(cursor.getString(0), cursor.getLong(1));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        for (Map.Entry<String, Long> entry : current.entrySet()) {
+            if (!wanted.contains(entry.getKey())) {
+                // Triggers update the word's count and drop it once unused
+                db.delete(BookmarkFuzzyTermEntry.TABLE_NAME,
+                        BookmarkFuzzyTermEntry.COLUMN_NAME_BOOKMARK_ID + " = ? AND " + BookmarkFuzzyTermEntry.COLUMN_NAME_TERM_ID + " = ?",
+                        new String[]{String.valueOf(bookmarkId), String.valueOf(entry.getValue())});
+            }
+        }
+        ContentValues link = new ContentValues();
+        for (String term : wanted) {
+            if (current.containsKey(term)) continue;
+            link.put(BookmarkFuzzyTermEntry.COLUMN_NAME_BOOKMARK_ID, bookmarkId);
+            link.put(BookmarkFuzzyTermEntry.COLUMN_NAME_TERM_ID, getOrCreateTermId(db, term));
+            db.insert(BookmarkFuzzyTermEntry.TABLE_NAME, null, link);
+        }
+    }
+
+    // Looks a word up through the unique index on it, inserting it and its trigrams if it is new.
+    private static long getOrCreateTermId(SQLiteDatabase db, String term) {
+        Cursor cursor = db.query(FuzzyTermEntry.TABLE_NAME, new String[]{FuzzyTermEntry._ID},
+                FuzzyTermEntry.COLUMN_NAME_TERM + " = ?", new String[]{term}, null, null, null);
+        try {
+            if (cursor.moveToFirst()) {
+                return cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+        ContentValues values = new ContentValues();
+        values.put(FuzzyTermEntry.COLUMN_NAME_TERM, term);
+        long termId = db.insert(FuzzyTermEntry.TABLE_NAME, null, values);
+        ContentValues gram = new ContentValues();
+        for (String trigram : trigrams(term)) {
+            gram.put(FuzzyTrigramEntry.COLUMN_NAME_TRIGRAM, trigram);
+            gram.put(FuzzyTrigramEntry.COLUMN_NAME_TERM_ID, termId);
+            db.insert(FuzzyTrigramEntry.TABLE_NAME, null, gram);
+        }
+        return termId;
+    }
+
+    /**
+     * Finds bookmarks containing, for every word of the query, that word or one within a couple
+     * of typos of it.
+     *
+     * @return Bookmark ID -> score in (0, 1], best first; newer bookmarks first among equal scores.
+     */
+    public static LinkedHashMap<Long, Double> search(SQLiteDatabase db, String query, CancellationSignal cancellationSignal) {
+        LinkedHashMap<Long, Double> ranked = new LinkedHashMap<>();
+        Set<String> words = new LinkedHashSet<>();
+        addWords(words, query);
+        if (words.isEmpty()) {
+            return ranked;
+        }
+
+        // Similar vocabulary words for each query word, rarest query word first
+        List<Map<Long, Double>> wordMatches = new ArrayList<>();
+        List<Long> wordFrequencies = new ArrayList<>();
+        for (String word : words) {
+            long[] frequency = new long[1];
+            Map<Long, Double> matches = similarTerms(db, word, frequency, cancellationSignal);
+            if (matches.isEmpty()) {
+                return ranked; // Every query word must match
+            }
+            int at = 0;
+            while (at < wordFrequencies.size() && wordFrequencies.get(at) <= frequency[0]) at++;
+            wordMatches.add(at, matches);
+            wordFrequencies.add(at, frequency[0]);
+        }
+
+        // Bookmarks using the rarest word, best matching words first...
+        Map<Long, Double> scores = new HashMap<>();
+        Map<Long, Double> first = wordMatches.get(0);
+        List<Long> firstTerms = new ArrayList<>(first.keySet());
+        Collections.sort(firstTerms, (a, b) -> Double.compare(first.get(b), first.get(a)));
+        for (Long termId : firstTerms) {
+            int remaining = MAX_CANDIDATES - scores.size();
+            if (remaining <= 0) break;
+            Cursor cursor = db.rawQuery("SELECT " + BookmarkFuzzyTermEntry.COLUMN_NAME_BOOKMARK_ID +
+                    " FROM " + BookmarkFuzzyTermEntry.TABLE_NAME +
+                    " WHERE " + BookmarkFuzzyTermEntry.COLUMN_NAME_TERM_ID + " = ? LIMIT " + remaining,
+                    new String[]{String.valueOf(termId)}, cancellationSignal);
+            try {
+                while (cursor.moveToNext()) {
+                    long bookmarkId = cursor.getLong(0);
+                    if (!scores.containsKey(bookmarkId)) scores.put(bookmarkId, first.get(termId));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        // ...then kept only if they also use a match for each other word
+        for (int w = 1; w < wordMatches.size() && !scores.isEmpty(); w++) {
+            Map<Long, Double> matches = wordMatches.get(w);
+            Map<Long, Double> best = new HashMap<>();
+            Cursor cursor = db.rawQuery("SELECT " + BookmarkFuzzyTermEntry.COLUMN_NAME_BOOKMARK_ID + ", " + BookmarkFuzzyTermEntry.COLUMN_NAME_TERM_ID +
+                    " FROM " + BookmarkFuzzyTermEntry.TABLE_NAME +
+                    " WHERE " + BookmarkFuzzyTermEntry.COLUMN_NAME_BOOKMARK_ID + " IN (" + TextUtils.join(",", scores.keySet()) + ")" +
+                    " AND " + BookmarkFuzzyTermEntry.COLUMN_NAME_TERM_ID + " IN (" + TextUtils.join(",", matches.keySet()) + ")",
+                    null, cancellationSignal);
+            try {
+                while (cursor.moveToNext()) {
+                    long bookmarkId = cursor.getLong(0);
+                    double score = matches.get(cursor.getLong(1));
+                    Double previous = best.get(bookmarkId);
+                    if (previous == null || score > previous) best.put(bookmarkId, score);
+                }
+            } finally {
+                cursor.close();
+            }
+            Map<Long, Double> kept = new HashMap<>();
+            for (Map.Entry<Long, Double> entry : best.entrySet()) {
+                kept.put(entry.getKey(), scores.get(entry.getKey()) + entry.getValue());
+            }
+            scores = kept;
+        }
+
+        List<Long> ids = new ArrayList<>(scores.keySet());
+        Map<Long, Double> totals = scores;
+        // Higher IDs were saved later, matching the newest-first order of the other lists
+        Collections.sort(ids, (a, b) -> {
+            int byScore = Double.compare(totals.get(b), totals.get(a));
+            return byScore != 0 ? byScore : Long.compare(b, a);
+        });
+        for (Long id : ids) {
+            ranked.put(id, totals.get(id) / wordMatches.size());
+        }
+        return ranked;
+    }
+
+    /**
+     * Vocabulary words within maxEdits(word) of the query word, scored 1 for an exact match and
+     * less for each typo. Candidates of a long word come from the trigram index (see
+     * minSharedTrigrams); those of a short word are every word of a similar length, read through
+     * the index on word length, as short words make up a small part of the vocabulary.
+     *
+     * @param frequency Receives the number of bookmark links of all matched words.
+     */
+    private static Map<Long, Double> similarTerms(SQLiteDatabase db, String word, long[] frequency,
+                                                  CancellationSignal cancellationSignal) {
+        int maxEdits = maxEdits(word);
+        int minShared = minSharedTrigrams(word);
+        // Numbers are written into the SQL: bound as text, they would compare greater than any length
+        String lengthRange = " BETWEEN " + (word.length() - maxEdits) + " AND " + (word.length() + maxEdits);
+
+        Cursor cursor;
+        if (minShared == 0) {
+            cursor = db.rawQuery("SELECT " + FuzzyTermEntry._ID + ", " + FuzzyTermEntry.COLUMN_NAME_TERM + ", " + FuzzyTermEntry.COLUMN_NAME_DOC_COUNT +
+                    " FROM " + FuzzyTermEntry.TABLE_NAME +
+                    " WHERE length(" + FuzzyTermEntry.COLUMN_NAME_TERM + ")" + lengthRange,
+                    null, cancellationSignal);
+        } else {
+            Set<String> grams = trigrams(word);
+            String[] args = new String[grams.size()];
+            StringBuilder placeholders = new StringBuilder();
+            int i = 0;
+            for (String gram : grams) {
+                if (i > 0) placeholders.append(',');
+                placeholders.append('?');
+                args[i++] = gram;
+            }
+            cursor = db.rawQuery("SELECT t." + FuzzyTermEntry._ID + ", t." + FuzzyTermEntry.COLUMN_NAME_TERM + ", t." + FuzzyTermEntry.COLUMN_NAME_DOC_COUNT +
+                    " FROM " + FuzzyTrigramEntry.TABLE_NAME + " g JOIN " + FuzzyTermEntry.TABLE_NAME + " t" +
+                    " ON t." + FuzzyTermEntry._ID + " = g." + FuzzyTrigramEntry.COLUMN_NAME_TERM_ID +
+                    " WHERE g." + FuzzyTrigramEntry.COLUMN_NAME_TRIGRAM + " IN (" + placeholders + ")" +
+                    " AND length(t." + FuzzyTermEntry.COLUMN_NAME_TERM + ")" + lengthRange +
+                    " GROUP BY t." + FuzzyTermEntry._ID + " HAVING COUNT(*) >= " + minShared,
+                    args, cancellationSignal);
+        }
+
+        Map<Long, Double> matches = new HashMap<>();
+        try {
+            while (cursor.moveToNext()) {
+                int distance = editDistance(word, cursor.getString(1), maxEdits);
+                if (distance <= maxEdits) {
+                    matches.put(cursor.getLong(0), 1.0 - distance / (maxEdits + 1.0));
+                    frequency[0] += cursor.getLong(2);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return matches;
+    }
+}
@@ -0,0 +1,60 @@
+package com.eei4369.markio;
+
+import android.content.Context;
+
+import androidx.core.content.ContextCompat;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * Tells screens which bookmark rows changed, so they refresh only what is affected instead of
+ * requerying everything whenever they resume.
+ *
+ * Writers publish a BookmarkChange after their transaction commits. Listeners are always
+ * called on the main thread, in publish order.
+ */
+public class BookmarkInvalidationTracker {
+
+    private static BookmarkInvalidationTracker instance;
+
+    public interface Listener {
+        void onBookmarksChanged(BookmarkChange change);
+    }
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Executor mainExecutor;
+
+    private BookmarkInvalidationTracker(Context context) {
+        this.mainExecutor = ContextCompat.getMainExecutor(context);
+    }
+
+    public static synchronized BookmarkInvalidationTracker getInstance(Context context) {
+        if (instance == null) {
+            instance = new BookmarkInvalidationTracker(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    // Listeners must be removed again (usually in onDestroy) to avoid leaking the activity.
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Publishes a committed change. Safe to call from any thread.
+     */
+    public void publish(BookmarkChange change) {
+        if (change.getIds().isEmpty()) return;
+        mainExecutor.execute(() -> {
+            for (Listener listener : listeners) { // Copy-on-write, so listeners may unsubscribe here
+                listener.onBookmarksChanged(change);
+            }
+        });
+    }
+}
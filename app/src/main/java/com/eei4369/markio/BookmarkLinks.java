@@ -0,0 +1,82 @@
+package com.eei4369.markio;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.eei4369.markio.BookmarkContract.BookmarkEntry;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Duplicate link lookups through the url_hash index. A hash only narrows the search to a few
+ * rows; their links are canonicalized again to confirm the match, as unequal links may collide.
+ */
+public final class BookmarkLinks {
+
+    private BookmarkLinks() {}
+
+    /**
+     * Finds a bookmark saved with the same page as url: one index seek, then a check of the
+     * rows sharing its hash. Returns the most recently saved match, or -1 if there is none.
+     *
+     * @param excludeId A bookmark not to report, such as the one being edited; -1 for none.
+     */
+    public static long findByLink(SQLiteDatabase db, String url, long excludeId) {
+        String canonical = UrlCanonicalizer.canonicalize(url);
+        if (canonical == null) {
+            return -1;
+        }
+        Cursor cursor = db.query(BookmarkEntry.TABLE_NAME,
+                new String[]{BookmarkEntry._ID, BookmarkEntry.COLUMN_NAME_LINK_URL},
+                BookmarkEntry.COLUMN_NAME_URL_HASH + " = ? AND " + BookmarkEntry._ID + " != ?",
+                new String[]{String.valueOf(UrlCanonicalizer.hash(url)), String.valueOf(excludeId)},
+                null, null, BookmarkEntry.COLUMN_NAME_TIMESTAMP + " DESC");
+        try {
+            while (cursor.moveToNext()) {
+                if (canonical.equals(UrlCanonicalizer.canonicalize(cursor.getString(1)))) {
+                    return cursor.getLong(0);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return -1;
+    }
+
+    /**
+     * Groups every bookmark whose link is saved more than once. The hashes shared by several rows
+     * are found from the index alone; only those rows are read.
+     *
+     * @return Clusters of bookmark IDs, oldest first within each; empty if there are no duplicates.
+     */
+    public static List<List<Long>> findDuplicateClusters(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("SELECT " + BookmarkEntry._ID + ", " + BookmarkEntry.COLUMN_NAME_LINK_URL +
+                " FROM " + BookmarkEntry.TABLE_NAME +
+                " WHERE " + BookmarkEntry.COLUMN_NAME_URL_HASH + " IN (SELECT " + BookmarkEntry.COLUMN_NAME_URL_HASH +
+                " FROM " + BookmarkEntry.TABLE_NAME + " WHERE " + BookmarkEntry.COLUMN_NAME_URL_HASH + " IS NOT NULL" +
+                " GROUP BY " + BookmarkEntry.COLUMN_NAME_URL_HASH + " HAVING COUNT(*) > 1)" +
+                " ORDER BY " + BookmarkEntry._ID, null);
+        Map<String, List<Long>> byCanonical = new LinkedHashMap<>();
+        try {
+            while (cursor.moveToNext()) {
+                String canonical = UrlCanonicalizer.canonicalize(cursor.getString(1));
+                List<Long> ids = byCanonical.get(canonical);
+                if (ids == null) {
+                    ids = new ArrayList<>();
+                    byCanonical.put(canonical, ids);
+                }
+                ids.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        List<List<Long>> clusters = new ArrayList<>();
+        for (List<Long> ids : byCanonical.values()) {
+            if (ids.size() > 1) clusters.add(ids); // Rows that only collided on the hash are dropped
+        }
+        return clusters;
+    }
+}
@@ -1,48 +1,82 @@
 package com.eei4369.markio;
 
+import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.SearchView;
+import androidx.core.app.ActivityCompat;
+import androidx.core.content.ContextCompat;
+import androidx.lifecycle.Lifecycle;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
+import android.Manifest;
 import android.content.Intent;
-import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
-import android.location.Address;
-import android.location.Geocoder;
+import android.content.pm.PackageManager;
+import android.net.ConnectivityManager;
+import android.net.NetworkCapabilities;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.text.TextUtils;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.Toast;
 
+import com.bumptech.glide.Glide;
+import com.google.android.gms.location.LocationServices;
 import com.google.android.material.appbar.MaterialToolbar;
-import com.eei4369.markio.BookmarkContract.BookmarkEntry;
 
-import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Set;
 import java.util.Arrays; // Needed for Arrays.toString when debugging (removed debug logs now)
 
-public class BookmarkListActivity extends AppCompatActivity implements BookmarkAdapter.OnBookmarkClickListener {
+public class BookmarkListActivity extends AppCompatActivity implements BookmarkAdapter.OnBookmarkClickListener,
+        BookmarkInvalidationTracker.Listener {
 
-    private BookmarkDbHelper dbHelper;
+    // Start loading the next page when this many rows or fewer remain below the last visible one
+    private static final String TAG = "BookmarkListActivity";
+    private static final int PREFETCH_DISTANCE = 10;
+    private static final double DEFAULT_NEARBY_RADIUS_METERS = 5000;
+    private static final int PERMISSION_REQUEST_CODE_LOCATION = 201;
+    // Wait this long after the last keystroke before searching, so fast typing runs one query
+    private static final long SEARCH_DEBOUNCE_MS = 250;
+
+    // Keystroke-to-results latency of search-as-you-type, for the whole process
+    private static final LatencyRecorder SEARCH_LATENCY = new LatencyRecorder(128);
+
+    private BookmarkRepository repository;
     private BookmarkAdapter bookmarkAdapter;
-    private List<Bookmark> bookmarkList;
+    private ThumbnailPreloader thumbnailPreloader;
+    private BookmarkPagingSource pagingSource; // Current filtered result set, loaded page by page
+    private CancellationSignal pagingSignal; // Cancels pagingSource's reads once it is replaced
+    private boolean loadingPage = false; // True while a page request is queued on the repository
+    private boolean reloadNeeded = true; // Set when a change moved rows; handled on the next resume
     private MaterialToolbar toolbar; // Toolbar reference
     private String currentFilterType = null; // Filter for content type (image, link, document)
     private String currentTagFilter = null; // Filter by a specific tag
     private String currentSearchQuery = null; // Current search term
+    private GeoPoint nearCenter = null; // Center of the nearby mode, or null when not limiting by distance
+    private double nearRadiusMeters = DEFAULT_NEARBY_RADIUS_METERS;
+
+    private final Handler searchHandler = new Handler(Looper.getMainLooper());
+    private String pendingSearchQuery; // Typed text waiting out the debounce delay
+    private long lastKeystrokeAt; // uptimeMillis of the latest edit to the search text
+    private final Runnable searchRunnable = () -> applySearchQuery(pendingSearchQuery);
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_bookmark_list);
 
-        dbHelper = new BookmarkDbHelper(this);
+        repository = BookmarkRepository.getInstance(this);
 
         toolbar = findViewById(R.id.toolbarBookmarkList);
         setSupportActionBar(toolbar);
@@ -54,11 +88,23 @@ public class BookmarkListActivity extends AppCompatActivity implements BookmarkA
         toolbar.setNavigationOnClickListener(v -> finish()); // Handle back button click
 
         RecyclerView recyclerView = findViewById(R.id.recyclerViewBookmarks);
-        recyclerView.setLayoutManager(new LinearLayoutManager(this));
+        LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        recyclerView.setLayoutManager(layoutManager);
+        recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                if (dy > 0) {
+                    loadNextPageIfNeeded(layoutManager);
+                }
+            }
+        });
 
-        bookmarkList = new ArrayList<>();
-        bookmarkAdapter = new BookmarkAdapter(this, bookmarkList, this);
+        bookmarkAdapter = new BookmarkAdapter(this, new ArrayList<>(), this);
         recyclerView.setAdapter(bookmarkAdapter);
+        // Decode image thumbnails for the rows about to scroll into view
+        thumbnailPreloader = new ThumbnailPreloader(Glide.with(this), ThumbnailLoader.getInstance(this),
+                bookmarkAdapter, layoutManager);
+        recyclerView.addOnScrollListener(thumbnailPreloader);
 
         // Check for filters or search query passed from another activity
         if (getIntent().hasExtra("filter_type")) {
@@ -70,14 +116,120 @@ public class BookmarkListActivity extends AppCompatActivity implements BookmarkA
         if (getIntent().hasExtra("tag_filter")) {
             currentTagFilter = getIntent().getStringExtra("tag_filter");
         }
+        if (getIntent().hasExtra("near_latitude") && getIntent().hasExtra("near_longitude")) {
+            // "Near this point": bookmarks around a given location, closest first
+            nearCenter = new GeoPoint(getIntent().getDoubleExtra("near_latitude", 0),
+                    getIntent().getDoubleExtra("near_longitude", 0));
+            nearRadiusMeters = getIntent().getDoubleExtra("near_radius_m", DEFAULT_NEARBY_RADIUS_METERS);
+        }
 
         updateToolbarTitle(); // Set toolbar title based on filters/search
+        BookmarkInvalidationTracker.getInstance(this).addListener(this);
     }
 
     @Override
     protected void onResume() {
         super.onResume();
-        loadBookmarks(); // Reload bookmarks whenever activity resumes
+        if (reloadNeeded) {
+            loadBookmarks(); // Only requery when a change could not be applied to the loaded rows
+        }
+        AddressBackfillJob.start(this); // Resolve addresses for older bookmarks in the background
+        ImageHashJob.start(this); // Hash new image attachments for the similar-image search
+        PhotoCompressionJob.start(this); // Shrink full-resolution photos taken before compression
+        LinkMetadataJob.start(this); // Fetch titles and icons of linked pages
+        PageArchiveJob.start(this); // Save new linked pages for offline reading, if turned on
+    }
+
+    // Logs how the list performed while shown (read with logcat, tag BookmarkListActivity).
+    @Override
+    protected void onStop() {
+        super.onStop();
+        ThumbnailLoader.Stats thumbnails = ThumbnailLoader.getInstance(this).getStats();
+        Log.i(TAG, String.format(Locale.ROOT, "Thumbnails: %.0f%% from cache (%d memory, %d disk, %d decoded, %d failed)",
+                thumbnails.hitRate() * 100, thumbnails.memoryHits, thumbnails.diskHits, thumbnails.decodes, thumbnails.failures));
+        LatencyRecorder.Stats search = getSearchLatency();
+        if (search.count > 0) {
+            Log.i(TAG, String.format(Locale.ROOT, "Search: %d searches, keystroke to results median %d ms, p95 %d ms, slowest %d ms",
+                    search.count, search.medianMillis, search.p95Millis, search.maxMillis));
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        BookmarkInvalidationTracker.getInstance(this).removeListener(this);
+        searchHandler.removeCallbacks(searchRunnable);
+        if (pagingSignal != null) {
+            pagingSignal.cancel();
+        }
+        super.onDestroy();
+    }
+
+    // Applies a committed change to the loaded rows, falling back to a reload when rows move.
+    @Override
+    public void onBookmarksChanged(BookmarkChange change) {
+        if (reloadNeeded) {
+            return; // A full reload is already pending
+        }
+        if (change.getType() == BookmarkChange.Type.DELETE) {
+            for (long id : change.getIds()) {
+                bookmarkAdapter.removeBookmark(id);
+            }
+            return;
+        }
+        BookmarkQuery query = pagingSource.getQuery();
+        if (query.isRanked()) {
+            // Relevance and distance can shift with any edit, so ranked results are always re-ranked
+            requestReload();
+            return;
+        }
+        BookmarkPagingSource source = pagingSource;
+        repository.loadRows(query, change.getIds(), rows -> {
+            if (source != pagingSource || reloadNeeded || isDestroyed()) return;
+            if (rows == null) {
+                requestReload(); // The rows could not be read; start the list over
+                return;
+            }
+            Set<Long> stillMatching = new HashSet<>();
+            for (Bookmark row : rows) {
+                stillMatching.add(row.getId());
+                Bookmark loaded = bookmarkAdapter.findBookmark(row.getId());
+                if (loaded == null && isBeyondLoadedPages(source, row)) {
+                    continue; // Paging will pick it up as it is
+                }
+                if (loaded == null || loaded.getTimestamp() != row.getTimestamp()) {
+                    // New to this list, or its sort position changed
+                    requestReload();
+                    return;
+                }
+            }
+            for (long id : change.getIds()) {
+                if (!stillMatching.contains(id)) {
+                    bookmarkAdapter.removeBookmark(id); // No longer matches the filters
+                }
+            }
+            for (Bookmark row : rows) {
+                bookmarkAdapter.updateBookmark(row); // Ignores rows that are not loaded
+            }
+        });
+    }
+
+    // True if the row sorts after the last loaded one, so a later page will load it.
+    private boolean isBeyondLoadedPages(BookmarkPagingSource source, Bookmark row) {
+        List<Bookmark> loaded = bookmarkAdapter.getBookmarks();
+        if (!source.hasMore() || loaded.isEmpty()) {
+            return false;
+        }
+        Bookmark last = loaded.get(loaded.size() - 1);
+        return row.getTimestamp() < last.getTimestamp()
+                || (row.getTimestamp() == last.getTimestamp() && row.getId() < last.getId());
+    }
+
+    // Reloads now if the list is visible, otherwise on the next resume.
+    private void requestReload() {
+        reloadNeeded = true;
+        if (getLifecycle().getCurrentState().isAtLeast(Lifecycle.State.RESUMED)) {
+            loadBookmarks();
+        }
     }
 
     // Updates the toolbar title to reflect active filters or search.
@@ -98,143 +250,89 @@ public class BookmarkListActivity extends AppCompatActivity implements BookmarkA
         if (currentSearchQuery != null && !currentSearchQuery.isEmpty()) {
             title = "Searching: '" + currentSearchQuery + "'";
         }
+        if (nearCenter != null) {
+            title = "Nearby (" + BookmarkDisplay.formatDistance(nearRadiusMeters) + ")";
+        }
         if (getSupportActionBar() != null) {
             getSupportActionBar().setTitle(title);
         }
     }
 
-    // Loads bookmarks from the database, applying current filters and search.
+    // Restarts paging from the first page, applying current filters and search.
     private void loadBookmarks() {
-        bookmarkList.clear();
-        SQLiteDatabase db = dbHelper.getReadableDatabase();
-
-        // Columns to retrieve from the database
-        String[] projection = {
-                BookmarkEntry._ID,
-                BookmarkEntry.COLUMN_NAME_TITLE,
-                BookmarkEntry.COLUMN_NAME_NOTES,
-                BookmarkEntry.COLUMN_NAME_CONTENT_TYPE,
-                BookmarkEntry.COLUMN_NAME_CONTENT_URI,
-                BookmarkEntry.COLUMN_NAME_LINK_URL,
-                BookmarkEntry.COLUMN_NAME_GEOGRAPHIC_LOCATION,
-                BookmarkEntry.COLUMN_NAME_TIMESTAMP,
-                BookmarkEntry.COLUMN_NAME_TAGS
-        };
-
-        // Build SQL WHERE clause components dynamically
-        List<String> selectionParts = new ArrayList<>();
-        List<String> selectionArgs = new ArrayList<>();
-
-        if (currentFilterType != null) {
-            if ("image".equals(currentFilterType) || "link".equals(currentFilterType)) {
-                selectionParts.add(BookmarkEntry.COLUMN_NAME_CONTENT_TYPE + " = ?");
-                selectionArgs.add(currentFilterType);
-            } else if ("document".equals(currentFilterType)) {
-                // Filter for content types that are NOT image or link
-                selectionParts.add(BookmarkEntry.COLUMN_NAME_CONTENT_TYPE + " != ? AND " + BookmarkEntry.COLUMN_NAME_CONTENT_TYPE + " != ?");
-                selectionArgs.add("image");
-                selectionArgs.add("link");
-            }
-        }
-
-        if (currentTagFilter != null && !currentTagFilter.isEmpty()) {
-            // Search for tags containing the filter (case-insensitive)
-            selectionParts.add(BookmarkEntry.COLUMN_NAME_TAGS + " LIKE ?");
-            selectionArgs.add("%" + currentTagFilter.toLowerCase(Locale.getDefault()) + "%");
-        }
+        loadBookmarks(-1);
+    }
 
-        if (currentSearchQuery != null && !currentSearchQuery.isEmpty()) {
-            String lowerCaseQuery = currentSearchQuery.toLowerCase(Locale.getDefault());
-            // Search in title, notes, or tags
-            String likeClause = " (" + BookmarkEntry.COLUMN_NAME_TITLE + " LIKE ? OR " +
-                    BookmarkEntry.COLUMN_NAME_NOTES + " LIKE ? OR " +
-                    BookmarkEntry.COLUMN_NAME_TAGS + " LIKE ?) ";
-            selectionParts.add(likeClause);
-            String searchQueryPattern = "%" + lowerCaseQuery + "%";
-            selectionArgs.add(searchQueryPattern);
-            selectionArgs.add(searchQueryPattern);
-            selectionArgs.add(searchQueryPattern);
+    // Same; keystrokeAt is when the search text was last edited, or -1 if this load is not a search update.
+    private void loadBookmarks(long keystrokeAt) {
+        BookmarkPagingSource source = new BookmarkPagingSource(
+                new BookmarkQuery(currentFilterType, currentTagFilter, currentSearchQuery, nearCenter, nearRadiusMeters),
+                BookmarkPagingSource.DEFAULT_PAGE_SIZE);
+        if (pagingSignal != null) {
+            pagingSignal.cancel(); // The old result set is stale; stop any of its reads still queued or running
         }
+        CancellationSignal signal = new CancellationSignal();
+        pagingSource = source;
+        pagingSignal = signal;
+        loadingPage = true;
+        reloadNeeded = false;
+        repository.loadNextPage(source, signal, firstPage -> {
+            if (source != pagingSource || isDestroyed()) return; // Superseded by a newer query
+            loadingPage = false;
+            thumbnailPreloader.reset();
+            // Diffed against the rows already shown, so unchanged rows keep their views and thumbnails
+            bookmarkAdapter.setBookmarkList(firstPage, keystrokeAt < 0 ? null
+                    : () -> SEARCH_LATENCY.record(SystemClock.uptimeMillis() - keystrokeAt));
+            if (firstPage.isEmpty() && keystrokeAt < 0) {
+                Toast.makeText(this, "No bookmarks found for criteria.", Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
 
-        String finalSelection = null;
-        String[] finalSelectionArgs = null;
-
-        if (!selectionParts.isEmpty()) {
-            finalSelection = TextUtils.join(" AND ", selectionParts); // Combine multiple conditions with AND
-            finalSelectionArgs = selectionArgs.toArray(new String[0]); // Convert list to array
+    // Runs a typed search unless it is what the list already shows. Null or blank clears the search.
+    private void applySearchQuery(String query) {
+        searchHandler.removeCallbacks(searchRunnable);
+        String normalized = TextUtils.isEmpty(query) || query.trim().isEmpty() ? null : query.trim();
+        if (TextUtils.equals(normalized, currentSearchQuery)) {
+            return;
         }
+        currentSearchQuery = normalized;
+        updateToolbarTitle();
+        loadBookmarks(lastKeystrokeAt);
+    }
 
-        String sortOrder = BookmarkEntry.COLUMN_NAME_TIMESTAMP + " DESC"; // Sort by timestamp, newest first
-
-        Cursor cursor = db.query(
-                BookmarkEntry.TABLE_NAME,
-                projection,
-                finalSelection,
-                finalSelectionArgs,
-                null, null,
-                sortOrder
-        );
+    /**
+     * Keystroke-to-results latency of search-as-you-type: from the last edit of the search text
+     * to the first page of its results being laid out in the list.
+     */
+    public static LatencyRecorder.Stats getSearchLatency() {
+        return SEARCH_LATENCY.getStats();
+    }
 
-        if (cursor != null) {
-            try {
-                // Iterate through cursor results and create Bookmark objects
-                while (cursor.moveToNext()) {
-                    long id = cursor.getLong(cursor.getColumnIndexOrThrow(BookmarkEntry._ID));
-                    String title = cursor.getString(cursor.getColumnIndexOrThrow(BookmarkEntry.COLUMN_NAME_TITLE));
-                    String notes = cursor.getString(cursor.getColumnIndexOrThrow(BookmarkEntry.COLUMN_NAME_NOTES));
-                    String contentType = cursor.getString(cursor.getColumnIndexOrThrow(BookmarkEntry.COLUMN_NAME_CONTENT_TYPE));
-                    String contentUri = cursor.getString(cursor.getColumnIndexOrThrow(BookmarkEntry.COLUMN_NAME_CONTENT_URI));
-                    String linkUrl = cursor.getString(cursor.getColumnIndexOrThrow(BookmarkEntry.COLUMN_NAME_LINK_URL));
-                    String geographicLocation = cursor.getString(cursor.getColumnIndexOrThrow(BookmarkEntry.COLUMN_NAME_GEOGRAPHIC_LOCATION));
-                    long timestamp = cursor.getLong(cursor.getColumnIndexOrThrow(BookmarkEntry.COLUMN_NAME_TIMESTAMP));
-                    String tags = cursor.getString(cursor.getColumnIndexOrThrow(BookmarkEntry.COLUMN_NAME_TAGS));
-
-                    String readableAddress = "Location: Not available";
-                    if (geographicLocation != null && !geographicLocation.isEmpty() && !geographicLocation.equals("0.000000,0.000000")) {
-                        try {
-                            String[] latLon = geographicLocation.split(",");
-                            double lat = Double.parseDouble(latLon[0]);
-                            double lon = Double.parseDouble(latLon[1]);
-                            Geocoder geocoder = new Geocoder(this, Locale.getDefault());
-                            List<Address> addresses = geocoder.getFromLocation(lat, lon, 1);
-                            if (addresses != null && !addresses.isEmpty()) {
-                                Address returnedAddress = addresses.get(0);
-                                StringBuilder strReturnedAddress = new StringBuilder();
-                                for (int i = 0; i <= returnedAddress.getMaxAddressLineIndex(); i++) {
-                                    strReturnedAddress.append(returnedAddress.getAddressLine(i)).append("\n");
-                                }
-                                String addressOnly = strReturnedAddress.toString().trim();
-
-                                // Format address to be more readable
-                                if (addressOnly.isEmpty() || addressOnly.split(",").length <= 1) {
-                                    readableAddress = "Location: " + addressOnly + " (" + geographicLocation + ")";
-                                } else {
-                                    readableAddress = "Location: " + addressOnly;
-                                }
-                            } else {
-                                readableAddress = "Location: " + geographicLocation + " (No address found)";
-                            }
-                        } catch (IOException | NumberFormatException e) {
-                            // Error geocoding location; display raw coordinates
-                            readableAddress = "Location: " + geographicLocation + " (Error)";
-                        }
-                    }
-
-                    bookmarkList.add(new Bookmark(id, title, notes, contentType, contentUri, linkUrl, geographicLocation, readableAddress, timestamp, tags));
-                }
-            } finally {
-                cursor.close(); // Always close the cursor
-            }
+    // Appends the next page once the user scrolls close to the end of what is loaded.
+    private void loadNextPageIfNeeded(LinearLayoutManager layoutManager) {
+        if (pagingSource == null || loadingPage || !pagingSource.hasMore()) {
+            return;
         }
-        bookmarkAdapter.setBookmarkList(bookmarkList); // Update RecyclerView adapter
-        if (bookmarkList.isEmpty()) {
-            Toast.makeText(this, "No bookmarks found for criteria.", Toast.LENGTH_SHORT).show();
+        int lastVisible = layoutManager.findLastVisibleItemPosition();
+        if (lastVisible < bookmarkAdapter.getItemCount() - PREFETCH_DISTANCE) {
+            return;
         }
+        BookmarkPagingSource source = pagingSource;
+        loadingPage = true;
+        repository.loadNextPage(source, pagingSignal, nextPage -> {
+            if (source != pagingSource || isDestroyed()) return;
+            loadingPage = false;
+            bookmarkAdapter.addBookmarks(nextPage);
+        });
     }
 
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.main_menu, menu);
+        getMenuInflater().inflate(R.menu.bookmark_list_menu, menu);
+        menu.findItem(R.id.action_nearby).setChecked(nearCenter != null);
+        menu.findItem(R.id.action_offline_pages).setChecked(PageArchive.isEnabled(this));
 
         // Set up search functionality in the toolbar
         MenuItem searchItem = menu.findItem(R.id.action_search);
@@ -250,41 +348,119 @@ public class BookmarkListActivity extends AppCompatActivity implements BookmarkA
             searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
                 @Override
                 public boolean onQueryTextSubmit(String query) {
-                    if (!TextUtils.isEmpty(query)) {
-                        currentSearchQuery = query;
-                        currentFilterType = null; // Clear other filters on new search
-                        currentTagFilter = null;
-                        updateToolbarTitle();
-                        loadBookmarks(); // Reload with search query
-                    } else {
-                        // If search query is cleared, reset filters and reload
-                        if (currentSearchQuery != null && !currentSearchQuery.isEmpty()) {
-                            currentSearchQuery = null;
-                            currentFilterType = null;
-                            currentTagFilter = null;
-                            updateToolbarTitle();
-                            loadBookmarks();
-                            Toast.makeText(BookmarkListActivity.this, "Search cleared.", Toast.LENGTH_SHORT).show();
-                        } else {
-                            Toast.makeText(BookmarkListActivity.this, "Enter a search term.", Toast.LENGTH_SHORT).show();
-                        }
-                    }
+                    lastKeystrokeAt = SystemClock.uptimeMillis();
+                    applySearchQuery(query); // No need to wait out the debounce
                     searchView.clearFocus(); // Hide keyboard
                     return true;
                 }
 
                 @Override
                 public boolean onQueryTextChange(String newText) {
-                    return false; // Not performing search as text changes
+                    // Search as the user types, once they pause
+                    lastKeystrokeAt = SystemClock.uptimeMillis();
+                    pendingSearchQuery = newText;
+                    searchHandler.removeCallbacks(searchRunnable);
+                    searchHandler.postDelayed(searchRunnable, SEARCH_DEBOUNCE_MS);
+                    return true;
                 }
             });
         }
         return true;
     }
 
+    @Override
+    public boolean onOptionsItemSelected(@NonNull MenuItem item) {
+        if (item.getItemId() == R.id.action_map) {
+            startActivity(new Intent(BookmarkListActivity.this, MapOverviewActivity.class));
+            return true;
+        }
+        if (item.getItemId() == R.id.action_nearby) {
+            if (nearCenter != null) {
+                setNearCenter(null); // Back to the full list
+            } else {
+                checkLocationPermissionAndFindNearby();
+            }
+            return true;
+        }
+        if (item.getItemId() == R.id.action_offline_pages) {
+            boolean enabled = !item.isChecked();
+            item.setChecked(enabled);
+            PageArchive.setEnabled(this, enabled);
+            Toast.makeText(this, enabled ? "Linked pages will be saved for offline reading."
+                    : "Saved pages deleted.", Toast.LENGTH_SHORT).show();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    // Switches the nearby mode on (around center) or off (null) and reloads.
+    private void setNearCenter(GeoPoint center) {
+        nearCenter = center;
+        invalidateOptionsMenu();
+        updateToolbarTitle();
+        loadBookmarks();
+    }
+
+    private void checkLocationPermissionAndFindNearby() {
+        if (ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION) != PackageManager.PERMISSION_GRANTED
+                && ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_COARSE_LOCATION) != PackageManager.PERMISSION_GRANTED) {
+            ActivityCompat.requestPermissions(this, new String[]{
+                    Manifest.permission.ACCESS_FINE_LOCATION, Manifest.permission.ACCESS_COARSE_LOCATION
+            }, PERMISSION_REQUEST_CODE_LOCATION);
+        } else {
+            findNearby();
+        }
+    }
+
+    @Override
+    public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
+        super.onRequestPermissionsResult(requestCode, permissions, grantResults);
+        if (requestCode == PERMISSION_REQUEST_CODE_LOCATION) {
+            for (int result : grantResults) {
+                if (result == PackageManager.PERMISSION_GRANTED) { // Approximate location is enough
+                    findNearby();
+                    return;
+                }
+            }
+            Toast.makeText(this, "Location permission denied.", Toast.LENGTH_LONG).show();
+        }
+    }
+
+    // "Near me": bookmarks around the device's last known location, closest first.
+    @SuppressWarnings("MissingPermission")
+    private void findNearby() {
+        LocationServices.getFusedLocationProviderClient(this).getLastLocation().addOnSuccessListener(this, location -> {
+            if (location != null) {
+                setNearCenter(new GeoPoint(location.getLatitude(), location.getLongitude()));
+            } else {
+                Toast.makeText(this, "Could not get device location. Turn on GPS.", Toast.LENGTH_LONG).show();
+            }
+        }).addOnFailureListener(this, e ->
+                Toast.makeText(this, "Error fetching location.", Toast.LENGTH_LONG).show());
+    }
+
     // Handles click on a bookmark item. Opens content or link.
     @Override
     public void onBookmarkClick(long id, String contentType, String contentUri, String linkUrl) {
+        if ("link".equals(contentType) && linkUrl != null && !linkUrl.isEmpty() && !isOnline()) {
+            // The browser could not load the page; show the saved copy instead, if there is one
+            repository.hasArchivedPage(id, archived -> {
+                if (isDestroyed()) return;
+                if (archived) {
+                    Intent intent = new Intent(this, ArchiveViewerActivity.class);
+                    intent.putExtra(ArchiveViewerActivity.EXTRA_BOOKMARK_ID, id);
+                    intent.putExtra(ArchiveViewerActivity.EXTRA_LINK_URL, LinkMetadataJob.fetchUrl(linkUrl));
+                    startActivity(intent);
+                } else {
+                    openBookmark(id, contentType, contentUri, linkUrl);
+                }
+            });
+            return;
+        }
+        openBookmark(id, contentType, contentUri, linkUrl);
+    }
+
+    private void openBookmark(long id, String contentType, String contentUri, String linkUrl) {
         Intent intent = null;
         Uri uri = null;
 
@@ -321,6 +497,14 @@ public class BookmarkListActivity extends AppCompatActivity implements BookmarkA
         }
     }
 
+    // True if the active network can reach the internet.
+    private boolean isOnline() {
+        ConnectivityManager connectivity = ContextCompat.getSystemService(this, ConnectivityManager.class);
+        if (connectivity == null) return true; // Cannot tell; let the browser try
+        NetworkCapabilities capabilities = connectivity.getNetworkCapabilities(connectivity.getActiveNetwork());
+        return capabilities != null && capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_VALIDATED);
+    }
+
     // Handles long click on a bookmark item. Opens AddEditBookmarkActivity for editing.
     @Override
     public void onBookmarkLongClick(long id) {
@@ -329,12 +513,4 @@ public class BookmarkListActivity extends AppCompatActivity implements BookmarkA
         startActivity(intent);
         Toast.makeText(this, "Editing bookmark...", Toast.LENGTH_SHORT).show();
     }
-
-    @Override
-    protected void onDestroy() {
-        super.onDestroy();
-        if (dbHelper != null) {
-            dbHelper.close(); // Close database connection to prevent leaks
-        }
-    }
 }
\ No newline at end of file
@@ -0,0 +1,346 @@
+package com.eei4369.markio;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.CancellationSignal;
+import android.text.TextUtils;
+
+import com.eei4369.markio.BookmarkContract.BookmarkEntry;
+import com.eei4369.markio.BookmarkContract.BookmarkFtsEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Loads a filtered bookmark list one page at a time.
+ *
+ * Browsing uses keyset pagination on (timestamp DESC, _id DESC): each page continues strictly
+ * after the last row of the previous one, so fetching page n never reads the n - 1 before it.
+ * Search and nearby lists keep relevance or distance order instead. The first call ranks the
+ * matching IDs (a light pass over the full-text or location index only), and each page then loads
+ * full rows (and snippets) for its slice of that ranking. A search the full-text index finds
+ * nothing for is ranked again by BookmarkFuzzy, so a misspelt word still finds its bookmarks.
+ */
+public class BookmarkPagingSource {
+
+    public static final int DEFAULT_PAGE_SIZE = 30;
+
+    // Columns to retrieve from the database (the bookmarks table is aliased as "b")
+    private static final String[] PROJECTION = {
+            "b." + BookmarkEntry._ID,
+            "b." + BookmarkEntry.COLUMN_NAME_TITLE,
+            "b." + BookmarkEntry.COLUMN_NAME_NOTES,
+            "b." + BookmarkEntry.COLUMN_NAME_CONTENT_TYPE,
+            "b." + BookmarkEntry.COLUMN_NAME_CONTENT_URI,
+            "b." + BookmarkEntry.COLUMN_NAME_LINK_URL,
+            "b." + BookmarkEntry.COLUMN_NAME_GEOGRAPHIC_LOCATION,
+            "b." + BookmarkEntry.COLUMN_NAME_TIMESTAMP,
+            "b." + BookmarkEntry.COLUMN_NAME_TAGS,
+            "b." + BookmarkEntry.COLUMN_NAME_READABLE_ADDRESS,
+            "b." + BookmarkEntry.COLUMN_NAME_MIME_TYPE,
+            "b." + BookmarkEntry.COLUMN_NAME_PAGE_TITLE,
+            "b." + BookmarkEntry.COLUMN_NAME_FAVICON_URL,
+            "b." + BookmarkEntry.COLUMN_NAME_PREVIEW_IMAGE_URL
+    };
+
+    private static final String ORDER_BY =
+            " ORDER BY b." + BookmarkEntry.COLUMN_NAME_TIMESTAMP + " DESC, b." + BookmarkEntry._ID + " DESC";
+
+    private final BookmarkQuery query;
+    private final int pageSize;
+
+    // Keyset position: the sort key of the last row handed out
+    private long lastTimestamp;
+    private long lastId;
+    private boolean started = false;
+    private boolean exhausted = false;
+
+    // Search and nearby only: matching IDs in ranked order, their scores (relevance or meters),
+    // and the next unread position
+    private List<Long> rankedIds;
+    private Map<Long, Double> ranks;
+    private int nextRankedIndex = 0;
+    private BookmarkQuery rowQuery; // Filters for loading ranked rows; drops the text match after a fuzzy ranking
+
+    public BookmarkPagingSource(BookmarkQuery query, int pageSize) {
+        this.query = query;
+        this.pageSize = pageSize;
+    }
+
+    public BookmarkQuery getQuery() {
+        return query;
+    }
+
+    // False once a page came back short, meaning every matching row has been loaded.
+    public boolean hasMore() {
+        return !exhausted;
+    }
+
+    /**
+     * Loads the next page. Returns an empty list once the results are exhausted.
+     */
+    public List<Bookmark> loadNextPage(SQLiteDatabase db) {
+        return loadNextPage(db, null);
+    }
+
+    /**
+     * Loads the next page, abandoning the queries with an OperationCanceledException if
+     * cancellationSignal is cancelled meanwhile. A cancelled source must not be paged further.
+     */
+    public List<Bookmark> loadNextPage(SQLiteDatabase db, CancellationSignal cancellationSignal) {
+        if (exhausted) {
+            return new ArrayList<>();
+        }
+        List<Bookmark> page = query.isRanked() ? loadRankedPage(db, cancellationSignal) : loadKeysetPage(db, cancellationSignal);
+        started = true;
+        return page;
+    }
+
+    // Browsing and filtering: WHERE <filters> AND (sort key strictly after the last row seen).
+    private List<Bookmark> loadKeysetPage(SQLiteDatabase db, CancellationSignal cancellationSignal) {
+        List<String> selectionParts = new ArrayList<>();
+        List<String> selectionArgs = new ArrayList<>();
+        query.appendSelection(selectionParts, selectionArgs);
+        if (started) {
+            // Written as "ts <= ? AND (ts < ? OR id < ?)" so SQLite can seek the timestamp index
+            selectionParts.add("b." + BookmarkEntry.COLUMN_NAME_TIMESTAMP + " <= ? AND (b." +
+                    BookmarkEntry.COLUMN_NAME_TIMESTAMP + " < ? OR b." + BookmarkEntry._ID + " < ?)");
+            selectionArgs.add(String.valueOf(lastTimestamp));
+            selectionArgs.add(String.valueOf(lastTimestamp));
+            selectionArgs.add(String.valueOf(lastId));
+        }
+
+        StringBuilder sql = new StringBuilder("SELECT ").append(TextUtils.join(", ", PROJECTION));
+        sql.append(" FROM ").append(query.fromClause());
+        if (!selectionParts.isEmpty()) {
+            sql.append(" WHERE ").append(TextUtils.join(" AND ", selectionParts));
+        }
+        sql.append(ORDER_BY).append(" LIMIT ").append(pageSize);
+
+        List<Bookmark> page = new ArrayList<>();
+        Cursor cursor = db.rawQuery(sql.toString(), selectionArgs.toArray(new String[0]), cancellationSignal);
+        try {
+            while (cursor.moveToNext()) {
+                page.add(readBookmark(cursor));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        if (!page.isEmpty()) {
+            Bookmark last = page.get(page.size() - 1);
+            lastTimestamp = last.getTimestamp();
+            lastId = last.getId();
+        }
+        if (page.size() < pageSize) {
+            exhausted = true;
+        }
+        return page;
+    }
+
+    // Search and nearby: rank once, then fetch each page's rows by ID and restore the ranked order.
+    private List<Bookmark> loadRankedPage(SQLiteDatabase db, CancellationSignal cancellationSignal) {
+        if (rankedIds == null) {
+            rowQuery = query;
+            rankMatches(db, cancellationSignal);
+            if (rankedIds.isEmpty() && query.isSearch() && !query.isNearby()) {
+                rankFuzzyMatches(db, cancellationSignal);
+            }
+        }
+        int end = Math.min(rankedIds.size(), nextRankedIndex + pageSize);
+        List<Long> pageIds = rankedIds.subList(nextRankedIndex, end);
+        nextRankedIndex = end;
+        if (nextRankedIndex >= rankedIds.size()) {
+            exhausted = true;
+        }
+        if (pageIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        List<String> selectionParts = new ArrayList<>();
+        List<String> selectionArgs = new ArrayList<>();
+        rowQuery.appendSelection(selectionParts, selectionArgs);
+        StringBuilder idList = new StringBuilder();
+        for (Long id : pageIds) {
+            if (idList.length() > 0) idList.append(',');
+            idList.append(id); // IDs come from the database, so inlining them is safe
+        }
+        selectionParts.add("b." + BookmarkEntry._ID + " IN (" + idList + ")");
+
+        StringBuilder sql = new StringBuilder("SELECT ").append(TextUtils.join(", ", PROJECTION));
+        if (rowQuery.isSearch()) {
+            // Highlighted excerpt from the best matching column
+            sql.append(", snippet(").append(BookmarkFtsEntry.TABLE_NAME).append(", '")
+                    .append(BookmarkFts.SNIPPET_START).append("', '").append(BookmarkFts.SNIPPET_END).append("', '")
+                    .append(BookmarkFts.SNIPPET_ELLIPSIS).append("', -1, 12) AS search_snippet");
+        }
+        sql.append(" FROM ").append(rowQuery.fromClause())
+                .append(" WHERE ").append(TextUtils.join(" AND ", selectionParts));
+
+        Map<Long, Bookmark> byId = new HashMap<>();
+        Cursor cursor = db.rawQuery(sql.toString(), selectionArgs.toArray(new String[0]), cancellationSignal);
+        try {
+            while (cursor.moveToNext()) {
+                Bookmark bookmark = readBookmark(cursor);
+                if (query.isNearby()) {
+                    bookmark.setDistanceMeters(ranks.get(bookmark.getId()));
+                } else {
+                    bookmark.setSearchRank(ranks.get(bookmark.getId()));
+                }
+                if (rowQuery.isSearch()) {
+                    bookmark.setSearchSnippet(cursor.getString(cursor.getColumnIndexOrThrow("search_snippet")));
+                }
+                byId.put(bookmark.getId(), bookmark);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        List<Bookmark> page = new ArrayList<>();
+        for (Long id : pageIds) {
+            Bookmark bookmark = byId.get(id);
+            if (bookmark != null) page.add(bookmark); // Skip rows deleted since ranking
+        }
+        return page;
+    }
+
+    // Scores every match without loading row contents: by distance for nearby lists (closest
+    // first, dropping the corners of the bounding box), otherwise by matchinfo() relevance.
+    private void rankMatches(SQLiteDatabase db, CancellationSignal cancellationSignal) {
+        List<String> selectionParts = new ArrayList<>();
+        List<String> selectionArgs = new ArrayList<>();
+        query.appendSelection(selectionParts, selectionArgs);
+        String scoreColumns = query.isNearby()
+                ? "b." + BookmarkEntry.COLUMN_NAME_LATITUDE + ", b." + BookmarkEntry.COLUMN_NAME_LONGITUDE
+                : "matchinfo(" + BookmarkFtsEntry.TABLE_NAME + ", '" + BookmarkFts.MATCHINFO_FORMAT + "')";
+        String sql = "SELECT b." + BookmarkEntry._ID + ", " + scoreColumns +
+                " FROM " + query.fromClause() +
+                " WHERE " + TextUtils.join(" AND ", selectionParts) + ORDER_BY;
+
+        rankedIds = new ArrayList<>();
+        ranks = new HashMap<>();
+        GeoPoint center = query.getNearCenter();
+        Cursor cursor = db.rawQuery(sql, selectionArgs.toArray(new String[0]), cancellationSignal);
+        try {
+            while (cursor.moveToNext()) {
+                long id = cursor.getLong(0);
+                if (query.isNearby()) {
+                    double distance = center.distanceTo(new GeoPoint(cursor.getDouble(1), cursor.getDouble(2)));
+                    if (distance > query.getNearRadiusMeters()) {
+                        continue;
+                    }
+                    ranks.put(id, distance);
+                } else {
+                    ranks.put(id, BookmarkFts.rank(cursor.getBlob(1)));
+                }
+                rankedIds.add(id);
+            }
+        } finally {
+            cursor.close();
+        }
+        if (query.isNearby()) {
+            Collections.sort(rankedIds, (a, b) -> Double.compare(ranks.get(a), ranks.get(b)));
+        } else {
+            // Most relevant first; the stable sort keeps newest-first order among equal scores
+            Collections.sort(rankedIds, (a, b) -> Double.compare(ranks.get(b), ranks.get(a)));
+        }
+    }
+
+    // Typo-tolerant fallback: ranks by similarity of the query words to indexed words, keeping
+    // the ranking's order and only the matches that pass the other filters.
+    private void rankFuzzyMatches(SQLiteDatabase db, CancellationSignal cancellationSignal) {
+        Map<Long, Double> fuzzy = BookmarkFuzzy.search(db, query.getSearchQuery(), cancellationSignal);
+        if (fuzzy.isEmpty()) {
+            return;
+        }
+        rowQuery = query.withoutTextSearch();
+        List<String> selectionParts = new ArrayList<>();
+        List<String> selectionArgs = new ArrayList<>();
+        rowQuery.appendSelection(selectionParts, selectionArgs);
+        selectionParts.add("b." + BookmarkEntry._ID + " IN (" + TextUtils.join(",", fuzzy.keySet()) + ")");
+        String sql = "SELECT b." + BookmarkEntry._ID +
+                " FROM " + rowQuery.fromClause() +
+                " WHERE " + TextUtils.join(" AND ", selectionParts);
+
+        Set<Long> kept = new HashSet<>();
+        Cursor cursor = db.rawQuery(sql, selectionArgs.toArray(new String[0]), cancellationSignal);
+        try {
+            while (cursor.moveToNext()) {
+                kept.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        for (Map.Entry<Long, Double> entry : fuzzy.entrySet()) {
+            if (kept.contains(entry.getKey())) {
+                rankedIds.add(entry.getKey());
+                ranks.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Loads specific rows, keeping only those that still match the query's filters.
+     * Used to patch an already loaded list after a change instead of paging it in again.
+     * Search queries are matched too, but the rows carry no snippet or rank.
+     */
+    public static List<Bookmark> loadRows(SQLiteDatabase db, BookmarkQuery query, List<Long> ids) {
+        List<Bookmark> rows = new ArrayList<>();
+        if (ids.isEmpty()) {
+            return rows;
+        }
+        List<String> selectionParts = new ArrayList<>();
+        List<String> selectionArgs = new ArrayList<>();
+        query.appendSelection(selectionParts, selectionArgs);
+        selectionParts.add("b." + BookmarkEntry._ID + " IN (" + TextUtils.join(",", ids) + ")");
+        String sql = "SELECT " + TextUtils.join(", ", PROJECTION) +
+                " FROM " + query.fromClause() +
+                " WHERE " + TextUtils.join(" AND ", selectionParts);
+        Cursor cursor = db.rawQuery(sql, selectionArgs.toArray(new String[0]));
+        try {
+            while (cursor.moveToNext()) {
+                rows.add(readBookmark(cursor));
+            }
+        } finally {
+            cursor.close();
+        }
+        return rows;
+    }
+
+    // Builds a Bookmark from a row containing the PROJECTION columns.
+    private static Bookmark readBookmark(Cursor cursor) {
+        long id = cursor.getLong(cursor.getColumnIndexOrThrow(BookmarkEntry._ID));
+        String title = cursor.getString(cursor.getColumnIndexOrThrow(BookmarkEntry.COLUMN_NAME_TITLE));
+        String notes = cursor.getString(cursor.getColumnIndexOrThrow(BookmarkEntry.COLUMN_NAME_NOTES));
+        String contentType = cursor.getString(cursor.getColumnIndexOrThrow(BookmarkEntry.COLUMN_NAME_CONTENT_TYPE));
+        String contentUri = cursor.getString(cursor.getColumnIndexOrThrow(BookmarkEntry.COLUMN_NAME_CONTENT_URI));
+        String linkUrl = cursor.getString(cursor.getColumnIndexOrThrow(BookmarkEntry.COLUMN_NAME_LINK_URL));
+        String geographicLocation = cursor.getString(cursor.getColumnIndexOrThrow(BookmarkEntry.COLUMN_NAME_GEOGRAPHIC_LOCATION));
+        long timestamp = cursor.getLong(cursor.getColumnIndexOrThrow(BookmarkEntry.COLUMN_NAME_TIMESTAMP));
+        String tags = cursor.getString(cursor.getColumnIndexOrThrow(BookmarkEntry.COLUMN_NAME_TAGS));
+        String storedAddress = cursor.getString(cursor.getColumnIndexOrThrow(BookmarkEntry.COLUMN_NAME_READABLE_ADDRESS));
+
+        // Addresses are resolved when saving (or by AddressBackfillJob), never while rendering
+        String readableAddress = "Location: Not available";
+        if (geographicLocation != null && !geographicLocation.isEmpty() && !geographicLocation.equals("0.000000,0.000000")) {
+            if (!TextUtils.isEmpty(storedAddress)) {
+                readableAddress = "Location: " + storedAddress;
+            } else {
+                readableAddress = "Location: " + geographicLocation;
+            }
+        }
+
+        Bookmark bookmark = new Bookmark(id, title, notes, contentType, contentUri, linkUrl, geographicLocation, readableAddress, timestamp, tags);
+        bookmark.setMimeType(cursor.getString(cursor.getColumnIndexOrThrow(BookmarkEntry.COLUMN_NAME_MIME_TYPE)));
+        bookmark.setPageTitle(cursor.getString(cursor.getColumnIndexOrThrow(BookmarkEntry.COLUMN_NAME_PAGE_TITLE)));
+        String previewImage = cursor.getString(cursor.getColumnIndexOrThrow(BookmarkEntry.COLUMN_NAME_PREVIEW_IMAGE_URL));
+        bookmark.setLinkImageUrl(previewImage != null ? previewImage
+                : cursor.getString(cursor.getColumnIndexOrThrow(BookmarkEntry.COLUMN_NAME_FAVICON_URL)));
+        return bookmark;
+    }
+}
@@ -0,0 +1,153 @@
+package com.eei4369.markio;
+
+import android.text.TextUtils;
+
+import com.eei4369.markio.BookmarkContract.BookmarkEntry;
+import com.eei4369.markio.BookmarkContract.BookmarkFtsEntry;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The filters applied to a bookmark list: content type, tag, search text and distance from a point.
+ * Builds the FROM and WHERE parts of the SQL, with the bookmarks table aliased as "b".
+ */
+public class BookmarkQuery {
+
+    private final String filterType; // "image", "link", "document" or null for everything
+    private final String tagFilter;
+    private final String searchQuery;
+    private final String matchQuery; // FTS MATCH expression derived from searchQuery, or null
+    private final GeoPoint nearCenter; // Only bookmarks within nearRadiusMeters of this point, or null
+    private final double nearRadiusMeters;
+
+    public BookmarkQuery(String filterType, String tagFilter, String searchQuery) {
+        this(filterType, tagFilter, searchQuery, null, 0);
+    }
+
+    public BookmarkQuery(String filterType, String tagFilter, String searchQuery, GeoPoint nearCenter, double nearRadiusMeters) {
+        this.filterType = filterType;
+        this.tagFilter = TextUtils.isEmpty(tagFilter) ? null : tagFilter.trim().toLowerCase(Locale.getDefault());
+        this.searchQuery = searchQuery;
+        this.matchQuery = BookmarkFts.buildMatchQuery(searchQuery);
+        this.nearCenter = nearCenter;
+        this.nearRadiusMeters = nearRadiusMeters;
+    }
+
+    public String getFilterType() { return filterType; }
+    public String getTagFilter() { return tagFilter; }
+    public String getSearchQuery() { return searchQuery; }
+    public GeoPoint getNearCenter() { return nearCenter; }
+    public double getNearRadiusMeters() { return nearRadiusMeters; }
+
+    // The same filters without the search text, for rows found by another index than full-text.
+    public BookmarkQuery withoutTextSearch() {
+        return new BookmarkQuery(filterType, tagFilter, null, nearCenter, nearRadiusMeters);
+    }
+
+    // True when results come from the full-text index and carry a rank and snippet.
+    public boolean isSearch() {
+        return matchQuery != null;
+    }
+
+    // True when results are limited to a radius and ordered by distance.
+    public boolean isNearby() {
+        return nearCenter != null;
+    }
+
+    // True when results are ordered by relevance or distance rather than by date.
+    public boolean isRanked() {
+        return isSearch() || isNearby();
+    }
+
+    // FROM clause; search joins the full-text index back to the bookmarks it points at.
+    public String fromClause() {
+        String from = BookmarkEntry.TABLE_NAME + " b";
+        if (isSearch()) {
+            from = BookmarkFtsEntry.TABLE_NAME + " JOIN " + from +
+                    " ON b." + BookmarkEntry._ID + " = " + BookmarkFtsEntry.TABLE_NAME + "." + BookmarkFtsEntry.COLUMN_NAME_DOCID;
+        }
+        return from;
+    }
+
+    /**
+     * Appends the filter conditions and their arguments.
+     *
+     * @param selectionParts Conditions to be joined with AND.
+     * @param selectionArgs  Arguments for the '?' placeholders, in order.
+     */
+    public void appendSelection(List<String> selectionParts, List<String> selectionArgs) {
+        if (isSearch()) {
+            selectionParts.add(BookmarkFtsEntry.TABLE_NAME + " MATCH ?");
+            selectionArgs.add(matchQuery);
+        }
+
+        if (filterType != null) {
+            if ("image".equals(filterType) || "link".equals(filterType)) {
+                selectionParts.add("b." + BookmarkEntry.COLUMN_NAME_CONTENT_TYPE + " = ?");
+                selectionArgs.add(filterType);
+            } else if ("document".equals(filterType)) {
+                // Filter for content types that are NOT image or link
+                selectionParts.add("b." + BookmarkEntry.COLUMN_NAME_CONTENT_TYPE + " != ? AND b." + BookmarkEntry.COLUMN_NAME_CONTENT_TYPE + " != ?");
+                selectionArgs.add("image");
+                selectionArgs.add("link");
+            }
+        }
+
+        if (tagFilter != null) {
+            // Exact tag match through the normalized tag index (tags are stored lower-case)
+            selectionParts.add(BookmarkTags.tagFilterClause("b." + BookmarkEntry._ID));
+            selectionArgs.add(tagFilter);
+        }
+
+        if (nearCenter != null) {
+            appendNearbyBox(selectionParts, selectionArgs, nearCenter, nearRadiusMeters);
+        }
+    }
+
+    // Box around the circle, answered by the (latitude, longitude) index; the exact radius is
+    // checked afterwards on the few candidates.
+    static void appendNearbyBox(List<String> selectionParts, List<String> selectionArgs,
+                                GeoPoint center, double radiusMeters) {
+        double latSpan = GeoPoint.latitudeSpan(radiusMeters);
+        double south = Math.max(-90, center.latitude - latSpan);
+        double north = Math.min(90, center.latitude + latSpan);
+
+        double lonSpan = center.longitudeSpan(radiusMeters);
+        if (lonSpan >= 180) {
+            // The circle reaches a pole, so every longitude qualifies
+            appendLocationBox(selectionParts, selectionArgs, south, -180, north, 180);
+            return;
+        }
+        double west = center.longitude - lonSpan;
+        double east = center.longitude + lonSpan;
+        appendLocationBox(selectionParts, selectionArgs, south,
+                west < -180 ? west + 360 : west, north, east > 180 ? east - 360 : east);
+    }
+
+    /**
+     * Appends a latitude/longitude box on the bookmarks table "b", answered by the location index.
+     *
+     * @param west Western edge; greater than east when the box crosses the antimeridian.
+     */
+    static void appendLocationBox(List<String> selectionParts, List<String> selectionArgs,
+                                  double south, double west, double north, double east) {
+        String latitude = "b." + BookmarkEntry.COLUMN_NAME_LATITUDE;
+        String longitude = "b." + BookmarkEntry.COLUMN_NAME_LONGITUDE;
+        selectionParts.add(latitude + " BETWEEN ? AND ?");
+        selectionArgs.add(String.valueOf(south));
+        selectionArgs.add(String.valueOf(north));
+
+        if (west <= -180 && east >= 180) {
+            return; // Every longitude qualifies
+        }
+        if (west > east) {
+            // Crosses the antimeridian: two longitude ranges
+            selectionParts.add("(" + longitude + " >= ? OR " + longitude + " <= ?)");
+        } else {
+            selectionParts.add(longitude + " BETWEEN ? AND ?");
+        }
+        selectionArgs.add(String.valueOf(west));
+        selectionArgs.add(String.valueOf(east));
+    }
+}
@@ -0,0 +1,690 @@
+package com.eei4369.markio;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.provider.DocumentsContract;
+import android.text.TextUtils;
+import android.util.Log;
+
+import androidx.core.content.ContextCompat;
+
+import com.eei4369.markio.BookmarkContract.BookmarkEntry;
+import com.eei4369.markio.BookmarkContract.BookmarkStatsEntry;
+import com.eei4369.markio.BookmarkContract.SyncLogEntry;
+import com.eei4369.markio.BookmarkContract.SyncStateEntry;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Single entry point for bookmark database access from the UI.
+ *
+ * Reads and writes run off the main thread, and results are delivered to the main thread
+ * through a Callback, so activities never touch the disk themselves. Writes run one at a time
+ * on a single writer thread. Reads run on a small pool and, with write-ahead logging, on the
+ * connection pool's read connections, so they proceed alongside each other and alongside a
+ * write. A read still waits for the writes submitted before it: a list reload queued after a
+ * save always sees that save. Committed writes are announced through BookmarkInvalidationTracker.
+ */
+public class BookmarkRepository {
+
+    private static final String TAG = "BookmarkRepository";
+
+    private static BookmarkRepository instance;
+
+    // Receives the result of an asynchronous operation on the main thread.
+    public interface Callback<T> {
+        void onResult(T result);
+    }
+
+    private static final int READ_THREADS = 2;
+
+    private final BookmarkDbHelper dbHelper;
+    private final ExecutorService writeExecutor;
+    private final ExecutorService readExecutor;
+    private final Executor mainExecutor;
+    private final BookmarkInvalidationTracker invalidationTracker;
+    private final ContentResolver contentResolver;
+    private final PageArchive pageArchive;
+
+    // Tag autocomplete index; built on first use, then kept current by the writes below
+    private volatile TagIndex tagIndex;
+
+    // Similar-image index over every image hash; built on first use and dropped on any change
+    private volatile BkTree imageHashTree;
+    private volatile int imageHashGeneration; // Bumped on each change, so a tree built from older data is not kept
+
+    // Modification times of attachments outside the app's store, by content URI; cleared on any change
+    private final ConcurrentHashMap<String, Long> contentVersions = new ConcurrentHashMap<>();
+
+    // Completes once every write submitted so far has finished; reads start after it.
+    private CompletableFuture<Void> pendingWrites = CompletableFuture.completedFuture(null);
+
+    private BookmarkRepository(Context context) {
+        this(context, BookmarkDbHelper.getInstance(context));
+    }
+
+    // Used by instrumented tests, with a database of their own.
+    BookmarkRepository(Context context, BookmarkDbHelper dbHelper) {
+        this.dbHelper = dbHelper;
+        this.writeExecutor = Executors.newSingleThreadExecutor();
+        this.readExecutor = Executors.newFixedThreadPool(READ_THREADS);
+        this.mainExecutor = ContextCompat.getMainExecutor(context);
+        this.invalidationTracker = BookmarkInvalidationTracker.getInstance(context);
+        this.contentResolver = context.getContentResolver();
+        this.pageArchive = PageArchive.getInstance(context);
+        // The repository lives as long as the process, so it never removes this listener
+        invalidationTracker.addListener(change -> {
+            imageHashGeneration++;
+            imageHashTree = null;
+            contentVersions.clear();
+        });
+    }
+
+    /**
+     * Returns the process-wide repository. The database it owns stays open for the app's lifetime.
+     */
+    public static synchronized BookmarkRepository getInstance(Context context) {
+        if (instance == null) {
+            instance = new BookmarkRepository(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    // Runs a read on the read pool once earlier writes are done, then posts its result to the main
+    // thread. A read that fails is logged and delivers fallback, so its caller never waits forever.
+    private <T> void read(DatabaseTask<T> task, T fallback, Callback<T> callback) {
+        CompletableFuture<Void> barrier;
+        synchronized (this) {
+            barrier = pendingWrites;
+        }
+        // handle() rather than thenRun(): a failed write must not block the reads behind it
+        barrier.handleAsync((ignored, error) -> {
+            T result;
+            try {
+                result = task.run(dbHelper);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Could not read bookmarks", e);
+                result = fallback;
+            }
+            deliver(result, callback);
+            return null;
+        }, readExecutor);
+    }
+
+    // Runs a write on the writer thread, after every write submitted before it.
+    private <T> void write(DatabaseTask<T> task, Callback<T> callback) {
+        synchronized (this) {
+            pendingWrites = CompletableFuture.runAsync(() -> deliver(task.run(dbHelper), callback), writeExecutor);
+        }
+    }
+
+    private <T> void deliver(T result, Callback<T> callback) {
+        if (callback != null) {
+            mainExecutor.execute(() -> callback.onResult(result));
+        }
+    }
+
+    private interface DatabaseTask<T> {
+        T run(BookmarkDbHelper dbHelper);
+    }
+
+    // --- Reads ---
+
+    /**
+     * Loads the next page of a paged bookmark list. A failed read delivers an empty page.
+     */
+    public void loadNextPage(BookmarkPagingSource pagingSource, Callback<List<Bookmark>> callback) {
+        read(helper -> prepareRows(pagingSource.loadNextPage(helper.getReadableDatabase())),
+                Collections.<Bookmark>emptyList(), callback);
+    }
+
+    /**
+     * Loads the next page unless cancellationSignal is cancelled first. Cancelling skips a read
+     * that has not started, interrupts a running query, and guarantees the callback is not run,
+     * as long as the signal is cancelled on the main thread. As above, a failed read delivers an
+     * empty page.
+     */
+    public void loadNextPage(BookmarkPagingSource pagingSource, CancellationSignal cancellationSignal,
+                             Callback<List<Bookmark>> callback) {
+        read(helper -> {
+            if (cancellationSignal.isCanceled()) {
+                return null;
+            }
+            try {
+                return prepareRows(pagingSource.loadNextPage(helper.getReadableDatabase(), cancellationSignal));
+            } catch (OperationCanceledException e) {
+                return null;
+            }
+        }, Collections.<Bookmark>emptyList(), page -> {
+            // Checked again here: the signal may be cancelled after the read finished
+            if (page != null && !cancellationSignal.isCanceled()) {
+                callback.onResult(page);
+            }
+        });
+    }
+
+    /**
+     * Loads the dashboard counters and tag list. Delivers null if the read fails.
+     */
+    public void loadDashboard(Callback<DashboardStats> callback) {
+        read(helper -> {
+            SQLiteDatabase db = helper.getReadableDatabase();
+            // All counters live in one trigger-maintained row, so this is a single primary-key read
+            Cursor cursor = db.query(BookmarkStatsEntry.TABLE_NAME,
+                    new String[]{
+                            BookmarkStatsEntry.COLUMN_NAME_TOTAL,
+                            BookmarkStatsEntry.COLUMN_NAME_IMAGES,
+                            BookmarkStatsEntry.COLUMN_NAME_LINKS
+                    },
+                    BookmarkStatsEntry._ID + " = ?", new String[]{String.valueOf(BookmarkStatsEntry.ROW_ID)},
+                    null, null, null);
+            long total = 0;
+            long images = 0;
+            long links = 0;
+            try {
+                if (cursor.moveToFirst()) {
+                    total = cursor.getLong(0);
+                    images = cursor.getLong(1);
+                    links = cursor.getLong(2);
+                }
+            } finally {
+                cursor.close();
+            }
+            return new DashboardStats(total, images, links, BookmarkTags.loadTagCounts(db));
+        }, null, callback);
+    }
+
+    /**
+     * Re-reads the given rows as they would appear in a list filtered by query, so a screen can
+     * patch what it already shows. Rows that were deleted or no longer match are left out.
+     * Delivers null if the read fails.
+     */
+    public void loadRows(BookmarkQuery query, Collection<Long> ids, Callback<List<Bookmark>> callback) {
+        List<Long> idList = new ArrayList<>(ids); // The caller's set may change before the read runs
+        read(helper -> prepareRows(BookmarkPagingSource.loadRows(helper.getReadableDatabase(), query, idList)), null, callback);
+    }
+
+    /**
+     * Loads the position of every geotagged bookmark inside a map area, through the location index.
+     * Delivers null if the read fails.
+     *
+     * @param west Western edge; greater than east when the area crosses the antimeridian.
+     */
+    public void loadMapPoints(double south, double west, double north, double east, Callback<MapPoints> callback) {
+        read(helper -> {
+            List<String> selectionParts = new ArrayList<>();
+            List<String> selectionArgs = new ArrayList<>();
+            BookmarkQuery.appendLocationBox(selectionParts, selectionArgs, south, west, north, east);
+            Cursor cursor = helper.getReadableDatabase().query(BookmarkEntry.TABLE_NAME + " b",
+                    new String[]{"b." + BookmarkEntry._ID, "b." + BookmarkEntry.COLUMN_NAME_LATITUDE, "b." + BookmarkEntry.COLUMN_NAME_LONGITUDE},
+                    TextUtils.join(" AND ", selectionParts), selectionArgs.toArray(new String[0]),
+                    null, null, null);
+            try {
+                int count = cursor.getCount();
+                long[] ids = new long[count];
+                double[] latitudes = new double[count];
+                double[] longitudes = new double[count];
+                for (int i = 0; cursor.moveToNext(); i++) {
+                    ids[i] = cursor.getLong(0);
+                    latitudes[i] = cursor.getDouble(1);
+                    longitudes[i] = cursor.getDouble(2);
+                }
+                return new MapPoints(ids, latitudes, longitudes);
+            } finally {
+                cursor.close();
+            }
+        }, null, callback);
+    }
+
+    /**
+     * Loads the locations of the most recently saved geotagged bookmarks, newest first.
+     */
+    public void loadRecentLocations(int limit, Callback<List<GeoPoint>> callback) {
+        read(helper -> {
+            Cursor cursor = helper.getReadableDatabase().query(BookmarkEntry.TABLE_NAME,
+                    new String[]{BookmarkEntry.COLUMN_NAME_LATITUDE, BookmarkEntry.COLUMN_NAME_LONGITUDE},
+                    BookmarkEntry.COLUMN_NAME_LATITUDE + " IS NOT NULL", null, null, null,
+                    BookmarkEntry.COLUMN_NAME_TIMESTAMP + " DESC", String.valueOf(limit));
+            List<GeoPoint> locations = new ArrayList<>(cursor.getCount());
+            try {
+                while (cursor.moveToNext()) {
+                    locations.add(new GeoPoint(cursor.getDouble(0), cursor.getDouble(1)));
+                }
+            } finally {
+                cursor.close();
+            }
+            return locations;
+        }, Collections.<GeoPoint>emptyList(), callback);
+    }
+
+    // Readies list rows for binding: resolves MIME types not stored yet and precomputes display text.
+    private List<Bookmark> prepareRows(List<Bookmark> rows) {
+        for (Bookmark bookmark : rows) {
+            String contentUri = bookmark.getContentUri();
+            if (bookmark.getMimeType() != null || contentUri == null || contentUri.isEmpty()) {
+                continue;
+            }
+            // Rows saved before the mime_type column existed: ask the provider once, then remember
+            String mimeType = contentResolver.getType(Uri.parse(contentUri));
+            bookmark.setMimeType(mimeType != null ? mimeType : "");
+            long id = bookmark.getId();
+            String value = bookmark.getMimeType();
+            write(helper -> {
+                ContentValues values = new ContentValues();
+                values.put(BookmarkEntry.COLUMN_NAME_MIME_TYPE, value);
+                return helper.getWritableDatabase().update(BookmarkEntry.TABLE_NAME, values,
+                        BookmarkEntry._ID + " = ?", new String[]{String.valueOf(id)});
+            }, null);
+        }
+        BookmarkDisplay.prepare(rows);
+        for (Bookmark bookmark : rows) {
+            if (bookmark.getThumbnailKind() == BookmarkDisplay.THUMBNAIL_IMAGE) {
+                bookmark.setContentVersion(contentVersion(bookmark.getContentUri()));
+            }
+        }
+        return rows;
+    }
+
+    // Version of an attachment for the thumbnail cache key. Files in the app's store are named by
+    // their content, so their URI is version enough; other documents are asked once per URI until
+    // the next bookmark change, not on every page load.
+    private long contentVersion(String contentUri) {
+        if (contentUri.startsWith("content://" + AttachmentStore.AUTHORITY + "/")) {
+            return 0;
+        }
+        Long version = contentVersions.get(contentUri);
+        if (version == null) {
+            version = lastModified(Uri.parse(contentUri));
+            contentVersions.put(contentUri, version);
+        }
+        return version;
+    }
+
+    // Modification time reported by the document provider, or 0 if it does not report one.
+    private long lastModified(Uri uri) {
+        try (Cursor cursor = contentResolver.query(uri,
+                new String[]{DocumentsContract.Document.COLUMN_LAST_MODIFIED}, null, null, null)) {
+            if (cursor != null && cursor.moveToFirst() && cursor.getColumnCount() > 0 && !cursor.isNull(0)) {
+                return cursor.getLong(0);
+            }
+        } catch (RuntimeException e) {
+            // Permission revoked or provider gone; the thumbnail load will report the failure
+        }
+        return 0;
+    }
+
+    /**
+     * Loads a single bookmark for editing. The readable address is the stored value (possibly
+     * empty or null), not the "Location: ..." display text used by the list.
+     * Delivers null if the bookmark does not exist or cannot be read.
+     */
+    public void loadBookmark(long id, Callback<Bookmark> callback) {
+        read(helper -> {
+            String[] projection = {
+                    BookmarkEntry._ID, BookmarkEntry.COLUMN_NAME_TITLE, BookmarkEntry.COLUMN_NAME_NOTES,
+                    BookmarkEntry.COLUMN_NAME_CONTENT_TYPE, BookmarkEntry.COLUMN_NAME_CONTENT_URI,
+                    BookmarkEntry.COLUMN_NAME_LINK_URL, BookmarkEntry.COLUMN_NAME_GEOGRAPHIC_LOCATION,
+                    BookmarkEntry.COLUMN_NAME_READABLE_ADDRESS, BookmarkEntry.COLUMN_NAME_TIMESTAMP,
+                    BookmarkEntry.COLUMN_NAME_TAGS
+            };
+            Cursor cursor = helper.getReadableDatabase().query(BookmarkEntry.TABLE_NAME, projection,
+                    BookmarkEntry._ID + " = ?", new String[]{String.valueOf(id)}, null, null, null);
+            try {
+                if (!cursor.moveToFirst()) {
+                    return null;
+                }
+                return new Bookmark(
+                        cursor.getLong(0), cursor.getString(1), cursor.getString(2),
+                        cursor.getString(3), cursor.getString(4), cursor.getString(5),
+                        cursor.getString(6), cursor.getString(7), cursor.getLong(8),
+                        cursor.getString(9));
+            } finally {
+                cursor.close();
+            }
+        }, null, callback);
+    }
+
+    /**
+     * Looks for another bookmark of the same page as url (see UrlCanonicalizer), through the
+     * url_hash index. Delivers its ID, or -1 if there is none.
+     *
+     * @param excludeId The bookmark being edited, which may already hold this link; -1 when adding.
+     */
+    public void findBookmarkWithLink(String url, long excludeId, Callback<Long> callback) {
+        read(helper -> BookmarkLinks.findByLink(helper.getReadableDatabase(), url, excludeId), -1L, callback);
+    }
+
+    /**
+     * Delivers whether an offline snapshot of the bookmark's page is stored (see PageArchive).
+     */
+    public void hasArchivedPage(long bookmarkId, Callback<Boolean> callback) {
+        read(helper -> PageArchive.has(helper.getReadableDatabase(), bookmarkId), false, callback);
+    }
+
+    /**
+     * Finds the image bookmarks that look like this one (ImageHash.SIMILAR_DISTANCE or fewer
+     * differing hash bits), most similar first. Delivers an empty list if the bookmark's image has
+     * not been hashed yet. The BK-tree of all hashes is kept between calls, so a query visits only
+     * the branches that can hold a match instead of every image.
+     */
+    public void findSimilarImages(long bookmarkId, Callback<List<Long>> callback) {
+        read(helper -> {
+            SQLiteDatabase db = helper.getReadableDatabase();
+            List<Long> similar = new ArrayList<>();
+            Cursor cursor = db.query(BookmarkEntry.TABLE_NAME, new String[]{BookmarkEntry.COLUMN_NAME_IMAGE_HASH},
+                    BookmarkEntry._ID + " = ? AND " + BookmarkEntry.COLUMN_NAME_IMAGE_HASH + " IS NOT NULL",
+                    new String[]{String.valueOf(bookmarkId)}, null, null, null);
+            long hash;
+            try {
+                if (!cursor.moveToFirst()) {
+                    return similar;
+                }
+                hash = cursor.getLong(0);
+            } finally {
+                cursor.close();
+            }
+            for (BkTree.Match match : loadImageHashTree(db).search(hash, ImageHash.SIMILAR_DISTANCE)) {
+                if (match.id != bookmarkId) similar.add(match.id);
+            }
+            return similar;
+        }, Collections.<Long>emptyList(), callback);
+    }
+
+    // Returns the cached tree, or builds one from the image hash index alone.
+    private BkTree loadImageHashTree(SQLiteDatabase db) {
+        BkTree tree = imageHashTree;
+        if (tree != null) {
+            return tree;
+        }
+        int generation = imageHashGeneration;
+        tree = new BkTree();
+        Cursor cursor = db.query(BookmarkEntry.TABLE_NAME,
+                new String[]{BookmarkEntry._ID, BookmarkEntry.COLUMN_NAME_IMAGE_HASH},
+                BookmarkEntry.COLUMN_NAME_IMAGE_HASH + " IS NOT NULL", null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                tree.add(cursor.getLong(1), cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        if (generation == imageHashGeneration) {
+            imageHashTree = tree;
+        }
+        return tree;
+    }
+
+    /**
+     * Delivers the tag autocomplete index, reading every tag with its usage count the first time.
+     */
+    public void loadTagIndex(Callback<TagIndex> callback) {
+        TagIndex index = tagIndex;
+        if (index != null) {
+            deliver(index, callback);
+            return;
+        }
+        // Built on the writer thread: no save can commit between reading the counts and the
+        // index being published, so none of their updates are lost
+        write(helper -> {
+            if (tagIndex == null) {
+                tagIndex = new TagIndex(BookmarkTags.loadTagCounts(helper.getReadableDatabase()));
+            }
+            return tagIndex;
+        }, callback);
+    }
+
+    // --- Writes ---
+
+    /**
+     * Inserts a bookmark (bookmarkId == -1) or updates an existing one, together with its
+     * normalized tag links, in one transaction.
+     *
+     * @param values Column values for the bookmarks row; must include the tags column.
+     * @param callback Receives the bookmark's ID, or -1 if nothing was written.
+     */
+    public void saveBookmark(long bookmarkId, ContentValues values, Callback<Long> callback) {
+        ContentValues copy = new ContentValues(values); // The caller may keep editing its instance
+        putDerivedColumns(copy);
+        if (bookmarkId == -1) {
+            copy.put(BookmarkEntry.COLUMN_NAME_SYNC_ID, BookmarkSyncStore.newSyncId());
+        }
+        write(helper -> {
+            SQLiteDatabase db = helper.getWritableDatabase();
+            String tags = copy.getAsString(BookmarkEntry.COLUMN_NAME_TAGS);
+            long savedId = -1;
+            Set<String> oldTags = Collections.emptySet();
+            Map<Long, String> archivedFiles = Collections.emptyMap();
+            db.beginTransaction();
+            try {
+                if (bookmarkId != -1 && tagIndex != null) {
+                    oldTags = BookmarkTags.loadTagNames(db, bookmarkId);
+                }
+                if (bookmarkId != -1 && copy.containsKey(BookmarkEntry.COLUMN_NAME_LINK_URL)) {
+                    archivedFiles = PageArchive.loadFileNames(db, Collections.singleton(bookmarkId));
+                }
+                if (bookmarkId == -1) {
+                    savedId = db.insert(BookmarkEntry.TABLE_NAME, null, copy);
+                } else if (db.update(BookmarkEntry.TABLE_NAME, copy, BookmarkEntry._ID + " = ?",
+                        new String[]{String.valueOf(bookmarkId)}) > 0) {
+                    savedId = bookmarkId;
+                }
+                if (savedId != -1) {
+                    BookmarkTags.replaceTags(db, savedId, tags);
+                    updateFuzzyTerms(db, savedId, copy);
+                    db.setTransactionSuccessful();
+                }
+            } finally {
+                db.endTransaction();
+            }
+            if (savedId != -1) {
+                pageArchive.deleteDropped(db, archivedFiles); // A changed link drops the snapshot
+                TagIndex index = tagIndex;
+                if (index != null) {
+                    index.update(oldTags, new HashSet<>(BookmarkTags.parse(tags)));
+                }
+                invalidationTracker.publish(BookmarkChange.of(
+                        bookmarkId == -1 ? BookmarkChange.Type.INSERT : BookmarkChange.Type.UPDATE, savedId));
+            }
+            return savedId;
+        }, callback);
+    }
+
+    // Keeps the columns computed from others in step with the ones being written: the indexed
+    // coordinates with the location string, and the link's hash with the link.
+    private static void putDerivedColumns(ContentValues values) {
+        if (values.containsKey(BookmarkEntry.COLUMN_NAME_GEOGRAPHIC_LOCATION)) {
+            GeoPoint point = GeoPoint.parse(values.getAsString(BookmarkEntry.COLUMN_NAME_GEOGRAPHIC_LOCATION));
+            values.put(BookmarkEntry.COLUMN_NAME_LATITUDE, point != null ? point.latitude : null);
+            values.put(BookmarkEntry.COLUMN_NAME_LONGITUDE, point != null ? point.longitude : null);
+        }
+        if (values.containsKey(BookmarkEntry.COLUMN_NAME_LINK_URL)) {
+            values.put(BookmarkEntry.COLUMN_NAME_URL_HASH, UrlCanonicalizer.hash(values.getAsString(BookmarkEntry.COLUMN_NAME_LINK_URL)));
+        }
+    }
+
+    // Re-indexes the saved row's words for fuzzy search, read back in case values was partial.
+    private static void updateFuzzyTerms(SQLiteDatabase db, long bookmarkId, ContentValues values) {
+        if (values.containsKey(BookmarkEntry.COLUMN_NAME_TITLE) && values.containsKey(BookmarkEntry.COLUMN_NAME_TAGS)
+                && values.containsKey(BookmarkEntry.COLUMN_NAME_LINK_URL)) {
+            BookmarkFuzzy.replaceTerms(db, bookmarkId, values.getAsString(BookmarkEntry.COLUMN_NAME_TITLE),
+                    values.getAsString(BookmarkEntry.COLUMN_NAME_TAGS), values.getAsString(BookmarkEntry.COLUMN_NAME_LINK_URL));
+            return;
+        }
+        Cursor cursor = db.query(BookmarkEntry.TABLE_NAME,
+                new String[]{BookmarkEntry.COLUMN_NAME_TITLE, BookmarkEntry.COLUMN_NAME_TAGS, BookmarkEntry.COLUMN_NAME_LINK_URL},
+                BookmarkEntry._ID + " = ?", new String[]{String.valueOf(bookmarkId)}, null, null, null);
+        try {
+            if (cursor.moveToFirst()) {
+                BookmarkFuzzy.replaceTerms(db, bookmarkId, cursor.getString(0), cursor.getString(1), cursor.getString(2));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Deletes a bookmark. Its search index entries, tag links, counters and page snapshot row are
+     * cleaned up by triggers; the snapshot file is deleted here.
+     *
+     * @param callback Receives true if a row was deleted.
+     */
+    public void deleteBookmark(long bookmarkId, Callback<Boolean> callback) {
+        write(helper -> {
+            SQLiteDatabase db = helper.getWritableDatabase();
+            Set<String> oldTags = tagIndex != null ? BookmarkTags.loadTagNames(db, bookmarkId) : Collections.<String>emptySet();
+            Map<Long, String> archivedFiles = PageArchive.loadFileNames(db, Collections.singleton(bookmarkId));
+            boolean deleted = db.delete(BookmarkEntry.TABLE_NAME,
+                    BookmarkEntry._ID + " = ?", new String[]{String.valueOf(bookmarkId)}) > 0;
+            if (deleted) {
+                pageArchive.deleteDropped(db, archivedFiles);
+                TagIndex index = tagIndex;
+                if (index != null) {
+                    index.update(oldTags, Collections.<String>emptySet());
+                }
+                invalidationTracker.publish(BookmarkChange.of(BookmarkChange.Type.DELETE, bookmarkId));
+            }
+            return deleted;
+        }, callback);
+    }
+
+    /**
+     * Applies bookmark changes pulled by SyncEngine and moves the pull checkpoint, in one
+     * transaction on the writer thread (see SyncStore.apply). Each change is written like a save
+     * or delete from the UI, with its tags, search terms and link hash, but is not logged as a
+     * local change. Blocks until done, so it must not be called on the main thread.
+     *
+     * @return The number of changes that won over the local state and were applied.
+     */
+    public int applySyncChanges(List<SyncChange> changes, long pullCheckpoint) {
+        CompletableFuture<Integer> done = new CompletableFuture<>();
+        write(helper -> {
+            try {
+                int applied = applySyncChanges(helper.getWritableDatabase(), changes, pullCheckpoint);
+                done.complete(applied);
+                return applied;
+            } catch (RuntimeException e) {
+                done.completeExceptionally(e);
+                throw e;
+            }
+        }, null);
+        return done.join();
+    }
+
+    private int applySyncChanges(SQLiteDatabase db, List<SyncChange> changes, long pullCheckpoint) {
+        Set<Long> inserted = new HashSet<>();
+        Set<Long> updated = new HashSet<>();
+        Set<Long> deleted = new HashSet<>();
+        List<Set<String>> oldTagSets = new ArrayList<>();
+        List<Set<String>> newTagSets = new ArrayList<>();
+        Map<Long, String> archivedFiles = new HashMap<>(); // Snapshots a deletion or changed link may drop
+        int applied = 0;
+        db.beginTransaction();
+        try {
+            db.execSQL("UPDATE " + SyncStateEntry.TABLE_NAME + " SET " + SyncStateEntry.COLUMN_NAME_APPLYING + " = 1" +
+                    " WHERE " + SyncStateEntry._ID + " = " + SyncStateEntry.ROW_ID);
+            for (SyncChange change : changes) {
+                // Checked here rather than by the engine, so a save made since the pull is not overwritten by an older state
+                if (!winsOverLocal(db, change)) continue;
+                long localId = findBySyncId(db, change.syncId);
+                Set<String> oldTags = localId != -1 && tagIndex != null
+                        ? BookmarkTags.loadTagNames(db, localId) : Collections.<String>emptySet();
+                if (localId != -1) {
+                    archivedFiles.putAll(PageArchive.loadFileNames(db, Collections.singleton(localId)));
+                }
+                Set<String> newTags = Collections.emptySet();
+                if (change.deleted) {
+                    if (localId != -1 && db.delete(BookmarkEntry.TABLE_NAME, BookmarkEntry._ID + " = ?",
+                            new String[]{String.valueOf(localId)}) > 0) {
+                        deleted.add(localId);
+                    }
+                } else {
+                    ContentValues values = BookmarkSyncStore.toValues(change);
+                    putDerivedColumns(values);
+                    if (localId == -1) {
+                        localId = db.insert(BookmarkEntry.TABLE_NAME, null, values);
+                        if (localId == -1) continue;
+                        inserted.add(localId);
+                    } else {
+                        db.update(BookmarkEntry.TABLE_NAME, values, BookmarkEntry._ID + " = ?", new String[]{String.valueOf(localId)});
+                        updated.add(localId);
+                    }
+                    String tags = values.getAsString(BookmarkEntry.COLUMN_NAME_TAGS);
+                    BookmarkTags.replaceTags(db, localId, tags);
+                    updateFuzzyTerms(db, localId, values);
+                    newTags = new HashSet<>(BookmarkTags.parse(tags));
+                }
+                oldTagSets.add(oldTags);
+                newTagSets.add(newTags);
+
+                // Recorded at sequence 0, below any push checkpoint, so it is not pushed back
+                ContentValues logged = new ContentValues();
+                logged.put(SyncLogEntry.COLUMN_NAME_SYNC_ID, change.syncId);
+                logged.put(SyncLogEntry.COLUMN_NAME_SEQ, 0);
+                logged.put(SyncLogEntry.COLUMN_NAME_VERSION, change.version);
+                logged.put(SyncLogEntry.COLUMN_NAME_DEVICE_ID, change.deviceId);
+                logged.put(SyncLogEntry.COLUMN_NAME_DELETED, change.deleted ? 1 : 0);
+                db.insertWithOnConflict(SyncLogEntry.TABLE_NAME, null, logged, SQLiteDatabase.CONFLICT_REPLACE);
+                applied++;
+            }
+            ContentValues state = new ContentValues();
+            state.put(SyncStateEntry.COLUMN_NAME_APPLYING, 0);
+            state.put(SyncStateEntry.COLUMN_NAME_PULL_CHECKPOINT, pullCheckpoint);
+            db.update(SyncStateEntry.TABLE_NAME, state, SyncStateEntry._ID + " = " + SyncStateEntry.ROW_ID, null);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        pageArchive.deleteDropped(db, archivedFiles);
+
+        TagIndex index = tagIndex;
+        if (index != null) {
+            for (int i = 0; i < oldTagSets.size(); i++) {
+                index.update(oldTagSets.get(i), newTagSets.get(i));
+            }
+        }
+        if (!inserted.isEmpty()) invalidationTracker.publish(new BookmarkChange(BookmarkChange.Type.INSERT, inserted));
+        if (!updated.isEmpty()) invalidationTracker.publish(new BookmarkChange(BookmarkChange.Type.UPDATE, updated));
+        if (!deleted.isEmpty()) invalidationTracker.publish(new BookmarkChange(BookmarkChange.Type.DELETE, deleted));
+        return applied;
+    }
+
+    // Compares a pulled change with the state this device last logged or applied for the bookmark.
+    private static boolean winsOverLocal(SQLiteDatabase db, SyncChange change) {
+        Cursor cursor = db.query(SyncLogEntry.TABLE_NAME,
+                new String[]{SyncLogEntry.COLUMN_NAME_VERSION, SyncLogEntry.COLUMN_NAME_DEVICE_ID},
+                SyncLogEntry.COLUMN_NAME_SYNC_ID + " = ?", new String[]{change.syncId}, null, null, null);
+        try {
+            return !cursor.moveToFirst() || change.winsOver(cursor.getLong(0), cursor.getString(1));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static long findBySyncId(SQLiteDatabase db, String syncId) {
+        Cursor cursor = db.query(BookmarkEntry.TABLE_NAME, new String[]{BookmarkEntry._ID},
+                BookmarkEntry.COLUMN_NAME_SYNC_ID + " = ?", new String[]{syncId}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.eei4369.markio;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.eei4369.markio.BookmarkContract.BookmarkEntry;
+import com.eei4369.markio.BookmarkContract.SyncLogEntry;
+import com.eei4369.markio.BookmarkContract.SyncStateEntry;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * The SyncStore of the bookmarks database.
+ *
+ * Triggers log every local write to a synced column in sync_log (see BookmarkDbHelper); pulled
+ * changes are written by BookmarkRepository.applySyncChanges, which keeps the tag, fuzzy search
+ * and link indexes current as a save from the editor would. Columns computed on each device,
+ * such as coordinates, link hashes, MIME types and fetched page metadata, are not synced, and
+ * neither are attachments: their content URIs and hashes name files on this device only, and are
+ * rewritten by background jobs that must not log a change each time.
+ */
+public class BookmarkSyncStore implements SyncStore {
+
+    // Columns sent to other devices; writes to them are logged
+    static final String[] SYNCED_COLUMNS = {
+            BookmarkEntry.COLUMN_NAME_TITLE, BookmarkEntry.COLUMN_NAME_NOTES,
+            BookmarkEntry.COLUMN_NAME_CONTENT_TYPE, BookmarkEntry.COLUMN_NAME_LINK_URL,
+            BookmarkEntry.COLUMN_NAME_GEOGRAPHIC_LOCATION, BookmarkEntry.COLUMN_NAME_TIMESTAMP,
+            BookmarkEntry.COLUMN_NAME_TAGS
+    };
+
+    private static final String STATE_ROW = SyncStateEntry._ID + " = " + SyncStateEntry.ROW_ID;
+
+    private final BookmarkDbHelper dbHelper;
+    private final BookmarkRepository repository;
+
+    public BookmarkSyncStore(Context context) {
+        this(BookmarkDbHelper.getInstance(context), BookmarkRepository.getInstance(context));
+    }
+
+    BookmarkSyncStore(BookmarkDbHelper dbHelper, BookmarkRepository repository) {
+        this.dbHelper = dbHelper;
+        this.repository = repository;
+    }
+
+    /**
+     * Returns a new sync ID: 32 random lowercase hex digits, the form BookmarkDbHelper gives the
+     * bookmarks that existed before sync.
+     */
+    static String newSyncId() {
+        UUID uuid = UUID.randomUUID();
+        return String.format("%016x%016x", uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    @Override
+    public String getDeviceId() {
+        Cursor cursor = dbHelper.getReadableDatabase().query(SyncStateEntry.TABLE_NAME,
+                new String[]{SyncStateEntry.COLUMN_NAME_DEVICE_ID}, STATE_ROW, null, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public List<SyncChange> loadChanges(long afterSeq, int limit) {
+        StringBuilder sql = new StringBuilder("SELECT l." + SyncLogEntry.COLUMN_NAME_SYNC_ID +
+                ", l." + SyncLogEntry.COLUMN_NAME_VERSION + ", l." + SyncLogEntry.COLUMN_NAME_DEVICE_ID +
+                ", l." + SyncLogEntry.COLUMN_NAME_DELETED + ", l." + SyncLogEntry.COLUMN_NAME_SEQ);
+        for (String column : SYNCED_COLUMNS) {
+            sql.append(", b.").append(column);
+        }
+        // The log holds each bookmark once, at its latest change; a deleted one has no row to join
+        sql.append(" FROM ").append(SyncLogEntry.TABLE_NAME).append(" l LEFT JOIN ").append(BookmarkEntry.TABLE_NAME)
+                .append(" b ON b.").append(BookmarkEntry.COLUMN_NAME_SYNC_ID).append(" = l.").append(SyncLogEntry.COLUMN_NAME_SYNC_ID)
+                .append(" WHERE l.").append(SyncLogEntry.COLUMN_NAME_SEQ).append(" > ?")
+                .append(" ORDER BY l.").append(SyncLogEntry.COLUMN_NAME_SEQ).append(" LIMIT ").append(limit);
+
+        List<SyncChange> changes = new ArrayList<>();
+        Cursor cursor = dbHelper.getReadableDatabase().rawQuery(sql.toString(), new String[]{String.valueOf(afterSeq)});
+        try {
+            while (cursor.moveToNext()) {
+                boolean deleted = cursor.getInt(3) != 0;
+                Map<String, Object> values = new LinkedHashMap<>();
+                if (!deleted) {
+                    for (int i = 0; i < SYNCED_COLUMNS.length; i++) {
+                        values.put(SYNCED_COLUMNS[i], readValue(cursor, 5 + i));
+                    }
+                }
+                changes.add(new SyncChange(cursor.getString(0), cursor.getLong(1), cursor.getString(2),
+                        deleted, values, cursor.getLong(4)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return changes;
+    }
+
+    @Override
+    public long getPushCheckpoint() {
+        return readState(SyncStateEntry.COLUMN_NAME_PUSH_CHECKPOINT);
+    }
+
+    @Override
+    public void setPushCheckpoint(long seq) {
+        ContentValues values = new ContentValues();
+        values.put(SyncStateEntry.COLUMN_NAME_PUSH_CHECKPOINT, seq);
+        dbHelper.getWritableDatabase().update(SyncStateEntry.TABLE_NAME, values, STATE_ROW, null);
+    }
+
+    @Override
+    public long getPullCheckpoint() {
+        return readState(SyncStateEntry.COLUMN_NAME_PULL_CHECKPOINT);
+    }
+
+    @Override
+    public int apply(List<SyncChange> changes, long pullCheckpoint) {
+        return repository.applySyncChanges(changes, pullCheckpoint);
+    }
+
+    /**
+     * Returns the bookmarks row values of a pulled change, leaving out columns this version of
+     * the app does not sync.
+     */
+    static ContentValues toValues(SyncChange change) {
+        ContentValues values = new ContentValues();
+        for (String column : SYNCED_COLUMNS) {
+            Object value = change.values.get(column);
+            if (value instanceof Long) {
+                values.put(column, (Long) value);
+            } else if (value instanceof Double) {
+                values.put(column, (Double) value);
+            } else if (value != null) {
+                values.put(column, value.toString());
+            } else {
+                values.putNull(column);
+            }
+        }
+        values.put(BookmarkEntry.COLUMN_NAME_SYNC_ID, change.syncId);
+        return values;
+    }
+
+    private static Object readValue(Cursor cursor, int column) {
+        switch (cursor.getType(column)) {
+            case Cursor.FIELD_TYPE_INTEGER:
+                return cursor.getLong(column);
+            case Cursor.FIELD_TYPE_FLOAT:
+                return cursor.getDouble(column);
+            case Cursor.FIELD_TYPE_NULL:
+                return null;
+            default:
+                return cursor.getString(column);
+        }
+    }
+
+    private long readState(String column) {
+        Cursor cursor = dbHelper.getReadableDatabase().query(SyncStateEntry.TABLE_NAME,
+                new String[]{column}, STATE_ROW, null, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.eei4369.markio;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.eei4369.markio.BookmarkContract.BookmarkTagEntry;
+import com.eei4369.markio.BookmarkContract.TagEntry;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+// Keeps the normalized tags/bookmark_tags tables in step with a bookmark's comma-separated tags.
+public final class BookmarkTags {
+
+    private BookmarkTags() {}
+
+    /**
+     * Splits a comma-separated tag string into distinct, trimmed, lower-case tag names.
+     *
+     * @param tags The raw tags text as typed by the user; may be null.
+     * @return The tag names in their original order, without duplicates or blanks.
+     */
+    public static List<String> parse(String tags) {
+        Set<String> names = new LinkedHashSet<>();
+        if (tags != null) {
+            for (String tag : tags.split(",")) {
+                String name = tag.trim().toLowerCase(Locale.getDefault());
+                if (!name.isEmpty()) {
+                    names.add(name);
+                }
+            }
+        }
+        return new ArrayList<>(names);
+    }
+
+    /**
+     * Replaces the tag links of one bookmark. Call inside the transaction that writes the bookmark.
+     * Tags no longer used by any bookmark are removed by a trigger on bookmark_tags.
+     *
+     * @param db         A writable database.
+     * @param bookmarkId The bookmark's _ID.
+     * @param tags       The bookmark's comma-separated tags.
+     */
+    public static void replaceTags(SQLiteDatabase db, long bookmarkId, String tags) {
+        db.delete(BookmarkTagEntry.TABLE_NAME, BookmarkTagEntry.COLUMN_NAME_BOOKMARK_ID + " = ?",
+                new String[]{String.valueOf(bookmarkId)});
+        ContentValues link = new ContentValues();
+        for (String name : parse(tags)) {
+            link.put(BookmarkTagEntry.COLUMN_NAME_BOOKMARK_ID, bookmarkId);
+            link.put(BookmarkTagEntry.COLUMN_NAME_TAG_ID, getOrCreateTagId(db, name));
+            db.insertWithOnConflict(BookmarkTagEntry.TABLE_NAME, null, link, SQLiteDatabase.CONFLICT_IGNORE);
+        }
+    }
+
+    // Looks a tag up through the unique index on its name, inserting it if it is new.
+    private static long getOrCreateTagId(SQLiteDatabase db, String name) {
+        Cursor cursor = db.query(TagEntry.TABLE_NAME, new String[]{TagEntry._ID},
+                TagEntry.COLUMN_NAME_NAME + " = ?", new String[]{name}, null, null, null);
+        try {
+            if (cursor.moveToFirst()) {
+                return cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+        ContentValues values = new ContentValues();
+        values.put(TagEntry.COLUMN_NAME_NAME, name);
+        return db.insert(TagEntry.TABLE_NAME, null, values);
+    }
+
+    /**
+     * Returns the tag names linked to one bookmark, read from the normalized tables.
+     */
+    public static Set<String> loadTagNames(SQLiteDatabase db, long bookmarkId) {
+        Set<String> names = new HashSet<>();
+        Cursor cursor = db.rawQuery("SELECT t." + TagEntry.COLUMN_NAME_NAME +
+                " FROM " + BookmarkTagEntry.TABLE_NAME + " bt JOIN " + TagEntry.TABLE_NAME + " t" +
+                " ON t." + TagEntry._ID + " = bt." + BookmarkTagEntry.COLUMN_NAME_TAG_ID +
+                " WHERE bt." + BookmarkTagEntry.COLUMN_NAME_BOOKMARK_ID + " = ?",
+                new String[]{String.valueOf(bookmarkId)});
+        try {
+            while (cursor.moveToNext()) {
+                names.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return names;
+    }
+
+    /**
+     * Returns a WHERE clause fragment selecting bookmarks that carry the given tag,
+     * answered from the (tag, bookmark) index instead of scanning the tags text.
+     *
+     * @param bookmarkIdColumn The (possibly table-qualified) bookmark _ID column to filter.
+     */
+    public static String tagFilterClause(String bookmarkIdColumn) {
+        return bookmarkIdColumn + " IN (SELECT bt." + BookmarkTagEntry.COLUMN_NAME_BOOKMARK_ID +
+                " FROM " + BookmarkTagEntry.TABLE_NAME + " bt JOIN " + TagEntry.TABLE_NAME + " t" +
+                " ON t." + TagEntry._ID + " = bt." + BookmarkTagEntry.COLUMN_NAME_TAG_ID +
+                " WHERE t." + TagEntry.COLUMN_NAME_NAME + " = ?)";
+    }
+
+    /**
+     * Returns every tag in use with the number of bookmarks carrying it, alphabetically.
+     * Counts are maintained by triggers, so this reads only the tags table.
+     */
+    public static Map<String, Long> loadTagCounts(SQLiteDatabase db) {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        Cursor cursor = db.query(TagEntry.TABLE_NAME,
+                new String[]{TagEntry.COLUMN_NAME_NAME, TagEntry.COLUMN_NAME_USAGE_COUNT},
+                null, null, null, null, TagEntry.COLUMN_NAME_NAME + " ASC");
+        try {
+            while (cursor.moveToNext()) {
+                counts.put(cursor.getString(0), cursor.getLong(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return counts;
+    }
+}
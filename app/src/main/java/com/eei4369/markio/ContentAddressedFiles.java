@@ -0,0 +1,207 @@
+package com.eei4369.markio;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A directory of files named by the SHA-256 of their content, so identical files are stored once.
+ * Files live at {@code <dir>/<first two hex digits>/<sha256>[.<extension>]} and are never
+ * modified after being moved into place.
+ *
+ * A regular file is hashed through memory-mapped windows, with no copy into the Java heap; only
+ * when the content is new is it copied, by FileChannel.transferTo, which lets the kernel move the
+ * bytes. Any other channel (a pipe from a cloud provider, say) is read once through a fixed
+ * buffer, hashing and writing as it goes. Memory use is bounded either way.
+ */
+public final class ContentAddressedFiles {
+
+    private static final int BUFFER_BYTES = 64 * 1024;
+    private static final long MAP_WINDOW_BYTES = 8L * 1024 * 1024;
+    private static final long TRANSFER_CHUNK_BYTES = 1024 * 1024;
+    private static final long PROGRESS_STEP_BYTES = 256 * 1024;
+
+    // Reports progress from the copying thread. For a regular file every byte counts twice,
+    // once hashed and once copied, so totalBytes is twice its size; -1 when the size is unknown.
+    public interface ProgressListener {
+        void onProgress(long doneBytes, long totalBytes);
+    }
+
+    // A file in the store.
+    public static final class Stored {
+        public final String sha256;
+        public final File file;
+        public final long size;
+        public final boolean deduplicated; // True if the content was already stored
+
+        Stored(String sha256, File file, long size, boolean deduplicated) {
+            this.sha256 = sha256;
+            this.file = file;
+            this.size = size;
+            this.deduplicated = deduplicated;
+        }
+    }
+
+    private final File directory;
+
+    public ContentAddressedFiles(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Stores the channel's content unless identical content is already stored.
+     *
+     * @param extension File name extension without the dot (for viewers that go by it), or null.
+     * @param listener  Receives progress about every 256 KiB, or null.
+     */
+    public Stored store(ReadableByteChannel source, String extension, ProgressListener listener) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        if (source instanceof FileChannel) {
+            FileChannel channel = (FileChannel) source;
+            long size = sizeOf(channel);
+            if (size >= 0) {
+                return storeRegularFile(channel, size, extension, listener);
+            }
+        }
+        return storeStream(source, extension, listener);
+    }
+
+    /**
+     * Returns the stored file with this hash, whatever its extension, or null.
+     */
+    public File find(String sha256) {
+        File[] matches = new File(directory, sha256.substring(0, 2)).listFiles(
+                (dir, name) -> name.equals(sha256) || name.startsWith(sha256 + "."));
+        return matches != null && matches.length > 0 ? matches[0] : null;
+    }
+
+    // Hash first, then copy only if the content is new.
+    private Stored storeRegularFile(FileChannel source, long size, String extension, ProgressListener listener) throws IOException {
+        MessageDigest digest = newDigest();
+        long total = 2 * size;
+        long reported = 0;
+        for (long position = 0; position < size; position += MAP_WINDOW_BYTES) {
+            MappedByteBuffer window = source.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_WINDOW_BYTES, size - position));
+            digest.update(window);
+            reported = report(listener, position + window.capacity(), total, reported);
+        }
+        String sha256 = toHex(digest.digest());
+        File existing = find(sha256);
+        if (existing != null) {
+            report(listener, total, total, -1);
+            return new Stored(sha256, existing, size, true);
+        }
+
+        File temp = File.createTempFile("import", ".tmp", directory);
+        try (FileOutputStream out = new FileOutputStream(temp); FileChannel target = out.getChannel()) {
+            long position = 0;
+            while (position < size) {
+                // transferTo may move fewer bytes than asked, so loop until done
+                long moved = source.transferTo(position, Math.min(TRANSFER_CHUNK_BYTES, size - position), target);
+                if (moved <= 0) {
+                    throw new IOException("Source ended after " + position + " of " + size + " bytes");
+                }
+                position += moved;
+                reported = report(listener, size + position, total, reported);
+            }
+            target.force(true);
+        } catch (IOException | RuntimeException e) {
+            temp.delete();
+            throw e;
+        }
+        return moveIntoPlace(temp, sha256, size, extension);
+    }
+
+    // One pass through a fixed buffer, for channels that cannot be mapped or measured.
+    private Stored storeStream(ReadableByteChannel source, String extension, ProgressListener listener) throws IOException {
+        MessageDigest digest = newDigest();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+        File temp = File.createTempFile("import", ".tmp", directory);
+        long size = 0;
+        long reported = 0;
+        try (FileOutputStream out = new FileOutputStream(temp); FileChannel target = out.getChannel()) {
+            while (source.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer.duplicate());
+                while (buffer.hasRemaining()) {
+                    size += target.write(buffer);
+                }
+                buffer.clear();
+                reported = report(listener, size, -1, reported);
+            }
+            target.force(true);
+        } catch (IOException | RuntimeException e) {
+            temp.delete();
+            throw e;
+        }
+        String sha256 = toHex(digest.digest());
+        File existing = find(sha256);
+        if (existing != null) {
+            temp.delete();
+            return new Stored(sha256, existing, size, true);
+        }
+        return moveIntoPlace(temp, sha256, size, extension);
+    }
+
+    // Renames the finished copy to its content address, so a file under that name is always whole.
+    private Stored moveIntoPlace(File temp, String sha256, long size, String extension) throws IOException {
+        File shard = new File(directory, sha256.substring(0, 2));
+        if (!shard.isDirectory() && !shard.mkdirs()) {
+            temp.delete();
+            throw new IOException("Cannot create " + shard);
+        }
+        File file = new File(shard, extension == null || extension.isEmpty() ? sha256 : sha256 + "." + extension);
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            File raced = find(sha256); // Stored by a concurrent import of the same content
+            if (raced != null) {
+                return new Stored(sha256, raced, size, true);
+            }
+            throw new IOException("Cannot store " + file);
+        }
+        return new Stored(sha256, file, size, false);
+    }
+
+    // Size of a regular file, or -1 for a pipe or socket, which only report their buffered bytes.
+    private static long sizeOf(FileChannel channel) {
+        try {
+            long size = channel.size();
+            channel.position(0); // Fails on pipes
+            return size;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private static long report(ProgressListener listener, long done, long total, long reported) {
+        if (listener != null && (done - reported >= PROGRESS_STEP_BYTES || done == total || reported < 0)) {
+            listener.onProgress(done, total);
+            return done;
+        }
+        return reported;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is always available", e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,26 @@
+package com.eei4369.markio;
+
+import java.util.Map;
+
+// Counts shown on the MainActivity dashboard, read in one go by BookmarkRepository.
+public class DashboardStats {
+    private final long totalCount;
+    private final long imageCount;
+    private final long linkCount;
+    private final Map<String, Long> tagCounts; // Tag name -> bookmarks carrying it, alphabetical
+
+    public DashboardStats(long totalCount, long imageCount, long linkCount, Map<String, Long> tagCounts) {
+        this.totalCount = totalCount;
+        this.imageCount = imageCount;
+        this.linkCount = linkCount;
+        this.tagCounts = tagCounts;
+    }
+
+    // --- Getters ---
+    public long getTotalCount() { return totalCount; }
+    public long getImageCount() { return imageCount; }
+    public long getLinkCount() { return linkCount; }
+    // "Documents" on the dashboard covers everything that is neither an image nor a link
+    public long getDocumentCount() { return totalCount - imageCount - linkCount; }
+    public Map<String, Long> getTagCounts() { return tagCounts; }
+}
@@ -0,0 +1,58 @@
+package com.eei4369.markio;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import androidx.core.content.ContextCompat;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Reports the links saved more than once before saving started to check for duplicates.
+ * Runs a single time per install, in the background; the url_hash index keeps it to the
+ * duplicated rows instead of comparing every pair of links.
+ */
+public final class DuplicateLinkScanJob {
+
+    private static final String TAG = "DuplicateLinkScanJob";
+    private static final String PREFS_NAME = "duplicate_link_scan";
+    private static final String KEY_DONE = "done";
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private static final AtomicBoolean running = new AtomicBoolean(false);
+
+    private DuplicateLinkScanJob() {}
+
+    /**
+     * Starts the scan unless it already ran. The clusters of bookmark IDs sharing a page are
+     * logged and delivered to callback on the main thread; it is not called if the scan was
+     * skipped, and gets an empty list if there are no duplicates.
+     *
+     * @param context Any context; only the application context is retained.
+     */
+    public static void start(Context context, BookmarkRepository.Callback<List<List<Long>>> callback) {
+        Context appContext = context.getApplicationContext();
+        SharedPreferences prefs = appContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        if (prefs.getBoolean(KEY_DONE, false) || !running.compareAndSet(false, true)) {
+            return;
+        }
+        executor.execute(() -> {
+            try {
+                SQLiteDatabase db = BookmarkDbHelper.getInstance(appContext).getReadableDatabase();
+                List<List<Long>> clusters = BookmarkLinks.findDuplicateClusters(db);
+                for (List<Long> ids : clusters) {
+                    Log.i(TAG, "Bookmarks " + ids + " link to the same page");
+                }
+                prefs.edit().putBoolean(KEY_DONE, true).apply();
+                ContextCompat.getMainExecutor(appContext).execute(() -> callback.onResult(clusters));
+            } finally {
+                running.set(false);
+            }
+        });
+    }
+}
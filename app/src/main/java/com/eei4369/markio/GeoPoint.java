@@ -0,0 +1,81 @@
+package com.eei4369.markio;
+
+import java.util.Locale;
+
+// A latitude/longitude pair in degrees, with the distance maths used by the nearby search.
+public final class GeoPoint {
+
+    private static final double EARTH_RADIUS_METERS = 6_371_008.8;
+
+    public final double latitude;
+    public final double longitude;
+
+    public GeoPoint(double latitude, double longitude) {
+        this.latitude = latitude;
+        this.longitude = longitude;
+    }
+
+    /**
+     * Parses a stored geographic_location string.
+     *
+     * Older rows were formatted with the default locale, so besides "lat,lon" this also accepts the
+     * "52,520008,13,404954" form written on devices that use a decimal comma.
+     *
+     * @return The point, or null if the string is empty, malformed or the "0.000000,0.000000" placeholder.
+     */
+    public static GeoPoint parse(String location) {
+        if (location == null || location.isEmpty()) {
+            return null;
+        }
+        String[] parts = location.split(",");
+        String latitude;
+        String longitude;
+        if (parts.length == 2) {
+            latitude = parts[0];
+            longitude = parts[1];
+        } else if (parts.length == 4) {
+            latitude = parts[0] + "." + parts[1];
+            longitude = parts[2] + "." + parts[3];
+        } else {
+            return null;
+        }
+        try {
+            GeoPoint point = new GeoPoint(Double.parseDouble(latitude.trim()), Double.parseDouble(longitude.trim()));
+            if (point.latitude == 0 && point.longitude == 0) return null;
+            if (Math.abs(point.latitude) > 90 || Math.abs(point.longitude) > 180) return null;
+            return point;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // The stored "lat,lon" form, always with a decimal point so it parses back on any device.
+    public String format() {
+        return String.format(Locale.US, "%.6f,%.6f", latitude, longitude);
+    }
+
+    // Great-circle (haversine) distance in meters.
+    public double distanceTo(GeoPoint other) {
+        double dLat = Math.toRadians(other.latitude - latitude);
+        double dLon = Math.toRadians(other.longitude - longitude);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2) +
+                Math.cos(Math.toRadians(latitude)) * Math.cos(Math.toRadians(other.latitude)) *
+                        Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    // Half the height, in degrees of latitude, of a box that contains every point within radiusMeters.
+    public static double latitudeSpan(double radiusMeters) {
+        return Math.toDegrees(radiusMeters / EARTH_RADIUS_METERS);
+    }
+
+    // Half the width, in degrees of longitude, of that box at this latitude; 180 if it reaches a pole.
+    public double longitudeSpan(double radiusMeters) {
+        double latSpan = latitudeSpan(radiusMeters);
+        if (Math.abs(latitude) + latSpan >= 90) {
+            return 180;
+        }
+        double ratio = Math.sin(radiusMeters / EARTH_RADIUS_METERS) / Math.cos(Math.toRadians(latitude));
+        return ratio >= 1 ? 180 : Math.toDegrees(Math.asin(ratio));
+    }
+}
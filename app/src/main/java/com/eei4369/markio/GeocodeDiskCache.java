@@ -0,0 +1,61 @@
+package com.eei4369.markio;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Persistent cache of resolved addresses, one small file per quantized grid cell.
+ * Failures are swallowed: a broken cache entry only costs another geocoder call.
+ */
+public class GeocodeDiskCache {
+
+    private final File directory;
+
+    public GeocodeDiskCache(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @return The cached address (possibly empty), or null if the cell has not been cached.
+     */
+    public String get(String key) {
+        File file = new File(directory, key);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (InputStream in = new FileInputStream(file)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[512];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public void put(String key, String address) {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            return;
+        }
+        // Write to a temporary file first so a crash never leaves a half-written entry
+        File temp = new File(directory, key + ".tmp");
+        try (OutputStream out = new FileOutputStream(temp)) {
+            out.write(address.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            temp.delete();
+            return; // Not fatal; the address stays in the memory cache for this session
+        }
+        if (!temp.renameTo(new File(directory, key))) {
+            temp.delete();
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.eei4369.markio;
+
+import java.io.IOException;
+
+// Performs the actual reverse-geocoding lookups for GeocodingService.
+public interface GeocoderBackend {
+
+    /**
+     * Resolves coordinates to a single-line street address.
+     *
+     * @return The address, or an empty string when nothing is known for the location.
+     * @throws IOException if the lookup could not be performed (e.g. no network).
+     */
+    String reverseGeocode(double latitude, double longitude) throws IOException;
+}
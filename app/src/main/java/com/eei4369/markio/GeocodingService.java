@@ -0,0 +1,237 @@
+package com.eei4369.markio;
+
+import android.content.Context;
+
+import androidx.core.content.ContextCompat;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Asynchronous reverse-geocoding shared by every screen.
+ *
+ * Coordinates are snapped to a grid so nearby points share one lookup. Each cell is looked up
+ * in an in-memory LRU, then in a GeocodeDiskCache, and only then through the GeocoderBackend.
+ * Concurrent requests for the same cell share one backend call, and backend calls are spaced
+ * at least minCallIntervalMillis apart.
+ */
+public class GeocodingService {
+
+    // About 50 m of latitude; close enough that neighbouring points share a street address.
+    public static final double DEFAULT_GRID_DEGREES = 0.0005;
+    private static final int DEFAULT_MEMORY_ENTRIES = 256;
+    private static final long DEFAULT_MIN_CALL_INTERVAL_MS = 200;
+
+    private static GeocodingService instance;
+
+    // Receives the outcome of an asynchronous lookup on the callback executor.
+    public interface Callback {
+        void onAddressResolved(String address); // Empty when the location has no known address
+        void onLookupFailed(IOException error);
+    }
+
+    // Snapshot of the cache counters.
+    public static final class Stats {
+        public final long memoryHits;
+        public final long diskHits;
+        public final long backendCalls;
+        public final long coalesced;
+
+        Stats(long memoryHits, long diskHits, long backendCalls, long coalesced) {
+            this.memoryHits = memoryHits;
+            this.diskHits = diskHits;
+            this.backendCalls = backendCalls;
+            this.coalesced = coalesced;
+        }
+
+        // Misses are the lookups that had to go to the backend.
+        public long misses() {
+            return backendCalls;
+        }
+    }
+
+    private final GeocoderBackend backend;
+    private final GeocodeDiskCache diskCache;
+    private final double gridDegrees;
+    private final long minCallIntervalMillis;
+    private final Executor ioExecutor;
+    private final Executor callbackExecutor;
+
+    private final Map<String, String> memoryCache;
+    private final ConcurrentHashMap<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+    private final Object rateLock = new Object();
+    private long nextCallAllowedAt = 0;
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong backendCalls = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    public GeocodingService(GeocoderBackend backend, GeocodeDiskCache diskCache, int memoryEntries,
+                            double gridDegrees, long minCallIntervalMillis,
+                            Executor ioExecutor, Executor callbackExecutor) {
+        this.backend = backend;
+        this.diskCache = diskCache;
+        this.gridDegrees = gridDegrees;
+        this.minCallIntervalMillis = minCallIntervalMillis;
+        this.ioExecutor = ioExecutor;
+        this.callbackExecutor = callbackExecutor;
+        // Access-ordered LinkedHashMap evicting its eldest entry gives a plain LRU
+        this.memoryCache = new LinkedHashMap<String, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > memoryEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the process-wide service, backed by the platform Geocoder and the app cache directory.
+     * Callbacks are delivered on the main thread.
+     */
+    public static synchronized GeocodingService getInstance(Context context) {
+        if (instance == null) {
+            Context appContext = context.getApplicationContext();
+            instance = new GeocodingService(
+                    new AndroidGeocoderBackend(appContext),
+                    new GeocodeDiskCache(new File(appContext.getCacheDir(), "geocode")),
+                    DEFAULT_MEMORY_ENTRIES,
+                    DEFAULT_GRID_DEGREES,
+                    DEFAULT_MIN_CALL_INTERVAL_MS,
+                    Executors.newFixedThreadPool(2),
+                    ContextCompat.getMainExecutor(appContext));
+        }
+        return instance;
+    }
+
+    /**
+     * Looks up the address for a location without blocking the caller.
+     */
+    public void lookup(double latitude, double longitude, Callback callback) {
+        resolve(latitude, longitude).whenComplete((address, error) -> callbackExecutor.execute(() -> {
+            if (error == null) {
+                callback.onAddressResolved(address);
+            } else {
+                callback.onLookupFailed(asIOException(error));
+            }
+        }));
+    }
+
+    /**
+     * Looks up the address for a location, blocking until it is known. For background jobs only.
+     */
+    public String lookupBlocking(double latitude, double longitude) throws IOException {
+        try {
+            return resolve(latitude, longitude).get();
+        } catch (ExecutionException e) {
+            throw asIOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while geocoding", e);
+        }
+    }
+
+    public Stats getStats() {
+        return new Stats(memoryHits.get(), diskHits.get(), backendCalls.get(), coalesced.get());
+    }
+
+    // Returns a future for the cell containing the location, starting a lookup only if none is running.
+    private CompletableFuture<String> resolve(double latitude, double longitude) {
+        long latCell = Math.round(latitude / gridDegrees);
+        long lonCell = Math.round(longitude / gridDegrees);
+        String key = latCell + "_" + lonCell;
+
+        String cached;
+        synchronized (memoryCache) {
+            cached = memoryCache.get(key);
+        }
+        if (cached != null) {
+            memoryHits.incrementAndGet();
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        CompletableFuture<String> created = new CompletableFuture<>();
+        CompletableFuture<String> existing = inFlight.putIfAbsent(key, created);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            return existing;
+        }
+        // A lookup may have finished between the cache check and registering this one
+        synchronized (memoryCache) {
+            cached = memoryCache.get(key);
+        }
+        if (cached != null) {
+            inFlight.remove(key, created);
+            memoryHits.incrementAndGet();
+            created.complete(cached);
+            return created;
+        }
+        // Geocode the cell centre so the answer does not depend on which point asked first
+        ioExecutor.execute(() -> load(key, latCell * gridDegrees, lonCell * gridDegrees, created));
+        return created;
+    }
+
+    // Runs on the I/O executor: disk cache first, then the rate-limited backend.
+    private void load(String key, double latitude, double longitude, CompletableFuture<String> future) {
+        try {
+            String address = diskCache != null ? diskCache.get(key) : null;
+            if (address != null) {
+                diskHits.incrementAndGet();
+            } else {
+                awaitRateLimit();
+                backendCalls.incrementAndGet();
+                address = backend.reverseGeocode(latitude, longitude);
+                if (diskCache != null) {
+                    diskCache.put(key, address);
+                }
+            }
+            synchronized (memoryCache) {
+                memoryCache.put(key, address);
+            }
+            inFlight.remove(key);
+            future.complete(address);
+        } catch (IOException | RuntimeException e) {
+            // Failures are not cached; the next request for this cell tries again
+            inFlight.remove(key);
+            future.completeExceptionally(e);
+        }
+    }
+
+    // Blocks until the backend may be called again without exceeding the configured rate.
+    private void awaitRateLimit() throws IOException {
+        long waitMillis;
+        synchronized (rateLock) {
+            long now = System.currentTimeMillis();
+            long callAt = Math.max(now, nextCallAllowedAt);
+            nextCallAllowedAt = callAt + minCallIntervalMillis;
+            waitMillis = callAt - now;
+        }
+        if (waitMillis > 0) {
+            try {
+                Thread.sleep(waitMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the geocoder", e);
+            }
+        }
+    }
+
+    private static IOException asIOException(Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        if (error instanceof IOException) {
+            return (IOException) error;
+        }
+        return new IOException("Geocoding failed", error);
+    }
+}
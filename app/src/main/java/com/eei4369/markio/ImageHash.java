@@ -0,0 +1,47 @@
+package com.eei4369.markio;
+
+/**
+ * 64-bit difference hash (dHash) of an image: the image is shrunk to 9 x 8 grey pixels, and each
+ * bit records whether a pixel is brighter than its right-hand neighbour. Resizing, re-encoding and
+ * small edits flip few bits, so copies of one picture lie within a small Hamming distance.
+ */
+public final class ImageHash {
+
+    public static final int GRID_WIDTH = 9;
+    public static final int GRID_HEIGHT = 8;
+    public static final int SIMILAR_DISTANCE = 10; // Bits of 64 that may differ between near-duplicates
+
+    private ImageHash() {}
+
+    /**
+     * Hashes an image already scaled to GRID_WIDTH x GRID_HEIGHT.
+     *
+     * @param argb Pixels in rows, as from Bitmap.getPixels.
+     */
+    public static long dHash(int[] argb) {
+        if (argb.length != GRID_WIDTH * GRID_HEIGHT) {
+            throw new IllegalArgumentException("Expected " + GRID_WIDTH * GRID_HEIGHT + " pixels, got " + argb.length);
+        }
+        long hash = 0;
+        for (int y = 0; y < GRID_HEIGHT; y++) {
+            for (int x = 0; x < GRID_WIDTH - 1; x++) {
+                int left = luminance(argb[y * GRID_WIDTH + x]);
+                int right = luminance(argb[y * GRID_WIDTH + x + 1]);
+                hash = (hash << 1) | (left > right ? 1 : 0);
+            }
+        }
+        return hash;
+    }
+
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+
+    // Rec. 601 luma in 0..255 * 1000, integer only.
+    private static int luminance(int argb) {
+        int r = (argb >> 16) & 0xff;
+        int g = (argb >> 8) & 0xff;
+        int b = argb & 0xff;
+        return 299 * r + 587 * g + 114 * b;
+    }
+}
@@ -0,0 +1,170 @@
+package com.eei4369.markio;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+
+import com.eei4369.markio.BookmarkContract.BookmarkEntry;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Fills in the image_hash column of image bookmarks, for the similar-image search.
+ * Images are decoded at a reduced size (a few thousand pixels are plenty for a 9 x 8 hash) in
+ * small batches on a background thread. Like AddressBackfillJob, the last processed ID is kept
+ * in SharedPreferences, so an interrupted run resumes where it stopped.
+ */
+public final class ImageHashJob {
+
+    private static final String PREFS_NAME = "image_hash";
+    private static final String KEY_LAST_ID = "last_id";
+    private static final int BATCH_SIZE = 20;
+    private static final int DECODE_MIN_SIDE = 64; // Decode at no less than this, then scale to the hash grid
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private static final AtomicBoolean running = new AtomicBoolean(false);
+
+    private ImageHashJob() {}
+
+    /**
+     * Starts a hashing pass in the background unless one is already running.
+     *
+     * @param context Any context; only the application context is retained.
+     */
+    public static void start(Context context) {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        Context appContext = context.getApplicationContext();
+        executor.execute(() -> {
+            try {
+                run(appContext);
+            } finally {
+                running.set(false);
+            }
+        });
+    }
+
+    // Processes batches until every image bookmark has been tried once in this pass.
+    private static void run(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        long lastId = prefs.getLong(KEY_LAST_ID, 0);
+        ContentResolver resolver = context.getContentResolver();
+        SQLiteDatabase db = BookmarkDbHelper.getInstance(context).getWritableDatabase();
+        BookmarkInvalidationTracker invalidationTracker = BookmarkInvalidationTracker.getInstance(context);
+        while (true) {
+            List<Long> ids = new ArrayList<>();
+            List<String> uris = new ArrayList<>();
+            loadBatch(db, lastId, ids, uris);
+            if (ids.isEmpty()) {
+                // Pass complete; images that could not be read are retried by the next pass
+                prefs.edit().putLong(KEY_LAST_ID, 0).apply();
+                return;
+            }
+
+            // Decode the whole batch before writing, so no lock is held while reading files
+            List<Long> hashes = new ArrayList<>();
+            for (String uri : uris) {
+                hashes.add(hashImage(resolver, Uri.parse(uri)));
+            }
+
+            Set<Long> hashed = new HashSet<>();
+            db.beginTransaction();
+            try {
+                ContentValues values = new ContentValues();
+                for (int i = 0; i < ids.size(); i++) {
+                    if (hashes.get(i) == null) continue;
+                    values.put(BookmarkEntry.COLUMN_NAME_IMAGE_HASH, hashes.get(i));
+                    // Skip rows whose attachment was replaced meanwhile
+                    if (db.update(BookmarkEntry.TABLE_NAME, values,
+                            BookmarkEntry._ID + " = ? AND " + BookmarkEntry.COLUMN_NAME_CONTENT_URI + " = ?",
+                            new String[]{String.valueOf(ids.get(i)), uris.get(i)}) > 0) {
+                        hashed.add(ids.get(i));
+                    }
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            lastId = ids.get(ids.size() - 1);
+            prefs.edit().putLong(KEY_LAST_ID, lastId).apply();
+            // Lets the similar-image index pick up the new hashes
+            invalidationTracker.publish(new BookmarkChange(BookmarkChange.Type.UPDATE, hashed));
+        }
+    }
+
+    // Reads the next batch of image bookmarks without a hash.
+    private static void loadBatch(SQLiteDatabase db, long afterId, List<Long> ids, List<String> uris) {
+        String selection = BookmarkEntry.COLUMN_NAME_IMAGE_HASH + " IS NULL AND " +
+                BookmarkEntry.COLUMN_NAME_CONTENT_TYPE + " = 'image' AND " +
+                BookmarkEntry.COLUMN_NAME_CONTENT_URI + " IS NOT NULL AND " +
+                BookmarkEntry._ID + " > ?";
+        Cursor cursor = db.query(BookmarkEntry.TABLE_NAME,
+                new String[]{BookmarkEntry._ID, BookmarkEntry.COLUMN_NAME_CONTENT_URI},
+                selection, new String[]{String.valueOf(afterId)},
+                null, null, BookmarkEntry._ID + " ASC", String.valueOf(BATCH_SIZE));
+        try {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+                uris.add(cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Decodes an image at a reduced size and hashes it.
+     *
+     * @return The hash, or null if the image cannot be read.
+     */
+    static Long hashImage(ContentResolver resolver, Uri uri) {
+        try {
+            BitmapFactory.Options bounds = new BitmapFactory.Options();
+            bounds.inJustDecodeBounds = true;
+            try (InputStream in = resolver.openInputStream(uri)) {
+                if (in == null) return null;
+                BitmapFactory.decodeStream(in, null, bounds);
+            }
+            if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+                return null;
+            }
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            int sampleSize = 1;
+            while (Math.min(bounds.outWidth, bounds.outHeight) / (sampleSize * 2) >= DECODE_MIN_SIDE) {
+                sampleSize *= 2;
+            }
+            options.inSampleSize = sampleSize;
+            Bitmap decoded;
+            try (InputStream in = resolver.openInputStream(uri)) {
+                if (in == null) return null;
+                decoded = BitmapFactory.decodeStream(in, null, options);
+            }
+            if (decoded == null) {
+                return null;
+            }
+            Bitmap grid = Bitmap.createScaledBitmap(decoded, ImageHash.GRID_WIDTH, ImageHash.GRID_HEIGHT, true);
+            int[] pixels = new int[ImageHash.GRID_WIDTH * ImageHash.GRID_HEIGHT];
+            grid.getPixels(pixels, 0, ImageHash.GRID_WIDTH, 0, 0, ImageHash.GRID_WIDTH, ImageHash.GRID_HEIGHT);
+            if (grid != decoded) grid.recycle();
+            decoded.recycle();
+            return ImageHash.dHash(pixels);
+        } catch (IOException | RuntimeException e) {
+            return null; // Missing file or revoked permission; the row is tried again next pass
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.eei4369.markio;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A sync server kept in memory, for one account: a SyncTransport that devices in the same
+ * process can share. Used to test SyncEngine without a backend, and as the reference for what
+ * a remote server has to do.
+ *
+ * It keeps the winning state of each bookmark, tombstones included, indexed by the sequence
+ * number it was accepted at; a newer state of the same bookmark moves it to the end of the log.
+ */
+public class InMemorySyncServer implements SyncTransport {
+
+    private final Map<String, SyncChange> latest = new HashMap<>(); // By sync ID
+    private final TreeMap<Long, SyncChange> log = new TreeMap<>(); // By server sequence number
+    private long seq;
+
+    @Override
+    public synchronized void push(List<SyncChange> changes) {
+        for (SyncChange change : changes) {
+            SyncChange stored = latest.get(change.syncId);
+            if (!change.winsOver(stored)) continue;
+            if (stored != null) {
+                log.remove(stored.seq);
+            }
+            SyncChange accepted = change.withSeq(++seq);
+            latest.put(change.syncId, accepted);
+            log.put(accepted.seq, accepted);
+        }
+    }
+
+    @Override
+    public synchronized Page pull(long afterSeq, int limit, String deviceId) {
+        List<SyncChange> changes = new ArrayList<>();
+        long checkpoint = afterSeq;
+        for (SyncChange change : log.tailMap(afterSeq, false).values()) {
+            if (changes.size() == limit) {
+                return new Page(changes, checkpoint, true);
+            }
+            checkpoint = change.seq;
+            if (!change.deviceId.equals(deviceId)) {
+                changes.add(change);
+            }
+        }
+        return new Page(changes, checkpoint, false);
+    }
+
+    /**
+     * Returns the number of bookmarks the server holds, not counting tombstones.
+     */
+    public synchronized int size() {
+        int live = 0;
+        for (SyncChange change : latest.values()) {
+            if (!change.deleted) live++;
+        }
+        return live;
+    }
+}
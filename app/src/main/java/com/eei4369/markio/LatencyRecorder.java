@@ -0,0 +1,47 @@
+package com.eei4369.markio;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the most recent latency samples of one operation and summarizes them.
+ * Thread-safe; recording is a few array writes, so it can sit on hot paths.
+ */
+public class LatencyRecorder {
+
+    // Snapshot of the recorded samples.
+    public static final class Stats {
+        public final long count; // Samples recorded since creation, including ones no longer kept
+        public final long medianMillis;
+        public final long p95Millis;
+        public final long maxMillis; // Over the kept samples
+
+        Stats(long count, long medianMillis, long p95Millis, long maxMillis) {
+            this.count = count;
+            this.medianMillis = medianMillis;
+            this.p95Millis = p95Millis;
+            this.maxMillis = maxMillis;
+        }
+    }
+
+    private final long[] samples; // Ring buffer of the latest samples
+    private long count;
+
+    public LatencyRecorder(int capacity) {
+        this.samples = new long[capacity];
+    }
+
+    public synchronized void record(long millis) {
+        samples[(int) (count % samples.length)] = millis;
+        count++;
+    }
+
+    public synchronized Stats getStats() {
+        int kept = (int) Math.min(count, samples.length);
+        if (kept == 0) {
+            return new Stats(0, 0, 0, 0);
+        }
+        long[] sorted = Arrays.copyOf(samples, kept);
+        Arrays.sort(sorted);
+        return new Stats(count, sorted[kept / 2], sorted[Math.min(kept - 1, (int) Math.ceil(kept * 0.95) - 1)], sorted[kept - 1]);
+    }
+}
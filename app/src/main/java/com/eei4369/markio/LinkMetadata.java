@@ -0,0 +1,190 @@
+package com.eei4369.markio;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * What a link bookmark shows about its page: title, description, icon and preview image.
+ *
+ * parse() reads these from the head of an HTML page. Open Graph and Twitter card tags win over
+ * the plain title and description, since sites write them for exactly this kind of preview.
+ * Relative URLs are resolved against the page (or its base element), and any field the page
+ * does not provide is null, except the icon, which falls back to /favicon.ico.
+ */
+public final class LinkMetadata {
+
+    private static final int MAX_TITLE_LENGTH = 200;
+    private static final int MAX_DESCRIPTION_LENGTH = 300;
+    private static final int APPLE_TOUCH_ICON_SIZE = 180; // Assumed size of an apple-touch-icon without a sizes attribute
+
+    private static final Pattern TAG = Pattern.compile("<(meta|link|base)\\b([^>]*)>", Pattern.CASE_INSENSITIVE);
+    private static final Pattern TITLE = Pattern.compile("<title\\b[^>]*>(.*?)</title>", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern ATTRIBUTE = Pattern.compile(
+            "([a-zA-Z_:][-a-zA-Z0-9_:.]*)\\s*=\\s*(?:\"([^\"]*)\"|'([^']*)'|([^\\s\"'>]+))");
+    private static final Pattern ENTITY = Pattern.compile("&(#[0-9]+|#[xX][0-9a-fA-F]+|amp|lt|gt|quot|apos|nbsp);");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern ICON_SIZE = Pattern.compile("(\\d+)[xX](\\d+)");
+
+    public final String title;
+    public final String description;
+    public final String faviconUrl;
+    public final String imageUrl;
+
+    public LinkMetadata(String title, String description, String faviconUrl, String imageUrl) {
+        this.title = title;
+        this.description = description;
+        this.faviconUrl = faviconUrl;
+        this.imageUrl = imageUrl;
+    }
+
+    /**
+     * Extracts the metadata from a page's HTML; the head is enough.
+     *
+     * @param pageUrl The URL the page was served from, after redirects.
+     */
+    public static LinkMetadata parse(String html, String pageUrl) {
+        Map<String, String> meta = new HashMap<>();
+        String base = pageUrl;
+        String icon = null;
+        int iconSize = -1;
+
+        Matcher tag = TAG.matcher(html);
+        while (tag.find()) {
+            String name = tag.group(1).toLowerCase(Locale.ROOT);
+            Map<String, String> attributes = attributes(tag.group(2));
+            if (name.equals("meta")) {
+                // Open Graph uses property=, everything else name=
+                String key = attributes.containsKey("property") ? attributes.get("property") : attributes.get("name");
+                String content = attributes.get("content");
+                if (key != null && content != null) {
+                    meta.putIfAbsent(key.toLowerCase(Locale.ROOT), content);
+                }
+            } else if (name.equals("base")) {
+                String href = resolve(pageUrl, attributes.get("href"));
+                if (href != null) base = href;
+            } else {
+                String rel = attributes.get("rel");
+                String href = attributes.get("href");
+                if (rel == null || href == null) continue;
+                int size = iconSize(rel.toLowerCase(Locale.ROOT), attributes.get("sizes"));
+                if (size > iconSize) {
+                    icon = href;
+                    iconSize = size;
+                }
+            }
+        }
+
+        String title = first(meta, "og:title", "twitter:title");
+        if (title == null) {
+            Matcher titleTag = TITLE.matcher(html);
+            if (titleTag.find()) title = titleTag.group(1);
+        }
+        String description = first(meta, "og:description", "description", "twitter:description");
+        String image = first(meta, "og:image", "og:image:url", "og:image:secure_url", "twitter:image");
+
+        return new LinkMetadata(
+                clean(title, MAX_TITLE_LENGTH),
+                clean(description, MAX_DESCRIPTION_LENGTH),
+                resolve(base, icon != null ? decodeEntities(icon) : "/favicon.ico"),
+                image != null ? resolve(base, decodeEntities(image.trim())) : null);
+    }
+
+    // Size of an icon link, so the largest one wins; -1 if the link is not an icon.
+    private static int iconSize(String rel, String sizes) {
+        boolean touchIcon = rel.contains("apple-touch-icon");
+        if (!touchIcon && !rel.matches("(.*\\s)?icon(\\s.*)?")) {
+            return -1;
+        }
+        int size = touchIcon ? APPLE_TOUCH_ICON_SIZE : 16;
+        if (sizes != null) {
+            if (sizes.trim().equalsIgnoreCase("any")) {
+                return Integer.MAX_VALUE; // Scalable
+            }
+            Matcher matcher = ICON_SIZE.matcher(sizes);
+            while (matcher.find()) {
+                try {
+                    size = Math.max(size, Integer.parseInt(matcher.group(1)));
+                } catch (NumberFormatException ignored) {
+                    // Absurdly long number; keep the default
+                }
+            }
+        }
+        return size;
+    }
+
+    private static Map<String, String> attributes(String source) {
+        Map<String, String> attributes = new HashMap<>();
+        Matcher matcher = ATTRIBUTE.matcher(source);
+        while (matcher.find()) {
+            String value = matcher.group(2) != null ? matcher.group(2)
+                    : matcher.group(3) != null ? matcher.group(3) : matcher.group(4);
+            attributes.putIfAbsent(matcher.group(1).toLowerCase(Locale.ROOT), value);
+        }
+        return attributes;
+    }
+
+    private static String first(Map<String, String> meta, String... keys) {
+        for (String key : keys) {
+            String value = meta.get(key);
+            if (value != null && !value.trim().isEmpty()) return value;
+        }
+        return null;
+    }
+
+    // Decodes entities, collapses whitespace and shortens to maxLength; null if nothing is left.
+    private static String clean(String text, int maxLength) {
+        if (text == null) return null;
+        String cleaned = WHITESPACE.matcher(decodeEntities(text)).replaceAll(" ").trim();
+        if (cleaned.isEmpty()) return null;
+        if (cleaned.length() > maxLength) {
+            cleaned = cleaned.substring(0, maxLength - 1).trim() + "\u2026";
+        }
+        return cleaned;
+    }
+
+    static String decodeEntities(String text) {
+        if (text.indexOf('&') < 0) return text;
+        Matcher matcher = ENTITY.matcher(text);
+        StringBuffer decoded = new StringBuffer();
+        while (matcher.find()) {
+            String entity = matcher.group(1);
+            String replacement;
+            switch (entity) {
+                case "amp": replacement = "&"; break;
+                case "lt": replacement = "<"; break;
+                case "gt": replacement = ">"; break;
+                case "quot": replacement = "\""; break;
+                case "apos": replacement = "'"; break;
+                case "nbsp": replacement = " "; break;
+                default:
+                    try {
+                        int codePoint = entity.charAt(1) == 'x' || entity.charAt(1) == 'X'
+                                ? Integer.parseInt(entity.substring(2), 16) : Integer.parseInt(entity.substring(1));
+                        replacement = new String(Character.toChars(codePoint));
+                    } catch (IllegalArgumentException e) {
+                        replacement = matcher.group(); // Out of range; leave as written
+                    }
+            }
+            matcher.appendReplacement(decoded, Matcher.quoteReplacement(replacement));
+        }
+        matcher.appendTail(decoded);
+        return decoded.toString();
+    }
+
+    // Resolves href against base; null unless the result is an http(s) URL.
+    private static String resolve(String base, String href) {
+        if (href == null || href.isEmpty()) return null;
+        try {
+            URL resolved = new URL(new URL(base), href);
+            String protocol = resolved.getProtocol();
+            return protocol.equals("http") || protocol.equals("https") ? resolved.toString() : null;
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,386 @@
+package com.eei4369.markio;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fetches the LinkMetadata of web pages, many at a time, without overloading the network or any
+ * one site.
+ *
+ * Requests wait in one queue per host. A request starts only while fewer than maxConnections are
+ * running overall and fewer than maxPerHost on its host, and hosts take turns, so a long list of
+ * links to one site cannot hold up the rest. The I/O threads are as many as the connections, and
+ * short responses are read to the end, so HttpURLConnection keeps their sockets alive for reuse.
+ *
+ * A stored ETag or Last-Modified is sent back as If-None-Match / If-Modified-Since, and an
+ * unchanged page comes back as NOT_MODIFIED without a body. Timeouts, 429 and 5xx responses are
+ * retried up to maxAttempts times, after an exponential backoff with jitter (or the server's
+ * Retry-After, if longer); the request gives up its connection while it waits. Other failures,
+ * such as an unknown host, a refused connection, a TLS error or a 4xx, are final.
+ */
+public class LinkMetadataFetcher {
+
+    public static final int DEFAULT_MAX_CONNECTIONS = 8;
+    public static final int DEFAULT_MAX_PER_HOST = 2;
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final long DEFAULT_BACKOFF_MS = 1000;
+    private static final long MAX_BACKOFF_MS = 60_000;
+    private static final int TIMEOUT_MS = 10_000;
+    private static final int MAX_PAGE_BYTES = 256 * 1024; // The head is all that is parsed
+    private static final int MAX_DRAIN_BYTES = 64 * 1024; // Rest of a page worth reading to keep its connection
+    private static final String USER_AGENT = "Markio link preview";
+
+    public enum Status {
+        UPDATED,      // Fetched and parsed; metadata is set
+        NOT_MODIFIED, // The page matches the ETag or Last-Modified sent; keep the stored metadata
+        FAILED        // See error and retryLater
+    }
+
+    // Outcome of one fetch, after any retries.
+    public static final class Result {
+        public final Status status;
+        public final LinkMetadata metadata; // Null unless UPDATED
+        public final String etag; // Validators to send next time; null if the server sent none
+        public final String lastModified;
+        public final int attempts;
+        public final boolean retryLater; // For FAILED: true if the failure may be temporary (timeout, 429, 5xx)
+        public final Exception error;
+
+        Result(Status status, LinkMetadata metadata, String etag, String lastModified,
+               int attempts, boolean retryLater, Exception error) {
+            this.status = status;
+            this.metadata = metadata;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.attempts = attempts;
+            this.retryLater = retryLater;
+            this.error = error;
+        }
+    }
+
+    // Snapshot of the counters.
+    public static final class Stats {
+        public final long requests; // HTTP requests sent, including retries
+        public final long updated;
+        public final long notModified;
+        public final long retries;
+        public final long failed;
+
+        Stats(long requests, long updated, long notModified, long retries, long failed) {
+            this.requests = requests;
+            this.updated = updated;
+            this.notModified = notModified;
+            this.retries = retries;
+            this.failed = failed;
+        }
+    }
+
+    // A queued fetch; attempt counts the requests sent so far.
+    private static final class Call {
+        final String url;
+        final String host;
+        final String etag;
+        final String lastModified;
+        final CompletableFuture<Result> future = new CompletableFuture<>();
+        int attempt;
+
+        Call(String url, String host, String etag, String lastModified) {
+            this.url = url;
+            this.host = host;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+    }
+
+    // Outcome of a single request; retryAfterMillis is -1 unless the server asked for a delay.
+    private static final class Attempt {
+        final Result result;
+        final boolean retry;
+        final long retryAfterMillis;
+
+        Attempt(Result result, boolean retry, long retryAfterMillis) {
+            this.result = result;
+            this.retry = retry;
+            this.retryAfterMillis = retryAfterMillis;
+        }
+    }
+
+    private final int maxConnections;
+    private final int maxPerHost;
+    private final int maxAttempts;
+    private final long backoffMillis;
+    private final ExecutorService connectionExecutor;
+    private final ScheduledExecutorService retryScheduler;
+
+    // Guarded by itself: waiting calls per host, in the order hosts take turns, and running counts
+    private final LinkedHashMap<String, ArrayDeque<Call>> waiting = new LinkedHashMap<>();
+    private final Map<String, Integer> runningPerHost = new HashMap<>();
+    private int running;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong updated = new AtomicLong();
+    private final AtomicLong notModified = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public LinkMetadataFetcher(int maxConnections, int maxPerHost, int maxAttempts, long backoffMillis) {
+        this.maxConnections = maxConnections;
+        this.maxPerHost = maxPerHost;
+        this.maxAttempts = maxAttempts;
+        this.backoffMillis = backoffMillis;
+        this.connectionExecutor = Executors.newFixedThreadPool(maxConnections, runnable -> {
+            Thread thread = new Thread(runnable, "link-metadata");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "link-metadata-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Queues a fetch of url's metadata.
+     *
+     * @param etag         The ETag stored from the last fetch, or null.
+     * @param lastModified The Last-Modified stored from the last fetch, or null.
+     * @return Completes with the result; never exceptionally.
+     */
+    public CompletableFuture<Result> fetch(String url, String etag, String lastModified) {
+        String host;
+        try {
+            host = new URL(url).getHost().toLowerCase(Locale.ROOT);
+        } catch (MalformedURLException e) {
+            failed.incrementAndGet();
+            return CompletableFuture.completedFuture(new Result(Status.FAILED, null, null, null, 0, false, e));
+        }
+        Call call = new Call(url, host, etag, lastModified);
+        enqueue(call);
+        return call.future;
+    }
+
+    public Stats getStats() {
+        return new Stats(requests.get(), updated.get(), notModified.get(), retries.get(), failed.get());
+    }
+
+    private void enqueue(Call call) {
+        synchronized (waiting) {
+            waiting.computeIfAbsent(call.host, host -> new ArrayDeque<>()).add(call);
+            promote();
+        }
+    }
+
+    // Starts waiting calls while connections are free, one host after another. Holds the lock.
+    private void promote() {
+        while (running < maxConnections) {
+            Call next = null;
+            Iterator<Map.Entry<String, ArrayDeque<Call>>> hosts = waiting.entrySet().iterator();
+            while (hosts.hasNext()) {
+                Map.Entry<String, ArrayDeque<Call>> entry = hosts.next();
+                Integer hostRunning = runningPerHost.get(entry.getKey());
+                if (hostRunning == null || hostRunning < maxPerHost) {
+                    next = entry.getValue().poll();
+                    hosts.remove();
+                    if (!entry.getValue().isEmpty()) {
+                        waiting.put(entry.getKey(), entry.getValue()); // Back of the line
+                    }
+                    break;
+                }
+            }
+            if (next == null) {
+                return; // Every host with waiting calls is at its limit
+            }
+            running++;
+            runningPerHost.merge(next.host, 1, Integer::sum);
+            Call call = next;
+            connectionExecutor.execute(() -> execute(call));
+        }
+    }
+
+    private void execute(Call call) {
+        call.attempt++;
+        requests.incrementAndGet();
+        Attempt attempt = request(call);
+        synchronized (waiting) {
+            running--;
+            if (runningPerHost.merge(call.host, -1, Integer::sum) == 0) {
+                runningPerHost.remove(call.host);
+            }
+            promote();
+        }
+
+        if (attempt.retry && call.attempt < maxAttempts) {
+            retries.incrementAndGet();
+            retryScheduler.schedule(() -> enqueue(call), backoff(call.attempt, attempt.retryAfterMillis), TimeUnit.MILLISECONDS);
+            return;
+        }
+        Result result = attempt.result;
+        switch (result.status) {
+            case UPDATED: updated.incrementAndGet(); break;
+            case NOT_MODIFIED: notModified.incrementAndGet(); break;
+            default: failed.incrementAndGet(); break;
+        }
+        call.future.complete(result);
+    }
+
+    // Exponential backoff with equal jitter: half the step fixed, half random.
+    private long backoff(int attempt, long retryAfterMillis) {
+        long step = Math.min(MAX_BACKOFF_MS, backoffMillis << Math.min(attempt - 1, 16));
+        long delay = step / 2 + ThreadLocalRandom.current().nextLong(step / 2 + 1);
+        return Math.min(MAX_BACKOFF_MS, Math.max(delay, retryAfterMillis));
+    }
+
+    // Sends one request and reads the page's head. Runs on a connection thread.
+    private Attempt request(Call call) {
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(call.url).openConnection();
+            connection.setConnectTimeout(TIMEOUT_MS);
+            connection.setReadTimeout(TIMEOUT_MS);
+            connection.setRequestProperty("User-Agent", USER_AGENT);
+            connection.setRequestProperty("Accept", "text/html,application/xhtml+xml;q=0.9,*/*;q=0.5");
+            if (call.etag != null) {
+                connection.setRequestProperty("If-None-Match", call.etag);
+            }
+            if (call.lastModified != null) {
+                connection.setRequestProperty("If-Modified-Since", call.lastModified);
+            }
+
+            int status = connection.getResponseCode();
+            String etag = connection.getHeaderField("ETag");
+            String lastModified = connection.getHeaderField("Last-Modified");
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                drain(connection.getInputStream());
+                // A 304 need not repeat the validators; the ones sent are still current
+                return new Attempt(new Result(Status.NOT_MODIFIED, null,
+                        etag != null ? etag : call.etag, lastModified != null ? lastModified : call.lastModified,
+                        call.attempt, false, null), false, -1);
+            }
+            if (status >= 200 && status < 300) {
+                LinkMetadata metadata;
+                try (InputStream in = connection.getInputStream()) {
+                    String contentType = connection.getContentType();
+                    if (contentType == null || contentType.toLowerCase(Locale.ROOT).contains("html")) {
+                        String html = readHead(in, charset(contentType));
+                        metadata = LinkMetadata.parse(html, connection.getURL().toString());
+                    } else {
+                        // An image or file: nothing to parse, but the icon may still exist
+                        metadata = LinkMetadata.parse("", connection.getURL().toString());
+                    }
+                    drain(in);
+                }
+                return new Attempt(new Result(Status.UPDATED, metadata, etag, lastModified, call.attempt, false, null), false, -1);
+            }
+
+            InputStream error = connection.getErrorStream();
+            if (error != null) {
+                drain(error);
+            }
+            boolean retry = status == 429 || status >= 500;
+            IOException failure = new IOException("HTTP " + status + " for " + call.url);
+            return new Attempt(new Result(Status.FAILED, null, null, null, call.attempt, retry, failure),
+                    retry, retryAfterMillis(connection.getHeaderField("Retry-After")));
+        } catch (MalformedURLException e) {
+            return new Attempt(new Result(Status.FAILED, null, null, null, call.attempt, false, e), false, -1);
+        } catch (IOException | RuntimeException e) {
+            if (connection != null) {
+                connection.disconnect(); // The socket may be half-read; do not reuse it
+            }
+            // Only a slow server is worth asking again; no DNS entry, no listener or a bad certificate will not change soon
+            boolean retry = e instanceof SocketTimeoutException;
+            return new Attempt(new Result(Status.FAILED, null, null, null, call.attempt, retry, e), retry, -1);
+        }
+    }
+
+    // Reads up to the end of the head, or MAX_PAGE_BYTES.
+    private static String readHead(InputStream in, Charset charset) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        int read;
+        while (buffer.size() < MAX_PAGE_BYTES && (read = in.read(chunk)) != -1) {
+            int searchFrom = Math.max(0, buffer.size() - 6);
+            buffer.write(chunk, 0, read);
+            if (containsHeadEnd(buffer.toByteArray(), searchFrom)) {
+                break;
+            }
+        }
+        return new String(buffer.toByteArray(), charset);
+    }
+
+    // True if "</head" occurs at or after from, ignoring ASCII case.
+    private static boolean containsHeadEnd(byte[] bytes, int from) {
+        byte[] needle = {'<', '/', 'h', 'e', 'a', 'd'};
+        outer:
+        for (int i = from; i <= bytes.length - needle.length; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                int b = bytes[i + j];
+                if (b >= 'A' && b <= 'Z') b += 'a' - 'A';
+                if (b != needle[j]) continue outer;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    // Reads and discards a small remainder so the connection can be reused; larger ones are dropped.
+    private static void drain(InputStream in) throws IOException {
+        if (in == null) return;
+        try {
+            byte[] chunk = new byte[8192];
+            int total = 0;
+            int read;
+            while (total < MAX_DRAIN_BYTES && (read = in.read(chunk)) != -1) {
+                total += read;
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    static Charset charset(String contentType) {
+        if (contentType != null) {
+            for (String parameter : contentType.split(";")) {
+                String[] pair = parameter.trim().split("=", 2);
+                if (pair.length == 2 && pair[0].trim().equalsIgnoreCase("charset")) {
+                    try {
+                        return Charset.forName(pair[1].trim().replace("\"", ""));
+                    } catch (IllegalArgumentException e) {
+                        break; // Unknown or unsupported; fall back below
+                    }
+                }
+            }
+        }
+        return StandardCharsets.UTF_8;
+    }
+
+    // Parses Retry-After in seconds; -1 for absent or HTTP-date values, which are rare for these responses.
+    private static long retryAfterMillis(String retryAfter) {
+        if (retryAfter == null) return -1;
+        try {
+            return Math.max(0, Long.parseLong(retryAfter.trim())) * 1000;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
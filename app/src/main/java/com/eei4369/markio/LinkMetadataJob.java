@@ -0,0 +1,216 @@
+package com.eei4369.markio;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.ConnectivityManager;
+import android.net.NetworkCapabilities;
+
+import androidx.core.content.ContextCompat;
+
+import com.eei4369.markio.BookmarkContract.BookmarkEntry;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Fetches the title, description, icon and preview image of linked pages into the bookmarks
+ * table, for links never fetched and for ones last checked more than REFRESH_MS ago.
+ *
+ * A batch of links is handed to LinkMetadataFetcher at once, which spreads it over its
+ * connections and hosts; rechecks send the stored validators, so unchanged pages cost a 304.
+ * Like ImageHashJob, the last processed ID is kept in SharedPreferences, and results are only
+ * written while the row still has the link that was fetched. Links that timed out or met a server
+ * error stay unchecked and are tried again by the next pass; other failures are recorded, so the
+ * link waits for the next refresh. A pass only runs while the device has a working connection, so
+ * being offline is never mistaken for a dead link.
+ */
+public final class LinkMetadataJob {
+
+    private static final String PREFS_NAME = "link_metadata";
+    private static final String KEY_LAST_ID = "last_id";
+    private static final int BATCH_SIZE = 50;
+    private static final long REFRESH_MS = 7 * 24 * 60 * 60 * 1000L;
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private static final AtomicBoolean running = new AtomicBoolean(false);
+    private static final LinkMetadataFetcher fetcher = new LinkMetadataFetcher(
+            LinkMetadataFetcher.DEFAULT_MAX_CONNECTIONS, LinkMetadataFetcher.DEFAULT_MAX_PER_HOST,
+            LinkMetadataFetcher.DEFAULT_MAX_ATTEMPTS, LinkMetadataFetcher.DEFAULT_BACKOFF_MS);
+
+    // A link to check, with the validators of its last fetch.
+    private static final class Link {
+        final long id;
+        final String url;
+        final String etag;
+        final String lastModified;
+
+        Link(long id, String url, String etag, String lastModified) {
+            this.id = id;
+            this.url = url;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private LinkMetadataJob() {}
+
+    /**
+     * Starts a fetching pass in the background unless one is already running.
+     *
+     * @param context Any context; only the application context is retained.
+     */
+    public static void start(Context context) {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        Context appContext = context.getApplicationContext();
+        executor.execute(() -> {
+            try {
+                run(appContext);
+            } finally {
+                running.set(false);
+            }
+        });
+    }
+
+    // Processes batches until every due link has been tried once in this pass, or the device goes offline.
+    private static void run(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        long lastId = prefs.getLong(KEY_LAST_ID, 0);
+        SQLiteDatabase db = BookmarkDbHelper.getInstance(context).getWritableDatabase();
+        BookmarkInvalidationTracker invalidationTracker = BookmarkInvalidationTracker.getInstance(context);
+        while (isOnline(context)) {
+            long now = System.currentTimeMillis();
+            List<Link> links = loadBatch(db, lastId, now - REFRESH_MS);
+            if (links.isEmpty()) {
+                prefs.edit().putLong(KEY_LAST_ID, 0).apply();
+                return;
+            }
+
+            // Fetch the whole batch before writing, so no lock is held while waiting on the network
+            List<CompletableFuture<LinkMetadataFetcher.Result>> results = new ArrayList<>();
+            for (Link link : links) {
+                results.add(fetcher.fetch(fetchUrl(link.url), link.etag, link.lastModified));
+            }
+            // Plain HTTP links whose HTTPS version could not be fetched are tried as saved
+            for (int i = 0; i < links.size(); i++) {
+                Link link = links.get(i);
+                LinkMetadataFetcher.Result done = results.get(i).join();
+                if (done.status == LinkMetadataFetcher.Status.FAILED && !done.retryLater && isPlainHttp(link.url)) {
+                    results.set(i, fetcher.fetch(link.url.trim(), link.etag, link.lastModified));
+                }
+            }
+            for (CompletableFuture<LinkMetadataFetcher.Result> result : results) {
+                result.join();
+            }
+            if (!isOnline(context)) {
+                return; // The connection dropped during the batch; the next pass resumes with it
+            }
+
+            Set<Long> changed = new HashSet<>();
+            db.beginTransaction();
+            try {
+                for (int i = 0; i < links.size(); i++) {
+                    Link link = links.get(i);
+                    ContentValues values = toValues(results.get(i).join(), now);
+                    if (values == null) continue;
+                    if (db.update(BookmarkEntry.TABLE_NAME, values,
+                            BookmarkEntry._ID + " = ? AND " + BookmarkEntry.COLUMN_NAME_LINK_URL + " = ?",
+                            new String[]{String.valueOf(link.id), link.url}) > 0
+                            && values.containsKey(BookmarkEntry.COLUMN_NAME_PAGE_TITLE)) {
+                        changed.add(link.id);
+                    }
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            lastId = links.get(links.size() - 1).id;
+            prefs.edit().putLong(KEY_LAST_ID, lastId).apply();
+            if (!changed.isEmpty()) {
+                invalidationTracker.publish(new BookmarkChange(BookmarkChange.Type.UPDATE, changed));
+            }
+        }
+    }
+
+    // Values recording a fetch result, or null to leave the row due for the next pass.
+    private static ContentValues toValues(LinkMetadataFetcher.Result result, long now) {
+        ContentValues values = new ContentValues();
+        switch (result.status) {
+            case UPDATED:
+                values.put(BookmarkEntry.COLUMN_NAME_PAGE_TITLE, result.metadata.title);
+                values.put(BookmarkEntry.COLUMN_NAME_PAGE_DESCRIPTION, result.metadata.description);
+                values.put(BookmarkEntry.COLUMN_NAME_FAVICON_URL, result.metadata.faviconUrl);
+                values.put(BookmarkEntry.COLUMN_NAME_PREVIEW_IMAGE_URL, result.metadata.imageUrl);
+                // Fall through to the validators
+            case NOT_MODIFIED:
+                values.put(BookmarkEntry.COLUMN_NAME_METADATA_ETAG, result.etag);
+                values.put(BookmarkEntry.COLUMN_NAME_METADATA_LAST_MODIFIED, result.lastModified);
+                break;
+            default:
+                if (result.retryLater) {
+                    return null;
+                }
+                break; // Gone or refused; check again at the next refresh only
+        }
+        values.put(BookmarkEntry.COLUMN_NAME_METADATA_FETCHED_AT, now);
+        return values;
+    }
+
+    // Links typed without a scheme are fetched over HTTPS, and so are plain HTTP links first,
+    // since the platform refuses cleartext traffic by default from Android 9 on.
+    static String fetchUrl(String linkUrl) {
+        String url = linkUrl.trim();
+        if (url.regionMatches(true, 0, "http://", 0, 7)) {
+            return "https://" + url.substring(7);
+        }
+        if (!url.regionMatches(true, 0, "https://", 0, 8)) {
+            return "https://" + url;
+        }
+        return url;
+    }
+
+    static boolean isPlainHttp(String linkUrl) {
+        return linkUrl.trim().regionMatches(true, 0, "http://", 0, 7);
+    }
+
+    // True if the active network has been validated to reach the internet.
+    static boolean isOnline(Context context) {
+        ConnectivityManager connectivity = ContextCompat.getSystemService(context, ConnectivityManager.class);
+        if (connectivity == null) return true; // Cannot tell; let the fetches find out
+        NetworkCapabilities capabilities = connectivity.getNetworkCapabilities(connectivity.getActiveNetwork());
+        return capabilities != null && capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_VALIDATED);
+    }
+
+    // Reads the next batch of links that were never checked, or not since checkedBefore.
+    private static List<Link> loadBatch(SQLiteDatabase db, long afterId, long checkedBefore) {
+        String selection = BookmarkEntry.COLUMN_NAME_LINK_URL + " IS NOT NULL AND " +
+                BookmarkEntry.COLUMN_NAME_LINK_URL + " != '' AND (" +
+                BookmarkEntry.COLUMN_NAME_METADATA_FETCHED_AT + " IS NULL OR " +
+                BookmarkEntry.COLUMN_NAME_METADATA_FETCHED_AT + " < ?) AND " +
+                BookmarkEntry._ID + " > ?";
+        Cursor cursor = db.query(BookmarkEntry.TABLE_NAME,
+                new String[]{BookmarkEntry._ID, BookmarkEntry.COLUMN_NAME_LINK_URL,
+                        BookmarkEntry.COLUMN_NAME_METADATA_ETAG, BookmarkEntry.COLUMN_NAME_METADATA_LAST_MODIFIED},
+                selection, new String[]{String.valueOf(checkedBefore), String.valueOf(afterId)},
+                null, null, BookmarkEntry._ID + " ASC", String.valueOf(BATCH_SIZE));
+        List<Link> links = new ArrayList<>();
+        try {
+            while (cursor.moveToNext()) {
+                links.add(new Link(cursor.getLong(0), cursor.getString(1), cursor.getString(2), cursor.getString(3)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return links;
+    }
+}
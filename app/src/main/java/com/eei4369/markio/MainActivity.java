@@ -1,12 +1,13 @@
 package com.eei4369.markio;
 
+import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.SearchView;
 import androidx.core.content.ContextCompat;
+import androidx.lifecycle.Lifecycle;
 
+import android.content.Context;
 import android.content.Intent;
-import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
 import android.os.Bundle;
 import android.text.TextUtils;
 import android.view.Menu;
@@ -20,28 +21,25 @@ import com.google.android.flexbox.FlexboxLayout;
 import com.google.android.material.appbar.MaterialToolbar;
 import com.google.android.material.chip.Chip;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
-import com.eei4369.markio.BookmarkContract.BookmarkEntry;
 
-import java.util.HashSet;
-import java.util.Set;
-import java.util.Locale;
+import java.util.Map;
 
-public class MainActivity extends AppCompatActivity {
+public class MainActivity extends AppCompatActivity implements BookmarkInvalidationTracker.Listener {
+
+    private static final int PREFETCH_MAP_PREVIEWS = 20; // Most recent geotagged bookmarks
 
-    private BookmarkDbHelper dbHelper;
     private TextView textViewBookmarkCount;
     private TextView textViewImageCount;
     private TextView textViewLinkCount;
     private TextView textViewDocumentCount;
     private FlexboxLayout flexboxLayoutTags;
+    private boolean countsStale = true; // Set by any bookmark change; counts are reloaded on resume
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
-        dbHelper = new BookmarkDbHelper(this);
-
         MaterialToolbar toolbar = findViewById(R.id.toolbar);
         setSupportActionBar(toolbar);
 
@@ -66,98 +64,72 @@ public class MainActivity extends AppCompatActivity {
             Intent intent = new Intent(MainActivity.this, AddEditBookmarkActivity.class);
             startActivity(intent);
         });
+
+        BookmarkInvalidationTracker.getInstance(this).addListener(this);
+
+        // Warm the map preview cache so recently saved bookmarks show their map offline too
+        if (savedInstanceState == null) {
+            BookmarkRepository.getInstance(this).loadRecentLocations(PREFETCH_MAP_PREVIEWS,
+                    locations -> MapPreviewCache.getInstance(this).prefetch(locations));
+            // Stored attachments of deleted or edited bookmarks are removed here, not on each delete
+            AttachmentStore.getInstance(this).collectGarbage();
+        }
+
+        // Once per install: point out links saved twice before saving checked for duplicates
+        Context appContext = getApplicationContext();
+        DuplicateLinkScanJob.start(this, clusters -> {
+            if (!clusters.isEmpty()) {
+                Toast.makeText(appContext, clusters.size() + " links are bookmarked more than once.", Toast.LENGTH_LONG).show();
+            }
+        });
     }
 
     @Override
     protected void onResume() {
         super.onResume();
-        updateBookmarkCounts();
+        if (countsStale) {
+            updateBookmarkCounts();
+        }
     }
 
-    // Updates bookmark counts and displays unique tags.
-    private void updateBookmarkCounts() {
-        SQLiteDatabase db = dbHelper.getReadableDatabase();
-
-        long allBookmarksCount = getCount(db, null, null);
-        textViewBookmarkCount.setText(allBookmarksCount + " items");
-
-        long imageCount = getCount(db, BookmarkEntry.COLUMN_NAME_CONTENT_TYPE, "image");
-        textViewImageCount.setText(String.valueOf(imageCount));
-
-        long linkCount = getCount(db, BookmarkEntry.COLUMN_NAME_CONTENT_TYPE, "link");
-        textViewLinkCount.setText(String.valueOf(linkCount));
-
-        long documentCount = getCount(db, BookmarkEntry.COLUMN_NAME_CONTENT_TYPE, "document_type_only");
-        textViewDocumentCount.setText(String.valueOf(documentCount));
-
-        loadAndDisplayTags(db);
+    @Override
+    protected void onDestroy() {
+        BookmarkInvalidationTracker.getInstance(this).removeListener(this);
+        super.onDestroy();
     }
 
-    // Counts bookmarks based on content type or other criteria.
-    private long getCount(SQLiteDatabase db, String column, String value) {
-        Cursor cursor = null;
-        long count = 0;
-        try {
-            String selection = null;
-            String[] selectionArgs = null;
-
-            if (column != null && value != null) {
-                if ("document_type_only".equals(value)) {
-                    // Count items that are not 'image' and not 'link'.
-                    selection = BookmarkEntry.COLUMN_NAME_CONTENT_TYPE + " != ? AND " +
-                            BookmarkEntry.COLUMN_NAME_CONTENT_TYPE + " != ?";
-                    selectionArgs = new String[]{"image", "link"};
-                } else {
-                    selection = column + " = ?";
-                    selectionArgs = new String[]{value};
-                }
-            }
-
-            cursor = db.query(BookmarkEntry.TABLE_NAME, new String[]{"COUNT(*)"}, selection, selectionArgs, null, null, null);
-            if (cursor != null && cursor.moveToFirst()) {
-                count = cursor.getLong(0);
-            }
-        } finally {
-            if (cursor != null) {
-                cursor.close();
-            }
+    // Any insert, update or delete can move the counters or tag list.
+    @Override
+    public void onBookmarksChanged(BookmarkChange change) {
+        countsStale = true;
+        if (getLifecycle().getCurrentState().isAtLeast(Lifecycle.State.RESUMED)) {
+            updateBookmarkCounts();
         }
-        return count;
     }
 
-    // Fetches and displays unique tags as clickable chips.
-    private void loadAndDisplayTags(SQLiteDatabase db) {
-        flexboxLayoutTags.removeAllViews(); // Clear existing chips
+    // Updates bookmark counts and displays unique tags.
+    private void updateBookmarkCounts() {
+        countsStale = false;
+        // Read on the repository's I/O thread; rendering happens back on the main thread
+        BookmarkRepository.getInstance(this).loadDashboard(stats -> {
+            if (isDestroyed() || stats == null) return; // A failed read keeps the counts shown
+            textViewBookmarkCount.setText(stats.getTotalCount() + " items");
+            textViewImageCount.setText(String.valueOf(stats.getImageCount()));
+            textViewLinkCount.setText(String.valueOf(stats.getLinkCount()));
+            textViewDocumentCount.setText(String.valueOf(stats.getDocumentCount()));
+            displayTags(stats.getTagCounts());
+        });
+    }
 
-        Set<String> uniqueTags = new HashSet<>(); // Use a Set to ensure tags are unique
-        Cursor cursor = null;
-        try {
-            cursor = db.query(BookmarkEntry.TABLE_NAME, new String[]{BookmarkEntry.COLUMN_NAME_TAGS}, null, null, null, null, null);
-
-            if (cursor != null) {
-                while (cursor.moveToNext()) {
-                    String tagsString = cursor.getString(cursor.getColumnIndexOrThrow(BookmarkEntry.COLUMN_NAME_TAGS));
-                    if (!TextUtils.isEmpty(tagsString)) {
-                        String[] tagsArray = tagsString.split(",");
-                        for (String tag : tagsArray) {
-                            if (!TextUtils.isEmpty(tag.trim())) {
-                                // Add cleaned, lowercase tag to the set.
-                                uniqueTags.add(tag.trim().toLowerCase(Locale.getDefault()));
-                            }
-                        }
-                    }
-                }
-            }
-        } finally {
-            if (cursor != null) {
-                cursor.close();
-            }
-        }
+    // Displays unique tags as clickable chips.
+    private void displayTags(Map<String, Long> tagCounts) {
+        flexboxLayoutTags.removeAllViews(); // Clear existing chips
 
         // Create a Chip for each unique tag.
-        for (String tag : uniqueTags) {
+        for (Map.Entry<String, Long> entry : tagCounts.entrySet()) {
+            String tag = entry.getKey();
             Chip chip = new Chip(this);
-            chip.setText("#" + tag);
+            chip.setText("#" + tag + " (" + entry.getValue() + ")");
             chip.setClickable(true);
             chip.setFocusable(true);
             chip.setChipBackgroundColorResource(R.color.white);
@@ -216,13 +188,12 @@ public class MainActivity extends AppCompatActivity {
         return true;
     }
 
-
-
     @Override
-    protected void onDestroy() {
-        super.onDestroy();
-        if (dbHelper != null) {
-            dbHelper.close(); // Close database connection
+    public boolean onOptionsItemSelected(@NonNull MenuItem item) {
+        if (item.getItemId() == R.id.action_map) {
+            startActivity(new Intent(MainActivity.this, MapOverviewActivity.class));
+            return true;
         }
+        return super.onOptionsItemSelected(item);
     }
 }
\ No newline at end of file
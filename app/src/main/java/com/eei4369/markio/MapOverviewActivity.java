@@ -0,0 +1,278 @@
+package com.eei4369.markio;
+
+import androidx.annotation.NonNull;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.content.ContextCompat;
+
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.google.android.gms.maps.CameraUpdateFactory;
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.OnMapReadyCallback;
+import com.google.android.gms.maps.SupportMapFragment;
+import com.google.android.gms.maps.model.BitmapDescriptor;
+import com.google.android.gms.maps.model.BitmapDescriptorFactory;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.android.gms.maps.model.Marker;
+import com.google.android.gms.maps.model.MarkerOptions;
+import com.google.android.material.appbar.MaterialToolbar;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Shows every geotagged bookmark on a map, grouped into cluster markers.
+ *
+ * When the camera settles, the bookmarks around the visible area (half a screen of margin on
+ * each side) are fetched through the location index, unless the last fetch already covers it.
+ * They are clustered on a background thread and the markers are updated by cluster key, so
+ * markers that did not change stay put instead of being redrawn.
+ */
+public class MapOverviewActivity extends AppCompatActivity implements OnMapReadyCallback, BookmarkInvalidationTracker.Listener {
+
+    private static final long CAMERA_IDLE_DELAY_MS = 150; // Waits out the idle events of a fling or double-tap zoom
+    private static final double CLUSTER_CELL_DP = 64;
+    private static final float CLUSTER_ZOOM_STEP = 2; // Zoom added when a cluster is tapped
+
+    private GoogleMap mMap;
+    private BookmarkRepository repository;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final ExecutorService clusterExecutor = Executors.newSingleThreadExecutor();
+    private final MarkerClusterer clusterer = new MarkerClusterer(CLUSTER_CELL_DP); // Used on clusterExecutor only
+
+    // Area the clusterer currently holds points for: south, west, north, east, with east > west
+    // even across the antimeridian. Null until the first fetch, or after bookmarks changed.
+    private double[] loadedArea;
+    private int refreshGeneration; // Drops results of refreshes overtaken by a newer one
+
+    private final Map<Long, Marker> markers = new HashMap<>(); // Cluster key -> marker on the map
+    private int markerZoomLevel = -1; // Integer zoom the marker keys belong to
+    private final Map<String, BitmapDescriptor> clusterIcons = new HashMap<>(); // Label -> icon
+
+    private final Runnable refreshRunnable = this::refreshClusters;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_map_overview);
+
+        MaterialToolbar toolbar = findViewById(R.id.toolbarMapOverview);
+        setSupportActionBar(toolbar);
+        if (getSupportActionBar() != null) {
+            getSupportActionBar().setDisplayHomeAsUpEnabled(true);
+            getSupportActionBar().setDisplayShowHomeEnabled(true);
+            getSupportActionBar().setTitle("Map");
+        }
+        toolbar.setNavigationOnClickListener(v -> finish());
+
+        repository = BookmarkRepository.getInstance(this);
+        BookmarkInvalidationTracker.getInstance(this).addListener(this);
+
+        SupportMapFragment mapFragment = (SupportMapFragment) getSupportFragmentManager().findFragmentById(R.id.map);
+        if (mapFragment != null) {
+            mapFragment.getMapAsync(this);
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        BookmarkInvalidationTracker.getInstance(this).removeListener(this);
+        handler.removeCallbacks(refreshRunnable);
+        clusterExecutor.shutdown();
+    }
+
+    @Override
+    public void onMapReady(@NonNull GoogleMap googleMap) {
+        mMap = googleMap;
+        // Start over Sri Lanka, like the location picker
+        mMap.moveCamera(CameraUpdateFactory.newLatLngZoom(new LatLng(7.8731, 80.7718), 7f));
+        mMap.setOnCameraIdleListener(this::scheduleRefresh);
+        mMap.setOnMarkerClickListener(this::onMarkerClick);
+    }
+
+    // Any saved, edited or deleted bookmark may have moved on the map, so fetch again.
+    @Override
+    public void onBookmarksChanged(BookmarkChange change) {
+        loadedArea = null;
+        scheduleRefresh();
+    }
+
+    private void scheduleRefresh() {
+        handler.removeCallbacks(refreshRunnable);
+        handler.postDelayed(refreshRunnable, CAMERA_IDLE_DELAY_MS);
+    }
+
+    private void refreshClusters() {
+        if (mMap == null || isFinishing()) {
+            return;
+        }
+        LatLngBounds bounds = mMap.getProjection().getVisibleRegion().latLngBounds;
+        float zoom = mMap.getCameraPosition().zoom;
+        double[] area = paddedArea(bounds);
+        int generation = ++refreshGeneration;
+
+        if (loadedArea != null && contains(loadedArea, area)) {
+            cluster(area, zoom, generation, null);
+            return;
+        }
+        repository.loadMapPoints(area[0], normalizeLongitude(area[1]), area[2], normalizeLongitude(area[3]), points -> {
+            if (points != null && generation == refreshGeneration && !isDestroyed()) {
+                loadedArea = area;
+                cluster(area, zoom, generation, points);
+            }
+        });
+    }
+
+    // Clusters in the background, replacing the clusterer's points first if new ones were loaded.
+    private void cluster(double[] area, float zoom, int generation, MapPoints points) {
+        clusterExecutor.execute(() -> {
+            if (points != null) {
+                clusterer.setPoints(points.getIds(), points.getLatitudes(), points.getLongitudes());
+            }
+            List<MarkerClusterer.Cluster> clusters = clusterer.cluster(zoom, area[0],
+                    normalizeLongitude(area[1]), area[2], normalizeLongitude(area[3]));
+            handler.post(() -> {
+                if (generation == refreshGeneration && !isDestroyed()) {
+                    showClusters(clusters, (int) Math.floor(zoom));
+                }
+            });
+        });
+    }
+
+    // Updates the markers in place: keeps those whose cluster is unchanged, moves or relabels
+    // the rest, and removes markers whose cluster is gone.
+    private void showClusters(List<MarkerClusterer.Cluster> clusters, int zoomLevel) {
+        Map<Long, Marker> previous = new HashMap<>(markers);
+        markers.clear();
+        boolean sameLevel = zoomLevel == markerZoomLevel; // Keys of another zoom level name other cells
+        markerZoomLevel = zoomLevel;
+
+        for (MarkerClusterer.Cluster cluster : clusters) {
+            LatLng position = new LatLng(cluster.latitude, cluster.longitude);
+            Marker marker = sameLevel ? previous.remove(cluster.key) : null;
+            if (marker == null) {
+                marker = mMap.addMarker(new MarkerOptions().position(position).icon(iconFor(cluster)));
+                if (marker == null) continue;
+            } else {
+                MarkerClusterer.Cluster shown = (MarkerClusterer.Cluster) marker.getTag();
+                if (shown == null || shown.size != cluster.size) {
+                    marker.setIcon(iconFor(cluster));
+                }
+                if (shown == null || shown.latitude != cluster.latitude || shown.longitude != cluster.longitude) {
+                    marker.setPosition(position);
+                }
+            }
+            marker.setTag(cluster);
+            markers.put(cluster.key, marker);
+        }
+
+        for (Marker removed : previous.values()) {
+            removed.remove();
+        }
+    }
+
+    private boolean onMarkerClick(Marker marker) {
+        MarkerClusterer.Cluster cluster = (MarkerClusterer.Cluster) marker.getTag();
+        if (cluster == null) {
+            return false;
+        }
+        if (cluster.size > 1) {
+            // Zoom in on the cluster so it splits up
+            mMap.animateCamera(CameraUpdateFactory.newLatLngZoom(marker.getPosition(),
+                    mMap.getCameraPosition().zoom + CLUSTER_ZOOM_STEP));
+        } else {
+            Intent intent = new Intent(MapOverviewActivity.this, AddEditBookmarkActivity.class);
+            intent.putExtra("bookmark_id", cluster.firstId); // Pass bookmark ID for editing
+            startActivity(intent);
+        }
+        return true;
+    }
+
+    // Default pin for a single bookmark; a numbered circle for a cluster.
+    private BitmapDescriptor iconFor(MarkerClusterer.Cluster cluster) {
+        if (cluster.size == 1) {
+            return BitmapDescriptorFactory.defaultMarker();
+        }
+        // Labels are bucketed so only a handful of bitmaps are ever drawn
+        String label = cluster.size < 10 ? String.valueOf(cluster.size)
+                : cluster.size < 100 ? (cluster.size / 10 * 10) + "+"
+                : cluster.size < 1000 ? (cluster.size / 100 * 100) + "+"
+                : (cluster.size / 1000) + "k+";
+        BitmapDescriptor icon = clusterIcons.get(label);
+        if (icon == null) {
+            icon = BitmapDescriptorFactory.fromBitmap(drawClusterIcon(label));
+            clusterIcons.put(label, icon);
+        }
+        return icon;
+    }
+
+    private Bitmap drawClusterIcon(String label) {
+        float density = getResources().getDisplayMetrics().density;
+        int size = Math.round(40 * density);
+        Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+
+        Paint circle = new Paint(Paint.ANTI_ALIAS_FLAG);
+        circle.setColor(ContextCompat.getColor(this, R.color.purple_500));
+        canvas.drawCircle(size / 2f, size / 2f, size / 2f, circle);
+
+        Paint text = new Paint(Paint.ANTI_ALIAS_FLAG);
+        text.setColor(ContextCompat.getColor(this, R.color.white));
+        text.setTextSize(14 * density);
+        text.setTextAlign(Paint.Align.CENTER);
+        float baseline = size / 2f - (text.descent() + text.ascent()) / 2;
+        canvas.drawText(label, size / 2f, baseline, text);
+        return bitmap;
+    }
+
+    // The visible area grown by half its size on each side, so short pans need no new fetch.
+    private static double[] paddedArea(LatLngBounds bounds) {
+        double south = bounds.southwest.latitude;
+        double north = bounds.northeast.latitude;
+        double west = bounds.southwest.longitude;
+        double east = bounds.northeast.longitude;
+        if (east < west) {
+            east += 360; // Crosses the antimeridian
+        }
+        double latMargin = (north - south) / 2;
+        double lonMargin = (east - west) / 2;
+        double[] area = {Math.max(-90, south - latMargin), west - lonMargin, Math.min(90, north + latMargin), east + lonMargin};
+        if (area[3] - area[1] >= 360) {
+            area[1] = -180;
+            area[3] = 180;
+        }
+        return area;
+    }
+
+    // True if outer covers inner; both use the east > west form, so either may need shifting a turn.
+    private static boolean contains(double[] outer, double[] inner) {
+        if (inner[0] < outer[0] || inner[2] > outer[2]) {
+            return false;
+        }
+        for (int turn = -1; turn <= 1; turn++) {
+            double shift = turn * 360;
+            if (inner[1] + shift >= outer[1] && inner[3] + shift <= outer[3]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Maps a longitude back into [-180, 180]; the edges of a full-width area are kept as they are.
+    private static double normalizeLongitude(double longitude) {
+        if (longitude < -180) return longitude + 360;
+        if (longitude > 180) return longitude - 360;
+        return longitude;
+    }
+}
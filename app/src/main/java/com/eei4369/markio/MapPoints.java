@@ -0,0 +1,20 @@
+package com.eei4369.markio;
+
+// The geotagged bookmarks inside a map area, as parallel arrays ready for MarkerClusterer.
+public class MapPoints {
+    private final long[] ids;
+    private final double[] latitudes;
+    private final double[] longitudes;
+
+    public MapPoints(long[] ids, double[] latitudes, double[] longitudes) {
+        this.ids = ids;
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+    }
+
+    // --- Getters ---
+    public long[] getIds() { return ids; }
+    public double[] getLatitudes() { return latitudes; }
+    public double[] getLongitudes() { return longitudes; }
+    public int size() { return ids.length; }
+}
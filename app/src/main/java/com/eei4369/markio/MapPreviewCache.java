@@ -0,0 +1,307 @@
+package com.eei4369.markio;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.Bundle;
+
+import androidx.core.content.ContextCompat;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Persistent cache of static map preview images, so the edit screen shows a location offline.
+ *
+ * A preview is keyed by its zoom, size and the coordinates snapped to a grid of about two
+ * pixels at that zoom, and the image is rendered for the cell centre: points that would look
+ * the same share one file. Concurrent requests for one key share one download. The files are
+ * kept under a byte budget, evicting the least recently shown first; file modification times
+ * record use, so the order survives restarts.
+ */
+public class MapPreviewCache {
+
+    public static final String STATIC_MAPS_URL = "https://maps.googleapis.com/maps/api/staticmap";
+    public static final int DEFAULT_ZOOM = 15;
+    public static final int DEFAULT_WIDTH = 400;
+    public static final int DEFAULT_HEIGHT = 200;
+    private static final long DEFAULT_MAX_BYTES = 8L * 1024 * 1024; // Some 150-250 previews
+    private static final int TIMEOUT_MS = 15_000;
+
+    private static MapPreviewCache instance;
+
+    // Receives the outcome of an asynchronous request on the callback executor.
+    public interface Callback {
+        void onPreviewReady(File image);
+        void onPreviewFailed(IOException error);
+    }
+
+    // Snapshot of the cache counters.
+    public static final class Stats {
+        public final long diskHits;
+        public final long downloads;
+        public final long coalesced;
+        public final long evictions;
+
+        Stats(long diskHits, long downloads, long coalesced, long evictions) {
+            this.diskHits = diskHits;
+            this.downloads = downloads;
+            this.coalesced = coalesced;
+            this.evictions = evictions;
+        }
+    }
+
+    private final File directory;
+    private final long maxBytes;
+    private final String baseUrl;
+    private final String apiKey;
+    private final Executor ioExecutor;
+    private final Executor callbackExecutor;
+
+    // Cached files by key, least recently used first; filled from the directory on first use
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+    private boolean indexed;
+
+    private final ConcurrentHashMap<String, CompletableFuture<File>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong downloads = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public MapPreviewCache(File directory, long maxBytes, String baseUrl, String apiKey,
+                           Executor ioExecutor, Executor callbackExecutor) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.baseUrl = baseUrl;
+        this.apiKey = apiKey;
+        this.ioExecutor = ioExecutor;
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * Returns the process-wide cache, downloading from Google Static Maps with the manifest's
+     * API key. Files live in app storage rather than the cache directory, which the system may
+     * clear at any time. Callbacks are delivered on the main thread.
+     */
+    public static synchronized MapPreviewCache getInstance(Context context) {
+        if (instance == null) {
+            Context appContext = context.getApplicationContext();
+            String apiKey = "";
+            try {
+                Bundle metaData = appContext.getPackageManager().getApplicationInfo(
+                        appContext.getPackageName(), PackageManager.GET_META_DATA).metaData;
+                if (metaData != null) {
+                    apiKey = metaData.getString("com.google.android.geo.API_KEY", "");
+                }
+            } catch (PackageManager.NameNotFoundException ignored) {
+                // Downloads will fail; previews already on disk still show
+            }
+            instance = new MapPreviewCache(
+                    new File(appContext.getFilesDir(), "map_previews"),
+                    DEFAULT_MAX_BYTES,
+                    STATIC_MAPS_URL,
+                    apiKey,
+                    Executors.newFixedThreadPool(2),
+                    ContextCompat.getMainExecutor(appContext));
+        }
+        return instance;
+    }
+
+    /**
+     * Fetches the default-sized preview of a location without blocking the caller.
+     */
+    public void get(GeoPoint location, Callback callback) {
+        resolve(location, DEFAULT_ZOOM, DEFAULT_WIDTH, DEFAULT_HEIGHT).whenComplete((file, error) -> callbackExecutor.execute(() -> {
+            if (error == null) {
+                callback.onPreviewReady(file);
+            } else {
+                callback.onPreviewFailed(asIOException(error));
+            }
+        }));
+    }
+
+    /**
+     * Fetches a preview, blocking until it is on disk. For background jobs only.
+     */
+    public File getBlocking(GeoPoint location, int zoom, int width, int height) throws IOException {
+        try {
+            return resolve(location, zoom, width, height).get();
+        } catch (ExecutionException e) {
+            throw asIOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while fetching a map preview", e);
+        }
+    }
+
+    /**
+     * Downloads the default-sized previews of these locations in the background, skipping any
+     * already cached. Failures are ignored; the edit screen will try again when it needs one.
+     */
+    public void prefetch(List<GeoPoint> locations) {
+        for (GeoPoint location : locations) {
+            resolve(location, DEFAULT_ZOOM, DEFAULT_WIDTH, DEFAULT_HEIGHT);
+        }
+    }
+
+    public Stats getStats() {
+        return new Stats(diskHits.get(), downloads.get(), coalesced.get(), evictions.get());
+    }
+
+    // Snap to cells about two pixels wide at this zoom, where the world is 256 * 2^zoom pixels across.
+    static double gridDegrees(int zoom) {
+        return 2 * 360.0 / (256 * Math.pow(2, zoom));
+    }
+
+    // Returns a future for the preview's file, starting a download only if none is running.
+    private CompletableFuture<File> resolve(GeoPoint location, int zoom, int width, int height) {
+        double grid = gridDegrees(zoom);
+        long latCell = Math.round(location.latitude / grid);
+        long lonCell = Math.round(location.longitude / grid);
+        String key = zoom + "_" + width + "x" + height + "_" + latCell + "_" + lonCell;
+
+        CompletableFuture<File> created = new CompletableFuture<>();
+        CompletableFuture<File> existing = inFlight.putIfAbsent(key, created);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            return existing;
+        }
+        GeoPoint center = new GeoPoint(latCell * grid, lonCell * grid);
+        ioExecutor.execute(() -> load(key, center, zoom, width, height, created));
+        return created;
+    }
+
+    // Runs on the I/O executor: the file if cached, otherwise a download.
+    private void load(String key, GeoPoint center, int zoom, int width, int height, CompletableFuture<File> future) {
+        try {
+            File file = new File(directory, key + ".png");
+            if (touch(key, file)) {
+                diskHits.incrementAndGet();
+            } else {
+                downloads.incrementAndGet();
+                download(center, zoom, width, height, file);
+                add(key, file);
+            }
+            inFlight.remove(key);
+            future.complete(file);
+        } catch (IOException | RuntimeException e) {
+            // Failures are not cached; the next request for this preview tries again
+            inFlight.remove(key);
+            future.completeExceptionally(e);
+        }
+    }
+
+    private void download(GeoPoint center, int zoom, int width, int height, File file) throws IOException {
+        String[] latLon = center.format().split(",");
+        URL url = new URL(String.format(Locale.US,
+                "%s?center=%s,%s&zoom=%d&size=%dx%d&markers=color:red%%7Clabel:L%%7C%s,%s&key=%s",
+                baseUrl, latLon[0], latLon[1], zoom, width, height, latLon[0], latLon[1], apiKey));
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(TIMEOUT_MS);
+        connection.setReadTimeout(TIMEOUT_MS);
+        try {
+            int status = connection.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Static map request failed with HTTP " + status);
+            }
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Cannot create " + directory);
+            }
+            // Write to a temporary file first so a failed download never leaves a broken image
+            File temp = new File(directory, file.getName() + ".tmp");
+            try (InputStream in = connection.getInputStream(); OutputStream out = new FileOutputStream(temp)) {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            } catch (IOException e) {
+                temp.delete();
+                throw e;
+            }
+            if (!temp.renameTo(file)) {
+                temp.delete();
+                throw new IOException("Cannot store " + file);
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    // Marks a cached preview as just used; false if it is not cached.
+    private synchronized boolean touch(String key, File file) {
+        ensureIndexed();
+        if (entries.get(key) == null) {
+            return false;
+        }
+        if (!file.isFile()) {
+            totalBytes -= entries.remove(key); // Deleted behind our back
+            return false;
+        }
+        file.setLastModified(System.currentTimeMillis());
+        return true;
+    }
+
+    // Records a new preview, then evicts the least recently used ones until within budget.
+    private synchronized void add(String key, File file) {
+        ensureIndexed();
+        Long previous = entries.put(key, file.length());
+        totalBytes += file.length() - (previous != null ? previous : 0);
+        Iterator<Map.Entry<String, Long>> eldest = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && entries.size() > 1) {
+            Map.Entry<String, Long> entry = eldest.next();
+            if (entry.getKey().equals(key)) continue;
+            new File(directory, entry.getKey() + ".png").delete();
+            totalBytes -= entry.getValue();
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    // Lists the directory once, oldest use first.
+    private void ensureIndexed() {
+        if (indexed) {
+            return;
+        }
+        indexed = true;
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(".png"));
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File file : files) {
+            String name = file.getName();
+            entries.put(name.substring(0, name.length() - ".png".length()), file.length());
+            totalBytes += file.length();
+        }
+    }
+
+    private static IOException asIOException(Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        if (error instanceof IOException) {
+            return (IOException) error;
+        }
+        return new IOException("Map preview failed", error);
+    }
+}
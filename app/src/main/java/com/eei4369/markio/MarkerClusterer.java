@@ -0,0 +1,177 @@
+package com.eei4369.markio;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Groups map points into clusters on a screen-space grid.
+ *
+ * Points are projected to Web Mercator once, in setPoints(). Each cluster() call then drops the
+ * points outside the viewport and adds the rest to the grid cell (cellSizeDp square at the
+ * current zoom) they fall in: one pass, with no allocation per point. The grid is aligned to the
+ * integer zoom level, so a cluster keeps its key while the camera pans or zooms within a level,
+ * and the map can update markers in place.
+ *
+ * Plain Java with no Android dependencies, so it is tested on the JVM.
+ */
+public class MarkerClusterer {
+
+    // Google Maps draws the world 256dp wide at zoom 0
+    private static final double WORLD_SIZE_DP = 256;
+
+    // One marker on the map: a single bookmark (size 1) or several nearby ones.
+    public static final class Cluster {
+        public final long key; // Grid cell, stable within a zoom level
+        public final double latitude;
+        public final double longitude;
+        public final int size;
+        public final long firstId; // A bookmark in the cluster; the bookmark itself when size is 1
+
+        Cluster(long key, double latitude, double longitude, int size, long firstId) {
+            this.key = key;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.size = size;
+            this.firstId = firstId;
+        }
+    }
+
+    private final double cellSizeDp;
+
+    // The points, projected to Mercator x/y in [0, 1)
+    private long[] ids = new long[0];
+    private double[] latitudes = new double[0];
+    private double[] longitudes = new double[0];
+    private double[] xs = new double[0];
+    private double[] ys = new double[0];
+
+    // Open-addressing map from cell key to accumulator slot, reused between calls
+    private long[] slotKeys = new long[0];
+    private int[] slotIndex = new int[0]; // Accumulator index + 1, 0 for an empty slot
+    private double[] sumX = new double[0];
+    private double[] sumY = new double[0];
+    private int[] counts = new int[0];
+    private int[] firstPoint = new int[0];
+    private long[] cellKeys = new long[0];
+
+    public MarkerClusterer(double cellSizeDp) {
+        this.cellSizeDp = cellSizeDp;
+    }
+
+    /**
+     * Replaces the point set. The arrays must have the same length; they are not copied.
+     */
+    public void setPoints(long[] ids, double[] latitudes, double[] longitudes) {
+        int n = ids.length;
+        this.ids = ids;
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+        xs = new double[n];
+        ys = new double[n];
+        for (int i = 0; i < n; i++) {
+            xs[i] = mercatorX(longitudes[i]);
+            ys[i] = mercatorY(latitudes[i]);
+        }
+        ensureCapacity(n);
+    }
+
+    public int getPointCount() {
+        return ids.length;
+    }
+
+    /**
+     * Clusters the points inside a viewport.
+     *
+     * @param zoom The camera zoom level.
+     * @param west Western edge; greater than east when the viewport crosses the antimeridian.
+     */
+    public List<Cluster> cluster(double zoom, double south, double west, double north, double east) {
+        double cell = cellSizeDp / (WORLD_SIZE_DP * Math.pow(2, Math.floor(zoom)));
+        boolean wraps = west > east;
+
+        Arrays.fill(slotIndex, 0);
+        int used = 0;
+        int mask = slotKeys.length - 1;
+        for (int i = 0; i < ids.length; i++) {
+            double lat = latitudes[i];
+            double lon = longitudes[i];
+            if (lat < south || lat > north) continue;
+            if (wraps ? (lon < west && lon > east) : (lon < west || lon > east)) continue;
+
+            long key = ((long) (xs[i] / cell) << 32) | ((long) (ys[i] / cell) & 0xffffffffL);
+            int slot = mix(key) & mask;
+            while (slotIndex[slot] != 0 && slotKeys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            int acc;
+            if (slotIndex[slot] == 0) {
+                acc = used++;
+                slotKeys[slot] = key;
+                slotIndex[slot] = acc + 1;
+                cellKeys[acc] = key;
+                sumX[acc] = 0;
+                sumY[acc] = 0;
+                counts[acc] = 0;
+                firstPoint[acc] = i;
+            } else {
+                acc = slotIndex[slot] - 1;
+            }
+            sumX[acc] += xs[i];
+            sumY[acc] += ys[i];
+            counts[acc]++;
+        }
+
+        List<Cluster> clusters = new ArrayList<>(used);
+        for (int acc = 0; acc < used; acc++) {
+            int first = firstPoint[acc];
+            if (counts[acc] == 1) {
+                clusters.add(new Cluster(cellKeys[acc], latitudes[first], longitudes[first], 1, ids[first]));
+            } else {
+                // Centroid in projected space, so the marker sits where the points appear on screen
+                double x = sumX[acc] / counts[acc];
+                double y = sumY[acc] / counts[acc];
+                clusters.add(new Cluster(cellKeys[acc], latitudeOf(y), longitudeOf(x), counts[acc], ids[first]));
+            }
+        }
+        return clusters;
+    }
+
+    // Sizes the hash table to at most half full even if every point lands in its own cell.
+    private void ensureCapacity(int points) {
+        int tableSize = Integer.highestOneBit(Math.max(16, points * 2 - 1)) << 1;
+        if (slotKeys.length < tableSize) {
+            slotKeys = new long[tableSize];
+            slotIndex = new int[tableSize];
+        }
+        if (counts.length < points) {
+            sumX = new double[points];
+            sumY = new double[points];
+            counts = new int[points];
+            firstPoint = new int[points];
+            cellKeys = new long[points];
+        }
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    static double mercatorX(double longitude) {
+        return (longitude + 180) / 360;
+    }
+
+    static double mercatorY(double latitude) {
+        double sin = Math.sin(Math.toRadians(Math.max(-85.05112878, Math.min(85.05112878, latitude))));
+        return 0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI);
+    }
+
+    static double longitudeOf(double x) {
+        return x * 360 - 180;
+    }
+
+    static double latitudeOf(double y) {
+        return Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1 - 2 * y))));
+    }
+}
@@ -0,0 +1,37 @@
+package com.eei4369.markio;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import com.bumptech.glide.GlideBuilder;
+import com.bumptech.glide.annotation.GlideModule;
+import com.bumptech.glide.load.engine.cache.InternalCacheDiskCacheFactory;
+import com.bumptech.glide.load.engine.cache.LruResourceCache;
+import com.bumptech.glide.module.AppGlideModule;
+
+// Sizes Glide's caches for list thumbnails: a bounded memory cache and an app-private thumbnail disk cache.
+@GlideModule
+public final class MarkioGlideModule extends AppGlideModule {
+
+    // Decoded thumbnails kept in memory: at most 1/16 of the heap, and never more than this.
+    static final long MAX_MEMORY_CACHE_BYTES = 16L * 1024 * 1024;
+    private static final long DISK_CACHE_BYTES = 64L * 1024 * 1024;
+    private static final String DISK_CACHE_DIR = "thumbnails";
+
+    @Override
+    public void applyOptions(@NonNull Context context, @NonNull GlideBuilder builder) {
+        builder.setMemoryCache(new LruResourceCache(memoryCacheBytes()));
+        builder.setDiskCache(new InternalCacheDiskCacheFactory(context, DISK_CACHE_DIR, DISK_CACHE_BYTES));
+    }
+
+    static long memoryCacheBytes() {
+        return Math.min(MAX_MEMORY_CACHE_BYTES, Runtime.getRuntime().maxMemory() / 16);
+    }
+
+    // No manifest-declared Glide modules to merge.
+    @Override
+    public boolean isManifestParsingEnabled() {
+        return false;
+    }
+}
@@ -0,0 +1,355 @@
+package com.eei4369.markio;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.eei4369.markio.BookmarkContract.BookmarkEntry;
+import com.eei4369.markio.BookmarkContract.PageArchiveEntry;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Offline snapshots of linked pages (see ReadablePage), kept gzipped in app-private storage.
+ *
+ * The page_archives table has a row per bookmark the archiver has dealt with, holding the
+ * snapshot's file name and its text, which the database indexes for search along with the
+ * bookmark. The row decides whether a bookmark has a snapshot and which file it is; every
+ * snapshot gets a file name of its own, so a file left behind by a deleted bookmark or an old link
+ * is never opened for another. Snapshots are kept within a storage budget: past it, the ones
+ * least recently opened (or archived, if never opened) are evicted, which deletes the file and
+ * text but keeps the row, so the page is not fetched again. Archiving is off until the user turns
+ * it on.
+ */
+public class PageArchive {
+
+    private static final String PREFS_NAME = "page_archive";
+    private static final String KEY_ENABLED = "enabled";
+    private static final String KEY_MAX_BYTES = "max_bytes";
+    private static final long DEFAULT_MAX_BYTES = 50L * 1024 * 1024;
+    private static final String DIRECTORY = "archives";
+    private static final String SUFFIX = ".html.gz";
+
+    private static PageArchive instance;
+
+    private final Context appContext;
+    private final File directory;
+    private final BookmarkDbHelper dbHelper;
+    private final ExecutorService ioExecutor = Executors.newSingleThreadExecutor();
+
+    private PageArchive(Context context) {
+        this.appContext = context.getApplicationContext();
+        this.directory = new File(appContext.getFilesDir(), DIRECTORY);
+        this.dbHelper = BookmarkDbHelper.getInstance(appContext);
+    }
+
+    public static synchronized PageArchive getInstance(Context context) {
+        if (instance == null) {
+            instance = new PageArchive(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Returns whether the user has turned on saving pages for offline reading.
+     */
+    public static boolean isEnabled(Context context) {
+        return prefs(context).getBoolean(KEY_ENABLED, false);
+    }
+
+    /**
+     * Turns saving pages for offline reading on or off. Turning it off deletes every snapshot,
+     * in the background.
+     */
+    public static void setEnabled(Context context, boolean enabled) {
+        prefs(context).edit().putBoolean(KEY_ENABLED, enabled).apply();
+        if (enabled) {
+            PageArchiveJob.start(context);
+        } else {
+            getInstance(context).clearAsync();
+        }
+    }
+
+    private static SharedPreferences prefs(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Returns whether a snapshot of the bookmark's page is stored, on the calling thread, which
+     * must not be the main thread (see BookmarkRepository.hasArchivedPage).
+     */
+    static boolean has(SQLiteDatabase db, long bookmarkId) {
+        return fileName(db, bookmarkId) != null;
+    }
+
+    /**
+     * Reads a snapshot in the background and records that it was opened, which keeps it from
+     * being evicted soon.
+     *
+     * @return Completes with the snapshot's HTML, or exceptionally with the IOException
+     * (FileNotFoundException if the bookmark has no snapshot).
+     */
+    public CompletableFuture<String> openAsync(long bookmarkId) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                String fileName = fileName(dbHelper.getReadableDatabase(), bookmarkId);
+                if (fileName == null) {
+                    throw new FileNotFoundException("No snapshot of bookmark " + bookmarkId);
+                }
+                String html = read(new File(directory, fileName));
+                ContentValues values = new ContentValues();
+                values.put(PageArchiveEntry.COLUMN_NAME_OPENED_AT, System.currentTimeMillis());
+                dbHelper.getWritableDatabase().update(PageArchiveEntry.TABLE_NAME, values,
+                        PageArchiveEntry.COLUMN_NAME_BOOKMARK_ID + " = ?", new String[]{String.valueOf(bookmarkId)});
+                return html;
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, ioExecutor);
+    }
+
+    /**
+     * Stores a snapshot on the calling thread, which must not be the main thread, if the bookmark
+     * still links to linkUrl and archiving is still on. Evicts older snapshots if the budget is
+     * exceeded.
+     *
+     * Both are checked in the transaction that adds the row. Turning archiving off saves the
+     * setting before clearing, and the clear waits for that transaction, so either the row is
+     * added first and cleared with the rest, or the snapshot is not stored. The snapshot is
+     * written to a temporary file and only takes its name once the row is added.
+     *
+     * @return True if stored; false if the bookmark was deleted or changed, or archiving was
+     * turned off, meanwhile.
+     */
+    public boolean store(long bookmarkId, String linkUrl, ReadablePage page) throws IOException {
+        long archivedAt = System.currentTimeMillis();
+        File file = new File(directory, bookmarkId + "-" + archivedAt + SUFFIX);
+        File temp = new File(directory, file.getName() + ".tmp");
+        long storedBytes = write(temp, page.html);
+
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        boolean stored = false;
+        String replaced = null;
+        db.beginTransaction();
+        try {
+            if (isEnabled(appContext) && stillLinks(db, bookmarkId, linkUrl)) {
+                replaced = fileName(db, bookmarkId);
+                ContentValues values = new ContentValues();
+                values.put(PageArchiveEntry.COLUMN_NAME_BOOKMARK_ID, bookmarkId);
+                values.put(PageArchiveEntry.COLUMN_NAME_FILE_NAME, file.getName());
+                values.put(PageArchiveEntry.COLUMN_NAME_TEXT, page.text);
+                values.put(PageArchiveEntry.COLUMN_NAME_STORED_BYTES, storedBytes);
+                values.put(PageArchiveEntry.COLUMN_NAME_ARCHIVED_AT, archivedAt);
+                db.insertWithOnConflict(PageArchiveEntry.TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+                // Renamed before commit, so a row is never committed naming a file that is not there
+                if (!temp.renameTo(file)) {
+                    throw new IOException("Cannot move " + temp + " to " + file);
+                }
+                stored = true;
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            if (!stored) {
+                temp.delete();
+            }
+        }
+        if (!stored) {
+            return false;
+        }
+        if (replaced != null) {
+            new File(directory, replaced).delete();
+        }
+        evict(db);
+        return true;
+    }
+
+    /**
+     * Records that the bookmark's page cannot be archived (not HTML, too large, or gone), so it
+     * is not fetched again until its link changes. Like store, does nothing once archiving is off.
+     */
+    public void storeUnavailable(long bookmarkId, String linkUrl) {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            if (isEnabled(appContext) && stillLinks(db, bookmarkId, linkUrl)) {
+                ContentValues values = new ContentValues();
+                values.put(PageArchiveEntry.COLUMN_NAME_BOOKMARK_ID, bookmarkId);
+                values.put(PageArchiveEntry.COLUMN_NAME_ARCHIVED_AT, System.currentTimeMillis());
+                db.insertWithOnConflict(PageArchiveEntry.TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Returns the size of the stored snapshots, compressed.
+     */
+    public long getStoredBytes() {
+        Cursor cursor = dbHelper.getReadableDatabase().rawQuery(
+                "SELECT TOTAL(" + PageArchiveEntry.COLUMN_NAME_STORED_BYTES + ") FROM " + PageArchiveEntry.TABLE_NAME, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the snapshot file names of the given bookmarks, by bookmark ID. Read in the
+     * transaction of a write that may drop their rows (a delete, or a changed link), and passed to
+     * deleteDropped after it.
+     */
+    static Map<Long, String> loadFileNames(SQLiteDatabase db, Collection<Long> bookmarkIds) {
+        Map<Long, String> fileNames = new HashMap<>();
+        for (long bookmarkId : bookmarkIds) {
+            String fileName = fileName(db, bookmarkId);
+            if (fileName != null) fileNames.put(bookmarkId, fileName);
+        }
+        return fileNames;
+    }
+
+    /**
+     * Deletes the snapshot files in fileNames whose bookmark's row no longer names them, on the
+     * calling thread, which must not be the main thread.
+     */
+    void deleteDropped(SQLiteDatabase db, Map<Long, String> fileNames) {
+        for (Map.Entry<Long, String> entry : fileNames.entrySet()) {
+            if (!entry.getValue().equals(fileName(db, entry.getKey()))) {
+                new File(directory, entry.getValue()).delete();
+            }
+        }
+    }
+
+    /**
+     * Deletes snapshot files no row names, left by interrupted writes and writes that could not
+     * delete theirs. Runs on the calling thread, which must not be the main thread.
+     */
+    public void sweep() {
+        File[] stored = directory.listFiles();
+        if (stored == null) return;
+        Set<String> named = new HashSet<>();
+        Cursor cursor = dbHelper.getReadableDatabase().query(PageArchiveEntry.TABLE_NAME,
+                new String[]{PageArchiveEntry.COLUMN_NAME_FILE_NAME},
+                PageArchiveEntry.COLUMN_NAME_FILE_NAME + " IS NOT NULL", null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                named.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        for (File file : stored) {
+            if (!named.contains(file.getName())) {
+                file.delete();
+            }
+        }
+    }
+
+    // Evicts the least recently used snapshots until the rest fit the budget.
+    private void evict(SQLiteDatabase db) {
+        long budget = prefs(appContext).getLong(KEY_MAX_BYTES, DEFAULT_MAX_BYTES);
+        Cursor cursor = db.query(PageArchiveEntry.TABLE_NAME,
+                new String[]{PageArchiveEntry.COLUMN_NAME_BOOKMARK_ID, PageArchiveEntry.COLUMN_NAME_FILE_NAME,
+                        PageArchiveEntry.COLUMN_NAME_STORED_BYTES},
+                PageArchiveEntry.COLUMN_NAME_FILE_NAME + " IS NOT NULL", null, null, null,
+                "COALESCE(" + PageArchiveEntry.COLUMN_NAME_OPENED_AT + ", " + PageArchiveEntry.COLUMN_NAME_ARCHIVED_AT + ") DESC");
+        long kept = 0;
+        try {
+            while (cursor.moveToNext()) {
+                kept += cursor.getLong(2);
+                if (kept <= budget) continue;
+                // Clear the row first: a file without a row is only swept, a row without a file would fail to open
+                ContentValues values = new ContentValues();
+                values.putNull(PageArchiveEntry.COLUMN_NAME_FILE_NAME);
+                values.putNull(PageArchiveEntry.COLUMN_NAME_TEXT);
+                values.put(PageArchiveEntry.COLUMN_NAME_STORED_BYTES, 0);
+                db.update(PageArchiveEntry.TABLE_NAME, values,
+                        PageArchiveEntry.COLUMN_NAME_BOOKMARK_ID + " = ?", new String[]{String.valueOf(cursor.getLong(0))});
+                new File(directory, cursor.getString(1)).delete();
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Deletes every snapshot and its row, so turning archiving back on starts over.
+    private void clearAsync() {
+        ioExecutor.execute(() -> {
+            dbHelper.getWritableDatabase().delete(PageArchiveEntry.TABLE_NAME, null, null);
+            sweep();
+        });
+    }
+
+    private static boolean stillLinks(SQLiteDatabase db, long bookmarkId, String linkUrl) {
+        Cursor cursor = db.query(BookmarkEntry.TABLE_NAME, new String[]{BookmarkEntry._ID},
+                BookmarkEntry._ID + " = ? AND " + BookmarkEntry.COLUMN_NAME_LINK_URL + " = ?",
+                new String[]{String.valueOf(bookmarkId), linkUrl}, null, null, null);
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // The name of the bookmark's snapshot file, or null if it has none.
+    private static String fileName(SQLiteDatabase db, long bookmarkId) {
+        Cursor cursor = db.query(PageArchiveEntry.TABLE_NAME, new String[]{PageArchiveEntry.COLUMN_NAME_FILE_NAME},
+                PageArchiveEntry.COLUMN_NAME_BOOKMARK_ID + " = ? AND " + PageArchiveEntry.COLUMN_NAME_FILE_NAME + " IS NOT NULL",
+                new String[]{String.valueOf(bookmarkId)}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Writes html gzipped to file, which readers never open by this name. Returns the compressed size.
+    private long write(File file, String html) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        try (OutputStream out = new GZIPOutputStream(new FileOutputStream(file))) {
+            out.write(html.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            file.delete();
+            throw e;
+        }
+        return file.length();
+    }
+
+    private static String read(File file) throws IOException {
+        try (InputStream in = new GZIPInputStream(new FileInputStream(file))) {
+            ByteArrayOutputStream html = new ByteArrayOutputStream();
+            byte[] chunk = new byte[8192];
+            int read;
+            while ((read = in.read(chunk)) != -1) {
+                html.write(chunk, 0, read);
+            }
+            return new String(html.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
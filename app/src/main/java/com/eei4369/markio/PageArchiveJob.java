@@ -0,0 +1,190 @@
+package com.eei4369.markio;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.eei4369.markio.BookmarkContract.BookmarkEntry;
+import com.eei4369.markio.BookmarkContract.PageArchiveEntry;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Saves a readable snapshot (see ReadablePage) of each linked page not archived yet into
+ * PageArchive, while the user has offline pages turned on.
+ *
+ * Pages that cannot be archived (not HTML, too large, a 4xx, or a site that cannot be reached
+ * at all) are recorded as such and not fetched again; ones that timed out or met a server error
+ * stay due for the next pass. Like LinkMetadataJob, the last processed ID is kept in
+ * SharedPreferences, plain HTTP links are tried as saved when HTTPS fails, and a pass only runs
+ * while the device has a working connection.
+ */
+public final class PageArchiveJob {
+
+    private static final String TAG = "PageArchiveJob";
+    private static final String PREFS_NAME = "page_archive_job";
+    private static final String KEY_LAST_ID = "last_id";
+    private static final int BATCH_SIZE = 10;
+    private static final int TIMEOUT_MS = 15_000;
+    private static final int MAX_PAGE_BYTES = 2 * 1024 * 1024; // Larger pages are rarely articles
+    private static final String USER_AGENT = "Markio offline reader";
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private static final AtomicBoolean running = new AtomicBoolean(false);
+
+    private PageArchiveJob() {}
+
+    /**
+     * Starts an archiving pass in the background unless one is already running or archiving is off.
+     *
+     * @param context Any context; only the application context is retained.
+     */
+    public static void start(Context context) {
+        if (!PageArchive.isEnabled(context) || !running.compareAndSet(false, true)) {
+            return;
+        }
+        Context appContext = context.getApplicationContext();
+        executor.execute(() -> {
+            try {
+                run(appContext);
+            } finally {
+                running.set(false);
+            }
+        });
+    }
+
+    // Processes batches until every link has been tried once in this pass, or the device goes offline.
+    private static void run(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        long lastId = prefs.getLong(KEY_LAST_ID, 0);
+        SQLiteDatabase db = BookmarkDbHelper.getInstance(context).getWritableDatabase();
+        BookmarkInvalidationTracker invalidationTracker = BookmarkInvalidationTracker.getInstance(context);
+        PageArchive archive = PageArchive.getInstance(context);
+        while (PageArchive.isEnabled(context) && LinkMetadataJob.isOnline(context)) {
+            List<Long> ids = new ArrayList<>();
+            List<String> links = new ArrayList<>();
+            loadBatch(db, lastId, ids, links);
+            if (ids.isEmpty()) {
+                prefs.edit().putLong(KEY_LAST_ID, 0).apply();
+                archive.sweep();
+                return;
+            }
+
+            Set<Long> archived = new HashSet<>();
+            for (int i = 0; i < ids.size(); i++) {
+                long id = ids.get(i);
+                String link = links.get(i);
+                String page;
+                String url = LinkMetadataJob.fetchUrl(link);
+                try {
+                    page = fetch(url);
+                    if (page == null && LinkMetadataJob.isPlainHttp(link)) {
+                        url = link.trim();
+                        page = fetch(url);
+                    }
+                } catch (IOException e) {
+                    Log.w(TAG, "Could not archive " + link + " for now", e);
+                    continue; // Due again next pass
+                }
+                if (!LinkMetadataJob.isOnline(context)) {
+                    return; // The connection dropped, so the failure may be ours; the next pass resumes here
+                }
+                try {
+                    if (page == null) {
+                        archive.storeUnavailable(id, link);
+                    } else if (archive.store(id, link, ReadablePage.extract(page, url))) {
+                        archived.add(id);
+                    }
+                } catch (IOException e) {
+                    Log.w(TAG, "Could not store " + link, e);
+                } catch (RuntimeException e) {
+                    Log.w(TAG, "Could not archive " + link, e);
+                    archive.storeUnavailable(id, link); // A page the extractor cannot handle will not improve
+                }
+            }
+            lastId = ids.get(ids.size() - 1);
+            prefs.edit().putLong(KEY_LAST_ID, lastId).apply();
+            if (!archived.isEmpty()) {
+                invalidationTracker.publish(new BookmarkChange(BookmarkChange.Type.UPDATE, archived));
+            }
+        }
+    }
+
+    // Downloads an HTML page. Returns null if it is not one, is too large, is gone or its site
+    // cannot be reached; throws for failures worth retrying (timeouts, 429 and 5xx).
+    private static String fetch(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            connection.setConnectTimeout(TIMEOUT_MS);
+            connection.setReadTimeout(TIMEOUT_MS);
+            connection.setRequestProperty("User-Agent", USER_AGENT);
+            connection.setRequestProperty("Accept", "text/html,application/xhtml+xml");
+            int status;
+            try {
+                status = connection.getResponseCode();
+            } catch (SocketTimeoutException e) {
+                throw e;
+            } catch (IOException e) {
+                return null; // Unknown host, refused connection, TLS failure or cleartext refused
+            }
+            if (status == 429 || status >= 500) {
+                throw new IOException("HTTP " + status + " for " + url);
+            }
+            String contentType = connection.getContentType();
+            if (status < 200 || status >= 300
+                    || (contentType != null && !contentType.toLowerCase(Locale.ROOT).contains("html"))
+                    || connection.getContentLengthLong() > MAX_PAGE_BYTES) {
+                return null;
+            }
+            try (InputStream in = connection.getInputStream()) {
+                ByteArrayOutputStream page = new ByteArrayOutputStream();
+                byte[] chunk = new byte[8192];
+                int read;
+                while ((read = in.read(chunk)) != -1) {
+                    page.write(chunk, 0, read);
+                    if (page.size() > MAX_PAGE_BYTES) {
+                        return null;
+                    }
+                }
+                return new String(page.toByteArray(), LinkMetadataFetcher.charset(contentType));
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    // Reads the next batch of link bookmarks without a page_archives row.
+    private static void loadBatch(SQLiteDatabase db, long afterId, List<Long> ids, List<String> links) {
+        String selection = BookmarkEntry.COLUMN_NAME_LINK_URL + " IS NOT NULL AND " +
+                BookmarkEntry.COLUMN_NAME_LINK_URL + " != '' AND " +
+                BookmarkEntry._ID + " > ? AND " + BookmarkEntry._ID + " NOT IN (SELECT " +
+                PageArchiveEntry.COLUMN_NAME_BOOKMARK_ID + " FROM " + PageArchiveEntry.TABLE_NAME + ")";
+        Cursor cursor = db.query(BookmarkEntry.TABLE_NAME,
+                new String[]{BookmarkEntry._ID, BookmarkEntry.COLUMN_NAME_LINK_URL},
+                selection, new String[]{String.valueOf(afterId)},
+                null, null, BookmarkEntry._ID + " ASC", String.valueOf(BATCH_SIZE));
+        try {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+                links.add(cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+}
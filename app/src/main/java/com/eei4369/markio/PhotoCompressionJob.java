@@ -0,0 +1,147 @@
+package com.eei4369.markio;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Environment;
+import android.util.Log;
+
+import com.eei4369.markio.BookmarkContract.BookmarkEntry;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Compresses the full-resolution camera photos of older bookmarks, which still point at the
+ * camera's output file, and moves them into the attachment store.
+ *
+ * Each row is switched to its compressed copy with a single UPDATE that only applies while the
+ * row still names the original file, so an edit made in the meantime wins and the copy is left
+ * for the store's garbage collection. The original is deleted only after the switch. Like
+ * ImageHashJob, progress is kept in SharedPreferences, along with the total bytes saved.
+ */
+public final class PhotoCompressionJob {
+
+    private static final String TAG = "PhotoCompressionJob";
+    private static final String PREFS_NAME = "photo_compression_job";
+    private static final String KEY_LAST_ID = "last_id";
+    private static final String KEY_BYTES_SAVED = "bytes_saved";
+    private static final String CAMERA_PATH_NAME = "my_images"; // Camera output path in file_paths.xml
+    private static final int BATCH_SIZE = 10;
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private static final AtomicBoolean running = new AtomicBoolean(false);
+
+    private PhotoCompressionJob() {}
+
+    /**
+     * Starts a compression pass in the background unless one is already running.
+     *
+     * @param context Any context; only the application context is retained.
+     */
+    public static void start(Context context) {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        Context appContext = context.getApplicationContext();
+        executor.execute(() -> {
+            try {
+                run(appContext);
+            } finally {
+                running.set(false);
+            }
+        });
+    }
+
+    /**
+     * Returns the bytes saved so far by compressing older photos.
+     */
+    public static long getBytesSaved(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).getLong(KEY_BYTES_SAVED, 0);
+    }
+
+    // Processes batches until every camera photo has been tried once in this pass.
+    private static void run(Context context) {
+        File picturesDir = context.getExternalFilesDir(Environment.DIRECTORY_PICTURES);
+        if (picturesDir == null) {
+            return; // External storage unavailable; nothing to compress
+        }
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        long lastId = prefs.getLong(KEY_LAST_ID, 0);
+        SQLiteDatabase db = BookmarkDbHelper.getInstance(context).getWritableDatabase();
+        BookmarkInvalidationTracker invalidationTracker = BookmarkInvalidationTracker.getInstance(context);
+        AttachmentStore store = AttachmentStore.getInstance(context);
+        PhotoCompressor compressor = PhotoCompressor.fromPreferences(context);
+        String uriPrefix = "content://" + AttachmentStore.AUTHORITY + "/" + CAMERA_PATH_NAME + "/";
+        while (true) {
+            List<Long> ids = new ArrayList<>();
+            List<String> uris = new ArrayList<>();
+            loadBatch(db, uriPrefix, lastId, ids, uris);
+            if (ids.isEmpty()) {
+                // Pass complete; photos that could not be read are retried by the next pass
+                prefs.edit().putLong(KEY_LAST_ID, 0).apply();
+                return;
+            }
+
+            Set<Long> swapped = new HashSet<>();
+            long bytesSaved = 0;
+            for (int i = 0; i < ids.size(); i++) {
+                File photo = new File(picturesDir, Uri.parse(uris.get(i)).getLastPathSegment());
+                if (!photo.isFile()) continue;
+                AttachmentStore.Attachment attachment;
+                try {
+                    attachment = store.importPhotoBlocking(photo, compressor, null);
+                } catch (IOException | RuntimeException e) {
+                    Log.w(TAG, "Could not compress " + photo, e);
+                    continue;
+                }
+                ContentValues values = new ContentValues();
+                values.put(BookmarkEntry.COLUMN_NAME_CONTENT_URI, attachment.uri.toString());
+                values.put(BookmarkEntry.COLUMN_NAME_ATTACHMENT_HASH, attachment.sha256);
+                if (db.update(BookmarkEntry.TABLE_NAME, values,
+                        BookmarkEntry._ID + " = ? AND " + BookmarkEntry.COLUMN_NAME_CONTENT_URI + " = ?",
+                        new String[]{String.valueOf(ids.get(i)), uris.get(i)}) > 0) {
+                    swapped.add(ids.get(i));
+                    bytesSaved += attachment.savedBytes;
+                    photo.delete();
+                }
+            }
+            lastId = ids.get(ids.size() - 1);
+            prefs.edit()
+                    .putLong(KEY_LAST_ID, lastId)
+                    .putLong(KEY_BYTES_SAVED, prefs.getLong(KEY_BYTES_SAVED, 0) + bytesSaved)
+                    .apply();
+            if (!swapped.isEmpty()) {
+                Log.i(TAG, "Compressed " + swapped.size() + " photos, " + bytesSaved + " bytes saved");
+                invalidationTracker.publish(new BookmarkChange(BookmarkChange.Type.UPDATE, swapped));
+            }
+        }
+    }
+
+    // Reads the next batch of bookmarks still pointing at a camera output file.
+    private static void loadBatch(SQLiteDatabase db, String uriPrefix, long afterId, List<Long> ids, List<String> uris) {
+        String selection = BookmarkEntry.COLUMN_NAME_CONTENT_URI + " LIKE ? AND " + BookmarkEntry._ID + " > ?";
+        Cursor cursor = db.query(BookmarkEntry.TABLE_NAME,
+                new String[]{BookmarkEntry._ID, BookmarkEntry.COLUMN_NAME_CONTENT_URI},
+                selection, new String[]{uriPrefix + "%", String.valueOf(afterId)},
+                null, null, BookmarkEntry._ID + " ASC", String.valueOf(BATCH_SIZE));
+        try {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+                uris.add(cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+}
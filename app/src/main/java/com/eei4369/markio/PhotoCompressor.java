@@ -0,0 +1,158 @@
+package com.eei4369.markio;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.ExifInterface;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Shrinks camera photos before they are stored: downscales to a maximum width and height and
+ * re-encodes as JPEG. A 12 MP capture of 4-6 MB typically ends up at a few hundred kilobytes, and
+ * previews no longer decode the full image.
+ *
+ * The photo is decoded with the smallest power-of-two subsampling that brings it within the
+ * maximum, so a larger photo is never in memory at full size: a 4000 px capture is stored at
+ * 2000 px. Smaller photos are re-encoded at their own size. Pixels are not rotated: the EXIF
+ * orientation is copied over along with the capture time, camera and GPS location.
+ * Runs on the calling thread, which must not be the main thread.
+ */
+public class PhotoCompressor {
+
+    public static final int DEFAULT_MAX_DIMENSION = 2048;
+    public static final int DEFAULT_QUALITY = 85;
+    private static final String PREFS_NAME = "photo_compression";
+    private static final String KEY_MAX_DIMENSION = "max_dimension";
+    private static final String KEY_QUALITY = "quality";
+
+    // EXIF tags carried over to the compressed copy
+    private static final String[] PRESERVED_TAGS = {
+            ExifInterface.TAG_ORIENTATION,
+            ExifInterface.TAG_DATETIME, ExifInterface.TAG_DATETIME_ORIGINAL, ExifInterface.TAG_DATETIME_DIGITIZED,
+            ExifInterface.TAG_MAKE, ExifInterface.TAG_MODEL,
+            ExifInterface.TAG_GPS_LATITUDE, ExifInterface.TAG_GPS_LATITUDE_REF,
+            ExifInterface.TAG_GPS_LONGITUDE, ExifInterface.TAG_GPS_LONGITUDE_REF,
+            ExifInterface.TAG_GPS_ALTITUDE, ExifInterface.TAG_GPS_ALTITUDE_REF,
+            ExifInterface.TAG_GPS_TIMESTAMP, ExifInterface.TAG_GPS_DATESTAMP, ExifInterface.TAG_GPS_PROCESSING_METHOD
+    };
+
+    // Outcome of one compression.
+    public static final class Result {
+        public final File file;
+        public final long originalBytes;
+        public final long compressedBytes;
+
+        Result(File file, long originalBytes, long compressedBytes) {
+            this.file = file;
+            this.originalBytes = originalBytes;
+            this.compressedBytes = compressedBytes;
+        }
+
+        public long savedBytes() {
+            return originalBytes - compressedBytes;
+        }
+    }
+
+    private final int maxDimension;
+    private final int quality;
+
+    public PhotoCompressor(int maxDimension, int quality) {
+        this.maxDimension = maxDimension;
+        this.quality = quality;
+    }
+
+    /**
+     * Returns a compressor with the settings stored in the "photo_compression" preferences,
+     * or the defaults.
+     */
+    public static PhotoCompressor fromPreferences(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        return new PhotoCompressor(prefs.getInt(KEY_MAX_DIMENSION, DEFAULT_MAX_DIMENSION),
+                prefs.getInt(KEY_QUALITY, DEFAULT_QUALITY));
+    }
+
+    /**
+     * Writes a compressed copy of source next to it. If the copy would not be smaller (already
+     * small or heavily compressed), no copy is kept and the result names the source itself.
+     *
+     * @throws IOException if the photo cannot be decoded or the copy cannot be written.
+     */
+    public Result compress(File source) throws IOException {
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(source.getPath(), bounds);
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+            throw new IOException("Cannot decode " + source);
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize(bounds.outWidth, bounds.outHeight, maxDimension);
+        Bitmap decoded = BitmapFactory.decodeFile(source.getPath(), options);
+        if (decoded == null) {
+            throw new IOException("Cannot decode " + source);
+        }
+        int[] size = targetSize(decoded.getWidth(), decoded.getHeight(), maxDimension);
+        Bitmap scaled = Bitmap.createScaledBitmap(decoded, size[0], size[1], true);
+
+        File target = new File(source.getParentFile(), source.getName() + ".compressed.jpg");
+        try {
+            try (FileOutputStream out = new FileOutputStream(target)) {
+                if (!scaled.compress(Bitmap.CompressFormat.JPEG, quality, out)) {
+                    throw new IOException("Cannot encode " + target);
+                }
+                out.getFD().sync();
+            }
+            copyExif(source, target);
+        } catch (IOException | RuntimeException e) {
+            target.delete();
+            throw e;
+        } finally {
+            if (scaled != decoded) scaled.recycle();
+            decoded.recycle();
+        }
+
+        long originalBytes = source.length();
+        if (target.length() >= originalBytes) {
+            target.delete();
+            return new Result(source, originalBytes, originalBytes);
+        }
+        return new Result(target, originalBytes, target.length());
+    }
+
+    private static void copyExif(File source, File target) throws IOException {
+        ExifInterface from = new ExifInterface(source.getPath());
+        ExifInterface to = new ExifInterface(target.getPath());
+        for (String tag : PRESERVED_TAGS) {
+            String value = from.getAttribute(tag);
+            if (value != null) {
+                to.setAttribute(tag, value);
+            }
+        }
+        to.saveAttributes();
+    }
+
+    // Smallest power of two that brings the longer side to at most maxDimension. The decoder
+    // rounds subsampled sizes up, so the longer side lands between half of maxDimension and it.
+    static int sampleSize(int width, int height, int maxDimension) {
+        int longer = Math.max(width, height);
+        int sample = 1;
+        while ((longer + sample - 1) / sample > maxDimension) {
+            sample *= 2;
+        }
+        return sample;
+    }
+
+    // Width and height scaled so the longer side is at most maxDimension, keeping the aspect ratio.
+    static int[] targetSize(int width, int height, int maxDimension) {
+        int longer = Math.max(width, height);
+        if (longer <= maxDimension) {
+            return new int[]{width, height};
+        }
+        double scale = (double) maxDimension / longer;
+        return new int[]{Math.max(1, (int) Math.round(width * scale)), Math.max(1, (int) Math.round(height * scale))};
+    }
+}
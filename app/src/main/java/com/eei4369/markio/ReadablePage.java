@@ -0,0 +1,222 @@
+package com.eei4369.markio;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A self-contained, readable copy of a web page, for the offline archive.
+ *
+ * extract() keeps the page's main content: the article element if it holds enough text, else
+ * main, else the body, without scripts, styles, navigation, forms and embeds. Of the markup only
+ * structural tags survive, without attributes except link targets, which are made absolute.
+ * Images are dropped, since the copy must render with no network; their alt text is kept.
+ * The copy forbids loading anything through its Content-Security-Policy.
+ */
+public final class ReadablePage {
+
+    private static final int MIN_ARTICLE_TEXT = 200; // Shorter article elements are usually teasers
+    private static final int MAX_TEXT_LENGTH = 200_000; // Of the searchable text; long pages are cut
+
+    // Elements removed together with their content
+    private static final Pattern REMOVED = Pattern.compile(
+            "<!--.*?-->|<(script|style|noscript|template|svg|iframe|object|form|nav|header|footer|aside|button|select)\\b.*?</\\1\\s*>",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern TITLE = Pattern.compile("<title\\b[^>]*>(.*?)</title>", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern TAG = Pattern.compile("<(/?)([a-zA-Z][a-zA-Z0-9]*)\\b([^>]*)>");
+    private static final Pattern HREF = Pattern.compile("\\bhref\\s*=\\s*(?:\"([^\"]*)\"|'([^']*)'|([^\\s\"'>]+))", Pattern.CASE_INSENSITIVE);
+    private static final Pattern ALT = Pattern.compile("\\balt\\s*=\\s*(?:\"([^\"]*)\"|'([^']*)')", Pattern.CASE_INSENSITIVE);
+    private static final Pattern BLANK_LINES = Pattern.compile("[ \\t]*\\n[\\s]*\\n\\s*");
+    private static final Pattern SPACES = Pattern.compile("[ \\t\\x0B\\f\\r]+");
+
+    private static final Set<String> KEPT = new HashSet<>(Arrays.asList(
+            "p", "h1", "h2", "h3", "h4", "h5", "h6", "ul", "ol", "li", "dl", "dt", "dd", "blockquote",
+            "pre", "code", "em", "strong", "b", "i", "u", "s", "sub", "sup", "br", "hr", "a",
+            "table", "thead", "tbody", "tr", "th", "td", "figure", "figcaption"));
+    // Tags that end a line in the extracted text
+    private static final Set<String> BLOCKS = new HashSet<>(Arrays.asList(
+            "p", "div", "section", "article", "main", "h1", "h2", "h3", "h4", "h5", "h6", "ul", "ol", "li",
+            "dl", "dt", "dd", "blockquote", "pre", "br", "hr", "table", "tr", "figure", "figcaption"));
+    private static final Set<String> VOID = new HashSet<>(Arrays.asList("br", "hr"));
+    private static final Set<String> LISTS = new HashSet<>(Arrays.asList("ul", "ol", "dl"));
+    // Kept tags whose start ends an open paragraph
+    private static final Set<String> PARAGRAPH_ENDS = new HashSet<>(Arrays.asList(
+            "p", "h1", "h2", "h3", "h4", "h5", "h6", "ul", "ol", "dl", "blockquote", "pre", "hr", "table", "figure"));
+    // Containers a paragraph cannot be ended from outside of
+    private static final Set<String> PARAGRAPH_SCOPES = new HashSet<>(Arrays.asList(
+            "li", "dt", "dd", "blockquote", "td", "th", "figure", "ul", "ol", "dl", "table"));
+
+    private static final String STYLE = "body{font-family:sans-serif;max-width:40em;margin:0 auto;padding:1em;line-height:1.5}" +
+            "pre{white-space:pre-wrap}blockquote{margin-left:1em;padding-left:1em;border-left:3px solid #ccc}" +
+            ".source{color:#777;font-size:small;word-break:break-all}";
+
+    public final String title;
+    public final String html; // Complete document, UTF-8
+    public final String text; // Plain text of the content, for search
+
+    private ReadablePage(String title, String html, String text) {
+        this.title = title;
+        this.html = html;
+        this.text = text;
+    }
+
+    /**
+     * Extracts the readable content of a page.
+     *
+     * @param pageUrl The URL the page was served from, for links and the source line.
+     */
+    public static ReadablePage extract(String page, String pageUrl) {
+        Matcher titleTag = TITLE.matcher(page);
+        String title = titleTag.find()
+                ? SPACES.matcher(LinkMetadata.decodeEntities(stripTags(titleTag.group(1)))).replaceAll(" ").trim() : "";
+        if (title.isEmpty()) title = pageUrl;
+
+        String cleaned = REMOVED.matcher(page).replaceAll(" ");
+        String content = element(cleaned, "article");
+        if (content == null || plainText(content).length() < MIN_ARTICLE_TEXT) {
+            content = element(cleaned, "main");
+        }
+        if (content == null) content = element(cleaned, "body");
+        if (content == null) content = cleaned;
+
+        StringBuilder body = new StringBuilder();
+        StringBuilder text = new StringBuilder();
+        rewrite(content, pageUrl, body, text);
+
+        String escapedTitle = escape(title);
+        String html = "<!DOCTYPE html><html><head><meta charset=\"utf-8\">" +
+                "<meta http-equiv=\"Content-Security-Policy\" content=\"default-src 'none'; style-src 'unsafe-inline'\">" +
+                "<meta name=\"viewport\" content=\"width=device-width, initial-scale=1\">" +
+                "<title>" + escapedTitle + "</title><style>" + STYLE + "</style></head><body>" +
+                "<h1>" + escapedTitle + "</h1><p class=\"source\">" + escape(pageUrl) + "</p>" +
+                body + "</body></html>";
+
+        String plain = BLANK_LINES.matcher(SPACES.matcher(text).replaceAll(" ")).replaceAll("\n\n").trim();
+        if (plain.length() > MAX_TEXT_LENGTH) {
+            plain = plain.substring(0, MAX_TEXT_LENGTH);
+        }
+        return new ReadablePage(title, html, plain);
+    }
+
+    // Copies content's kept markup into body, closing what it leaves open, and its text into text.
+    private static void rewrite(String content, String pageUrl, StringBuilder body, StringBuilder text) {
+        Deque<String> open = new ArrayDeque<>();
+        Matcher tag = TAG.matcher(content);
+        int position = 0;
+        while (tag.find()) {
+            appendText(content.substring(position, tag.start()), body, text);
+            position = tag.end();
+            boolean closing = !tag.group(1).isEmpty();
+            String name = tag.group(2).toLowerCase(Locale.ROOT);
+
+            if (BLOCKS.contains(name)) text.append('\n');
+            if (name.equals("img") && !closing) {
+                String alt = attribute(ALT, tag.group(3));
+                if (alt != null && !alt.trim().isEmpty()) {
+                    appendText("[" + alt.trim() + "]", body, text);
+                }
+                continue;
+            }
+            if (!KEPT.contains(name)) continue;
+
+            if (closing) {
+                if (!open.contains(name)) continue; // Stray end tag
+                String top;
+                do {
+                    top = open.pop();
+                    body.append("</").append(top).append('>');
+                } while (!top.equals(name));
+            } else if (VOID.contains(name)) {
+                if (PARAGRAPH_ENDS.contains(name)) closeImplied(open, "p", PARAGRAPH_SCOPES, body);
+                body.append('<').append(name).append('>');
+            } else {
+                // As in HTML, an item ends the previous item of its list, and a block ends a paragraph
+                if (name.equals("li")) closeImplied(open, "li", LISTS, body);
+                if (name.equals("dt") || name.equals("dd")) {
+                    closeImplied(open, "dt", LISTS, body);
+                    closeImplied(open, "dd", LISTS, body);
+                }
+                if (PARAGRAPH_ENDS.contains(name)) closeImplied(open, "p", PARAGRAPH_SCOPES, body);
+                body.append('<').append(name);
+                if (name.equals("a")) {
+                    String href = resolve(pageUrl, attribute(HREF, tag.group(3)));
+                    if (href != null) body.append(" href=\"").append(escape(href)).append('"');
+                }
+                body.append('>');
+                open.push(name);
+            }
+        }
+        appendText(content.substring(position), body, text);
+        while (!open.isEmpty()) {
+            body.append("</").append(open.pop()).append('>');
+        }
+    }
+
+    // Closes elements down to and including an open name, unless one of boundaries is open above it.
+    private static void closeImplied(Deque<String> open, String name, Set<String> boundaries, StringBuilder body) {
+        for (String element : open) {
+            if (element.equals(name)) {
+                String top;
+                do {
+                    top = open.pop();
+                    body.append("</").append(top).append('>');
+                } while (!top.equals(name));
+                return;
+            }
+            if (boundaries.contains(element)) return;
+        }
+    }
+
+    // Text between tags is already HTML; only stray angle brackets need escaping.
+    private static void appendText(String raw, StringBuilder body, StringBuilder text) {
+        if (raw.isEmpty()) return;
+        body.append(raw.replace("<", "&lt;").replace(">", "&gt;"));
+        text.append(LinkMetadata.decodeEntities(raw));
+    }
+
+    // Inner HTML of the first element with this name, or null.
+    private static String element(String html, String name) {
+        Matcher matcher = Pattern.compile("<" + name + "\\b[^>]*>(.*?)(?:</" + name + "\\s*>|$)",
+                Pattern.CASE_INSENSITIVE | Pattern.DOTALL).matcher(html);
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    private static String plainText(String html) {
+        return LinkMetadata.decodeEntities(stripTags(html)).trim();
+    }
+
+    private static String stripTags(String html) {
+        return TAG.matcher(html).replaceAll(" ");
+    }
+
+    private static String attribute(Pattern pattern, String attributes) {
+        Matcher matcher = pattern.matcher(attributes);
+        if (!matcher.find()) return null;
+        for (int group = 1; group <= matcher.groupCount(); group++) {
+            if (matcher.group(group) != null) return LinkMetadata.decodeEntities(matcher.group(group));
+        }
+        return null;
+    }
+
+    // Resolves href against the page; null unless the result is an http(s) URL.
+    private static String resolve(String pageUrl, String href) {
+        if (href == null) return null;
+        try {
+            URL resolved = new URL(new URL(pageUrl), href.trim());
+            return resolved.getProtocol().equals("http") || resolved.getProtocol().equals("https") ? resolved.toString() : null;
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+
+    private static String escape(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+}
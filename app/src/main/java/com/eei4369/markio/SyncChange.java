@@ -0,0 +1,56 @@
+package com.eei4369.markio;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The state of one bookmark as exchanged by SyncEngine: its synced column values, or a
+ * tombstone if it was deleted, stamped with the row's version and the device that wrote it.
+ *
+ * Each write to a row raises its version by one. Two states of a row are ordered by version,
+ * then by device ID, so every device and the server pick the same winner whatever order the
+ * changes arrive in (see winsOver).
+ */
+public final class SyncChange {
+
+    public final String syncId; // Identifies the bookmark on every device; local row IDs differ
+    public final long version;
+    public final String deviceId; // Device that made this version
+    public final boolean deleted; // A tombstone; values is empty
+    public final Map<String, Object> values; // Synced column -> String, Long, Double or null
+    public final long seq; // Position in the log this was read from: the device's change log or the server's
+
+    public SyncChange(String syncId, long version, String deviceId, boolean deleted, Map<String, Object> values, long seq) {
+        this.syncId = syncId;
+        this.version = version;
+        this.deviceId = deviceId;
+        this.deleted = deleted;
+        this.values = deleted ? Collections.<String, Object>emptyMap()
+                : Collections.unmodifiableMap(new LinkedHashMap<>(values));
+        this.seq = seq;
+    }
+
+    /**
+     * Returns this change at another position, as a log that stores it assigns one.
+     */
+    public SyncChange withSeq(long seq) {
+        return new SyncChange(syncId, version, deviceId, deleted, values, seq);
+    }
+
+    /**
+     * Returns whether this change replaces a stored state with the given version and device:
+     * if its version is higher, or equal and written by a device whose ID sorts later.
+     *
+     * @param deviceId The stored state's device, or null if nothing is stored.
+     */
+    public boolean winsOver(long version, String deviceId) {
+        if (deviceId == null) return true;
+        if (this.version != version) return this.version > version;
+        return this.deviceId.compareTo(deviceId) > 0;
+    }
+
+    public boolean winsOver(SyncChange other) {
+        return other == null || winsOver(other.version, other.deviceId);
+    }
+}
@@ -0,0 +1,83 @@
+package com.eei4369.markio;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Exchanges bookmark changes between the device's SyncStore and a server, through a
+ * SyncTransport.
+ *
+ * A sync first pulls the server's changes after the pull checkpoint, then pushes the local
+ * changes after the push checkpoint, in batches of batchSize, moving each checkpoint once its
+ * batch is done. Only deltas travel: a bookmark unchanged since the last sync is neither sent
+ * nor received. Pulling first lets local changes that lost a conflict be replaced before they
+ * are sent. If the transport fails, the next sync resumes at the last completed batch.
+ */
+public final class SyncEngine {
+
+    public static final int DEFAULT_BATCH_SIZE = 200;
+
+    // Counts of one sync.
+    public static final class Result {
+        public final int pulled; // Changes received
+        public final int applied; // Of those, the ones that won over the local state
+        public final int pushed;
+        public final int roundTrips;
+
+        Result(int pulled, int applied, int pushed, int roundTrips) {
+            this.pulled = pulled;
+            this.applied = applied;
+            this.pushed = pushed;
+            this.roundTrips = roundTrips;
+        }
+    }
+
+    private final SyncStore store;
+    private final SyncTransport transport;
+    private final int batchSize;
+
+    public SyncEngine(SyncStore store, SyncTransport transport, int batchSize) {
+        if (batchSize < 1) throw new IllegalArgumentException("batchSize " + batchSize);
+        this.store = store;
+        this.transport = transport;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Runs one sync on the calling thread, which must not be the main thread.
+     *
+     * @throws IOException If the transport failed; the batches completed before it are kept.
+     */
+    public Result sync() throws IOException {
+        String deviceId = store.getDeviceId();
+        int pulled = 0;
+        int applied = 0;
+        int pushed = 0;
+        int roundTrips = 0;
+
+        long pullCheckpoint = store.getPullCheckpoint();
+        while (true) {
+            SyncTransport.Page page = transport.pull(pullCheckpoint, batchSize, deviceId);
+            roundTrips++;
+            if (!page.changes.isEmpty() || page.checkpoint != pullCheckpoint) {
+                applied += store.apply(page.changes, page.checkpoint);
+                pulled += page.changes.size();
+                pullCheckpoint = page.checkpoint;
+            }
+            if (!page.hasMore) break;
+        }
+
+        long pushCheckpoint = store.getPushCheckpoint();
+        while (true) {
+            List<SyncChange> changes = store.loadChanges(pushCheckpoint, batchSize);
+            if (changes.isEmpty()) break;
+            transport.push(changes);
+            roundTrips++;
+            pushed += changes.size();
+            pushCheckpoint = changes.get(changes.size() - 1).seq;
+            store.setPushCheckpoint(pushCheckpoint);
+            if (changes.size() < batchSize) break;
+        }
+        return new Result(pulled, applied, pushed, roundTrips);
+    }
+}
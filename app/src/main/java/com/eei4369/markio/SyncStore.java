@@ -0,0 +1,44 @@
+package com.eei4369.markio;
+
+import java.util.List;
+
+/**
+ * The device's side of SyncEngine: its change log and sync checkpoints. BookmarkSyncStore keeps
+ * them in the bookmarks database.
+ *
+ * The change log holds the latest state of each bookmark written on this device, tombstones
+ * included, at a sequence number that rises with every local write. Changes applied from the
+ * server are not logged, so they are never pushed back.
+ */
+public interface SyncStore {
+
+    /**
+     * Returns the ID that stamps this device's changes. Stable for the life of the database.
+     */
+    String getDeviceId();
+
+    /**
+     * Returns up to limit logged changes with a sequence number above afterSeq, in log order.
+     */
+    List<SyncChange> loadChanges(long afterSeq, int limit);
+
+    /**
+     * Returns the sequence number of the last local change the server has received.
+     */
+    long getPushCheckpoint();
+
+    void setPushCheckpoint(long seq);
+
+    /**
+     * Returns the server sequence number up to which changes have been applied.
+     */
+    long getPullCheckpoint();
+
+    /**
+     * Applies pulled changes that win over the local state (see SyncChange.winsOver) and moves
+     * the pull checkpoint, all at once, so an interrupted sync neither loses nor repeats a batch.
+     *
+     * @return The number of changes applied.
+     */
+    int apply(List<SyncChange> changes, long pullCheckpoint);
+}
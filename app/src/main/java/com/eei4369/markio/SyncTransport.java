@@ -0,0 +1,40 @@
+package com.eei4369.markio;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Connection to the server SyncEngine exchanges changes with, for one account.
+ *
+ * The server keeps the winning state of each bookmark (see SyncChange.winsOver) in a log where
+ * every accepted change gets a new, higher sequence number, so a device can ask for everything
+ * after the last number it has seen. InMemorySyncServer is an implementation kept in memory.
+ */
+public interface SyncTransport {
+
+    // A run of the server's log.
+    final class Page {
+        public final List<SyncChange> changes; // In log order, stamped with the server's sequence numbers
+        public final long checkpoint; // Sequence number to continue after; may be past the last change
+        public final boolean hasMore; // False once the end of the log was reached
+
+        public Page(List<SyncChange> changes, long checkpoint, boolean hasMore) {
+            this.changes = changes;
+            this.checkpoint = checkpoint;
+            this.hasMore = hasMore;
+        }
+    }
+
+    /**
+     * Sends local changes. The server keeps each one that wins over the state it has.
+     * Changes the server already has a newer state for are dropped silently; that state
+     * reaches the device with its next pull.
+     */
+    void push(List<SyncChange> changes) throws IOException;
+
+    /**
+     * Reads up to limit changes after the given sequence number, leaving out the ones made by
+     * the asking device, which it has already.
+     */
+    Page pull(long afterSeq, int limit, String deviceId) throws IOException;
+}
@@ -0,0 +1,125 @@
+package com.eei4369.markio;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory prefix index of every tag in use, with the number of bookmarks carrying it.
+ *
+ * Tags are kept in a sorted array, so the tags starting with a prefix form one contiguous range
+ * found by two binary searches; the k most used in that range are then picked in one pass.
+ * A few thousand tags fit in some tens of kilobytes and complete in microseconds.
+ * Thread-safe: updates come from the database writer thread, completions from the UI.
+ */
+public class TagIndex {
+
+    private String[] names = new String[0]; // Sorted
+    private long[] counts = new long[0];
+    private int size;
+
+    /**
+     * @param tagCounts Tag name -> bookmarks carrying it, as from BookmarkTags.loadTagCounts.
+     */
+    public TagIndex(Map<String, Long> tagCounts) {
+        names = tagCounts.keySet().toArray(new String[0]);
+        Arrays.sort(names);
+        counts = new long[names.length];
+        for (int i = 0; i < names.length; i++) {
+            counts[i] = tagCounts.get(names[i]);
+        }
+        size = names.length;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    // Bookmarks carrying the tag, 0 if it is not in use.
+    public synchronized long count(String name) {
+        int i = Arrays.binarySearch(names, 0, size, name);
+        return i >= 0 ? counts[i] : 0;
+    }
+
+    /**
+     * Returns up to limit tags starting with prefix, most used first; ties in alphabetical order.
+     * Tags are stored lower-case, so prefix should be too.
+     */
+    public synchronized List<String> complete(String prefix, int limit) {
+        int from = lowerBound(prefix);
+        int to = lowerBound(prefix + Character.MAX_VALUE);
+        // Insertion into a small sorted array of the best limit seen; ties keep the earlier (alphabetical) one
+        int[] best = new int[Math.max(0, limit)];
+        int found = 0;
+        for (int i = from; i < to && limit > 0; i++) {
+            if (found == limit && counts[i] <= counts[best[found - 1]]) continue;
+            int at = found < limit ? found++ : found - 1;
+            while (at > 0 && counts[best[at - 1]] < counts[i]) {
+                best[at] = best[at - 1];
+                at--;
+            }
+            best[at] = i;
+        }
+        List<String> completions = new ArrayList<>(found);
+        for (int j = 0; j < found; j++) {
+            completions.add(names[best[j]]);
+        }
+        return completions;
+    }
+
+    /**
+     * Applies one bookmark's tag change: removed tags lose a use, added ones gain one.
+     * Pass the tag sets before and after the save (empty after a delete).
+     */
+    public synchronized void update(Collection<String> before, Collection<String> after) {
+        for (String name : before) {
+            if (!after.contains(name)) adjust(name, -1);
+        }
+        for (String name : after) {
+            if (!before.contains(name)) adjust(name, 1);
+        }
+    }
+
+    private void adjust(String name, long delta) {
+        int i = Arrays.binarySearch(names, 0, size, name);
+        if (i >= 0) {
+            counts[i] += delta;
+            if (counts[i] <= 0) {
+                // No longer in use, as the database trigger removes it too
+                System.arraycopy(names, i + 1, names, i, size - i - 1);
+                System.arraycopy(counts, i + 1, counts, i, size - i - 1);
+                size--;
+                names[size] = null;
+            }
+        } else if (delta > 0) {
+            int at = -i - 1;
+            if (size == names.length) {
+                int capacity = Math.max(16, size * 2);
+                names = Arrays.copyOf(names, capacity);
+                counts = Arrays.copyOf(counts, capacity);
+            }
+            System.arraycopy(names, at, names, at + 1, size - at);
+            System.arraycopy(counts, at, counts, at + 1, size - at);
+            names[at] = name;
+            counts[at] = delta;
+            size++;
+        }
+    }
+
+    // First position whose name is >= key.
+    private int lowerBound(String key) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (names[mid].compareTo(key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
@@ -0,0 +1,68 @@
+package com.eei4369.markio;
+
+import android.content.Context;
+import android.widget.ArrayAdapter;
+import android.widget.Filter;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Drop-down suggestions for the tag field, answered by the TagIndex rather than by
+ * ArrayAdapter's own filter, which would scan every tag on each keystroke.
+ */
+public class TagSuggestionAdapter extends ArrayAdapter<String> {
+
+    private static final int MAX_SUGGESTIONS = 8;
+
+    private TagIndex tagIndex; // Null until loaded; no suggestions before that
+
+    public TagSuggestionAdapter(@NonNull Context context) {
+        super(context, android.R.layout.simple_dropdown_item_1line, new ArrayList<>());
+    }
+
+    public void setTagIndex(TagIndex tagIndex) {
+        this.tagIndex = tagIndex;
+    }
+
+    @NonNull
+    @Override
+    public Filter getFilter() {
+        return filter;
+    }
+
+    private final Filter filter = new Filter() {
+        // Runs on the filter's worker thread
+        @Override
+        protected FilterResults performFiltering(CharSequence constraint) {
+            FilterResults results = new FilterResults();
+            TagIndex index = tagIndex;
+            if (index == null || constraint == null) {
+                return results;
+            }
+            // Same normalization as BookmarkTags.parse, so "Android " suggests "android"
+            String prefix = constraint.toString().trim().toLowerCase(Locale.getDefault());
+            if (prefix.isEmpty()) {
+                return results;
+            }
+            List<String> completions = index.complete(prefix, MAX_SUGGESTIONS);
+            results.values = completions;
+            results.count = completions.size();
+            return results;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        protected void publishResults(CharSequence constraint, FilterResults results) {
+            setNotifyOnChange(false);
+            clear();
+            if (results.values != null) {
+                addAll((List<String>) results.values);
+            }
+            notifyDataSetChanged();
+        }
+    };
+}
@@ -0,0 +1,152 @@
+package com.eei4369.markio;
+
+import android.content.Context;
+import android.graphics.drawable.Drawable;
+import android.net.Uri;
+import android.widget.ImageView;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.RequestBuilder;
+import com.bumptech.glide.RequestManager;
+import com.bumptech.glide.load.DataSource;
+import com.bumptech.glide.load.engine.DiskCacheStrategy;
+import com.bumptech.glide.load.engine.GlideException;
+import com.bumptech.glide.request.RequestListener;
+import com.bumptech.glide.request.target.Target;
+import com.bumptech.glide.signature.ObjectKey;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads list thumbnails for image bookmarks.
+ *
+ * Each attachment is decoded once at the thumbnail size, and the cropped result is kept in the
+ * thumbnail disk cache set up by MarkioGlideModule. The cache key includes the content URI and,
+ * for documents outside the app's store, their modification time, so an edited image gets a
+ * fresh thumbnail. Later binds and preloads are served from memory or from that small file,
+ * never from the full-size photo. getStats() counts where each finished load came from; the list
+ * logs it when it stops.
+ */
+public class ThumbnailLoader {
+
+    // Matches the 60dp thumbnail in bookmark_item.xml
+    private static final int THUMBNAIL_SIZE_DP = 60;
+
+    private static ThumbnailLoader instance;
+
+    // Snapshot of the hit counters. Every finished load counts once, including preloads.
+    public static final class Stats {
+        public final long memoryHits;
+        public final long diskHits;
+        public final long decodes;
+        public final long failures;
+
+        Stats(long memoryHits, long diskHits, long decodes, long failures) {
+            this.memoryHits = memoryHits;
+            this.diskHits = diskHits;
+            this.decodes = decodes;
+            this.failures = failures;
+        }
+
+        // Share of finished loads that did not have to decode the original image.
+        public double hitRate() {
+            long total = memoryHits + diskHits + decodes;
+            return total == 0 ? 0 : (double) (memoryHits + diskHits) / total;
+        }
+    }
+
+    // The counters behind Stats, fed by every request's listener.
+    static final class Counters {
+        private final AtomicLong memoryHits = new AtomicLong();
+        private final AtomicLong diskHits = new AtomicLong();
+        private final AtomicLong decodes = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+
+        void recordReady(DataSource dataSource) {
+            if (dataSource == DataSource.MEMORY_CACHE) {
+                memoryHits.incrementAndGet();
+            } else if (dataSource == DataSource.RESOURCE_DISK_CACHE || dataSource == DataSource.DATA_DISK_CACHE) {
+                diskHits.incrementAndGet();
+            } else {
+                decodes.incrementAndGet();
+            }
+        }
+
+        void recordFailure() {
+            failures.incrementAndGet();
+        }
+
+        Stats snapshot() {
+            return new Stats(memoryHits.get(), diskHits.get(), decodes.get(), failures.get());
+        }
+    }
+
+    private final int sizePx;
+    private final Counters counters = new Counters();
+
+    // Records where each thumbnail came from; returns false so Glide still updates the target.
+    private final RequestListener<Drawable> metricsListener = new RequestListener<Drawable>() {
+        @Override
+        public boolean onLoadFailed(@Nullable GlideException e, Object model, @NonNull Target<Drawable> target, boolean isFirstResource) {
+            counters.recordFailure();
+            return false;
+        }
+
+        @Override
+        public boolean onResourceReady(@NonNull Drawable resource, @NonNull Object model, Target<Drawable> target, @NonNull DataSource dataSource, boolean isFirstResource) {
+            counters.recordReady(dataSource);
+            return false;
+        }
+    };
+
+    private ThumbnailLoader(Context context) {
+        this.sizePx = Math.round(THUMBNAIL_SIZE_DP * context.getResources().getDisplayMetrics().density);
+    }
+
+    public static synchronized ThumbnailLoader getInstance(Context context) {
+        if (instance == null) {
+            instance = new ThumbnailLoader(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    // Size of a decoded thumbnail in pixels (square).
+    public int getSizePx() {
+        return sizePx;
+    }
+
+    /**
+     * Shows the thumbnail of an image bookmark.
+     */
+    public void load(ImageView imageView, Bookmark bookmark) {
+        request(Glide.with(imageView), bookmark)
+                .placeholder(android.R.drawable.ic_menu_gallery)
+                .error(android.R.drawable.ic_menu_report_image)
+                .into(imageView);
+    }
+
+    /**
+     * Decodes the thumbnail of an image bookmark into the memory cache ahead of it being shown.
+     */
+    public void preload(RequestManager requestManager, Bookmark bookmark) {
+        request(requestManager, bookmark).preload(sizePx, sizePx);
+    }
+
+    public Stats getStats() {
+        return counters.snapshot();
+    }
+
+    // The same request for display and preload, so a preloaded thumbnail is a memory cache hit.
+    private RequestBuilder<Drawable> request(RequestManager requestManager, Bookmark bookmark) {
+        String contentUri = bookmark.getContentUri();
+        return requestManager.load(Uri.parse(contentUri))
+                .signature(new ObjectKey(contentUri + "@" + bookmark.getContentVersion()))
+                .diskCacheStrategy(DiskCacheStrategy.RESOURCE) // Keep the cropped thumbnail, not the original
+                .override(sizePx, sizePx)
+                .centerCrop()
+                .listener(metricsListener);
+    }
+}
@@ -0,0 +1,91 @@
+package com.eei4369.markio;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.bumptech.glide.RequestManager;
+
+import java.util.List;
+
+/**
+ * Preloads the thumbnails of the rows just beyond the screen in the direction of scrolling,
+ * so they are already in memory when they scroll into view.
+ *
+ * The number of rows is capped so that the preloaded thumbnails use at most half of the
+ * thumbnail memory cache; the other half keeps what is currently on screen.
+ */
+public class ThumbnailPreloader extends RecyclerView.OnScrollListener {
+
+    private static final int MAX_PRELOAD_ROWS = 15;
+
+    private final RequestManager requestManager;
+    private final ThumbnailLoader thumbnailLoader;
+    private final BookmarkAdapter adapter;
+    private final LinearLayoutManager layoutManager;
+    private final int preloadRows;
+
+    // Rows preloaded for the last scroll event, and its direction. Like Glide's ListPreloader, the
+    // window moves with the visible rows: a scroll only requests the rows it adds to the window,
+    // and a change of direction starts a new one.
+    private int windowStart = Integer.MAX_VALUE;
+    private int windowEnd = -1;
+    private boolean scrollingDown = true;
+
+    public ThumbnailPreloader(RequestManager requestManager, ThumbnailLoader thumbnailLoader,
+                              BookmarkAdapter adapter, LinearLayoutManager layoutManager) {
+        this.requestManager = requestManager;
+        this.thumbnailLoader = thumbnailLoader;
+        this.adapter = adapter;
+        this.layoutManager = layoutManager;
+        long thumbnailBytes = 4L * thumbnailLoader.getSizePx() * thumbnailLoader.getSizePx(); // ARGB_8888
+        long budgetRows = MarkioGlideModule.memoryCacheBytes() / 2 / thumbnailBytes;
+        this.preloadRows = (int) Math.max(1, Math.min(MAX_PRELOAD_ROWS, budgetRows));
+    }
+
+    // Forgets what was preloaded, for when the list is replaced.
+    public void reset() {
+        windowStart = Integer.MAX_VALUE;
+        windowEnd = -1;
+    }
+
+    @Override
+    public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+        if (dy == 0) {
+            return;
+        }
+        boolean down = dy > 0;
+        if (down != scrollingDown) {
+            scrollingDown = down;
+            reset();
+        }
+        List<Bookmark> rows = adapter.getBookmarks();
+        int from;
+        int to;
+        if (down) {
+            int last = layoutManager.findLastVisibleItemPosition();
+            if (last == RecyclerView.NO_POSITION) return;
+            from = last + 1;
+            to = Math.min(rows.size() - 1, last + preloadRows);
+            for (int i = Math.max(from, windowEnd + 1); i <= to; i++) {
+                preload(rows.get(i));
+            }
+        } else {
+            int first = layoutManager.findFirstVisibleItemPosition();
+            if (first == RecyclerView.NO_POSITION) return;
+            from = Math.max(0, first - preloadRows);
+            to = Math.min(rows.size() - 1, first - 1);
+            for (int i = Math.min(to, windowStart - 1); i >= from; i--) {
+                preload(rows.get(i));
+            }
+        }
+        windowStart = from;
+        windowEnd = to;
+    }
+
+    private void preload(Bookmark bookmark) {
+        if (bookmark.getThumbnailKind() == BookmarkDisplay.THUMBNAIL_IMAGE) {
+            thumbnailLoader.preload(requestManager, bookmark);
+        }
+    }
+}
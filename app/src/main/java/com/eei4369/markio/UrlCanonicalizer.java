@@ -0,0 +1,159 @@
+package com.eei4369.markio;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Reduces a link to a canonical form, so that the same page saved in different ways compares
+ * equal: http and https, a "www." prefix, default ports, trailing slashes, letter case of the
+ * host, percent-encoding, parameter order and tracking parameters are all ignored.
+ *
+ * The canonical form is only used for comparison; bookmarks keep the link as it was entered.
+ */
+public final class UrlCanonicalizer {
+
+    private static final Pattern SCHEME = Pattern.compile("^[a-zA-Z][a-zA-Z0-9+.-]*://");
+    private static final String UNRESERVED = "-._~";
+
+    // Query parameters that identify the campaign or click, not the page
+    private static final Set<String> TRACKING_PARAMETERS = new HashSet<>(Arrays.asList(
+            "fbclid", "gclid", "dclid", "gbraid", "wbraid", "msclkid", "yclid", "igshid",
+            "mc_cid", "mc_eid", "_hsenc", "_hsmi", "ref_src"));
+
+    private UrlCanonicalizer() {}
+
+    /**
+     * Returns the canonical form of a link, or null if it is empty. Web links lose their scheme
+     * ("example.com/a?b=1"); other links, or text that does not parse, are only trimmed and
+     * lower-cased.
+     */
+    public static String canonicalize(String url) {
+        if (url == null || url.trim().isEmpty()) {
+            return null;
+        }
+        String trimmed = url.trim();
+        if (!SCHEME.matcher(trimmed).find()) {
+            trimmed = "http://" + trimmed; // As saved by the edit screen
+        }
+        URI uri;
+        try {
+            uri = new URI(trimmed).normalize();
+        } catch (URISyntaxException e) {
+            return trimmed.toLowerCase(Locale.ROOT);
+        }
+        String scheme = uri.getScheme() != null ? uri.getScheme().toLowerCase(Locale.ROOT) : "";
+        String host = uri.getHost();
+        if (host == null || !(scheme.equals("http") || scheme.equals("https"))) {
+            return trimmed.toLowerCase(Locale.ROOT);
+        }
+
+        StringBuilder canonical = new StringBuilder();
+        host = host.toLowerCase(Locale.ROOT);
+        if (host.endsWith(".")) host = host.substring(0, host.length() - 1);
+        if (host.startsWith("www.")) host = host.substring(4);
+        canonical.append(host);
+        int port = uri.getPort();
+        if (port != -1 && port != 80 && port != 443) {
+            canonical.append(':').append(port);
+        }
+
+        String path = uri.getRawPath() != null ? normalizeEscapes(uri.getRawPath()) : "";
+        path = path.replaceAll("/{2,}", "/");
+        while (path.endsWith("/")) path = path.substring(0, path.length() - 1);
+        canonical.append(path);
+
+        String query = canonicalQuery(uri.getRawQuery());
+        if (!query.isEmpty()) {
+            canonical.append('?').append(query);
+        }
+        // Fragments only count when a single-page app routes by them ("#!/item/5", "#/item/5")
+        String fragment = uri.getRawFragment();
+        if (fragment != null && (fragment.startsWith("!") || fragment.startsWith("/"))) {
+            canonical.append('#').append(normalizeEscapes(fragment));
+        }
+        return canonical.toString();
+    }
+
+    /**
+     * Canonicalizes the link and hashes it to the 64-bit key stored in url_hash, or returns null
+     * for an empty link. Equal canonical forms always share a key; a shared key is confirmed by
+     * comparing the canonical forms, since different ones may collide.
+     */
+    public static Long hash(String url) {
+        String canonical = canonicalize(url);
+        if (canonical == null) {
+            return null;
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(canonical.getBytes(StandardCharsets.UTF_8));
+            long key = 0;
+            for (int i = 0; i < 8; i++) {
+                key = (key << 8) | (digest[i] & 0xff);
+            }
+            return key;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is always available", e);
+        }
+    }
+
+    // Drops empty and tracking parameters and sorts the rest by name; repeated names keep their order.
+    private static String canonicalQuery(String rawQuery) {
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return "";
+        }
+        List<String> kept = new ArrayList<>();
+        for (String parameter : rawQuery.split("&")) {
+            if (parameter.isEmpty()) continue;
+            int equals = parameter.indexOf('=');
+            String name = (equals >= 0 ? parameter.substring(0, equals) : parameter).toLowerCase(Locale.ROOT);
+            if (name.startsWith("utm_") || TRACKING_PARAMETERS.contains(name)) continue;
+            kept.add(normalizeEscapes(parameter));
+        }
+        Collections.sort(kept, (a, b) -> parameterName(a).compareTo(parameterName(b)));
+        return String.join("&", kept);
+    }
+
+    private static String parameterName(String parameter) {
+        int equals = parameter.indexOf('=');
+        return equals >= 0 ? parameter.substring(0, equals) : parameter;
+    }
+
+    // Decodes escapes of letters, digits and "-._~", which mean the same unescaped, and
+    // upper-cases the hex digits of every other escape.
+    private static String normalizeEscapes(String raw) {
+        if (raw.indexOf('%') < 0) {
+            return raw;
+        }
+        StringBuilder out = new StringBuilder(raw.length());
+        for (int i = 0; i < raw.length(); i++) {
+            char c = raw.charAt(i);
+            if (c == '%' && i + 2 < raw.length() && isHex(raw.charAt(i + 1)) && isHex(raw.charAt(i + 2))) {
+                char decoded = (char) Integer.parseInt(raw.substring(i + 1, i + 3), 16);
+                if (decoded < 0x80 && (Character.isLetterOrDigit(decoded) || UNRESERVED.indexOf(decoded) >= 0)) {
+                    out.append(decoded);
+                } else {
+                    out.append('%').append(raw.substring(i + 1, i + 3).toUpperCase(Locale.ROOT));
+                }
+                i += 2;
+            } else {
+                out.append(c);
+            }
+        }
+        return out.toString();
+    }
+
+    private static boolean isHex(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+}
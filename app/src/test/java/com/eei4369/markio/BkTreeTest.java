@@ -0,0 +1,59 @@
+package com.eei4369.markio;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for BkTree.
+ */
+public class BkTreeTest {
+
+    @Test
+    public void search_findsExactlyTheHashesInRange() {
+        Random random = new Random(7);
+        long[] hashes = new long[2000];
+        BkTree tree = new BkTree();
+        for (int i = 0; i < hashes.length; i++) {
+            // Every tenth hash is a near copy of the one before it
+            hashes[i] = i % 10 == 9 ? hashes[i - 1] ^ (1L << random.nextInt(64)) ^ (1L << random.nextInt(64)) : random.nextLong();
+            tree.add(hashes[i], i);
+        }
+        assertEquals(hashes.length, tree.size());
+
+        for (int q = 0; q < 50; q++) {
+            long query = hashes[random.nextInt(hashes.length)] ^ (1L << random.nextInt(64));
+            List<Long> expected = new ArrayList<>();
+            for (int i = 0; i < hashes.length; i++) {
+                if (ImageHash.distance(query, hashes[i]) <= 10) expected.add((long) i);
+            }
+            List<Long> found = new ArrayList<>();
+            for (BkTree.Match match : tree.search(query, 10)) {
+                assertEquals(ImageHash.distance(query, hashes[(int) match.id]), match.distance);
+                found.add(match.id);
+            }
+            Collections.sort(found);
+            assertEquals(expected, found);
+        }
+    }
+
+    @Test
+    public void search_returnsClosestFirstAndKeepsIdenticalHashes() {
+        BkTree tree = new BkTree();
+        tree.add(0b1111L, 1);
+        tree.add(0b0000L, 2);
+        tree.add(0b0111L, 3);
+        tree.add(0b0000L, 4);
+        List<BkTree.Match> matches = tree.search(0b0001L, 2);
+        assertEquals(3, matches.size());
+        assertEquals(1, matches.get(0).distance);
+        assertEquals(2, matches.get(2).distance);
+        assertEquals(3, matches.get(2).id);
+        assertTrue(new BkTree().search(0, 64).isEmpty());
+    }
+}
@@ -0,0 +1,63 @@
+package com.eei4369.markio;
+
+import org.junit.Test;
+
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the location and link lines BookmarkDisplay prepares for list rows.
+ */
+public class BookmarkDisplayTest {
+
+    @Test
+    public void formatLocation_addsTheDistanceInNearbyLists() {
+        assertEquals("Location: Colombo \u00b7 350 m", BookmarkDisplay.formatLocation("Location: Colombo", 350.4));
+        assertEquals("Location: Colombo", BookmarkDisplay.formatLocation("Location: Colombo", -1));
+    }
+
+    @Test
+    public void formatLocation_showsTheDistanceAlone_withoutAnAddress() {
+        assertEquals("350 m", BookmarkDisplay.formatLocation(null, 350));
+        assertEquals("350 m", BookmarkDisplay.formatLocation("", 350));
+        assertEquals("350 m", BookmarkDisplay.formatLocation("Location: Not selected", 350));
+        assertEquals("0 m", BookmarkDisplay.formatLocation(" ", 0));
+    }
+
+    @Test
+    public void formatLocation_isNull_whenThereIsNothingToShow() {
+        assertNull(BookmarkDisplay.formatLocation(null, -1));
+        assertNull(BookmarkDisplay.formatLocation("", -1));
+        assertNull(BookmarkDisplay.formatLocation("Location: 0.000000,0.000000", -1));
+    }
+
+    @Test
+    public void formatLink_addsTheSiteToTheFetchedTitle() {
+        assertEquals("Trail map \u00b7 example.com", BookmarkDisplay.formatLink("https://example.com/maps?id=3", "Trail map"));
+    }
+
+    @Test
+    public void formatLink_showsTheUrl_untilTheTitleIsFetched() {
+        assertEquals("https://example.com/a", BookmarkDisplay.formatLink("https://example.com/a", null));
+        assertEquals("https://example.com/a", BookmarkDisplay.formatLink("https://example.com/a", ""));
+    }
+
+    @Test
+    public void formatLink_fallsBackToTheUrl_withoutAHost() {
+        assertEquals("Notes \u00b7 example.com/a b", BookmarkDisplay.formatLink("example.com/a b", "Notes"));
+    }
+
+    @Test
+    public void formatDistance_switchesToKilometers() {
+        Locale saved = Locale.getDefault();
+        try {
+            Locale.setDefault(Locale.US);
+            assertEquals("999 m", BookmarkDisplay.formatDistance(999.4));
+            assertEquals("1.0 km", BookmarkDisplay.formatDistance(1000));
+            assertEquals("12.3 km", BookmarkDisplay.formatDistance(12_345));
+        } finally {
+            Locale.setDefault(saved);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.eei4369.markio;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the tokenizing and matching rules of BookmarkFuzzy.
+ */
+public class BookmarkFuzzyTest {
+
+    @Test
+    public void addWords_splitsLowerCaseRunsAndDropsSingleLetters() {
+        Set<String> words = new LinkedHashSet<>();
+        BookmarkFuzzy.addWords(words, "Kandy's Temple-of-the Tooth, a 2024 trip");
+        BookmarkFuzzy.addWords(words, "trip, travel");
+        assertEquals(Arrays.asList("kandy", "temple", "of", "the", "tooth", "2024", "trip", "travel"),
+                Arrays.asList(words.toArray()));
+    }
+
+    @Test
+    public void trigrams_includeWordBoundaries() {
+        assertEquals(new LinkedHashSet<>(Arrays.asList(" ca", "cat", "at ")), BookmarkFuzzy.trigrams("cat"));
+        assertEquals(new LinkedHashSet<>(Arrays.asList(" go", "go ")), BookmarkFuzzy.trigrams("go"));
+    }
+
+    @Test
+    public void editDistance_countsAdjacentSwapAsOneEdit() {
+        assertEquals(0, BookmarkFuzzy.editDistance("android", "android", 2));
+        assertEquals(1, BookmarkFuzzy.editDistance("andriod", "android", 2));
+        assertEquals(1, BookmarkFuzzy.editDistance("recipe", "recipes", 2));
+        assertEquals(1, BookmarkFuzzy.editDistance("colombo", "colombu", 2));
+        assertEquals(1, BookmarkFuzzy.editDistance("restaurant", "resturant", 2));
+    }
+
+    @Test
+    public void editDistance_stopsPastTheLimit() {
+        assertEquals(1, BookmarkFuzzy.editDistance("beach", "bench", 0));
+        assertEquals(2, BookmarkFuzzy.editDistance("cat", "elephant", 1));
+        assertEquals(2, BookmarkFuzzy.editDistance("kitten", "sitting", 1));
+    }
+
+    @Test
+    public void maxEdits_allowsMoreTyposInLongerWords() {
+        assertEquals(1, BookmarkFuzzy.maxEdits("cat"));
+        assertEquals(1, BookmarkFuzzy.maxEdits("trip"));
+        assertEquals(2, BookmarkFuzzy.maxEdits("beach"));
+    }
+
+    @Test
+    public void editDistance_findsShortWordTypos() {
+        assertEquals(1, BookmarkFuzzy.editDistance("cot", "cat", 1));
+        assertEquals(1, BookmarkFuzzy.editDistance("cta", "cat", 1));
+        assertEquals(1, BookmarkFuzzy.editDistance("tirp", "trip", 1));
+        assertEquals(1, BookmarkFuzzy.editDistance("og", "go", 1));
+    }
+
+    @Test
+    public void minSharedTrigrams_isZero_whenATypoCanChangeEveryTrigram() {
+        // The typos the trigram index alone would never find
+        assertEquals(0, shared("cot", "cat"));
+        assertEquals(0, shared("tirp", "trip"));
+        assertEquals(0, BookmarkFuzzy.minSharedTrigrams("cot"));
+        assertEquals(0, BookmarkFuzzy.minSharedTrigrams("tirp"));
+        assertEquals(1, BookmarkFuzzy.minSharedTrigrams("beach"));
+        assertEquals(2, BookmarkFuzzy.minSharedTrigrams("restaurant"));
+    }
+
+    @Test
+    public void minSharedTrigrams_neverRejectsAWordOneTypoAway() {
+        for (String word : new String[]{"go", "cat", "trip", "beach", "andriod", "colombo", "restaurant", "photography"}) {
+            int minShared = BookmarkFuzzy.minSharedTrigrams(word);
+            for (String typo : oneTypoAway(word)) {
+                assertTrue(word + " -> " + typo, shared(word, typo) >= minShared);
+            }
+        }
+    }
+
+    @Test
+    public void minSharedTrigrams_neverRejectsAWordTwoTyposAway_fromNineLettersOn() {
+        for (String word : new String[]{"restaurant", "photography", "mountains"}) {
+            int minShared = BookmarkFuzzy.minSharedTrigrams(word);
+            for (String typo : oneTypoAway(word)) {
+                for (String second : oneTypoAway(typo)) {
+                    assertTrue(word + " -> " + second, shared(word, second) >= minShared);
+                }
+            }
+        }
+    }
+
+    private static int shared(String a, String b) {
+        Set<String> grams = new HashSet<>(BookmarkFuzzy.trigrams(a));
+        grams.retainAll(BookmarkFuzzy.trigrams(b));
+        return grams.size();
+    }
+
+    // Every word one insertion, deletion, substitution or adjacent swap away, over a-z.
+    private static Set<String> oneTypoAway(String word) {
+        Set<String> typos = new HashSet<>();
+        for (int i = 0; i <= word.length(); i++) {
+            for (char c = 'a'; c <= 'z'; c++) {
+                typos.add(word.substring(0, i) + c + word.substring(i));
+                if (i < word.length()) typos.add(word.substring(0, i) + c + word.substring(i + 1));
+            }
+            if (i < word.length()) typos.add(word.substring(0, i) + word.substring(i + 1));
+            if (i + 1 < word.length()) {
+                typos.add(word.substring(0, i) + word.charAt(i + 1) + word.charAt(i) + word.substring(i + 2));
+            }
+        }
+        typos.remove(word);
+        return typos;
+    }
+}
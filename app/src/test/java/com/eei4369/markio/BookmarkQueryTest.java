@@ -0,0 +1,108 @@
+package com.eei4369.markio;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the bounding box BookmarkQuery puts around a nearby search.
+ */
+public class BookmarkQueryTest {
+
+    // The conditions and arguments of one box.
+    private static final class Box {
+        final List<String> parts = new ArrayList<>();
+        final List<String> args = new ArrayList<>();
+
+        Box(GeoPoint center, double radiusMeters) {
+            BookmarkQuery.appendNearbyBox(parts, args, center, radiusMeters);
+        }
+
+        double arg(int index) {
+            return Double.parseDouble(args.get(index));
+        }
+
+        boolean crossesAntimeridian() {
+            return parts.size() == 2 && parts.get(1).contains(" OR ");
+        }
+
+        // Evaluates the conditions as SQLite would for a row at point.
+        boolean contains(GeoPoint point) {
+            if (point.latitude < arg(0) || point.latitude > arg(1)) return false;
+            if (parts.size() == 1) return true;
+            double west = arg(2);
+            double east = arg(3);
+            return crossesAntimeridian()
+                    ? point.longitude >= west || point.longitude <= east
+                    : point.longitude >= west && point.longitude <= east;
+        }
+    }
+
+    @Test
+    public void box_isLatitudeAndLongitudeRanges_aroundTheCenter() {
+        Box box = new Box(new GeoPoint(6.9271, 79.8612), 1000);
+
+        assertEquals(2, box.parts.size());
+        assertEquals("b.latitude BETWEEN ? AND ?", box.parts.get(0));
+        assertEquals("b.longitude BETWEEN ? AND ?", box.parts.get(1));
+        assertEquals(6.9271 - GeoPoint.latitudeSpan(1000), box.arg(0), 1e-9);
+        assertEquals(6.9271 + GeoPoint.latitudeSpan(1000), box.arg(1), 1e-9);
+        assertTrue(box.arg(2) < 79.8612 && box.arg(3) > 79.8612);
+        assertFalse(box.contains(new GeoPoint(6.95, 79.8612))); // 2.5 km north
+    }
+
+    @Test
+    public void box_splitsInTwo_whenItCrossesTheAntimeridian() {
+        // Taveuni, Fiji, right next to 180 degrees
+        Box east = new Box(new GeoPoint(-16.8, 179.9), 50_000);
+        assertTrue(east.crossesAntimeridian());
+        assertTrue(east.arg(2) > 179 && east.arg(2) < 179.9); // West edge, east of it the date line
+        assertTrue(east.arg(3) > -180 && east.arg(3) < -179.5); // East edge, wrapped
+        assertTrue(east.contains(new GeoPoint(-16.8, 179.99)));
+        assertTrue(east.contains(new GeoPoint(-16.8, -179.8)));
+        assertFalse(east.contains(new GeoPoint(-16.8, 0)));
+
+        Box west = new Box(new GeoPoint(-16.8, -179.9), 50_000);
+        assertTrue(west.crossesAntimeridian());
+        assertTrue(west.contains(new GeoPoint(-16.8, 179.8)));
+        assertTrue(west.contains(new GeoPoint(-16.8, -179.5)));
+        assertFalse(west.contains(new GeoPoint(-16.8, -170)));
+    }
+
+    @Test
+    public void box_coversEveryLongitude_whenTheCircleReachesAPole() {
+        Box box = new Box(new GeoPoint(89.9, 30), 50_000);
+
+        assertEquals(1, box.parts.size());
+        assertEquals(90, box.arg(1), 0); // Clamped
+        assertTrue(box.contains(new GeoPoint(89.8, -150)));
+    }
+
+    @Test
+    public void box_containsEveryPointWithinTheRadius() {
+        Random random = new Random(42);
+        double[] centerLatitudes = {0, 45, -60, 80, -85};
+        double[] centerLongitudes = {0, 100, 179.95, -179.95};
+        for (double latitude : centerLatitudes) {
+            for (double longitude : centerLongitudes) {
+                GeoPoint center = new GeoPoint(latitude, longitude);
+                double radius = 1000 + random.nextDouble() * 200_000;
+                Box box = new Box(center, radius);
+                double degrees = GeoPoint.latitudeSpan(radius) * 4;
+                for (int i = 0; i < 2000; i++) {
+                    double pointLatitude = Math.max(-90, Math.min(90, latitude + (random.nextDouble() * 2 - 1) * degrees));
+                    double pointLongitude = longitude + (random.nextDouble() * 2 - 1) * degrees * 10;
+                    pointLongitude = ((pointLongitude + 540) % 360) - 180;
+                    GeoPoint point = new GeoPoint(pointLatitude, pointLongitude);
+                    if (center.distanceTo(point) <= radius) {
+                        assertTrue("Missed " + point.format() + " around " + center.format(), box.contains(point));
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.eei4369.markio;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for ContentAddressedFiles.
+ */
+public class ContentAddressedFilesTest {
+
+    private static final String ABC_SHA256 = "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad";
+
+    private File storeDir;
+    private ContentAddressedFiles files;
+
+    @Before
+    public void setUp() throws IOException {
+        storeDir = Files.createTempDirectory("attachments").toFile();
+        files = new ContentAddressedFiles(storeDir);
+    }
+
+    private File sourceFile(byte[] content) throws IOException {
+        File file = File.createTempFile("source", ".bin");
+        Files.write(file.toPath(), content);
+        return file;
+    }
+
+    private ContentAddressedFiles.Stored storeFile(File source, String extension) throws IOException {
+        try (FileInputStream in = new FileInputStream(source)) {
+            return files.store(in.getChannel(), extension, null);
+        }
+    }
+
+    @Test
+    public void regularFile_isStoredUnderItsHash() throws IOException {
+        ContentAddressedFiles.Stored stored = storeFile(sourceFile("abc".getBytes(StandardCharsets.US_ASCII)), "txt");
+        assertEquals(ABC_SHA256, stored.sha256);
+        assertEquals(new File(new File(storeDir, "ba"), ABC_SHA256 + ".txt"), stored.file);
+        assertEquals("abc", new String(Files.readAllBytes(stored.file.toPath()), StandardCharsets.US_ASCII));
+        assertFalse(stored.deduplicated);
+    }
+
+    @Test
+    public void identicalContent_isStoredOnce() throws IOException {
+        byte[] content = new byte[3 * 1024 * 1024];
+        new Random(42).nextBytes(content);
+        ContentAddressedFiles.Stored first = storeFile(sourceFile(content), "jpg");
+        ContentAddressedFiles.Stored second = storeFile(sourceFile(content), "jpeg");
+        ContentAddressedFiles.Stored streamed = files.store(Channels.newChannel(new ByteArrayInputStream(content)), null, null);
+
+        assertEquals(first.file, second.file);
+        assertEquals(first.file, streamed.file);
+        assertTrue(second.deduplicated);
+        assertTrue(streamed.deduplicated);
+        assertEquals(content.length, streamed.size);
+        assertEquals(1, new File(storeDir, first.sha256.substring(0, 2)).list().length);
+        assertEquals(0, storeDir.list((dir, name) -> name.endsWith(".tmp")).length); // No leftover temporary files
+    }
+
+    @Test
+    public void stream_isHashedWhileCopied() throws IOException {
+        byte[] content = "abc".getBytes(StandardCharsets.US_ASCII);
+        ContentAddressedFiles.Stored stored = files.store(Channels.newChannel(new ByteArrayInputStream(content)), null, null);
+        assertEquals(ABC_SHA256, stored.sha256);
+        assertArrayEquals(content, Files.readAllBytes(stored.file.toPath()));
+        assertEquals(stored.file, files.find(ABC_SHA256));
+    }
+
+    @Test
+    public void progress_coversHashingAndCopying() throws IOException {
+        byte[] content = new byte[1024 * 1024];
+        List<long[]> updates = new ArrayList<>();
+        try (FileInputStream in = new FileInputStream(sourceFile(content))) {
+            files.store(in.getChannel(), null, (done, total) -> updates.add(new long[]{done, total}));
+        }
+        long[] last = updates.get(updates.size() - 1);
+        assertEquals(2L * content.length, last[0]);
+        assertEquals(2L * content.length, last[1]);
+        for (int i = 1; i < updates.size(); i++) {
+            assertTrue(updates.get(i)[0] > updates.get(i - 1)[0]);
+        }
+    }
+}
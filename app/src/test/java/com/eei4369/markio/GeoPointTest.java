@@ -0,0 +1,87 @@
+package com.eei4369.markio;
+
+import org.junit.Test;
+
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for GeoPoint.
+ */
+public class GeoPointTest {
+
+    private static final double ONE_DEGREE_METERS = 111_195; // Of latitude, or of longitude on the equator
+
+    @Test
+    public void parse_readsStoredLocations() {
+        GeoPoint point = GeoPoint.parse("52.520008,13.404954");
+        assertEquals(52.520008, point.latitude, 1e-9);
+        assertEquals(13.404954, point.longitude, 1e-9);
+
+        GeoPoint spaced = GeoPoint.parse(" -33.8688 , 151.2093 ");
+        assertEquals(-33.8688, spaced.latitude, 1e-9);
+        assertEquals(151.2093, spaced.longitude, 1e-9);
+    }
+
+    @Test
+    public void parse_readsTheDecimalCommaForm() {
+        GeoPoint point = GeoPoint.parse("52,520008,13,404954");
+        assertEquals(52.520008, point.latitude, 1e-9);
+        assertEquals(13.404954, point.longitude, 1e-9);
+    }
+
+    @Test
+    public void parse_rejectsMissingMalformedAndOutOfRangeValues() {
+        assertNull(GeoPoint.parse(null));
+        assertNull(GeoPoint.parse(""));
+        assertNull(GeoPoint.parse("0.000000,0.000000")); // Placeholder for "no location"
+        assertNull(GeoPoint.parse("52.52"));
+        assertNull(GeoPoint.parse("1,2,3"));
+        assertNull(GeoPoint.parse("north,east"));
+        assertNull(GeoPoint.parse("91,0"));
+        assertNull(GeoPoint.parse("0,180.5"));
+    }
+
+    @Test
+    public void format_parsesBack_whateverTheDefaultLocale() {
+        Locale saved = Locale.getDefault();
+        try {
+            Locale.setDefault(Locale.GERMANY); // Decimal comma
+            GeoPoint point = new GeoPoint(6.927079, 79.861244);
+            assertEquals("6.927079,79.861244", point.format());
+            GeoPoint parsed = GeoPoint.parse(point.format());
+            assertEquals(point.latitude, parsed.latitude, 1e-9);
+            assertEquals(point.longitude, parsed.longitude, 1e-9);
+        } finally {
+            Locale.setDefault(saved);
+        }
+    }
+
+    @Test
+    public void distanceTo_measuresAlongTheGreatCircle() {
+        assertEquals(ONE_DEGREE_METERS, new GeoPoint(0, 0).distanceTo(new GeoPoint(1, 0)), 1);
+        assertEquals(ONE_DEGREE_METERS, new GeoPoint(0, 0).distanceTo(new GeoPoint(0, 1)), 1);
+        // The short way across the antimeridian, not around the world
+        assertEquals(ONE_DEGREE_METERS, new GeoPoint(0, 179.5).distanceTo(new GeoPoint(0, -179.5)), 1);
+        // A degree of longitude shrinks with the cosine of the latitude
+        assertEquals(ONE_DEGREE_METERS / 2, new GeoPoint(60, 10).distanceTo(new GeoPoint(60, 11)), 50);
+        assertEquals(0, new GeoPoint(7.29, 80.63).distanceTo(new GeoPoint(7.29, 80.63)), 1e-9);
+    }
+
+    @Test
+    public void spans_coverTheRadius() {
+        assertEquals(1, GeoPoint.latitudeSpan(ONE_DEGREE_METERS), 1e-4);
+        assertEquals(1, new GeoPoint(0, 0).longitudeSpan(ONE_DEGREE_METERS), 1e-3);
+        // At 60 degrees a degree of longitude is half as long, so the box is twice as wide
+        assertEquals(2, new GeoPoint(60, 0).longitudeSpan(ONE_DEGREE_METERS), 0.01);
+        assertEquals(2, new GeoPoint(-60, 0).longitudeSpan(ONE_DEGREE_METERS), 0.01);
+    }
+
+    @Test
+    public void longitudeSpan_isEverything_whenTheCircleReachesAPole() {
+        assertEquals(180, new GeoPoint(89.5, 0).longitudeSpan(ONE_DEGREE_METERS), 0);
+        assertEquals(180, new GeoPoint(-89.5, 0).longitudeSpan(ONE_DEGREE_METERS), 0);
+        assertTrue(new GeoPoint(88, 0).longitudeSpan(ONE_DEGREE_METERS) < 180);
+    }
+}
@@ -0,0 +1,122 @@
+package com.eei4369.markio;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for GeocodingService, using a fake backend in place of the platform Geocoder.
+ */
+public class GeocodingServiceTest {
+
+    // Counts calls and can hold them open so concurrent requests pile up behind the first one.
+    private static class FakeBackend implements GeocoderBackend {
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public String reverseGeocode(double latitude, double longitude) throws IOException {
+            calls.incrementAndGet();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            return "1 Main Street, Colombo";
+        }
+    }
+
+    private File cacheDir;
+
+    @Before
+    public void setUp() throws IOException {
+        cacheDir = Files.createTempDirectory("geocode").toFile();
+    }
+
+    private GeocodingService newService(GeocoderBackend backend, ExecutorService ioExecutor) {
+        return new GeocodingService(backend, new GeocodeDiskCache(cacheDir), 16,
+                GeocodingService.DEFAULT_GRID_DEGREES, 0, ioExecutor, Runnable::run);
+    }
+
+    @Test
+    public void thousandBookmarksAtOneLocation_makeSingleBackendCall() throws Exception {
+        FakeBackend backend = new FakeBackend();
+        ExecutorService ioExecutor = Executors.newFixedThreadPool(4);
+        GeocodingService service = newService(backend, ioExecutor);
+
+        CountDownLatch done = new CountDownLatch(1000);
+        AtomicInteger resolved = new AtomicInteger();
+        for (int i = 0; i < 1000; i++) {
+            // Tiny GPS jitter that stays inside one grid cell
+            double jitter = (i % 10) * 0.00001;
+            service.lookup(6.927079 + jitter, 79.861244 - jitter, new GeocodingService.Callback() {
+                @Override
+                public void onAddressResolved(String address) {
+                    if ("1 Main Street, Colombo".equals(address)) resolved.incrementAndGet();
+                    done.countDown();
+                }
+
+                @Override
+                public void onLookupFailed(IOException error) {
+                    done.countDown();
+                }
+            });
+        }
+        backend.release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        ioExecutor.shutdown();
+
+        assertEquals(1, backend.calls.get());
+        assertEquals(1000, resolved.get());
+        GeocodingService.Stats stats = service.getStats();
+        assertEquals(1, stats.misses());
+        assertEquals(999, stats.coalesced + stats.memoryHits);
+    }
+
+    @Test
+    public void diskCache_servesNewServiceInstanceWithoutBackendCall() throws Exception {
+        FakeBackend backend = new FakeBackend();
+        backend.release.countDown();
+        ExecutorService ioExecutor = Executors.newSingleThreadExecutor();
+        assertEquals("1 Main Street, Colombo", newService(backend, ioExecutor).lookupBlocking(6.9271, 79.8612));
+
+        // A fresh service (empty memory cache) simulates an app restart
+        GeocodingService restarted = newService(backend, ioExecutor);
+        assertEquals("1 Main Street, Colombo", restarted.lookupBlocking(6.9271, 79.8612));
+        ioExecutor.shutdown();
+
+        assertEquals(1, backend.calls.get());
+        assertEquals(1, restarted.getStats().diskHits);
+        assertEquals(0, restarted.getStats().misses());
+    }
+
+    @Test
+    public void failedLookup_isNotCached() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        GeocoderBackend failing = (latitude, longitude) -> {
+            if (calls.incrementAndGet() == 1) throw new IOException("offline");
+            return "Kandy";
+        };
+        ExecutorService ioExecutor = Executors.newSingleThreadExecutor();
+        GeocodingService service = newService(failing, ioExecutor);
+        try {
+            service.lookupBlocking(7.2906, 80.6337);
+            fail("Expected the first lookup to fail");
+        } catch (IOException expected) {
+            // Offline on the first attempt
+        }
+        assertEquals("Kandy", service.lookupBlocking(7.2906, 80.6337));
+        ioExecutor.shutdown();
+        assertEquals(2, calls.get());
+    }
+}
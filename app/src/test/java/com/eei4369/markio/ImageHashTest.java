@@ -0,0 +1,51 @@
+package com.eei4369.markio;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for ImageHash.
+ */
+public class ImageHashTest {
+
+    // A 9 x 8 grey image whose brightness follows the given function of (x, y).
+    private interface Shade {
+        int at(int x, int y);
+    }
+
+    private static int[] image(Shade shade) {
+        int[] pixels = new int[ImageHash.GRID_WIDTH * ImageHash.GRID_HEIGHT];
+        for (int y = 0; y < ImageHash.GRID_HEIGHT; y++) {
+            for (int x = 0; x < ImageHash.GRID_WIDTH; x++) {
+                int v = Math.max(0, Math.min(255, shade.at(x, y)));
+                pixels[y * ImageHash.GRID_WIDTH + x] = 0xff000000 | (v << 16) | (v << 8) | v;
+            }
+        }
+        return pixels;
+    }
+
+    @Test
+    public void dHash_setsBitWhereBrightnessFallsToTheRight() {
+        assertEquals(-1L, ImageHash.dHash(image((x, y) -> 255 - 20 * x)));
+        assertEquals(0L, ImageHash.dHash(image((x, y) -> 20 * x)));
+        // Top row falls, the rest rises: only the first 8 bits are set
+        assertEquals(0xffL << 56, ImageHash.dHash(image((x, y) -> y == 0 ? 255 - 20 * x : 20 * x)));
+    }
+
+    @Test
+    public void brightenedCopy_staysWithinSimilarDistance() {
+        Shade photo = (x, y) -> (int) (128 + 90 * Math.sin(x * 1.3 + y * 0.7));
+        long original = ImageHash.dHash(image(photo));
+        long brighter = ImageHash.dHash(image((x, y) -> photo.at(x, y) * 11 / 10 + 12));
+        long other = ImageHash.dHash(image((x, y) -> (int) (128 + 90 * Math.cos(x * 0.4 - y * 1.9))));
+
+        assertTrue(ImageHash.distance(original, brighter) <= ImageHash.SIMILAR_DISTANCE);
+        assertTrue(ImageHash.distance(original, other) > ImageHash.SIMILAR_DISTANCE);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void dHash_rejectsUnscaledImages() {
+        ImageHash.dHash(new int[100]);
+    }
+}
@@ -0,0 +1,56 @@
+package com.eei4369.markio;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for LatencyRecorder.
+ */
+public class LatencyRecorderTest {
+
+    @Test
+    public void noSamples_giveZeroes() {
+        LatencyRecorder.Stats stats = new LatencyRecorder(8).getStats();
+        assertEquals(0, stats.count);
+        assertEquals(0, stats.medianMillis);
+        assertEquals(0, stats.p95Millis);
+        assertEquals(0, stats.maxMillis);
+    }
+
+    @Test
+    public void percentiles_followTheSortedSamples() {
+        LatencyRecorder recorder = new LatencyRecorder(100);
+        for (long millis = 100; millis >= 1; millis--) {
+            recorder.record(millis); // Recorded out of order
+        }
+        LatencyRecorder.Stats stats = recorder.getStats();
+        assertEquals(100, stats.count);
+        assertEquals(51, stats.medianMillis);
+        assertEquals(95, stats.p95Millis);
+        assertEquals(100, stats.maxMillis);
+    }
+
+    @Test
+    public void oneSample_isEveryPercentile() {
+        LatencyRecorder recorder = new LatencyRecorder(8);
+        recorder.record(42);
+        LatencyRecorder.Stats stats = recorder.getStats();
+        assertEquals(42, stats.medianMillis);
+        assertEquals(42, stats.p95Millis);
+        assertEquals(42, stats.maxMillis);
+    }
+
+    @Test
+    public void fullBuffer_keepsOnlyTheLatestSamples() {
+        LatencyRecorder recorder = new LatencyRecorder(4);
+        recorder.record(1000); // Overwritten by the four below
+        for (int i = 0; i < 4; i++) {
+            recorder.record(10);
+        }
+        LatencyRecorder.Stats stats = recorder.getStats();
+        assertEquals(5, stats.count);
+        assertEquals(10, stats.maxMillis);
+        assertEquals(10, stats.p95Millis);
+    }
+}
@@ -0,0 +1,218 @@
+package com.eei4369.markio;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for LinkMetadataFetcher, against a local HTTP server standing in for the web.
+ * The server answers on 127.0.0.1 and localhost, which the fetcher treats as two hosts.
+ */
+public class LinkMetadataFetcherTest {
+
+    private static final String PAGE = "<html><head><title>Page %s</title>" +
+            "<meta name=\"description\" content=\"About %s\"></head><body>" + new String(new char[2000]).replace('\0', 'x') +
+            "</body></html>";
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger failuresLeft = new AtomicInteger(); // Requests to answer with 503 before succeeding
+    private volatile int failureStatus = 503;
+    private volatile long delayMillis = 0;
+
+    // Concurrency seen by the server, overall and per Host header
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger maxActive = new AtomicInteger();
+    private final Map<String, AtomicInteger> activePerHost = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> maxActivePerHost = new ConcurrentHashMap<>();
+
+    @Before
+    public void setUp() throws IOException {
+        // Without TCP_NODELAY the JDK server's small writes wait on delayed ACKs, ~40 ms per response.
+        // Read once per JVM, so it only takes effect if no other test has started a server before.
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::handle);
+        serverExecutor = Executors.newFixedThreadPool(16);
+        server.setExecutor(serverExecutor);
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        String host = exchange.getRequestHeaders().getFirst("Host").split(":")[0];
+        int now = active.incrementAndGet();
+        int nowOnHost = activePerHost.computeIfAbsent(host, h -> new AtomicInteger()).incrementAndGet();
+        maxActive.accumulateAndGet(now, Math::max);
+        maxActivePerHost.computeIfAbsent(host, h -> new AtomicInteger()).accumulateAndGet(nowOnHost, Math::max);
+        try {
+            if (delayMillis > 0) {
+                Thread.sleep(delayMillis);
+            }
+            if (failuresLeft.getAndDecrement() > 0) {
+                exchange.sendResponseHeaders(failureStatus, -1);
+                return;
+            }
+            String path = exchange.getRequestURI().getPath();
+            String etag = "\"" + path.hashCode() + "\"";
+            exchange.getResponseHeaders().set("ETag", etag);
+            if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+            byte[] body = String.format(PAGE, path, path).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            active.decrementAndGet();
+            activePerHost.get(host).decrementAndGet();
+            exchange.close();
+        }
+    }
+
+    private String url(String host, String path) {
+        return "http://" + host + ":" + server.getAddress().getPort() + path;
+    }
+
+    @Test
+    public void page_isParsedAndItsValidatorsKept() throws Exception {
+        LinkMetadataFetcher fetcher = new LinkMetadataFetcher(4, 2, 3, 10);
+        LinkMetadataFetcher.Result result = fetcher.fetch(url("127.0.0.1", "/a"), null, null).get(5, TimeUnit.SECONDS);
+
+        assertEquals(LinkMetadataFetcher.Status.UPDATED, result.status);
+        assertEquals("Page /a", result.metadata.title);
+        assertEquals("About /a", result.metadata.description);
+        assertEquals(url("127.0.0.1", "/favicon.ico"), result.metadata.faviconUrl);
+        assertEquals("\"" + "/a".hashCode() + "\"", result.etag);
+    }
+
+    @Test
+    public void unchangedPage_comesBackNotModified() throws Exception {
+        LinkMetadataFetcher fetcher = new LinkMetadataFetcher(4, 2, 3, 10);
+        String etag = fetcher.fetch(url("127.0.0.1", "/a"), null, null).get(5, TimeUnit.SECONDS).etag;
+
+        LinkMetadataFetcher.Result result = fetcher.fetch(url("127.0.0.1", "/a"), etag, null).get(5, TimeUnit.SECONDS);
+
+        assertEquals(LinkMetadataFetcher.Status.NOT_MODIFIED, result.status);
+        assertNull(result.metadata);
+        assertEquals(etag, result.etag);
+        assertEquals(1, fetcher.getStats().notModified);
+    }
+
+    @Test
+    public void serverErrors_areRetriedWithBackoff() throws Exception {
+        LinkMetadataFetcher fetcher = new LinkMetadataFetcher(4, 2, 3, 20);
+        failuresLeft.set(2);
+        long start = System.nanoTime();
+
+        LinkMetadataFetcher.Result result = fetcher.fetch(url("127.0.0.1", "/a"), null, null).get(5, TimeUnit.SECONDS);
+
+        assertEquals(LinkMetadataFetcher.Status.UPDATED, result.status);
+        assertEquals(3, result.attempts);
+        assertEquals(2, fetcher.getStats().retries);
+        // At least half of each step: 10 ms after the first failure, 20 ms after the second
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 30);
+    }
+
+    @Test
+    public void persistentServerError_failsForLaterAfterMaxAttempts() throws Exception {
+        LinkMetadataFetcher fetcher = new LinkMetadataFetcher(4, 2, 3, 1);
+        failuresLeft.set(Integer.MAX_VALUE);
+
+        LinkMetadataFetcher.Result result = fetcher.fetch(url("127.0.0.1", "/a"), null, null).get(5, TimeUnit.SECONDS);
+
+        assertEquals(LinkMetadataFetcher.Status.FAILED, result.status);
+        assertTrue(result.retryLater);
+        assertEquals(3, requests.get());
+    }
+
+    @Test
+    public void clientError_failsWithoutRetry() throws Exception {
+        LinkMetadataFetcher fetcher = new LinkMetadataFetcher(4, 2, 3, 1);
+        failureStatus = 404;
+        failuresLeft.set(1);
+
+        LinkMetadataFetcher.Result result = fetcher.fetch(url("127.0.0.1", "/gone"), null, null).get(5, TimeUnit.SECONDS);
+
+        assertEquals(LinkMetadataFetcher.Status.FAILED, result.status);
+        assertFalse(result.retryLater);
+        assertEquals(1, result.attempts);
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void refusedConnection_failsWithoutRetry() throws Exception {
+        LinkMetadataFetcher fetcher = new LinkMetadataFetcher(4, 2, 3, 1);
+        int port = server.getAddress().getPort();
+        server.stop(0); // Nothing listens on the port any more
+
+        LinkMetadataFetcher.Result result = fetcher.fetch("http://127.0.0.1:" + port + "/a", null, null).get(5, TimeUnit.SECONDS);
+
+        assertEquals(LinkMetadataFetcher.Status.FAILED, result.status);
+        assertFalse(result.retryLater);
+        assertEquals(1, result.attempts);
+    }
+
+    @Test
+    public void thousandLinks_stayWithinConnectionAndPerHostLimits() throws Exception {
+        int maxConnections = 8;
+        int maxPerHost = 5;
+        LinkMetadataFetcher fetcher = new LinkMetadataFetcher(maxConnections, maxPerHost, 3, 10);
+        delayMillis = 2; // Long enough for requests to overlap
+
+        long start = System.nanoTime();
+        List<CompletableFuture<LinkMetadataFetcher.Result>> results = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            String host = i % 2 == 0 ? "127.0.0.1" : "localhost";
+            results.add(fetcher.fetch(url(host, "/page/" + i), null, null));
+        }
+        CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).get(60, TimeUnit.SECONDS);
+        long elapsedMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        for (int i = 0; i < results.size(); i++) {
+            LinkMetadataFetcher.Result result = results.get(i).get();
+            assertEquals(LinkMetadataFetcher.Status.UPDATED, result.status);
+            assertEquals("Page /page/" + i, result.metadata.title);
+        }
+        assertEquals(1000, requests.get());
+        assertTrue("overall " + maxActive.get(), maxActive.get() <= maxConnections);
+        assertTrue("overall " + maxActive.get(), maxActive.get() > 1);
+        for (Map.Entry<String, AtomicInteger> host : maxActivePerHost.entrySet()) {
+            assertTrue(host.getKey() + " " + host.getValue(), host.getValue().get() <= maxPerHost);
+        }
+        System.out.println("LinkMetadataFetcher: 1000 links in " + elapsedMillis + " ms, " +
+                (1000 * 1000L / elapsedMillis) + " links/s, at most " + maxActive.get() + " connections");
+    }
+}
@@ -0,0 +1,64 @@
+package com.eei4369.markio;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for LinkMetadata.parse.
+ */
+public class LinkMetadataTest {
+
+    private static final String PAGE = "https://example.com/articles/one.html";
+
+    @Test
+    public void parse_prefersOpenGraphAndResolvesRelativeUrls() {
+        String html = "<html><head>" +
+                "<title>Plain title</title>" +
+                "<meta property=\"og:title\" content=\"Shared &amp; titled\">" +
+                "<meta name='description' content='A short   summary.'>" +
+                "<meta property=og:image content=/img/cover.jpg>" +
+                "<link rel=\"icon\" href=\"favicon-16.png\" sizes=\"16x16\">" +
+                "<link rel=\"apple-touch-icon\" href=\"/touch.png\">" +
+                "</head><body></body></html>";
+
+        LinkMetadata metadata = LinkMetadata.parse(html, PAGE);
+
+        assertEquals("Shared & titled", metadata.title);
+        assertEquals("A short summary.", metadata.description);
+        assertEquals("https://example.com/img/cover.jpg", metadata.imageUrl);
+        assertEquals("https://example.com/touch.png", metadata.faviconUrl);
+    }
+
+    @Test
+    public void parse_fallsBackToTitleElementAndDefaultIcon() {
+        LinkMetadata metadata = LinkMetadata.parse("<HEAD><TITLE>\n  Caf&#233; &#x2014; menu\n</TITLE></HEAD>", PAGE);
+
+        assertEquals("Café — menu", metadata.title);
+        assertNull(metadata.description);
+        assertNull(metadata.imageUrl);
+        assertEquals("https://example.com/favicon.ico", metadata.faviconUrl);
+    }
+
+    @Test
+    public void parse_resolvesAgainstBaseElementAndIgnoresNonHttpUrls() {
+        String html = "<base href=\"https://cdn.example.org/site/\">" +
+                "<link rel=\"shortcut icon\" href=\"icons/fav.ico\">" +
+                "<meta property=\"og:image\" content=\"javascript:alert(1)\">";
+
+        LinkMetadata metadata = LinkMetadata.parse(html, PAGE);
+
+        assertEquals("https://cdn.example.org/site/icons/fav.ico", metadata.faviconUrl);
+        assertNull(metadata.imageUrl);
+    }
+
+    @Test
+    public void parse_shortensLongDescriptions() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 100; i++) text.append("word ");
+        LinkMetadata metadata = LinkMetadata.parse("<meta name=\"description\" content=\"" + text + "\">", PAGE);
+
+        assertTrue(metadata.description.length() <= 300);
+        assertTrue(metadata.description.endsWith("…"));
+    }
+}
@@ -0,0 +1,161 @@
+package com.eei4369.markio;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for MapPreviewCache, with a local HTTP server standing in for Static Maps.
+ */
+public class MapPreviewCacheTest {
+
+    private static final int IMAGE_BYTES = 1000;
+
+    private HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final List<String> queries = new ArrayList<>();
+    private volatile int status = 200;
+    private volatile CountDownLatch release = new CountDownLatch(0); // Holds responses open while set
+
+    private File cacheDir;
+    private ExecutorService ioExecutor;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/staticmap", exchange -> {
+            requests.incrementAndGet();
+            synchronized (queries) {
+                queries.add(exchange.getRequestURI().getRawQuery());
+            }
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] body = new byte[IMAGE_BYTES];
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.setExecutor(Executors.newFixedThreadPool(4));
+        server.start();
+        cacheDir = Files.createTempDirectory("map_previews").toFile();
+        ioExecutor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        ioExecutor.shutdownNow();
+    }
+
+    private MapPreviewCache newCache(long maxBytes) {
+        String baseUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/staticmap";
+        return new MapPreviewCache(cacheDir, maxBytes, baseUrl, "test-key", ioExecutor, Runnable::run);
+    }
+
+    private File fetch(MapPreviewCache cache, double latitude, double longitude) throws IOException {
+        return cache.getBlocking(new GeoPoint(latitude, longitude), 15, 400, 200);
+    }
+
+    @Test
+    public void nearbyConcurrentRequests_shareOneDownload() throws Exception {
+        MapPreviewCache cache = newCache(1 << 20);
+        release = new CountDownLatch(1);
+        ExecutorService callers = Executors.newFixedThreadPool(8);
+        List<Future<File>> results = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            // GPS jitter of under a meter stays in one cell
+            double jitter = (i % 5) * 0.000001;
+            results.add(callers.submit(() -> fetch(cache, 6.927079 + jitter, 79.861244 - jitter)));
+        }
+        Thread.sleep(200); // Let every request reach the cache before the response comes back
+        release.countDown();
+        File first = results.get(0).get(5, TimeUnit.SECONDS);
+        for (Future<File> result : results) {
+            assertEquals(first, result.get(5, TimeUnit.SECONDS));
+        }
+        callers.shutdown();
+
+        assertEquals(1, requests.get());
+        assertEquals(1, cache.getStats().downloads);
+        assertEquals(IMAGE_BYTES, first.length());
+    }
+
+    @Test
+    public void cachedPreview_isServedOfflineAfterRestart() throws Exception {
+        File downloaded = fetch(newCache(1 << 20), 52.520008, 13.404954);
+        server.stop(0); // Offline from here on
+
+        MapPreviewCache restarted = newCache(1 << 20);
+        assertEquals(downloaded, fetch(restarted, 52.520008, 13.404954));
+        assertEquals(1, restarted.getStats().diskHits);
+        assertEquals(0, restarted.getStats().downloads);
+    }
+
+    @Test
+    public void requestUrl_usesCellCenterWithDecimalPoint() throws Exception {
+        fetch(newCache(1 << 20), 52.520008, 13.404954);
+        String query = queries.get(0);
+        assertTrue(query, query.contains("zoom=15&size=400x200"));
+        assertTrue(query, query.contains("key=test-key"));
+        double grid = MapPreviewCache.gridDegrees(15);
+        String center = new GeoPoint(Math.round(52.520008 / grid) * grid, Math.round(13.404954 / grid) * grid).format();
+        assertTrue(query, query.contains("center=" + center));
+    }
+
+    @Test
+    public void overBudget_evictsLeastRecentlyUsed() throws Exception {
+        MapPreviewCache cache = newCache(2 * IMAGE_BYTES + IMAGE_BYTES / 2);
+        File colombo = fetch(cache, 6.9271, 79.8612);
+        File kandy = fetch(cache, 7.2906, 80.6337);
+        fetch(cache, 6.9271, 79.8612); // Colombo is now the most recently used
+        File galle = fetch(cache, 6.0535, 80.2210);
+
+        assertTrue(colombo.isFile());
+        assertFalse(kandy.isFile());
+        assertTrue(galle.isFile());
+        assertEquals(1, cache.getStats().evictions);
+        assertEquals(3, requests.get());
+    }
+
+    @Test
+    public void failedDownload_isNotCached() throws Exception {
+        MapPreviewCache cache = newCache(1 << 20);
+        status = 500;
+        try {
+            fetch(cache, 6.9271, 79.8612);
+            fail("Expected an IOException");
+        } catch (IOException expected) {
+            // The server error surfaces to the caller
+        }
+        assertEquals(0, cacheDir.listFiles().length);
+
+        status = 200;
+        assertTrue(fetch(cache, 6.9271, 79.8612).isFile());
+        assertEquals(2, requests.get());
+        assertEquals(Arrays.asList(), Arrays.asList(cacheDir.list((dir, name) -> name.endsWith(".tmp"))));
+    }
+}
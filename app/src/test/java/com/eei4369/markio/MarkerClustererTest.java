@@ -0,0 +1,125 @@
+package com.eei4369.markio;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for MarkerClusterer.
+ */
+public class MarkerClustererTest {
+
+    private static final double CELL_DP = 64;
+
+    private static MarkerClusterer clustererFor(double[][] points) {
+        long[] ids = new long[points.length];
+        double[] lats = new double[points.length];
+        double[] lons = new double[points.length];
+        for (int i = 0; i < points.length; i++) {
+            ids[i] = i + 1;
+            lats[i] = points[i][0];
+            lons[i] = points[i][1];
+        }
+        MarkerClusterer clusterer = new MarkerClusterer(CELL_DP);
+        clusterer.setPoints(ids, lats, lons);
+        return clusterer;
+    }
+
+    private static int totalSize(List<MarkerClusterer.Cluster> clusters) {
+        int total = 0;
+        for (MarkerClusterer.Cluster cluster : clusters) total += cluster.size;
+        return total;
+    }
+
+    @Test
+    public void nearbyPoints_mergeWhenZoomedOut_andSplitWhenZoomedIn() {
+        // Three spots in Colombo (two of them 11 m apart) and one in Kandy
+        MarkerClusterer clusterer = clustererFor(new double[][]{
+                {6.9271, 79.8612}, {6.9272, 79.8613}, {6.9350, 79.8500}, {7.2906, 80.6337}
+        });
+
+        List<MarkerClusterer.Cluster> country = clusterer.cluster(5, 5, 79, 10, 82);
+        assertEquals(1, country.size());
+        assertEquals(4, totalSize(country));
+
+        List<MarkerClusterer.Cluster> region = clusterer.cluster(10, 5, 79, 10, 82);
+        assertEquals(2, region.size()); // Colombo and Kandy
+        assertEquals(4, totalSize(region));
+
+        // At zoom 20 a cell is under 10 m wide, narrower than the 11 m between the two closest points
+        List<MarkerClusterer.Cluster> street = clusterer.cluster(20, 6.9, 79.8, 7.0, 79.9);
+        assertEquals(3, street.size());
+        assertEquals(3, totalSize(street)); // Kandy is outside the viewport
+    }
+
+    @Test
+    public void singlePoint_keepsItsExactPositionAndId() {
+        MarkerClusterer clusterer = clustererFor(new double[][]{{51.5007, -0.1246}});
+        List<MarkerClusterer.Cluster> clusters = clusterer.cluster(12, 51, -1, 52, 1);
+        assertEquals(1, clusters.size());
+        MarkerClusterer.Cluster cluster = clusters.get(0);
+        assertEquals(1, cluster.size);
+        assertEquals(1, cluster.firstId);
+        assertEquals(51.5007, cluster.latitude, 0);
+        assertEquals(-0.1246, cluster.longitude, 0);
+    }
+
+    @Test
+    public void clusterCenter_isInsideItsPoints() {
+        MarkerClusterer clusterer = clustererFor(new double[][]{{10.0, 20.0}, {10.002, 20.002}});
+        List<MarkerClusterer.Cluster> clusters = clusterer.cluster(10, 9, 19, 11, 21);
+        assertEquals(1, clusters.size());
+        assertEquals(10.001, clusters.get(0).latitude, 1e-4);
+        assertEquals(20.001, clusters.get(0).longitude, 1e-4);
+    }
+
+    @Test
+    public void viewportAcrossAntimeridian_includesBothSides() {
+        MarkerClusterer clusterer = clustererFor(new double[][]{{-17.7, 179.9}, {-17.7, -179.9}, {-17.7, 0}});
+        List<MarkerClusterer.Cluster> clusters = clusterer.cluster(12, -18, 179.5, -17, -179.5);
+        assertEquals(2, totalSize(clusters));
+    }
+
+    @Test
+    public void clusterKeys_areStableWhilePanningAtOneZoomLevel() {
+        MarkerClusterer clusterer = clustererFor(new double[][]{{40.0, -74.0}, {40.001, -74.001}});
+        long key = clusterer.cluster(11, 39, -75, 41, -73).get(0).key;
+        assertEquals(key, clusterer.cluster(11.6, 39.5, -74.5, 40.5, -73.5).get(0).key);
+    }
+
+    @Test
+    public void fiftyThousandPoints_clusterWithinOneFrame() {
+        Random random = new Random(42);
+        int n = 50_000;
+        long[] ids = new long[n];
+        double[] lats = new double[n];
+        double[] lons = new double[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = i;
+            lats[i] = 5.9 + random.nextDouble() * 4; // Spread over Sri Lanka
+            lons[i] = 79.6 + random.nextDouble() * 2.3;
+        }
+        MarkerClusterer clusterer = new MarkerClusterer(CELL_DP);
+        clusterer.setPoints(ids, lats, lons);
+
+        // Simulated camera moves from country view down to city view; medians ignore JIT warm-up
+        long[] nanos = new long[60];
+        for (int i = 0; i < nanos.length; i++) {
+            double zoom = 7 + (i % 8);
+            double span = 4 / Math.pow(2, i % 8);
+            long start = System.nanoTime();
+            List<MarkerClusterer.Cluster> clusters = clusterer.cluster(zoom, 7.9 - span, 80.75 - span, 7.9 + span, 80.75 + span);
+            nanos[i] = System.nanoTime() - start;
+            assertFalse(clusters.isEmpty());
+        }
+        assertEquals(n, totalSize(clusterer.cluster(7, 5, 79, 10, 82)));
+
+        Arrays.sort(nanos);
+        long medianMillis = nanos[nanos.length / 2] / 1_000_000;
+        assertTrue("median cluster() took " + medianMillis + " ms", medianMillis < 16);
+    }
+}
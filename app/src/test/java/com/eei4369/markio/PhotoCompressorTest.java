@@ -0,0 +1,50 @@
+package com.eei4369.markio;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for PhotoCompressor's sizing.
+ */
+public class PhotoCompressorTest {
+
+    @Test
+    public void sampleSize_bringsTheLongerSideWithinTheTarget() {
+        // 4000 / 2 = 2000 is still above 1024; 4000 / 4 = 1000 is the first within it
+        assertEquals(4, PhotoCompressor.sampleSize(4000, 3000, 1024));
+        assertEquals(4, PhotoCompressor.sampleSize(3000, 8192, 2048));
+        assertEquals(1, PhotoCompressor.sampleSize(1200, 900, 2048));
+    }
+
+    @Test
+    public void sampleSize_neverDecodesACameraPhotoAtFullSizeByDefault() {
+        int sample = PhotoCompressor.sampleSize(4000, 3000, PhotoCompressor.DEFAULT_MAX_DIMENSION);
+        assertEquals(2, sample);
+        // Decoded straight to the stored size, so no second scaling pass either
+        assertArrayEquals(new int[]{2000, 1500}, PhotoCompressor.targetSize(4000 / sample, 3000 / sample,
+                PhotoCompressor.DEFAULT_MAX_DIMENSION));
+    }
+
+    @Test
+    public void sampleSize_accountsForTheDecoderRoundingUp() {
+        // 4097 / 2 decodes to 2049 px, one over the target
+        assertEquals(4, PhotoCompressor.sampleSize(4097, 3000, 2048));
+    }
+
+    @Test
+    public void targetSize_scalesTheLongerSideAndKeepsTheAspectRatio() {
+        assertArrayEquals(new int[]{2048, 1536}, PhotoCompressor.targetSize(4000, 3000, 2048));
+        assertArrayEquals(new int[]{1152, 2048}, PhotoCompressor.targetSize(2250, 4000, 2048));
+    }
+
+    @Test
+    public void targetSize_neverEnlarges() {
+        assertArrayEquals(new int[]{800, 600}, PhotoCompressor.targetSize(800, 600, 2048));
+    }
+
+    @Test
+    public void targetSize_keepsThinImagesAtLeastOnePixelWide() {
+        assertArrayEquals(new int[]{2048, 1}, PhotoCompressor.targetSize(10000, 2, 2048));
+    }
+}
@@ -0,0 +1,68 @@
+package com.eei4369.markio;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for ReadablePage.extract.
+ */
+public class ReadablePageTest {
+
+    private static final String PAGE = "https://example.com/blog/post";
+
+    private static String words(int count) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) text.append("lorem ");
+        return text.toString();
+    }
+
+    @Test
+    public void extract_keepsArticleAndDropsPageChrome() {
+        String html = "<html><head><title>Hiking &amp; Camping</title><script>track()</script></head><body>" +
+                "<nav><a href=\"/\">Home</a></nav>" +
+                "<article class=\"post\"><h2 id=\"x\" onclick=\"evil()\">Trail notes</h2>" +
+                "<p style=\"color:red\">Pack water. " + words(50) + "</p>" +
+                "<img src=\"/map.png\" alt=\"Trail map\"><p>See <a href=\"../gear\">gear</a>.</p></article>" +
+                "<footer>Copyright</footer></body></html>";
+
+        ReadablePage page = ReadablePage.extract(html, PAGE);
+
+        assertEquals("Hiking & Camping", page.title);
+        assertTrue(page.html, page.html.contains("<h2>Trail notes</h2>"));
+        assertTrue(page.html, page.html.contains("<a href=\"https://example.com/gear\">gear</a>"));
+        assertFalse(page.html, page.html.contains("track()"));
+        assertFalse(page.html, page.html.contains("evil"));
+        assertFalse(page.html, page.html.contains("Home"));
+        assertFalse(page.html, page.html.contains("Copyright"));
+        assertFalse(page.html, page.html.contains("<img"));
+        assertTrue(page.text, page.text.startsWith("Trail notes\n\nPack water."));
+        assertTrue(page.text, page.text.contains("[Trail map]"));
+    }
+
+    @Test
+    public void extract_fallsBackToBodyForShortArticles() {
+        String html = "<body><article>Teaser</article><div><p>The full story. " + words(60) + "</p></div></body>";
+
+        ReadablePage page = ReadablePage.extract(html, PAGE);
+
+        assertTrue(page.text, page.text.contains("The full story."));
+        assertEquals(PAGE, page.title); // No title element
+    }
+
+    @Test
+    public void extract_closesUnbalancedTagsAndBlocksNetworkLoads() {
+        ReadablePage page = ReadablePage.extract("<body><ul><li><em>one<li>two</body>", PAGE);
+
+        assertTrue(page.html, page.html.endsWith("</em></li><li>two</li></ul></body></html>"));
+        assertTrue(page.html.contains("default-src 'none'"));
+        assertEquals("one\ntwo", page.text.replaceAll("\n+", "\n"));
+    }
+
+    @Test
+    public void extract_dropsScriptLinks() {
+        ReadablePage page = ReadablePage.extract("<p><a href=\"javascript:alert(1)\">click</a></p>", PAGE);
+
+        assertTrue(page.html, page.html.contains("<a>click</a>"));
+    }
+}
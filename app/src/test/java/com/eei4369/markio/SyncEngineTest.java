@@ -0,0 +1,302 @@
+package com.eei4369.markio;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for SyncEngine and InMemorySyncServer, with devices whose stores are kept in
+ * memory and follow the same rules as BookmarkSyncStore.
+ */
+public class SyncEngineTest {
+
+    // A device's bookmarks and change log.
+    private static final class Device implements SyncStore {
+        final String id;
+        final Map<String, SyncChange> rows = new HashMap<>(); // Latest state by sync ID, tombstones included
+        final TreeMap<Long, String> changeLog = new TreeMap<>(); // Local changes not replaced by pulled ones
+        long seq;
+        long pushCheckpoint;
+        long pullCheckpoint;
+
+        Device(String id) {
+            this.id = id;
+        }
+
+        void edit(String syncId, String title) {
+            write(syncId, false, Collections.<String, Object>singletonMap("title", title));
+        }
+
+        void delete(String syncId) {
+            write(syncId, true, Collections.<String, Object>emptyMap());
+        }
+
+        private void write(String syncId, boolean deleted, Map<String, Object> values) {
+            SyncChange old = rows.get(syncId);
+            if (old != null) changeLog.remove(old.seq);
+            SyncChange change = new SyncChange(syncId, old != null ? old.version + 1 : 1, id, deleted, values, ++seq);
+            rows.put(syncId, change);
+            changeLog.put(change.seq, syncId);
+        }
+
+        String title(String syncId) {
+            SyncChange row = rows.get(syncId);
+            return row == null || row.deleted ? null : (String) row.values.get("title");
+        }
+
+        Map<String, String> titles() {
+            Map<String, String> titles = new HashMap<>();
+            for (String syncId : rows.keySet()) {
+                if (title(syncId) != null) titles.put(syncId, title(syncId));
+            }
+            return titles;
+        }
+
+        @Override
+        public String getDeviceId() {
+            return id;
+        }
+
+        @Override
+        public List<SyncChange> loadChanges(long afterSeq, int limit) {
+            List<SyncChange> changes = new ArrayList<>();
+            for (String syncId : changeLog.tailMap(afterSeq, false).values()) {
+                if (changes.size() == limit) break;
+                changes.add(rows.get(syncId));
+            }
+            return changes;
+        }
+
+        @Override
+        public long getPushCheckpoint() {
+            return pushCheckpoint;
+        }
+
+        @Override
+        public void setPushCheckpoint(long seq) {
+            pushCheckpoint = seq;
+        }
+
+        @Override
+        public long getPullCheckpoint() {
+            return pullCheckpoint;
+        }
+
+        @Override
+        public int apply(List<SyncChange> changes, long pullCheckpoint) {
+            int applied = 0;
+            for (SyncChange change : changes) {
+                SyncChange old = rows.get(change.syncId);
+                if (!change.winsOver(old)) continue;
+                if (old != null) changeLog.remove(old.seq);
+                rows.put(change.syncId, change.withSeq(0)); // Not logged, so not pushed back
+                applied++;
+            }
+            this.pullCheckpoint = pullCheckpoint;
+            return applied;
+        }
+    }
+
+    // Counts calls, and fails the call numbered failAt.
+    private static final class CountingTransport implements SyncTransport {
+        final SyncTransport server;
+        int pushes;
+        int pulls;
+        int changesSent;
+        int changesReceived;
+        int failAt = -1;
+
+        CountingTransport(SyncTransport server) {
+            this.server = server;
+        }
+
+        private void call() throws IOException {
+            if (pushes + pulls == failAt) throw new IOException("Connection lost");
+        }
+
+        @Override
+        public void push(List<SyncChange> changes) throws IOException {
+            call();
+            pushes++;
+            changesSent += changes.size();
+            server.push(changes);
+        }
+
+        @Override
+        public Page pull(long afterSeq, int limit, String deviceId) throws IOException {
+            call();
+            pulls++;
+            Page page = server.pull(afterSeq, limit, deviceId);
+            changesReceived += page.changes.size();
+            return page;
+        }
+    }
+
+    private static SyncEngine.Result sync(Device device, SyncTransport transport) throws IOException {
+        return new SyncEngine(device, transport, 50).sync();
+    }
+
+    @Test
+    public void changes_reachOtherDevices_includingDeletions() throws IOException {
+        InMemorySyncServer server = new InMemorySyncServer();
+        Device phone = new Device("phone");
+        Device tablet = new Device("tablet");
+        phone.edit("a", "Trail map");
+        phone.edit("b", "Recipe");
+
+        sync(phone, server);
+        sync(tablet, server);
+        assertEquals(phone.titles(), tablet.titles());
+
+        tablet.edit("a", "Trail map, 2nd edition");
+        tablet.delete("b");
+        sync(tablet, server);
+        sync(phone, server);
+
+        assertEquals("Trail map, 2nd edition", phone.title("a"));
+        assertNull(phone.title("b"));
+        assertEquals(1, server.size());
+    }
+
+    @Test
+    public void unchangedBookmarks_areNotSentAgain() throws IOException {
+        InMemorySyncServer server = new InMemorySyncServer();
+        Device phone = new Device("phone");
+        Device tablet = new Device("tablet");
+        for (int i = 0; i < 120; i++) phone.edit("b" + i, "Bookmark " + i);
+        sync(phone, server);
+        sync(tablet, server);
+
+        phone.edit("b7", "Renamed");
+        CountingTransport phoneTransport = new CountingTransport(server);
+        CountingTransport tabletTransport = new CountingTransport(server);
+        sync(phone, phoneTransport);
+        SyncEngine.Result result = sync(tablet, tabletTransport);
+
+        assertEquals(1, phoneTransport.changesSent);
+        assertEquals(0, phoneTransport.changesReceived); // Its own changes are not echoed back
+        assertEquals(1, tabletTransport.changesReceived);
+        assertEquals(1, result.applied);
+        assertEquals(0, tabletTransport.changesSent); // What it pulled is not pushed back
+        assertEquals("Renamed", tablet.title("b7"));
+    }
+
+    @Test
+    public void concurrentEdits_convergeOnTheSameWinner() throws IOException {
+        InMemorySyncServer server = new InMemorySyncServer();
+        Device phone = new Device("phone");
+        Device tablet = new Device("tablet");
+        phone.edit("a", "Original");
+        phone.edit("c", "Original");
+        sync(phone, server);
+        sync(tablet, server);
+
+        // Same version on both: the device ID breaks the tie, "tablet" > "phone"
+        phone.edit("a", "Phone's title");
+        tablet.edit("a", "Tablet's title");
+        // More edits make a higher version, which wins whoever syncs last
+        phone.edit("c", "Phone's first");
+        phone.edit("c", "Phone's second");
+        tablet.edit("c", "Tablet's title");
+        // A deletion is a change like any other
+        tablet.delete("a");
+
+        sync(tablet, server);
+        sync(phone, server);
+        sync(tablet, server);
+
+        assertEquals(phone.titles(), tablet.titles());
+        assertNull(phone.title("a")); // The tablet's deletion is version 3, after its edit
+        assertEquals("Phone's second", tablet.title("c"));
+    }
+
+    @Test
+    public void conflictWinner_doesNotDependOnSyncOrder() throws IOException {
+        String[] winners = new String[2];
+        for (int order = 0; order < 2; order++) {
+            InMemorySyncServer server = new InMemorySyncServer();
+            Device phone = new Device("phone");
+            Device tablet = new Device("tablet");
+            phone.edit("a", "Original");
+            sync(phone, server);
+            sync(tablet, server);
+            phone.edit("a", "Phone");
+            tablet.edit("a", "Tablet");
+
+            Device first = order == 0 ? phone : tablet;
+            Device second = order == 0 ? tablet : phone;
+            sync(first, server);
+            sync(second, server);
+            sync(first, server);
+            assertEquals(first.titles(), second.titles());
+            winners[order] = phone.title("a");
+        }
+        assertEquals("Tablet", winners[0]);
+        assertEquals(winners[0], winners[1]);
+    }
+
+    @Test
+    public void interruptedSync_resumesWithoutLosingChanges() throws IOException {
+        InMemorySyncServer server = new InMemorySyncServer();
+        Device phone = new Device("phone");
+        Device tablet = new Device("tablet");
+        for (int i = 0; i < 500; i++) phone.edit("b" + i, "Bookmark " + i);
+
+        CountingTransport flaky = new CountingTransport(server);
+        flaky.failAt = 4; // One pull, then three pushes of 50
+        try {
+            sync(phone, flaky);
+            fail("Expected the transport to fail");
+        } catch (IOException expected) {
+            // The three batches sent before the failure stay sent
+        }
+        assertEquals(150, phone.getPushCheckpoint());
+
+        CountingTransport retry = new CountingTransport(server);
+        sync(phone, retry);
+        assertEquals(350, retry.changesSent);
+
+        sync(tablet, server);
+        assertEquals(phone.titles(), tablet.titles());
+        assertEquals(500, tablet.titles().size());
+    }
+
+    @Test
+    public void tenThousandChanges_syncInBatches() throws IOException {
+        int count = 10_000;
+        int batchSize = SyncEngine.DEFAULT_BATCH_SIZE;
+        InMemorySyncServer server = new InMemorySyncServer();
+        Device phone = new Device("phone");
+        Device tablet = new Device("tablet");
+        for (int i = 0; i < count; i++) {
+            Map<String, Object> values = new HashMap<>();
+            values.put("title", "Bookmark " + i);
+            values.put("timestamp", (long) i);
+            phone.write("b" + i, false, values);
+        }
+
+        CountingTransport phoneTransport = new CountingTransport(server);
+        CountingTransport tabletTransport = new CountingTransport(server);
+        long start = System.nanoTime();
+        new SyncEngine(phone, phoneTransport, batchSize).sync();
+        SyncEngine.Result result = new SyncEngine(tablet, tabletTransport, batchSize).sync();
+        long elapsedMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        assertEquals(count, result.applied);
+        assertEquals(phone.titles(), tablet.titles());
+        assertEquals(count / batchSize, phoneTransport.pushes);
+        assertTrue("pulls " + tabletTransport.pulls, tabletTransport.pulls <= count / batchSize + 1);
+        System.out.println("SyncEngine: " + count + " changes pushed and pulled in " + elapsedMillis + " ms, " +
+                (2L * count * 1000 / elapsedMillis) + " changes/s, " +
+                (phoneTransport.pushes + phoneTransport.pulls + tabletTransport.pushes + tabletTransport.pulls) + " round trips");
+    }
+}
@@ -0,0 +1,75 @@
+package com.eei4369.markio;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for TagIndex.
+ */
+public class TagIndexTest {
+
+    private static TagIndex indexOf(Object... nameCountPairs) {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (int i = 0; i < nameCountPairs.length; i += 2) {
+            counts.put((String) nameCountPairs[i], ((Number) nameCountPairs[i + 1]).longValue());
+        }
+        return new TagIndex(counts);
+    }
+
+    @Test
+    public void complete_returnsPrefixMatchesMostUsedFirst() {
+        TagIndex index = indexOf("android", 12, "and", 1, "animals", 5, "art", 7, "andes", 5, "beach", 30);
+        assertEquals(Arrays.asList("android", "andes", "and"), index.complete("and", 5));
+        assertEquals(Arrays.asList("android", "art"), index.complete("a", 2));
+        assertEquals(Arrays.asList("beach", "android", "art", "andes"), index.complete("", 4));
+        assertEquals(Collections.emptyList(), index.complete("zoo", 5));
+    }
+
+    @Test
+    public void complete_breaksTiesAlphabetically() {
+        TagIndex index = indexOf("work", 3, "weekend", 3, "wishlist", 3);
+        assertEquals(Arrays.asList("weekend", "wishlist"), index.complete("w", 2));
+    }
+
+    @Test
+    public void update_addsNewTagsAndDropsUnusedOnes() {
+        TagIndex index = indexOf("travel", 1, "food", 2);
+        index.update(new HashSet<>(Arrays.asList("travel", "food")), new HashSet<>(Arrays.asList("food", "trains")));
+
+        assertEquals(0, index.count("travel"));
+        assertEquals(2, index.count("food"));
+        assertEquals(1, index.count("trains"));
+        assertEquals(Collections.singletonList("trains"), index.complete("tra", 5));
+
+        index.update(new HashSet<>(Arrays.asList("food", "trains")), Collections.emptySet()); // Deleted
+        assertEquals(1, index.count("food"));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void tenThousandTags_completeInMicroseconds() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (int i = 0; i < 10_000; i++) {
+            counts.put("tag" + Integer.toString(i, 36), (long) (i % 97) + 1);
+        }
+        TagIndex index = new TagIndex(counts);
+
+        long[] nanos = new long[200];
+        for (int i = 0; i < nanos.length; i++) {
+            String prefix = i % 2 == 0 ? "tag" : "tag" + Integer.toString(i % 36, 36);
+            long start = System.nanoTime();
+            assertFalse(index.complete(prefix, 8).isEmpty());
+            nanos[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(nanos);
+        long medianMicros = nanos[nanos.length / 2] / 1000;
+        assertTrue("median complete() took " + medianMicros + " us", medianMicros < 1000);
+    }
+}
@@ -0,0 +1,38 @@
+package com.eei4369.markio;
+
+import com.bumptech.glide.load.DataSource;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for ThumbnailLoader's hit counters.
+ */
+public class ThumbnailLoaderTest {
+
+    @Test
+    public void noLoads_haveNoHitRate() {
+        ThumbnailLoader.Stats stats = new ThumbnailLoader.Counters().snapshot();
+        assertEquals(0, stats.memoryHits + stats.diskHits + stats.decodes + stats.failures);
+        assertEquals(0, stats.hitRate(), 0);
+    }
+
+    @Test
+    public void loads_areCountedBySource() {
+        ThumbnailLoader.Counters counters = new ThumbnailLoader.Counters();
+        counters.recordReady(DataSource.MEMORY_CACHE);
+        counters.recordReady(DataSource.MEMORY_CACHE);
+        counters.recordReady(DataSource.RESOURCE_DISK_CACHE);
+        counters.recordReady(DataSource.DATA_DISK_CACHE);
+        counters.recordReady(DataSource.LOCAL);
+        counters.recordFailure();
+
+        ThumbnailLoader.Stats stats = counters.snapshot();
+        assertEquals(2, stats.memoryHits);
+        assertEquals(2, stats.diskHits);
+        assertEquals(1, stats.decodes);
+        assertEquals(1, stats.failures);
+        assertEquals(0.8, stats.hitRate(), 1e-9); // Failures are not loads
+    }
+}
@@ -0,0 +1,44 @@
+package com.eei4369.markio;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for UrlCanonicalizer.
+ */
+public class UrlCanonicalizerTest {
+
+    @Test
+    public void samePageSavedDifferently_isOneCanonicalForm() {
+        String expected = "example.com/blog/post";
+        assertEquals(expected, UrlCanonicalizer.canonicalize("https://www.example.com/blog/post/"));
+        assertEquals(expected, UrlCanonicalizer.canonicalize("http://EXAMPLE.com:80/blog//post"));
+        assertEquals(expected, UrlCanonicalizer.canonicalize("example.com/blog/./post#comments"));
+        assertEquals(expected, UrlCanonicalizer.canonicalize("  HTTPS://Www.Example.Com:443/blog/%70ost "));
+        assertEquals(expected, UrlCanonicalizer.canonicalize("https://example.com/blog/post?utm_source=x&utm_medium=y&fbclid=z"));
+    }
+
+    @Test
+    public void query_isSortedByNameKeepingRepeatedValuesInOrder() {
+        assertEquals("shop.lk/search?a=2&q=tea&tag=b&tag=a",
+                UrlCanonicalizer.canonicalize("https://shop.lk/search?tag=b&q=tea&gclid=1&tag=a&&a=2"));
+    }
+
+    @Test
+    public void meaningfulDifferences_areKept() {
+        assertNotEquals(UrlCanonicalizer.canonicalize("https://example.com/a"), UrlCanonicalizer.canonicalize("https://example.com/A"));
+        assertNotEquals(UrlCanonicalizer.canonicalize("https://example.com/a?id=1"), UrlCanonicalizer.canonicalize("https://example.com/a?id=2"));
+        assertNotEquals(UrlCanonicalizer.canonicalize("https://example.com:8080/"), UrlCanonicalizer.canonicalize("https://example.com/"));
+        assertNotEquals(UrlCanonicalizer.canonicalize("https://app.io/#/item/1"), UrlCanonicalizer.canonicalize("https://app.io/#/item/2"));
+        assertEquals("example.com/a%2Fb", UrlCanonicalizer.canonicalize("https://example.com/a%2fb"));
+    }
+
+    @Test
+    public void hash_matchesForEqualCanonicalForms() {
+        assertEquals(UrlCanonicalizer.hash("www.example.com/"), UrlCanonicalizer.hash("https://example.com"));
+        assertNotEquals(UrlCanonicalizer.hash("example.com/a"), UrlCanonicalizer.hash("example.com/b"));
+        assertNull(UrlCanonicalizer.hash("   "));
+        assertNull(UrlCanonicalizer.canonicalize(null));
+    }
+}